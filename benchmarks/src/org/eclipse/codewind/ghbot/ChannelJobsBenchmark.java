@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.githubapimirror.client.api.GHIssue;
+import com.githubapimirror.client.api.GHRepository;
+
+/**
+ * Rendering of the Slack/Mattermost message for an issue, which happens for
+ * every new issue and every issue update (see ChannelJobs). getAreaLogo and
+ * containsWholeWord are measured separately, as they are the bulk of the work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChannelJobsBenchmark {
+
+	private static final int ISSUES = 256;
+
+	@Param({ "true", "false" })
+	boolean forSlack;
+
+	private GHRepository[] repos;
+
+	private GHIssue[] issues;
+
+	/** GHIssue.getReporter() looks up the user, so the reporter logins are kept here. */
+	private String[] reporters;
+
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		SyntheticIssues si = new SyntheticIssues(1);
+
+		repos = new GHRepository[ISSUES];
+		issues = new GHIssue[ISSUES];
+		reporters = new String[ISSUES];
+		for (int x = 0; x < ISSUES; x++) {
+			repos[x] = si.repository(si.repoName());
+			reporters[x] = si.login();
+			issues[x] = si.issue(1000 + x, reporters[x]);
+		}
+	}
+
+	@Benchmark
+	public String generateMessageFromIssue() {
+		int index = nextIndex();
+		return ChannelJobs.generateMessageFromIssue(repos[index], issues[index], reporters[index], forSlack);
+	}
+
+	@Benchmark
+	public Optional<String> getAreaLogo() {
+		int index = nextIndex();
+		return ChannelJobs.getAreaLogo(issues[index], forSlack, repos[index].getName());
+	}
+
+	@Benchmark
+	public boolean containsWholeWord() {
+		return ChannelJobs.containsWholeWord(issues[nextIndex()].getTitle(), "vscode");
+	}
+
+	private int nextIndex() {
+		int result = next;
+		next = (next + 1) % ISSUES;
+		return result;
+	}
+
+}
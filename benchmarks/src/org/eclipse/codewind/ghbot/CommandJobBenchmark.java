@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.ghbot.CommandJob.IssueState;
+import org.eclipse.egit.github.core.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Command parsing of issue descriptions and comments: containsValidCommand is
+ * called on every new comment, and processBody on those that contain a command.
+ * 'commandPercent' is the share of comment bodies that contain a command.
+ *
+ * processBody logs each command it processes: stdout is discarded during the
+ * benchmark, but the file log (see FILE_LOGGER_PATH) is still written, as in
+ * the bot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandJobBenchmark {
+
+	private static final int BODIES = 256;
+
+	@Param({ "5", "50" })
+	int commandPercent;
+
+	private String[] bodies;
+
+	private List<List<String>> labels;
+
+	private User actingUser;
+
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		SyntheticIssues si = new SyntheticIssues(1);
+
+		bodies = new String[BODIES];
+		labels = new ArrayList<>(BODIES);
+		for (int x = 0; x < BODIES; x++) {
+			bodies[x] = si.commentBody(commandPercent);
+			labels.add(si.labels());
+		}
+
+		actingUser = new User().setLogin("benchmark-user");
+
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				/* discard */
+			}
+		}));
+	}
+
+	@Benchmark
+	public boolean containsValidCommand() {
+		return CommandJob.containsValidCommand(bodies[nextIndex()]);
+	}
+
+	@Benchmark
+	public Optional<?> processBody() throws IOException {
+		int index = nextIndex();
+
+		IssueState state = new IssueState(new ArrayList<>(labels.get(index)), new ArrayList<>(), true,
+				new ArrayList<>());
+
+		return CommandJob.processBody(bodies[index], state, actingUser, null, "benchmark", null);
+	}
+
+	private int nextIndex() {
+		int result = next;
+		next = (next + 1) % BODIES;
+		return result;
+	}
+
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.githubapimirror.client.api.GHConnectInfo;
+import com.githubapimirror.client.api.GHIssue;
+import com.githubapimirror.client.api.GHRepository;
+import com.githubapimirror.shared.json.IssueJson;
+import com.githubapimirror.shared.json.RepositoryJson;
+
+/**
+ * Generates issue titles, label sets and comment bodies that resemble those of
+ * the eclipse/codewind-* repositories: titles mention the IDEs, CLI and
+ * product areas (which drive getAreaLogo), labels are drawn from the
+ * area/kind/priority sets, and most comments are prose, stack traces or
+ * logs, with an occasional bot command.
+ *
+ * A fixed seed is used, so that each benchmark run sees the same inputs.
+ */
+public class SyntheticIssues {
+
+	private static final String[] REPOS = { "codewind", "codewind-vscode", "codewind-eclipse", "codewind-intellij",
+			"codewind-docs", "codewind-installer", "codewind-che-plugin", "codewind-openapi-eclipse" };
+
+	private static final String[] TITLE_WORDS = { "project", "build", "fails", "when", "the", "a", "in", "on",
+			"after", "restart", "container", "deploy", "Docker", "workspace", "is", "not", "shown", "error", "debug",
+			"mode", "cannot", "connect", "to", "remote", "template", "source", "sync", "slow", "Kubernetes", "pod",
+			"log", "missing", "update", "loadtest", "should", "support", "new", "Java", "Node.js", "Spring", "Swift",
+			"Python", "image", "push", "registry", "validation", "timeout", "[test]", "(regression)", "UI",
+			"status" };
+
+	private static final String[] TITLE_AREA_WORDS = { "VS Code", "VSCode", "IntelliJ", "Eclipse", "Che", "cwctl",
+			"Appsody", "odo", "OpenAPI", "performance", "metrics", "Docs:", "Design:" };
+
+	private static final String[] AREA_LABELS = { "area/appsody", "area/iterative-dev", "area/openapi",
+			"area/portal", "area/eclipse-ide", "area/intellij-ide", "area/vscode-ide", "area/docs", "area/releng",
+			"area/website", "area/design", "area/performance" };
+
+	private static final String[] KIND_LABELS = { "kind/bug", "kind/enhancement", "kind/question", "kind/test" };
+
+	private static final String[] PRIORITY_LABELS = { "priority/hot", "priority/stopship", "priority/next-release" };
+
+	private static final String[] OTHER_LABELS = { "tech-topic", "good-first-issue", "wontfix", "svt", "epic",
+			"hot" };
+
+	private static final String[] PROSE_LINES = {
+			"Steps to reproduce:",
+			"1. Create a new Node.js Express project from the default template",
+			"2. Wait for the build to complete, then change a file in the source folder",
+			"3. The project never leaves the 'Building' state",
+			"Expected: the project should rebuild and restart within a few seconds.",
+			"I was able to reproduce this on both Windows 10 and macOS Catalina.",
+			"Thanks for the fix, I verified it in the latest nightly build.",
+			"This looks like it might be related to the file watcher changes from last sprint.",
+			"@jgwest can you take a look at this when you get a chance?",
+			"Closing as this is a duplicate of the other issue.",
+			"Workaround: restart the local Codewind containers with `cwctl stop` and `cwctl start`." };
+
+	private static final String[] LOG_LINES = {
+			"[INFO] Building project 'node1' (id: 7f5e2b90-1d3c-11ea-9a54-2b2a1ed4b6b1)",
+			"    at java.base/java.lang.Thread.run(Thread.java:834)",
+			"    at org.eclipse.codewind.core.internal.ProcessHelper.waitForProcess(ProcessHelper.java:112)",
+			"Error: connect ECONNREFUSED 127.0.0.1:10000",
+			"2020-02-11T15:32:04.123Z pfe: Project validation failed: missing Dockerfile" };
+
+	private static final String[] COMMANDS = { "/kind bug", "/area iterative-dev", "/priority hot",
+			"/remove-priority hot", "/pipeline Verify", "/release 0.9.0", "/tech-topic", "/svt", "/remove-svt",
+			"/close", "/reopen", "/kind enhancement", "/area vscode-ide", "/remove-area vscode-ide" };
+
+	private final Random random;
+
+	public SyntheticIssues(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public String repoName() {
+		return pick(REPOS);
+	}
+
+	public String title() {
+		StringBuilder sb = new StringBuilder();
+		int words = 4 + random.nextInt(10);
+		for (int x = 0; x < words; x++) {
+			if (x > 0) {
+				sb.append(" ");
+			}
+			// About a quarter of titles mention an area-specific word
+			sb.append(random.nextInt(words * 4) == 0 ? pick(TITLE_AREA_WORDS) : pick(TITLE_WORDS));
+		}
+		return sb.toString();
+	}
+
+	public List<String> labels() {
+		List<String> result = new ArrayList<>();
+
+		if (random.nextInt(4) != 0) {
+			result.add(pick(AREA_LABELS));
+		}
+		if (random.nextInt(3) != 0) {
+			result.add(pick(KIND_LABELS));
+		}
+		if (random.nextInt(5) == 0) {
+			result.add(pick(PRIORITY_LABELS));
+		}
+		if (random.nextInt(6) == 0) {
+			result.add(pick(OTHER_LABELS));
+		}
+		return result;
+	}
+
+	/**
+	 * A comment body; 'commandPercent' is the likelihood that the comment contains
+	 * one or more bot commands.
+	 */
+	public String commentBody(int commandPercent) {
+		StringBuilder sb = new StringBuilder();
+
+		boolean commands = random.nextInt(100) < commandPercent;
+
+		int lines = 2 + random.nextInt(12);
+		for (int x = 0; x < lines; x++) {
+			int type = random.nextInt(10);
+			if (type < 6) {
+				sb.append(pick(PROSE_LINES));
+			} else if (type < 9) {
+				sb.append(pick(LOG_LINES));
+			} else {
+				sb.append("/some/path/in/a/log/message: not a command");
+			}
+			sb.append(random.nextBoolean() ? "\n" : "\r\n");
+		}
+
+		if (commands) {
+			int count = 1 + random.nextInt(3);
+			for (int x = 0; x < count; x++) {
+				sb.append(pick(COMMANDS)).append("\n");
+			}
+		}
+
+		return sb.toString();
+	}
+
+	public GHRepository repository(String name) {
+		RepositoryJson json = new RepositoryJson();
+		json.setName(name);
+		json.setOrgName("eclipse");
+		return new GHRepository(json, connectInfo());
+	}
+
+	public String login() {
+		return "user" + random.nextInt(200);
+	}
+
+	public GHIssue issue(int number, String reporterLogin) {
+		IssueJson json = new IssueJson();
+		json.setNumber(number);
+		json.setParentRepo("eclipse/" + repoName());
+		json.setTitle(title());
+		json.setLabels(labels());
+		json.setAssignees(new ArrayList<>());
+		json.setBody(commentBody(10));
+		json.setHtmlUrl("https://github.com/eclipse/codewind/issues/" + number);
+		json.setReporter(reporterLogin);
+		json.setCreatedAt(new Date());
+		json.setClosed(random.nextInt(4) == 0);
+		return new GHIssue(json, connectInfo());
+	}
+
+	private static GHConnectInfo connectInfo() {
+		return new GHConnectInfo("http://localhost:1", "unused");
+	}
+
+	private String pick(String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.credentials;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of RateLimiter.delayIfNeeded() when no delay is required, which is
+ * paid before every GitHub, Mattermost and Slack request. 'eventsInWindow' is
+ * the number of actions recorded in the trailing time period, which the
+ * limiter scans on every call. The 'contended' variant calls the (shared)
+ * limiter from 4 threads, as the job threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+	@Param({ "10", "1000" })
+	int eventsInWindow;
+
+	private RateLimiter rateLimiter;
+
+	@Setup
+	public void setup() {
+		// A limit that is never reached, and a window that is longer than the benchmark
+		rateLimiter = new RateLimiter("benchmark", Integer.MAX_VALUE, 60 * 60);
+
+		for (int x = 0; x < eventsInWindow; x++) {
+			rateLimiter.signalAction();
+		}
+	}
+
+	@Benchmark
+	public void delayIfNeeded() {
+		rateLimiter.delayIfNeeded();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void delayIfNeededContended() {
+		rateLimiter.delayIfNeeded();
+	}
+
+}
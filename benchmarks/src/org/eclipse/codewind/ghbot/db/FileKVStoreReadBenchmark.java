@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Point reads of FileKVStore with and without 'mappedReads', on a database
+ * whose values are mostly timestamps, with every tenth value the size of a wait
+ * list entry, as in the bot's database. The allocation per read is reported by
+ * the gc profiler (see BenchmarkRunner).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileKVStoreReadBenchmark {
+
+	private static final int KEYS = 100_000;
+
+	@Param({ "false", "true" })
+	boolean mappedReads;
+
+	private FileKVStore store;
+
+	private String[] keys;
+
+	private final Random random = new Random(1);
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		File directory = Files.createTempDirectory("file-kv-store-jmh").toFile();
+
+		keys = new String[KEYS];
+
+		FileKVStore writer = new FileKVStore(directory);
+		for (int x = 0; x < KEYS; x++) {
+			keys[x] = "last-command-timestamp-eclipse_codewind-" + x;
+
+			if (x % 10 == 0) {
+				writer.persistString(keys[x], "{\"issueNumber\":" + x
+						+ ",\"repo\":\"codewind\",\"owner\":\"eclipse\",\"startedWaitingTimeInMsecs\":"
+						+ System.currentTimeMillis() + "}");
+			} else {
+				writer.persistString(keys[x], Long.toString(System.currentTimeMillis()));
+			}
+		}
+
+		store = new FileKVStore(directory, mappedReads);
+	}
+
+	@Benchmark
+	public Optional<String> read() {
+		return store.getString(keys[random.nextInt(KEYS)]);
+	}
+
+}
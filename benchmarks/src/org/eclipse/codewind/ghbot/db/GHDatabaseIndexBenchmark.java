@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.eclipse.codewind.ghbot.SyntheticIssues;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.githubapimirror.client.api.GHRepository;
+
+/**
+ * The per-iteration database reads of the wait list job (the wait list, and the
+ * severity of each wait list issue) as the wait list grows, comparing the
+ * in-memory indexes of GHDatabase with the previous implementation (a prefix
+ * scan that reads and parses every entry with a new ObjectMapper, then one
+ * database read per severity).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GHDatabaseIndexBenchmark {
+
+	@Param({ "10", "100", "1000", "10000" })
+	int waitListSize;
+
+	private InMemoryKVCache cache;
+
+	private GHDatabase db;
+
+	private GHRepository repo;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		repo = new SyntheticIssues(1).repository("codewind");
+
+		cache = new InMemoryKVCache(new FileKVStore(Files.createTempDirectory("gh-database-jmh").toFile()));
+
+		db = new GHDatabase(new ExpiringKVStore(cache, 0, 100));
+
+		for (int x = 0; x < waitListSize; x++) {
+			db.addToWaitList(repo, x);
+			db.setHighestIssueSeveritySeen(repo, x, "hot");
+		}
+	}
+
+	/** The previous implementation of getAllWaitList and getHighestIssueSeveritySeen */
+	@Benchmark
+	public int scan() {
+		ObjectMapper om = new ObjectMapper();
+
+		List<WaitListEntryJson> l = cache.getKeysByPrefix("wait-list-").stream()
+				.map(e -> cache.getString(e).orElse(null)).filter(e -> e != null).map(e -> {
+					try {
+						return om.readValue(e, WaitListEntryJson.class);
+					} catch (IOException e1) {
+						throw new UncheckedIOException(e1);
+					}
+				}).collect(Collectors.toList());
+
+		int found = 0;
+		for (WaitListEntryJson wlej : l) {
+			String key = "highest-issue-severity-" + repo.getOwnerName() + "_" + repo.getName() + "-"
+					+ wlej.getIssueNumber();
+			if (cache.getString(key).isPresent()) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int index() {
+		int found = 0;
+		for (WaitListEntryJson wlej : db.getAllWaitList()) {
+			if (db.getHighestIssueSeveritySeen(repo, wlej.getIssueNumber()).isPresent()) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+}
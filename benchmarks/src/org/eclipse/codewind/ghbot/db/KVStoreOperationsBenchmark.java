@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Point reads, writes and prefix scans of each persistent store type, on a
+ * database of 'processed-' and 'resource-event-' keys. Resource event lookups
+ * are usually misses, so these are measured separately from hits. The number
+ * and total size of the store's files are printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KVStoreOperationsBenchmark {
+
+	private static final int KEYS = 20_000;
+
+	@Param({ "file", "log", "lsm" })
+	String type;
+
+	private File directory;
+
+	private IKVStore store;
+
+	private String[] processedKeys;
+
+	private final Random random = new Random(1);
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("kv-store-jmh-" + type).toFile();
+
+		if (type.equals("log")) {
+			store = new LogKVStore(directory, 1000, 64 * 1024 * 1024);
+		} else if (type.equals("lsm")) {
+			store = new LsmKVStore(directory, 1000, 4 * 1024 * 1024);
+		} else {
+			store = new FileKVStore(directory);
+		}
+
+		processedKeys = new String[KEYS];
+		for (int x = 0; x < KEYS; x++) {
+			processedKeys[x] = "processed-eclipse_codewind-" + x;
+			store.persistString(processedKeys[x], Long.toString(System.currentTimeMillis()));
+			store.persistString("resource-event-" + new UUID(random.nextLong(), random.nextLong()),
+					Long.toString(System.currentTimeMillis()));
+		}
+		store.flush();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		store.flush();
+
+		long[] files = new long[2];
+		try (Stream<Path> s = Files.walk(directory.toPath())) {
+			s.filter(Files::isRegularFile).forEach(p -> {
+				files[0]++;
+				files[1] += p.toFile().length();
+			});
+		}
+		System.out.println();
+		System.out.println(String.format("%s: %,d files, %,d bytes on disk", type, files[0], files[1]));
+
+		if (store instanceof LogKVStore) {
+			((LogKVStore) store).close();
+		} else if (store instanceof LsmKVStore) {
+			((LsmKVStore) store).close();
+		}
+	}
+
+	@Benchmark
+	public Optional<String> getHit() {
+		return store.getString(processedKeys[random.nextInt(KEYS)]);
+	}
+
+	@Benchmark
+	public Optional<String> getMiss() {
+		return store.getString("resource-event-" + new UUID(random.nextLong(), random.nextLong()));
+	}
+
+	@Benchmark
+	public void persist() {
+		store.persistString(processedKeys[random.nextInt(KEYS)], Long.toString(System.currentTimeMillis()));
+	}
+
+	@Benchmark
+	public KVPage scanPage() {
+		return store.scanPrefix("processed-", processedKeys[random.nextInt(KEYS)], 100);
+	}
+
+	/** A paged scan of every resource event, as when writing a snapshot (see KVSnapshot). */
+	@Benchmark
+	public long scanAllResourceEvents() {
+		long count = 0;
+		String startAfterKey = null;
+		do {
+			KVPage page = store.scanPrefix("resource-event-", startAfterKey, 500);
+			count += page.getEntries().size();
+			startAfterKey = page.getNextStartAfterKey();
+		} while (startAfterKey != null);
+		return count;
+	}
+
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The time to make 'calls' blocking backend requests (for example, one
+ * getIssue(...) per channel post in the mattermost job) against a stub server
+ * which takes 'latencyInMsecs' to respond:
+ *
+ * - serial: one at a time, on the calling thread, as the main loop did.
+ *
+ * - platform: concurrently on a TaskScope, on a pool of 'platformThreads'
+ * platform threads (threadMode: platform).
+ *
+ * - virtual: concurrently on a TaskScope, on one virtual thread per call
+ * (threadMode: virtual). This requires running the benchmark on JDK 21 or
+ * later; on an older JDK, ThreadMode falls back to platform threads, and the
+ * 'virtual' results are not meaningful.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ThreadModeBenchmark {
+
+	@Param({ "serial", "platform", "virtual" })
+	String mode;
+
+	@Param({ "100", "1000" })
+	int calls;
+
+	@Param({ "10" })
+	int latencyInMsecs;
+
+	@Param({ "16" })
+	int platformThreads;
+
+	private HttpServer server;
+
+	private URL url;
+
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+
+		// The stub must not be the bottleneck, so it has a thread per request
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", exchange -> {
+			try {
+				Thread.sleep(latencyInMsecs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] response = "{}".getBytes();
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(response);
+			}
+		});
+		server.start();
+
+		url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/issue");
+
+		if (mode.equals("platform")) {
+			executor = ThreadMode.PLATFORM.newExecutor("benchmark", platformThreads);
+		} else if (mode.equals("virtual")) {
+			executor = ThreadMode.VIRTUAL.newExecutor("benchmark", calls);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdownNow();
+	}
+
+	@Benchmark
+	public int backendCalls() {
+		int bytes = 0;
+
+		if (executor == null) {
+			for (int x = 0; x < calls; x++) {
+				bytes += call();
+			}
+			return bytes;
+		}
+
+		try (TaskScope<Integer> scope = new TaskScope<>(executor)) {
+			for (int x = 0; x < calls; x++) {
+				scope.fork(this::call);
+			}
+			for (int result : scope.join()) {
+				bytes += result;
+			}
+		}
+
+		return bytes;
+	}
+
+	private int call() {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			int bytes = 0;
+			try (InputStream is = connection.getInputStream()) {
+				while (is.read() != -1) {
+					bytes++;
+				}
+			}
+			return bytes;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
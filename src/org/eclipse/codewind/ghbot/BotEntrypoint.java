@@ -13,13 +13,23 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.eclipse.codewind.ghbot.ChannelJobs.MMIssueStatusEntry;
 import org.eclipse.codewind.ghbot.credentials.BotCredentials;
@@ -29,20 +39,46 @@
 import org.eclipse.codewind.ghbot.credentials.MattermostCredentials;
 import org.eclipse.codewind.ghbot.credentials.SlackClient;
 import org.eclipse.codewind.ghbot.db.EphemeralWritesKVStore;
+import org.eclipse.codewind.ghbot.db.ExpiringKVStore;
 import org.eclipse.codewind.ghbot.db.FileKVStore;
 import org.eclipse.codewind.ghbot.db.GHDatabase;
 import org.eclipse.codewind.ghbot.db.IKVStore;
 import org.eclipse.codewind.ghbot.db.InMemoryKVCache;
+import org.eclipse.codewind.ghbot.db.KVSnapshot;
+import org.eclipse.codewind.ghbot.db.KVSnapshotThread;
+import org.eclipse.codewind.ghbot.db.KVStoreMigration;
+import org.eclipse.codewind.ghbot.db.LogKVStore;
+import org.eclipse.codewind.ghbot.db.LsmKVStore;
+import org.eclipse.codewind.ghbot.db.SharedFileKVStore;
+import org.eclipse.codewind.ghbot.db.ValueCodec;
+import org.eclipse.codewind.ghbot.db.WriteBehindKVStore;
+import org.eclipse.codewind.ghbot.utils.AdaptivePollScheduler;
 import org.eclipse.codewind.ghbot.utils.GitHubRepoEvent;
+import org.eclipse.codewind.ghbot.utils.JobEngine;
+import org.eclipse.codewind.ghbot.utils.JobEngine.IterationReport;
+import org.eclipse.codewind.ghbot.utils.JobEngine.Job;
+import org.eclipse.codewind.ghbot.utils.JobEngine.JobStatus;
+import org.eclipse.codewind.ghbot.utils.LeaseManager;
 import org.eclipse.codewind.ghbot.utils.Logger;
+import org.eclipse.codewind.ghbot.utils.ResourceEventPoller;
+import org.eclipse.codewind.ghbot.utils.ShardedPipeline;
+import org.eclipse.codewind.ghbot.utils.ShardedPipeline.ShardStatistics;
+import org.eclipse.codewind.ghbot.utils.ThreadMode;
 import org.eclipse.codewind.ghbot.utils.Utils;
 import org.eclipse.codewind.ghbot.utils.Utils.JobUtil;
+import org.eclipse.codewind.ghbot.utils.WebhookReceiver;
+import org.eclipse.codewind.ghbot.yaml.YamlClusterSettings;
 import org.eclipse.codewind.ghbot.yaml.YamlCredentialsRoot;
+import org.eclipse.codewind.ghbot.yaml.YamlDatabaseSettings;
+import org.eclipse.codewind.ghbot.yaml.YamlJobSettings;
+import org.eclipse.codewind.ghbot.yaml.YamlPollingSettings;
+import org.eclipse.codewind.ghbot.yaml.YamlWebhookSettings;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.githubapimirror.client.api.GHOrganization;
 import com.githubapimirror.client.api.GHRepository;
+import com.githubapimirror.shared.json.ResourceChangeEventJson;
 import com.zhapi.ZenHubClient;
 import com.zhapi.client.ZenHubMirrorApiClient;
 
@@ -54,6 +90,9 @@ public class BotEntrypoint {
 
 	private static final Logger log = Logger.getInstance();
 
+	/** Jobs that must only run in one instance of the bot (see LeaseManager) */
+	private static final List<String> SINGLETON_JOBS = Arrays.asList("mattermost", "zenhub-job", "statistics-report");
+
 	public static void main(String[] args) throws IOException {
 
 		if (args.length != 1) {
@@ -113,7 +152,8 @@ public static void main(String[] args) throws IOException {
 		GitHubCredentials ghCreds = new GitHubCredentials(yr.getGham().getServerUrl(), yr.getGham().getPsk(),
 				yr.getGithub() != null ? yr.getGithub().getUsername() : null,
 				yr.getGithub() != null ? yr.getGithub().getPassword() : null, triageUsername, triagePassword,
-				featureFlags);
+				featureFlags,
+				yr.getJobs() != null ? yr.getJobs().getGhamConcurrency() : GitHubCredentials.DEFAULT_GHAM_CONCURRENCY);
 
 		Path authFilePath = yr.getAuthFile() != null && !yr.getAuthFile().isEmpty()
 				&& !yr.getAuthFile().trim().equalsIgnoreCase("null") ? Paths.get(yr.getAuthFile()) : null;
@@ -161,15 +201,80 @@ public static void main(String[] args) throws IOException {
 			}
 		}, 20 * 1000);
 
-		IKVStore innerDb = new FileKVStore(new File(yr.getDatabasePath()));
+		YamlDatabaseSettings dbSettings = yr.getDatabase() != null ? yr.getDatabase() : new YamlDatabaseSettings();
+
+		// If the database was written by a different type of store, its contents are imported first
+		File databasePath = new File(yr.getDatabasePath());
+		IKVStore persistentDb = KVStoreMigration.open(databasePath, dbSettings.getType(),
+				type -> createPersistentStore(databasePath, type, dbSettings));
+
+		File dbSnapshotFile = dbSettings.getSnapshotFile() != null ? new File(dbSettings.getSnapshotFile()) : null;
+
+		if (dbSettings.isRestoreFromSnapshot()) {
+			restoreFromSnapshotIfEmpty(persistentDb, dbSnapshotFile);
+		}
+
+		IKVStore innerDb = persistentDb;
 
 		if (featureFlags.isEphemeralDBWrites()) {
-			innerDb = new EphemeralWritesKVStore(innerDb);
+			File snapshotFile = dbSettings.getEphemeralSnapshotFile() != null
+					? new File(dbSettings.getEphemeralSnapshotFile())
+					: null;
+
+			innerDb = new EphemeralWritesKVStore(innerDb, snapshotFile, dbSettings.getBulkLoadParallelism());
+		}
+
+		if (dbSettings.isWriteBehind()) {
+			innerDb = new WriteBehindKVStore(innerDb, dbSettings.getWriteBehindFlushIntervalInMsecs(),
+					dbSettings.getWriteBehindBatchSize(), dbSettings.getWriteBehindMaxBufferedKeys());
+		}
+
+		InMemoryKVCache cache = new InMemoryKVCache(innerDb, dbSettings.getCacheMaxEntries(),
+				dbSettings.getCacheMaxSizeInBytes());
+
+		ExpiringKVStore expiringDb = new ExpiringKVStore(cache, dbSettings.getExpirySliceIntervalInMsecs(),
+				dbSettings.getExpiryMaxKeysPerSlice());
+
+		GHDatabase db = new GHDatabase(expiringDb, ValueCodec.forName(dbSettings.getValueCodec()),
+				dbSettings.getResourceEventFilterExpectedEntries(), dbSettings.getResourceEventFilterFalsePositiveRate());
+
+		if (dbSnapshotFile != null) {
+			// Snapshot the stored values, which include their expire times (see ExpiringKVStore)
+			new KVSnapshotThread(cache, dbSnapshotFile, dbSettings.getSnapshotIntervalInMsecs()).start();
 		}
 
-		innerDb = new InMemoryKVCache(innerDb);
+		LeaseManager leases = null;
+		if (yr.getCluster() != null) {
+			leases = createLeaseManager(yr.getCluster(), repos);
+
+			if (dbSettings.getType().equalsIgnoreCase(YamlDatabaseSettings.TYPE_SHARED)) {
+				// Another instance may have written the state of the acquired repositories and jobs
+				leases.addAcquisitionListener(acquired -> {
+					log.out("Reloading database state for acquired leases: " + acquired);
+					cache.invalidateAll();
+					db.reload();
+				});
+			} else {
+				log.err("Warning: the database is not shared between bot instances, so an instance that takes over "
+						+ "a repository will process its recent events again.");
+			}
+		}
+		final LeaseManager leaseManager = leases;
+
+		// Ensure buffered writes are written, and on disk, before we exit
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			db.flush();
+			if (persistentDb instanceof LogKVStore) {
+				((LogKVStore) persistentDb).close();
+			} else if (persistentDb instanceof LsmKVStore) {
+				((LsmKVStore) persistentDb).close();
+			}
 
-		GHDatabase db = new GHDatabase(innerDb);
+			// Once our writes are on disk, let the other instances take over
+			if (leaseManager != null) {
+				leaseManager.stop();
+			}
+		}));
 
 		log.out("* Enabled featureFlags: "
 				+ (yr.getFeatureFlags() != null ? yr.getFeatureFlags().stream().reduce((a, b) -> a + " " + b).orElse("")
@@ -177,93 +282,308 @@ public static void main(String[] args) throws IOException {
 
 		log.out();
 
-		runJobs(repos, db, botCreds);
+		YamlPollingSettings pollingSettings = yr.getPolling() != null ? yr.getPolling() : new YamlPollingSettings();
+
+		YamlJobSettings jobSettings = yr.getJobs() != null ? yr.getJobs() : new YamlJobSettings();
+
+		runJobs(repos, db, cache, botCreds, pollingSettings, jobSettings, yr.getWebhook(), leaseManager);
 
 	}
 
-	private static void runJobs(List<GHRepository> repos, GHDatabase db, BotCredentials botCreds) {
+	private static LeaseManager createLeaseManager(YamlClusterSettings settings, List<GHRepository> repos) {
+
+		String instanceId = settings.getInstanceId() != null ? settings.getInstanceId()
+				: ManagementFactory.getRuntimeMXBean().getName();
+
+		List<String> repoNames = repos.stream().map(GHRepository::getFullName).collect(Collectors.toList());
+
+		log.out("Running as cluster instance " + instanceId + ", with leases in " + settings.getSharedStorePath());
+
+		return new LeaseManager(new SharedFileKVStore(new File(settings.getSharedStorePath())), instanceId, repoNames,
+				SINGLETON_JOBS, settings.getLeaseDurationInMsecs());
+	}
+
+	private static IKVStore createPersistentStore(File databasePath, String type, YamlDatabaseSettings settings) {
+
+		if (type.equalsIgnoreCase(YamlDatabaseSettings.TYPE_LOG)) {
+
+			return new LogKVStore(databasePath, settings.getSyncIntervalInMsecs(),
+					settings.getMaxSegmentSizeInBytes());
+
+		} else if (type.equalsIgnoreCase(YamlDatabaseSettings.TYPE_LSM)) {
+
+			return new LsmKVStore(databasePath, settings.getSyncIntervalInMsecs(), settings.getMemtableSizeInBytes());
+
+		} else if (type.equalsIgnoreCase(YamlDatabaseSettings.TYPE_SHARED)) {
+
+			return new SharedFileKVStore(databasePath);
+		}
+
+		return new FileKVStore(databasePath, settings.isMappedReads());
+	}
+
+	/**
+	 * Populate a new (empty) database from the snapshot file, if it exists. A
+	 * database that already contains keys is never overwritten.
+	 */
+	private static void restoreFromSnapshotIfEmpty(IKVStore persistentDb, File snapshotFile) throws IOException {
+
+		if (!snapshotFile.exists()) {
+			log.out("Database snapshot " + snapshotFile + " does not exist; starting with the existing database.");
+			return;
+		}
+
+		if (!persistentDb.scanPrefix("", null, 1).getEntries().isEmpty()) {
+			log.out("Database is not empty; not restoring from snapshot " + snapshotFile);
+			return;
+		}
+
+		long startTimeInMsecs = System.currentTimeMillis();
+
+		long entries = KVSnapshot.restore(snapshotFile, persistentDb);
+		persistentDb.flush();
+
+		log.out("Restored " + entries + " database keys from snapshot " + snapshotFile + " (created "
+				+ new Date(KVSnapshot.readTimeCreated(snapshotFile)) + ") in "
+				+ (System.currentTimeMillis() - startTimeInMsecs) + " msecs.");
+	}
+
+	private static void runJobs(List<GHRepository> repos, GHDatabase db, InMemoryKVCache cache,
+			BotCredentials botCreds, YamlPollingSettings pollingSettings, YamlJobSettings jobSettings,
+			YamlWebhookSettings webhookSettings, LeaseManager leases) {
 
 		JobUtil jobUtil = Utils.jobUtil();
 
-		while (true) {
+		ThreadMode threadMode = ThreadMode.fromString(jobSettings.getThreadMode());
 
-			try {
+		log.out("Using " + threadMode.name().toLowerCase() + " threads (virtual threads "
+				+ (ThreadMode.isVirtualThreadSupported() ? "are" : "are not") + " supported by this JDK).");
 
-				List<GitHubRepoEvent> issueEvents = ChannelJobs.getFirstNewRepoEvent(db, botCreds);
+		JobEngine jobEngine = new JobEngine(threadMode, jobSettings.getThreads());
 
-				// Jobs that are based on issue events
-				if (issueEvents.size() > 0) {
-					List<MMIssueStatusEntry> issuesOnMmChannel = ChannelJobs.getAllIssuePostsOnChannel(botCreds);
+		ShardedPipeline repoPipeline = new ShardedPipeline(threadMode, jobSettings.getRepoParallelism());
 
-					if (botCreds.getMattermostCreds() != null && botCreds.getMattermostChannel() != null) {
+		// When running as one of multiple instances, only the repositories and the
+		// singleton jobs whose leases this instance holds are processed.
+		Predicate<String> ownsRepository = leases != null ? leases::ownsRepository : e -> true;
+		Predicate<String> ownsSingleton = leases != null ? leases::ownsSingleton : e -> true;
 
-						jobUtil.run("mattermost", 5 * 60 * 1000, () -> {
-							ChannelJobs.runMattermostJob(issuesOnMmChannel, botCreds);
-						});
+		if (leases != null) {
+			// A repository is only handed to another instance once its queued events are processed
+			leases.setReleaseGuard(repoPipeline::isIdle);
+			leases.start();
 
-					}
+			log.out("Owned repositories: " + leases.getOwnedRepositories());
+		}
 
-					log.out("Issue Events: " + issueEvents.size());
-					for (GitHubRepoEvent ie : issueEvents) {
-						System.out.println("- " + ie.getRepository().getName() + "/" + ie.getGhIssue().getNumber());
-					}
+		// If enabled, events are pushed to the receiver, and GHAM is only polled
+		// occasionally, for any events whose delivery failed.
+		WebhookReceiver webhookReceiver = null;
+		if (webhookSettings != null) {
+			webhookReceiver = new WebhookReceiver(webhookSettings.getHost(), webhookSettings.getPort(),
+					webhookSettings.getPath(), webhookSettings.getSecret(), webhookSettings.getMaxPendingEvents(), db);
+			webhookReceiver.setRepositoryFilter(ownsRepository);
+			webhookReceiver.start();
+		}
+		final WebhookReceiver receiver = webhookReceiver;
 
-					ChannelJobs.runGeneralJob(repos, issuesOnMmChannel, issueEvents, db, botCreds);
+		AdaptivePollScheduler pollScheduler = new AdaptivePollScheduler(pollingSettings.getMinIntervalInMsecs(),
+				pollingSettings.getMaxIntervalInMsecs(), pollingSettings.getIdleBackoffMultiplier());
 
-					if (botCreds.getFeatureFlags().isUpgradeDetection()) {
-						ChannelJobs.runUpgradeDetectionJob(issueEvents, db, botCreds);
-					}
+		// Each instance has its own cursor, as each polls for the events of different repositories
+		ResourceEventPoller eventPoller = new ResourceEventPoller(db, leases != null ? leases.getInstanceId() : "",
+				pollingSettings.getCursorOverlapInMsecs(), pollingSettings.getReconciliationIntervalInMsecs());
 
-					CommandJob.runCommandJob(issueEvents, db, botCreds);
+		if (leases != null) {
+			// The previous owner of an acquired repository may not have reached our cursor
+			leases.addAcquisitionListener(acquired -> eventPoller.requestReconciliation());
+		}
 
-				}
+		// Per-issue backend calls made by the jobs
+		ExecutorService ioExecutor = threadMode.newExecutor(BotEntrypoint.class.getName() + "-io",
+				jobSettings.getIoConcurrency());
 
-				// Jobs that are not based on issue events.
-				{
+		long repoPipelineTimeoutInMsecs = jobSettings.getTimeoutInMsecs("repo-pipeline");
 
-					ChannelJobs.runWaitListJob(db, botCreds);
+		while (true) {
 
-					if (botCreds.getFeatureFlags().isZenHubJob()) {
+			JobEngine.Iteration iteration = jobEngine.newIteration();
+
+			Job<List<GitHubRepoEvent>> issueEvents = iteration.submit("resource-events",
+					jobSettings.getTimeoutInMsecs("resource-events"), () -> {
+						List<GitHubRepoEvent> result;
+						if (receiver == null) {
+							result = ChannelJobs.getFirstNewRepoEvent(eventPoller, botCreds, ownsRepository,
+									ioExecutor);
+						} else {
+							List<ResourceChangeEventJson> events = new ArrayList<>(receiver.drainEvents());
+							jobUtil.run("reconciliation-poll", webhookSettings.getReconciliationIntervalInMsecs(),
+									() -> {
+										events.addAll(
+												ChannelJobs.pollNewResourceEvents(eventPoller, botCreds, ownsRepository));
+									});
+							result = ChannelJobs.getRepoEvents(events, botCreds, ioExecutor);
+						}
 
-						jobUtil.run("zenhub-job", 5 * 60 * 1000, () -> {
-							ZenHubJob.run(repos, botCreds, db);
-						});
-					}
+						if (result.size() > 0) {
+							log.out("Issue Events: " + result.size());
+							for (GitHubRepoEvent ie : result) {
+								System.out.println(
+										"- " + ie.getRepository().getName() + "/" + ie.getGhIssue().getNumber());
+							}
+						}
+						return result;
+					});
 
-					// Run statistics report job every 3 days
-					Calendar c = Calendar.getInstance();
-					if (c.get(Calendar.HOUR_OF_DAY) == 5) {
+			// Jobs that are based on issue events
 
-						Long lastRunInMsecs = db.getLastStatisticsReportJobRun().orElse(null);
+			Job<List<MMIssueStatusEntry>> issuesOnMmChannel = iteration.submit("channel-posts",
+					jobSettings.getTimeoutInMsecs("channel-posts"), () -> {
+						return issueEvents.getResult().size() > 0 ? ChannelJobs.getAllIssuePostsOnChannel(botCreds)
+								: Collections.<MMIssueStatusEntry>emptyList();
+					}, issueEvents);
 
-						if (lastRunInMsecs == null) {
-							lastRunInMsecs = System.currentTimeMillis();
-							db.setLastStatisticsReportJobRun(lastRunInMsecs);
+			Job<Void> mattermostJob = iteration.submit("mattermost", jobSettings.getTimeoutInMsecs("mattermost"), () -> {
+				if (issueEvents.getResult().size() > 0 && botCreds.getMattermostCreds() != null
+						&& botCreds.getMattermostChannel() != null && ownsSingleton.test("mattermost")) {
 
+					jobUtil.run("mattermost", 5 * 60 * 1000, () -> {
+						ChannelJobs.runMattermostJob(issuesOnMmChannel.getResult(), botCreds, ioExecutor);
+					});
+				}
+			}, issueEvents, issuesOnMmChannel);
+
+			// The events of each repository are processed in that repository's queue of
+			// the pipeline, so that a busy repository does not delay the others. This
+			// waits for the mattermost job, as both it and the general job update posts on
+			// the channel, and the job only ends once the queued work has completed, so
+			// that its timeout applies to that work.
+			iteration.submit("repo-pipeline", repoPipelineTimeoutInMsecs, () -> {
+				List<MMIssueStatusEntry> channelPosts = issuesOnMmChannel.getResult();
+
+				Map<String, List<GitHubRepoEvent>> eventsByRepo = issueEvents.getResult().stream().collect(
+						Collectors.groupingBy(e -> e.getRepository().getFullName(), TreeMap::new, Collectors.toList()));
+
+				eventsByRepo.forEach((repoName, repoEvents) -> {
+					repoPipeline.submit(repoName, () -> {
+						ChannelJobs.runGeneralJob(repos, channelPosts, repoEvents, db, botCreds);
+
+						// Upgrade detection compares against the severities recorded by the general job
+						if (botCreds.getFeatureFlags().isUpgradeDetection()) {
+							ChannelJobs.runUpgradeDetectionJob(repoEvents, db, botCreds);
 						}
 
-						if (TimeUnit.DAYS.convert(System.currentTimeMillis() - lastRunInMsecs,
-								TimeUnit.MILLISECONDS) >= 3) {
+						CommandJob.runCommandJob(repoEvents, db, botCreds);
+					});
+				});
+
+				if (!repoPipeline.awaitIdle(repoPipelineTimeoutInMsecs)) {
+					throw new TimeoutException("Repository pipeline did not complete within "
+							+ repoPipelineTimeoutInMsecs + " msecs: " + repoPipeline.getStatistics());
+				}
+				return null;
+			}, issueEvents, issuesOnMmChannel, mattermostJob);
+
+			// Jobs that are not based on issue events.
 
-							db.setLastStatisticsReportJobRun(System.currentTimeMillis());
+			iteration.submit("wait-list", jobSettings.getTimeoutInMsecs("wait-list"), () -> {
+				ChannelJobs.runWaitListJob(db, botCreds, ownsRepository);
+			});
 
+			if (botCreds.getFeatureFlags().isZenHubJob() && ownsSingleton.test("zenhub-job")) {
+				iteration.submit("zenhub-job", jobSettings.getTimeoutInMsecs("zenhub-job"), () -> {
+					jobUtil.run("zenhub-job", 5 * 60 * 1000, () -> {
+						ZenHubJob.run(repos, botCreds, db);
+					});
+				});
+			}
+
+			iteration.submit("statistics-report", jobSettings.getTimeoutInMsecs("statistics-report"), () -> {
+				// Run statistics report job every 3 days
+				Calendar c = Calendar.getInstance();
+				if (c.get(Calendar.HOUR_OF_DAY) == 5 && ownsSingleton.test("statistics-report")) {
+
+					Long lastRunInMsecs = db.getLastStatisticsReportJobRun().orElse(null);
+
+					if (lastRunInMsecs == null) {
+						db.compareAndSetLastStatisticsReportJobRun(null, System.currentTimeMillis());
+
+					} else if (TimeUnit.DAYS.convert(System.currentTimeMillis() - lastRunInMsecs,
+							TimeUnit.MILLISECONDS) >= 3) {
+
+						// Only run the job if no one else has claimed this run
+						if (db.compareAndSetLastStatisticsReportJobRun(lastRunInMsecs, System.currentTimeMillis())) {
 							StatisticsReportJob.runStatisticsReportJob(repos, botCreds);
 						}
-
 					}
 				}
+			});
+
+			IterationReport report = iteration.await();
+
+			log.out("Job durations: " + report);
+
+			List<ShardStatistics> repoBacklog = repoPipeline.getStatistics().stream().filter(e -> e.getQueued() > 0)
+					.collect(Collectors.toList());
+			if (!repoBacklog.isEmpty()) {
+				log.out("Repositories with queued events: " + repoBacklog);
+			}
 
+			// Work of a timed out pipeline is still running: wait for it, so that it is
+			// included in the flush, and so that the next iteration does not read the
+			// channel's posts while it is still updating them.
+			try {
+				while (!repoPipeline.awaitIdle(repoPipelineTimeoutInMsecs)) {
+					log.err("Waiting for the repository pipeline to complete: " + repoPipeline.getStatistics());
+				}
+			} catch (InterruptedException e) {
+				Utils.throwAsUnchecked(e);
+			}
+
+			// Write any writes from this iteration that are still buffered
+			try {
+				db.flush();
 			} catch (Exception e) {
-				// Prevent exceptions from ending the thread.
 				e.printStackTrace();
 			}
 
-			// Clean the database once per day
-			db.cleanOldEntriesIfApplicable();
+			jobUtil.run("database-cache-statistics", 60 * 60 * 1000, () -> {
+				log.out("Database cache statistics: " + cache.getStatistics());
+			});
+
+			jobUtil.run("poll-scheduler-statistics", pollingSettings.getStatisticsIntervalInMsecs(), () -> {
+				log.out("Poll scheduler statistics: " + pollScheduler.getStatistics());
+				log.out("Event poller statistics: " + eventPoller.getStatistics());
+			});
+
+			jobUtil.run("job-statistics", jobSettings.getStatisticsIntervalInMsecs(), () -> {
+				log.out("Job statistics: " + jobEngine.getStatistics());
+				log.out("Repository pipeline statistics: " + repoPipeline.getStatistics());
+				log.out("Backend call statistics: " + botCreds.getGhCreds().getGhamCallLimiter().getStatistics());
+				log.out("Issue cache statistics: " + botCreds.getGhCreds().getIssueCache().getStatistics());
+				if (leases != null) {
+					log.out("Owned repositories: " + leases.getOwnedRepositories());
+				}
+			});
+
+			int eventsSeen = report.getStatus("resource-events") == JobStatus.SUCCEEDED
+					? issueEvents.getResult().size()
+					: 0;
+
+			long sleepInMsecs = pollScheduler.onIterationComplete(eventsSeen, report.getIterationTimeInMsecs(),
+					report.hasFailures());
+
+			log.out("Next poll in " + sleepInMsecs + " msecs (" + pollScheduler.getStatistics().getLastDecision()
+					+ ")");
 
 			log.out("==================================================================");
 
-			Utils.sleep(15 * 1000); // Don't move this inside the exception block
+			if (receiver != null) {
+				// Wake up as soon as an event is pushed
+				receiver.awaitEvents(sleepInMsecs);
+			} else {
+				Utils.sleep(sleepInMsecs);
+			}
 
 		}
 
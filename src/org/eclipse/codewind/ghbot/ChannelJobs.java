@@ -21,22 +21,30 @@
 import java.util.Map;
 import java.util.Optional;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.eclipse.codewind.ghbot.credentials.BotCredentials;
+import org.eclipse.codewind.ghbot.credentials.ConcurrencyLimiter;
 import org.eclipse.codewind.ghbot.db.GHDatabase;
 import org.eclipse.codewind.ghbot.db.WaitListEntryJson;
 import org.eclipse.codewind.ghbot.utils.FileLogger;
 import org.eclipse.codewind.ghbot.utils.GHRepoCache;
 import org.eclipse.codewind.ghbot.utils.GitHubRepoEvent;
+import org.eclipse.codewind.ghbot.utils.IssueSnapshotCache;
 import org.eclipse.codewind.ghbot.utils.Logger;
+import org.eclipse.codewind.ghbot.utils.ResourceEventPoller;
+import org.eclipse.codewind.ghbot.utils.TaskScope;
 
 import com.githubapimirror.client.api.GHIssue;
 import com.githubapimirror.client.api.GHOrganization;
 import com.githubapimirror.client.api.GHRepository;
 import com.githubapimirror.client.api.events.GHIssueEventLabeledUnlabeled;
+import com.githubapimirror.shared.json.ResourceChangeEventJson;
 
 import net.bis5.mattermost.model.Post;
 import net.bis5.mattermost.model.PostList;
@@ -51,35 +59,56 @@ public class ChannelJobs {
 
 	private static final FileLogger fileLogger = Logger.getInstance().getFileLogger();
 
-	static void runMattermostJob(List<MMIssueStatusEntry> issuesOnChannel, BotCredentials botCreds) {
+	/**
+	 * Update the channel post of each issue that has changed; the issues are
+	 * retrieved and compared concurrently, on 'ioExecutor'.
+	 */
+	static void runMattermostJob(List<MMIssueStatusEntry> issuesOnChannel, BotCredentials botCreds,
+			ExecutorService ioExecutor) {
 
 		GHRepoCache cache = new GHRepoCache(botCreds.getGhCreds().getGhamClient());
 
-		issuesOnChannel.forEach(issueEntry -> {
+		try (TaskScope<Void> scope = new TaskScope<>(ioExecutor)) {
 
-			GHOrganization org = cache.getOrganization(issueEntry.getOrg());
-			if (org == null) {
-				System.err.println("Org not found: " + issueEntry.getOrg());
-				return;
-			}
+			issuesOnChannel.forEach(issueEntry -> {
 
-			GHRepository repo = cache.getRepository(org.getName(), issueEntry.getRepo());
+				// The cache is not thread safe, so repositories are resolved before forking
+				GHOrganization org = cache.getOrganization(issueEntry.getOrg());
+				if (org == null) {
+					System.err.println("Org not found: " + issueEntry.getOrg());
+					return;
+				}
 
-			GHIssue issue = repo.getIssue(issueEntry.getIssueNumber());
+				GHRepository repo = cache.getRepository(org.getName(), issueEntry.getRepo());
 
-			if (issue == null) {
-				System.err.println("Issue not found: " + issueEntry.getIssueNumber());
-				return;
-			}
+				scope.fork(() -> {
+					GHIssue issue = botCreds.getGhCreds().getIssueCache().getIssue(repo, issueEntry.getIssueNumber());
+
+					if (issue == null) {
+						// This occurs when an issue has moved; the Git Java client API we uses has no
+						// obvious way to detect this.
+						System.err.println("Ignoring: " + issueEntry.getRepo() + "/" + issueEntry.getIssueNumber());
+						return null;
+					}
 
-			analyzeEventStream(issueEntry, issueEntry.getOrg(), issueEntry.getRepo(), issue,
-					issueEntry.getPost().getMessage(), botCreds, cache);
+					analyzeEventStream(issueEntry, issueEntry.getOrg(), issueEntry.getRepo(), issue,
+							issueEntry.getPost().getMessage(), botCreds, repo);
+					return null;
+				});
 
-		});
+			});
+
+			scope.join();
+		}
 
 	}
 
-	static void runWaitListJob(GHDatabase db, BotCredentials botCreds) {
+	/**
+	 * Post the issues of the wait list that are ready to be posted; only the
+	 * entries of repositories (by 'owner/repo') accepted by 'ownsRepository' are
+	 * processed.
+	 */
+	static void runWaitListJob(GHDatabase db, BotCredentials botCreds, Predicate<String> ownsRepository) {
 
 		log.out("Running wait list job.");
 
@@ -91,13 +120,21 @@ static void runWaitListJob(GHDatabase db, BotCredentials botCreds) {
 
 		for (WaitListEntryJson wlej : l) {
 
+			if (!ownsRepository.test(wlej.getOwner() + "/" + wlej.getRepo())) {
+				continue;
+			}
+
 			GHRepository repo = cache.getRepository(wlej.getOwner(), wlej.getRepo());
 			if (repo == null) {
 				// Unable to retrieve repo; we are likely not connected to the network.
 				return;
 			}
 
-			GHIssue issue = repo.getIssue(wlej.getIssueNumber());
+			GHIssue issue = botCreds.getGhCreds().getIssueCache().getIssue(repo, wlej.getIssueNumber());
+			if (issue == null) {
+				log.err("Unable to retrieve wait list issue " + repo.getFullName() + "/" + wlej.getIssueNumber());
+				continue;
+			}
 
 			boolean isAreaPresent = getAreaLogo(issue, true, wlej.getRepo()).isPresent();
 
@@ -113,6 +150,9 @@ static void runWaitListJob(GHDatabase db, BotCredentials botCreds) {
 
 				String slackResult = generateMessageFromIssue(repo, issue, issue.getReporter().getLogin(), true);
 
+				// Recorded in the same write that removes the issue from the wait list
+				String severitySeen = null;
+
 				if (!issue.isClosed()) {
 					botCreds.getSlackClient().postToChannel(slackResult);
 
@@ -132,14 +172,14 @@ static void runWaitListJob(GHDatabase db, BotCredentials botCreds) {
 								+ "'");
 
 						if (currentSeverity != null) {
-							db.setHighestIssueSeveritySeen(repo, wlej.getIssueNumber(), currentSeverity.getLabelName());
+							severitySeen = currentSeverity.getLabelName();
 						}
 
 					}
 
 				}
 
-				db.removeFromWaitList(repo, issue.getNumber());
+				db.removeFromWaitList(repo, issue.getNumber(), severitySeen);
 
 			}
 
@@ -439,19 +479,9 @@ public static List<String> extractTagsFromMessage(String msg) {
 	}
 
 	private static void analyzeEventStream(MMIssueStatusEntry ise, String org, String repoName, GHIssue issue,
-			String msg, BotCredentials botCreds, GHRepoCache cache) {
+			String msg, BotCredentials botCreds, GHRepository ghRepo) {
 
-		GHRepository ghRepo = cache.getRepository(org, repoName);
-
-		GHIssue ghIssue = ghRepo.getIssue(issue.getNumber());
-		if (ghIssue == null) {
-			// This occurs when an issue has moved; the Git Java client API we uses has no
-			// obvious way to detect this.
-			System.err.println("Ignoring: " + repoName + "/" + issue.getNumber());
-			return;
-		}
-
-		String newMsg = generateMessageFromIssue(ghRepo, ghIssue, ghIssue.getReporter().getLogin(), false);
+		String newMsg = generateMessageFromIssue(ghRepo, issue, issue.getReporter().getLogin(), false);
 
 		if (!newMsg.equalsIgnoreCase(msg)) {
 			Post post = ise.getPost();
@@ -465,7 +495,7 @@ private static void analyzeEventStream(MMIssueStatusEntry ise, String org, Strin
 		}
 	}
 
-	private static String generateMessageFromIssue(GHRepository repo, GHIssue issue, String issueUser,
+	static String generateMessageFromIssue(GHRepository repo, GHIssue issue, String issueUser,
 			final boolean forSlack) {
 
 		List<String> issueLabels = issue.getLabels();
@@ -531,7 +561,7 @@ private static String generateMessageFromIssue(GHRepository repo, GHIssue issue,
 
 	}
 
-	private static Optional<String> getAreaLogo(GHIssue issue, boolean forSlack, String repoName) {
+	static Optional<String> getAreaLogo(GHIssue issue, boolean forSlack, String repoName) {
 
 		String mainArea = getArea(issue.getLabels()).orElse("");
 
@@ -595,7 +625,7 @@ private static Optional<String> getAreaLogo(GHIssue issue, boolean forSlack, Str
 
 	}
 
-	private static boolean containsWholeWord(String str, String word) {
+	static boolean containsWholeWord(String str, String word) {
 
 		// Convert all non-spaces to spaces
 		str = str.chars().mapToObj(c -> (char) c).map(e -> Character.isLetterOrDigit(e) ? e : ' ')
@@ -657,7 +687,37 @@ private static String sanitizeTitle(String str, boolean isSlack) {
 		return str.trim();
 	}
 
-	public static List<GitHubRepoEvent> getFirstNewRepoEvent(GHDatabase db, BotCredentials botCreds) {
+	public static List<GitHubRepoEvent> getFirstNewRepoEvent(ResourceEventPoller poller, BotCredentials botCreds,
+			Predicate<String> ownsRepository, ExecutorService ioExecutor) {
+		return getRepoEvents(pollNewResourceEvents(poller, botCreds, ownsRepository), botCreds, ioExecutor);
+	}
+
+	/**
+	 * Returns the resource events since the poller's cursor (or, periodically, from
+	 * the last few days) that have not yet been processed (by either a previous
+	 * poll or the webhook receiver), and marks them as processed. Events of
+	 * repositories (by 'owner/repo') not accepted by 'ownsRepository' are left for
+	 * the instance that owns them (see LeaseManager).
+	 */
+	public static List<ResourceChangeEventJson> pollNewResourceEvents(ResourceEventPoller poller,
+			BotCredentials botCreds, Predicate<String> ownsRepository) {
+
+		return poller.poll(since -> botCreds.getGhCreds().getGhamClient().getResourceChangeEvents(since),
+				ownsRepository);
+	}
+
+	/**
+	 * Retrieve the issue of each of the given resource events (which may come from
+	 * a poll, or from the webhook receiver); multiple events on the same issue
+	 * return that issue only once.
+	 * 
+	 * The issues of each repository are retrieved with a single bulk request; the
+	 * requests of different repositories run concurrently, on 'ioExecutor', limited
+	 * by the GHAM call limiter. The result is ordered by repository full name, then
+	 * by issue number.
+	 */
+	public static List<GitHubRepoEvent> getRepoEvents(List<ResourceChangeEventJson> events, BotCredentials botCreds,
+			ExecutorService ioExecutor) {
 
 		List<Object[/* repository, issue number */]> work = new ArrayList<>();
 
@@ -665,20 +725,17 @@ public static List<GitHubRepoEvent> getFirstNewRepoEvent(GHDatabase db, BotCrede
 			// This prevents result from containing duplicates
 			final Map<String /* repo+issue # */, Boolean/* unused */> issueAdded = new HashMap<>();
 
-			long eventsSince = System.currentTimeMillis() - TimeUnit.MILLISECONDS.convert(4, TimeUnit.DAYS);
-
 			GHRepoCache cache = new GHRepoCache(botCreds.getGhCreds().getGhamClient());
 
-			// For each unprocessed event, add it to the work list
-			botCreds.getGhCreds().getGhamClient().getResourceChangeEvents(eventsSince).stream().forEach(e -> {
+			IssueSnapshotCache issueCache = botCreds.getGhCreds().getIssueCache();
 
-				if (db.isResourceEventProcessed(e.getUuid())) {
-					return;
-				} else {
-					db.setResourceEventAsProcessed(e.getUuid());
-				}
+			// For each event, add it to the work list
+			events.forEach(e -> {
 
-				String key = e.getRepo() + "/" + e.getIssueNumber();
+				// The issue has changed, so any snapshot of it is stale
+				issueCache.invalidate(e.getOwner() + "/" + e.getRepo(), e.getIssueNumber());
+
+				String key = e.getOwner() + "/" + e.getRepo() + "/" + e.getIssueNumber();
 
 				if (issueAdded.containsKey(key)) {
 					return;
@@ -698,8 +755,8 @@ public static List<GitHubRepoEvent> getFirstNewRepoEvent(GHDatabase db, BotCrede
 		List<GitHubRepoEvent> result = new ArrayList<>();
 
 		{
-			// Split GHRE by repository, into a map
-			HashMap<String /* fullRepoName */, List<Object[]>> repoToEventMap = new HashMap<>();
+			// Split GHRE by repository, into a map (sorted, so the result order is stable)
+			TreeMap<String /* fullRepoName */, List<Object[]>> repoToEventMap = new TreeMap<>();
 			for (Object[] objArr : work) {
 				GHRepository repo = (GHRepository) objArr[0];
 
@@ -709,20 +766,36 @@ public static List<GitHubRepoEvent> getFirstNewRepoEvent(GHDatabase db, BotCrede
 
 			}
 
-			// For each repository, bulk acquire the issue list, and store the result in
-			// issueMap
-			repoToEventMap.forEach((repoFullName, eventList) -> {
+			ConcurrencyLimiter ghamLimiter = botCreds.getGhCreds().getGhamCallLimiter();
+
+			IssueSnapshotCache issueCache = botCreds.getGhCreds().getIssueCache();
+
+			// For each repository, bulk acquire the issue list, and store the issues in the
+			// issue cache for the jobs; the results are joined in the order the requests
+			// were forked
+			try (TaskScope<List<GitHubRepoEvent>> scope = new TaskScope<>(ioExecutor)) {
 
-				List<Integer> issuesToAcquire = eventList.stream().map(e -> (Integer) e[1]).distinct().sorted()
-						.collect(Collectors.toList());
+				repoToEventMap.forEach((repoFullName, eventList) -> {
 
-				GHRepository repo = (GHRepository) eventList.get(0)[0];
-				repo.bulkListIssues(issuesToAcquire).forEach(issue -> {
+					List<Integer> issuesToAcquire = eventList.stream().map(e -> (Integer) e[1]).distinct().sorted()
+							.collect(Collectors.toList());
 
-					result.add(new GitHubRepoEvent(issue, repo));
+					GHRepository repo = (GHRepository) eventList.get(0)[0];
+
+					scope.fork(() -> {
+						long fetchVersion = issueCache.getVersion();
+
+						List<GHIssue> issues = ghamLimiter.call(() -> repo.bulkListIssues(issuesToAcquire));
+
+						issues.forEach(issue -> issueCache.put(repoFullName, issue, fetchVersion));
+
+						return issues.stream().sorted(Comparator.comparingInt(GHIssue::getNumber))
+								.map(issue -> new GitHubRepoEvent(issue, repo)).collect(Collectors.toList());
+					});
 				});
 
-			});
+				scope.join().forEach(result::addAll);
+			}
 
 		}
 
@@ -862,7 +862,7 @@ public static void compareStringLists(List<String> inputA, List<String> inputB,
 
 	}
 
-	private static boolean containsValidCommand(String str) {
+	static boolean containsValidCommand(String str) {
 
 		try {
 			List<String> commandLines = Arrays.asList(str.split("[\\r\\n]+")).stream().map(e -> e.trim())
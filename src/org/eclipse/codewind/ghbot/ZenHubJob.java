@@ -163,7 +163,11 @@ public static void run(List<GHRepository> repos, BotCredentials credentials, GHD
 					continue;
 				}
 
-				GHIssue ghIssue = repo.getIssue(issue);
+				GHIssue ghIssue = credentials.getGhCreds().getIssueCache().getIssue(repo, issue);
+				if (ghIssue == null) {
+					log.err("Unable to retrieve issue " + repo.getFullName() + " " + issue);
+					continue;
+				}
 
 				String message = "@" + ghIssue.getReporter().getLogin() + " - this issue is now ready to be verified.";
 
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.credentials;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of calls to a backend (for example, GHAM) that run at the
+ * same time, however many threads make them, and records the latency of each
+ * call. Calls beyond the limit wait (in order) for a running call to complete.
+ *
+ * Thread safe.
+ */
+public class ConcurrencyLimiter {
+
+	private final String name;
+
+	private final Semaphore permits;
+
+	private final Object lock = new Object();
+
+	/** Synchronize on 'lock' when accessing. */
+	private long calls = 0, failures = 0, totalLatencyInMsecs = 0, maxLatencyInMsecs = 0, lastLatencyInMsecs = 0;
+
+	/** Synchronize on 'lock' when accessing. */
+	private long totalWaitInMsecs = 0, maxWaitInMsecs = 0;
+
+	public ConcurrencyLimiter(String name, int maxConcurrentCalls) {
+		if (maxConcurrentCalls <= 0) {
+			throw new IllegalArgumentException("Invalid concurrency limit of '" + name + "': " + maxConcurrentCalls);
+		}
+
+		this.name = name;
+		this.permits = new Semaphore(maxConcurrentCalls, true);
+	}
+
+	/**
+	 * Make the call once fewer than the maximum number of calls are running; a
+	 * checked exception of the call is thrown wrapped in a RuntimeException.
+	 */
+	public <T> T call(Callable<T> call) {
+
+		long waitStartInNanos = System.nanoTime();
+
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting to call " + name, e);
+		}
+
+		long startInNanos = System.nanoTime();
+		boolean failed = true;
+		try {
+			T result = call.call();
+			failed = false;
+			return result;
+
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+
+		} finally {
+			permits.release();
+
+			long endInNanos = System.nanoTime();
+
+			long waitInMsecs = TimeUnit.MILLISECONDS.convert(startInNanos - waitStartInNanos, TimeUnit.NANOSECONDS);
+			long latencyInMsecs = TimeUnit.MILLISECONDS.convert(endInNanos - startInNanos, TimeUnit.NANOSECONDS);
+
+			synchronized (lock) {
+				calls++;
+				failures += failed ? 1 : 0;
+				totalLatencyInMsecs += latencyInMsecs;
+				maxLatencyInMsecs = Math.max(maxLatencyInMsecs, latencyInMsecs);
+				lastLatencyInMsecs = latencyInMsecs;
+				totalWaitInMsecs += waitInMsecs;
+				maxWaitInMsecs = Math.max(maxWaitInMsecs, waitInMsecs);
+			}
+		}
+	}
+
+	public CallStatistics getStatistics() {
+		synchronized (lock) {
+			return new CallStatistics(name, calls, failures, calls == 0 ? 0 : totalLatencyInMsecs / calls,
+					maxLatencyInMsecs, lastLatencyInMsecs, calls == 0 ? 0 : totalWaitInMsecs / calls, maxWaitInMsecs);
+		}
+	}
+
+	/** Call counts and latencies of a ConcurrencyLimiter. Immutable. */
+	public static class CallStatistics {
+
+		private final String name;
+		private final long calls;
+		private final long failures;
+		private final long averageLatencyInMsecs;
+		private final long maxLatencyInMsecs;
+		private final long lastLatencyInMsecs;
+		private final long averageWaitInMsecs;
+		private final long maxWaitInMsecs;
+
+		private CallStatistics(String name, long calls, long failures, long averageLatencyInMsecs,
+				long maxLatencyInMsecs, long lastLatencyInMsecs, long averageWaitInMsecs, long maxWaitInMsecs) {
+			this.name = name;
+			this.calls = calls;
+			this.failures = failures;
+			this.averageLatencyInMsecs = averageLatencyInMsecs;
+			this.maxLatencyInMsecs = maxLatencyInMsecs;
+			this.lastLatencyInMsecs = lastLatencyInMsecs;
+			this.averageWaitInMsecs = averageWaitInMsecs;
+			this.maxWaitInMsecs = maxWaitInMsecs;
+		}
+
+		public long getCalls() {
+			return calls;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		/** Time from the start to the end of a call, not including any wait for the limit. */
+		public long getAverageLatencyInMsecs() {
+			return averageLatencyInMsecs;
+		}
+
+		public long getMaxLatencyInMsecs() {
+			return maxLatencyInMsecs;
+		}
+
+		public long getLastLatencyInMsecs() {
+			return lastLatencyInMsecs;
+		}
+
+		/** Time a call waited for a running call to complete. */
+		public long getAverageWaitInMsecs() {
+			return averageWaitInMsecs;
+		}
+
+		public long getMaxWaitInMsecs() {
+			return maxWaitInMsecs;
+		}
+
+		@Override
+		public String toString() {
+			return name + " [calls: " + calls + ", failures: " + failures + ", avg msecs: " + averageLatencyInMsecs
+					+ ", max msecs: " + maxLatencyInMsecs + ", last msecs: " + lastLatencyInMsecs
+					+ ", avg wait msecs: " + averageWaitInMsecs + ", max wait msecs: " + maxWaitInMsecs + "]";
+		}
+	}
+}
@@ -17,6 +17,7 @@
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import org.eclipse.codewind.ghbot.utils.IssueSnapshotCache;
 import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.client.GitHubClient;
 import org.eclipse.egit.github.core.service.IssueService;
@@ -57,11 +58,30 @@ public class GitHubCredentials {
 	private final RateLimiter centralGHRateLimiter = new RateLimiter(GitHubCredentials.class.getSimpleName(),
 			100 /* requests per */, 3600 /* hour */);
 
+	public static final int DEFAULT_GHAM_CONCURRENCY = 8;
+
+	/** Limits the concurrent GHAM calls of the jobs (see ConcurrencyLimiter) */
+	private final ConcurrencyLimiter ghamCallLimiter;
+
+	/** The GHAM issues retrieved by the jobs (see IssueSnapshotCache) */
+	private final IssueSnapshotCache issueCache;
+
 	public GitHubCredentials(String ghamUrl, String ghamPsk, String ghUsername, String ghPassword,
 			String triageRoleUsername, String triageRolePassword, FeatureFlags featureFlags) throws IOException {
+		this(ghamUrl, ghamPsk, ghUsername, ghPassword, triageRoleUsername, triageRolePassword, featureFlags,
+				DEFAULT_GHAM_CONCURRENCY);
+	}
+
+	public GitHubCredentials(String ghamUrl, String ghamPsk, String ghUsername, String ghPassword,
+			String triageRoleUsername, String triageRolePassword, FeatureFlags featureFlags, int ghamConcurrency)
+			throws IOException {
 
 		this.featureFlags = featureFlags;
 
+		ghamCallLimiter = new ConcurrencyLimiter("gham", ghamConcurrency);
+
+		issueCache = new IssueSnapshotCache(ghamCallLimiter);
+
 		ghamClient = new com.githubapimirror.client.api.GitHub(new GHConnectInfo(ghamUrl, ghamPsk));
 
 		egitClient = new GitHubClient();
@@ -91,6 +111,14 @@ public GitHub getGhamClient() {
 		return ghamClient;
 	}
 
+	public ConcurrencyLimiter getGhamCallLimiter() {
+		return ghamCallLimiter;
+	}
+
+	public IssueSnapshotCache getIssueCache() {
+		return issueCache;
+	}
+
 	public GitHubClient getTriageEGitClient() {
 		return triageEGitClient;
 	}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * A compact encoding of database values: longs are stored as (zigzag) varints,
+ * and wait list entries as their fields packed one after the other, rather than
+ * as JSON.
+ * 
+ * Since IKVStore values are strings, the bytes are stored as URL-safe base64,
+ * after a '~' marker; the marker cannot be the first character of a value in
+ * the text format (a number, or a JSON object), which allows values in either
+ * format to be decoded. Format:
+ * 
+ * <pre>
+ * ~ base64( [type: byte] [fields...] )
+ * long:            [TYPE_LONG] [varint]
+ * wait list entry: [TYPE_WAIT_LIST_ENTRY] [issue number: varint] [started waiting: varint] [repo: string] [owner: string]
+ * string:          [length + 1: varint, 0 for null] [UTF-8]
+ * </pre>
+ */
+public class BinaryValueCodec extends TextValueCodec {
+
+	private static final char MARKER = '~';
+
+	private static final byte TYPE_LONG = 1;
+
+	private static final byte TYPE_WAIT_LIST_ENTRY = 2;
+
+	@Override
+	public String encodeLong(long value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(11);
+		out.write(TYPE_LONG);
+		writeVarLong(out, value);
+		return toValue(out);
+	}
+
+	@Override
+	public String encodeWaitListEntry(WaitListEntryJson entry) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write(TYPE_WAIT_LIST_ENTRY);
+		writeVarLong(out, entry.getIssueNumber());
+		writeVarLong(out, entry.getStartedWaitingTimeInMsecs());
+		writeString(out, entry.getRepo());
+		writeString(out, entry.getOwner());
+		return toValue(out);
+	}
+
+	static boolean isBinary(String encoded) {
+		return !encoded.isEmpty() && encoded.charAt(0) == MARKER;
+	}
+
+	static long decodeBinaryLong(String encoded) {
+		ByteBuffer in = fromValue(encoded, TYPE_LONG);
+		try {
+			return readVarLong(in);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Invalid binary value: " + encoded);
+		}
+	}
+
+	static WaitListEntryJson decodeBinaryWaitListEntry(String encoded) {
+		ByteBuffer in = fromValue(encoded, TYPE_WAIT_LIST_ENTRY);
+		try {
+			WaitListEntryJson result = new WaitListEntryJson();
+			result.setIssueNumber((int) readVarLong(in));
+			result.setStartedWaitingTimeInMsecs(readVarLong(in));
+			result.setRepo(readString(in));
+			result.setOwner(readString(in));
+			return result;
+
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Invalid binary value: " + encoded);
+		}
+	}
+
+	private static String toValue(ByteArrayOutputStream out) {
+		return MARKER + Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+	}
+
+	private static ByteBuffer fromValue(String encoded, byte expectedType) {
+		ByteBuffer in = ByteBuffer.wrap(Base64.getUrlDecoder().decode(encoded.substring(1)));
+
+		if (!in.hasRemaining() || in.get() != expectedType) {
+			throw new IllegalArgumentException("Unexpected binary value type: " + encoded);
+		}
+
+		return in;
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		// Zigzag, so that small negative numbers are also small
+		long v = (value << 1) ^ (value >> 63);
+
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (v >>> 1) ^ -(v & 1);
+			}
+		}
+		throw new IllegalArgumentException("Invalid varint");
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String str) {
+		if (str == null) {
+			writeVarLong(out, 0);
+			return;
+		}
+
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(out, bytes.length + 1);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = (int) readVarLong(in);
+		if (length == 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length - 1];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings: mightContain(...) returning false means the string
+ * was definitely never added, while true means it probably was (with the
+ * false-positive rate specified in the constructor, as long as no more than
+ * 'expectedEntries' are added).
+ *
+ * Thread safe: bits are set with compare-and-set, so no locking is required.
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray bits;
+
+	private final long numberOfBits;
+
+	private final int numberOfHashFunctions;
+
+	private final long expectedEntries;
+
+	private final AtomicLong entriesAdded = new AtomicLong(0);
+
+	public BloomFilter(long expectedEntries, double falsePositiveRate) {
+
+		if (expectedEntries <= 0) {
+			throw new IllegalArgumentException("Expected entries must be positive: " + expectedEntries);
+		}
+
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+		}
+
+		// Standard Bloom filter sizing: m = -n ln(p) / (ln 2)^2, k = (m / n) ln 2
+		long m = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		m = Math.max(64, m);
+
+		int words = (int) Math.min(Integer.MAX_VALUE, (m + 63) / 64);
+
+		this.bits = new AtomicLongArray(words);
+		this.numberOfBits = (long) words * 64;
+		this.numberOfHashFunctions = Math.max(1, (int) Math.round((double) m / expectedEntries * Math.log(2)));
+		this.expectedEntries = expectedEntries;
+	}
+
+	public void put(String str) {
+
+		long hash1 = hash(str);
+		long hash2 = mix(hash1) | 1;
+
+		for (int x = 0; x < numberOfHashFunctions; x++) {
+			long bitIndex = Long.remainderUnsigned(hash1 + x * hash2, numberOfBits);
+
+			int word = (int) (bitIndex >>> 6);
+			long mask = 1l << (bitIndex & 63);
+
+			long prev;
+			do {
+				prev = bits.get(word);
+				if ((prev & mask) != 0) {
+					break;
+				}
+			} while (!bits.compareAndSet(word, prev, prev | mask));
+		}
+
+		entriesAdded.incrementAndGet();
+	}
+
+	public boolean mightContain(String str) {
+
+		long hash1 = hash(str);
+		long hash2 = mix(hash1) | 1;
+
+		for (int x = 0; x < numberOfHashFunctions; x++) {
+			long bitIndex = Long.remainderUnsigned(hash1 + x * hash2, numberOfBits);
+
+			if ((bits.get((int) (bitIndex >>> 6)) & (1l << (bitIndex & 63))) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Whether more entries have been added than the filter was sized for (in which
+	 * case the false-positive rate will be higher than requested).
+	 */
+	public boolean isOverCapacity() {
+		return entriesAdded.get() > expectedEntries;
+	}
+
+	public long getExpectedEntries() {
+		return expectedEntries;
+	}
+
+	/** 64-bit FNV-1a of the characters of the string */
+	private static long hash(String str) {
+		long h = 0xcbf29ce484222325l;
+		for (int x = 0; x < str.length(); x++) {
+			h ^= str.charAt(x);
+			h *= 0x100000001b3l;
+		}
+		return mix(h);
+	}
+
+	/** Finalizer from MurmurHash3, to spread the bits of the hash */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdl;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53l;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
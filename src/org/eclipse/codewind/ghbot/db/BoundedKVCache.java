@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-memory key/value cache that is bounded by a maximum number of entries
+ * and (optionally) a maximum estimated size in bytes.
+ *
+ * The eviction policy is a simplified W-TinyLFU: new entries are added to a
+ * small LRU 'window'. When an entry is pushed out of the window, it is only
+ * admitted to the (much larger) LRU 'main' area if it has been accessed more
+ * frequently than the entry it would replace; frequency is estimated with a
+ * FrequencySketch. This prevents a burst of keys that are read only once (for
+ * example, a scan of old resource events) from flushing out the keys that are
+ * read on every iteration of the bot.
+ *
+ * Thread safe: cached values are held in a ConcurrentHashMap, so reads never
+ * block. The eviction policy is guarded by policyLock, which is always acquired
+ * by writes, but only opportunistically (tryLock) by reads: if another thread
+ * holds the lock, the read is not recorded by the policy, which only makes the
+ * LRU order and frequency estimates slightly less precise.
+ */
+class BoundedKVCache {
+
+	/** Approximate JVM overhead of a cache entry (map entry, string headers) */
+	private static final int ENTRY_OVERHEAD_IN_BYTES = 96;
+
+	private final ConcurrentHashMap<String /* key */, String /* value */> data = new ConcurrentHashMap<>();
+
+	private final ReentrantLock policyLock = new ReentrantLock();
+
+	/** Acquire policyLock when accessing. */
+	private final LinkedHashMap<String /* key */, String /* value */> window = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Acquire policyLock when accessing. */
+	private final LinkedHashMap<String /* key */, String /* value */> main = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Acquire policyLock when accessing. */
+	private final FrequencySketch sketch;
+
+	private final int maxWindowEntries;
+
+	private final int maxMainEntries;
+
+	/** A value of 0 means the cache is bounded only by the number of entries. */
+	private final long maxWeightInBytes;
+
+	/** Acquire policyLock when accessing. */
+	private long weightInBytes_synch_policyLock = 0;
+
+	/** Acquire policyLock when accessing. */
+	private long evictions_synch_policyLock = 0;
+
+	/** Acquire policyLock when accessing. */
+	private long rejections_synch_policyLock = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public BoundedKVCache(int maxEntries, long maxWeightInBytes) {
+		if (maxEntries < 2) {
+			throw new IllegalArgumentException("Cache must contain at least 2 entries: " + maxEntries);
+		}
+
+		this.maxWindowEntries = Math.max(1, maxEntries / 100);
+		this.maxMainEntries = maxEntries - maxWindowEntries;
+		this.maxWeightInBytes = maxWeightInBytes;
+		this.sketch = new FrequencySketch(maxEntries);
+	}
+
+	/** Returns the cached value, or null if not cached. */
+	public String get(String key) {
+
+		String result = data.get(key);
+
+		if (result != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+
+		if (policyLock.tryLock()) {
+			try {
+				sketch.increment(key);
+
+				// Move to the most recently used position
+				if (result != null && window.get(key) == null) {
+					main.get(key);
+				}
+			} finally {
+				policyLock.unlock();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the cached value, or null if not cached, without affecting
+	 * statistics or eviction order.
+	 */
+	public String peek(String key) {
+		return data.get(key);
+	}
+
+	public void put(String key, String value) {
+
+		try {
+			policyLock.lock();
+
+			data.put(key, value);
+
+			String oldValue = window.get(key);
+			if (oldValue != null) {
+				window.put(key, value);
+				weightInBytes_synch_policyLock += weigh(key, value) - weigh(key, oldValue);
+				evictForWeight();
+				return;
+			}
+
+			oldValue = main.get(key);
+			if (oldValue != null) {
+				main.put(key, value);
+				weightInBytes_synch_policyLock += weigh(key, value) - weigh(key, oldValue);
+				evictForWeight();
+				return;
+			}
+
+			window.put(key, value);
+			weightInBytes_synch_policyLock += weigh(key, value);
+
+			while (window.size() > maxWindowEntries) {
+				Iterator<Entry<String, String>> it = window.entrySet().iterator();
+				Entry<String, String> candidate = it.next();
+				it.remove();
+
+				admitToMain(candidate.getKey(), candidate.getValue());
+			}
+
+			evictForWeight();
+
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	public void remove(String key) {
+		try {
+			policyLock.lock();
+
+			data.remove(key);
+
+			String oldValue = window.remove(key);
+			if (oldValue == null) {
+				oldValue = main.remove(key);
+			}
+
+			if (oldValue != null) {
+				weightInBytes_synch_policyLock -= weigh(key, oldValue);
+			}
+
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	/** Remove every entry; the statistics and frequency estimates are kept. */
+	public void clear() {
+		try {
+			policyLock.lock();
+
+			data.clear();
+			window.clear();
+			main.clear();
+			weightInBytes_synch_policyLock = 0;
+
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	public CacheStatistics getStatistics() {
+		try {
+			policyLock.lock();
+
+			return new CacheStatistics(hits.sum(), misses.sum(), evictions_synch_policyLock,
+					rejections_synch_policyLock, data.size(), weightInBytes_synch_policyLock);
+
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	/**
+	 * The candidate has been pushed out of the window: add it to the main area if
+	 * there is room, or if it is more popular than the least recently used main
+	 * entry. Acquire policyLock before calling.
+	 */
+	private void admitToMain(String candidateKey, String candidateValue) {
+
+		if (main.size() < maxMainEntries) {
+			main.put(candidateKey, candidateValue);
+			return;
+		}
+
+		Entry<String, String> victim = main.entrySet().iterator().next();
+
+		if (sketch.frequency(candidateKey) > sketch.frequency(victim.getKey())) {
+			main.remove(victim.getKey());
+			data.remove(victim.getKey());
+			weightInBytes_synch_policyLock -= weigh(victim.getKey(), victim.getValue());
+			evictions_synch_policyLock++;
+
+			main.put(candidateKey, candidateValue);
+
+		} else {
+			data.remove(candidateKey);
+			weightInBytes_synch_policyLock -= weigh(candidateKey, candidateValue);
+			rejections_synch_policyLock++;
+		}
+	}
+
+	/**
+	 * Evict least recently used entries until we are within the byte budget.
+	 * Acquire policyLock before calling.
+	 */
+	private void evictForWeight() {
+		if (maxWeightInBytes <= 0) {
+			return;
+		}
+
+		while (weightInBytes_synch_policyLock > maxWeightInBytes && (main.size() > 0 || window.size() > 1)) {
+			Map<String, String> from = main.size() > 0 ? main : window;
+
+			Iterator<Entry<String, String>> it = from.entrySet().iterator();
+			Entry<String, String> victim = it.next();
+			it.remove();
+			data.remove(victim.getKey());
+
+			weightInBytes_synch_policyLock -= weigh(victim.getKey(), victim.getValue());
+			evictions_synch_policyLock++;
+		}
+	}
+
+	private static long weigh(String key, String value) {
+		return ENTRY_OVERHEAD_IN_BYTES + 2l * (key.length() + value.length());
+	}
+
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.eclipse.codewind.ghbot.utils.Logger;
+import org.eclipse.codewind.ghbot.utils.Utils;
+
+/**
+ * Reads every key/value pair of a store, by splitting the (sorted) list of keys
+ * into chunks, and reading up to 'parallelism' chunks at a time with multiGet.
+ * Progress is logged every few seconds. This is the default implementation of
+ * IKVStore.bulkLoad(...).
+ */
+class BulkLoader {
+
+	static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	private static final long PROGRESS_INTERVAL_IN_MSECS = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+	private final Logger log = Logger.getInstance();
+
+	private final IKVStore store;
+
+	private final int parallelism;
+
+	private final int chunkSize;
+
+	BulkLoader(IKVStore store, int parallelism, int chunkSize) {
+		if (parallelism <= 0 || chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid parallelism / chunk size: " + parallelism + " " + chunkSize);
+		}
+
+		this.store = store;
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+	}
+
+	/** Returns the number of key/value pairs passed to 'consumer'. */
+	long load(BiConsumer<String, String> consumer) {
+
+		List<String> keys = store.getKeysByPrefix("");
+
+		if (keys.isEmpty()) {
+			return 0;
+		}
+
+		AtomicLong keysRead = new AtomicLong();
+		AtomicLong valuesLoaded = new AtomicLong();
+
+		long startTime = System.currentTimeMillis();
+		AtomicLong lastProgress = new AtomicLong(startTime);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService es = Executors.newFixedThreadPool(Math.min(parallelism, (keys.size() / chunkSize) + 1), r -> {
+			Thread t = new Thread(r, BulkLoader.class.getName() + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+
+			for (int start = 0; start < keys.size(); start += chunkSize) {
+				List<String> chunk = keys.subList(start, Math.min(keys.size(), start + chunkSize));
+
+				futures.add(es.submit(() -> {
+					store.multiGet(chunk).forEach((key, value) -> {
+						consumer.accept(key, value);
+						valuesLoaded.incrementAndGet();
+					});
+
+					long read = keysRead.addAndGet(chunk.size());
+
+					long now = System.currentTimeMillis();
+					long last = lastProgress.get();
+					if (now - last >= PROGRESS_INTERVAL_IN_MSECS && lastProgress.compareAndSet(last, now)) {
+						log.out("Loaded " + read + " of " + keys.size() + " database keys ("
+								+ (100 * read / keys.size()) + "%)");
+					}
+				}));
+			}
+
+			for (Future<?> f : futures) {
+				f.get();
+			}
+
+		} catch (InterruptedException e) {
+			Utils.throwAsUnchecked(e);
+
+		} catch (ExecutionException e) {
+			Utils.throwAsUnchecked(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+
+		} finally {
+			es.shutdownNow();
+		}
+
+		return valuesLoaded.get();
+	}
+}
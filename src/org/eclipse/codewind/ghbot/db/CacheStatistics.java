@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+/**
+ * Point-in-time snapshot of the counters of an InMemoryKVCache. Immutable, and
+ * thus thread safe.
+ */
+public class CacheStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long rejections;
+
+	private final long entries;
+	private final long weightInBytes;
+
+	public CacheStatistics(long hits, long misses, long evictions, long rejections, long entries,
+			long weightInBytes) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.rejections = rejections;
+		this.entries = entries;
+		this.weightInBytes = weightInBytes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/** Number of entries removed from the cache to stay within its budget. */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Number of new entries that were not admitted to the cache, because they
+	 * were accessed less frequently than the entry they would have replaced.
+	 */
+	public long getRejections() {
+		return rejections;
+	}
+
+	public long getEntries() {
+		return entries;
+	}
+
+	/** Estimated size of the cached keys and values. */
+	public long getWeightInBytes() {
+		return weightInBytes;
+	}
+
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + hits + ", misses: " + misses + ", hit rate: " + (int) (100 * getHitRate())
+				+ "%, evictions: " + evictions + ", rejections: " + rejections + ", entries: " + entries
+				+ ", weight: " + weightInBytes;
+	}
+}
@@ -11,13 +11,22 @@
 
 package org.eclipse.codewind.ghbot.db;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
 
 import org.eclipse.codewind.ghbot.utils.Logger;
 
@@ -32,35 +41,97 @@
  * This behaviour can be enabled in the bot using the 'ephemeralDBWrites'
  * feature flag. This is useful for testing a release before deploying it to
  * production.
+ * 
+ * At startup, the inner database is read in parallel chunks (see
+ * IKVStore.bulkLoad), or, if a snapshot file is specified and exists, from that
+ * file (see KVSnapshot).
+ * 
+ * Thread safe: the contents are held in a ConcurrentSkipListMap, which is also
+ * sorted by key, so getKeysByPrefix is a range query. Reads and writes of keys
+ * (including multiGet) hold the read lock of 'batchLock', and so proceed in
+ * parallel; commit(...) holds the write lock, so that a batch is applied
+ * atomically. Prefix scans are weakly consistent, as before. compareAndSet
+ * uses the atomic operations of the map.
  */
 public class EphemeralWritesKVStore implements IKVStore {
 
 	private static final boolean DEBUG = false;
 
+	public static final int DEFAULT_LOAD_PARALLELISM = 8;
+
 	private final Logger log = Logger.getInstance();
 
-	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private final ConcurrentSkipListMap<String /* key */, String /* value */> map = new ConcurrentSkipListMap<>();
 
-	private final Lock readLock = rwLock.readLock();
-	private final Lock writeLock = rwLock.writeLock();
+	private final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
 
-	/** Acquire read or write lock when accessing. */
-	private final Map<String /* key */, String /* value */> map = new HashMap<>();
+	/** Time taken to load the contents of the inner database (or snapshot file) */
+	private final long loadTimeInMsecs;
 
 	public EphemeralWritesKVStore(IKVStore innerDb) {
+		this(innerDb, null, DEFAULT_LOAD_PARALLELISM);
+	}
+
+	/**
+	 * @param snapshotFile if non-null, and the file exists, the contents are loaded
+	 *                     from this file (see KVSnapshot) rather than from the
+	 *                     inner database. If non-null, and the file does not
+	 *                     exist, it is created after loading the inner database,
+	 *                     so that the next start is faster.
+	 * @param parallelism  maximum number of concurrent reads of the inner database
+	 */
+	public EphemeralWritesKVStore(IKVStore innerDb, File snapshotFile, int parallelism) {
+
+		long startTime = System.currentTimeMillis();
 
-		// Copy the contents of the inner database into our map
-		innerDb.getKeysByPrefix("").forEach(key -> {
+		long loaded;
 
-			String value = innerDb.getString(key).orElse(null);
+		if (snapshotFile != null && snapshotFile.exists()) {
 
-			if (value == null || value.trim().isEmpty()) {
-				log.err("Database key '" + key + "' had empty value:" + value);
+			try {
+				log.out("Loading database from snapshot " + snapshotFile + ", created "
+						+ new Date(KVSnapshot.readTimeCreated(snapshotFile)));
+
+				loaded = KVSnapshot.read(snapshotFile, this::putLoadedValue);
+
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
-			map.put(key, value);
 
-		});
+		} else {
+			// Copy the contents of the inner database into our map
+			loaded = innerDb.bulkLoad(parallelism, this::putLoadedValue);
+
+			if (snapshotFile != null) {
+				try {
+					KVSnapshot.write(this, snapshotFile);
+					log.out("Wrote database snapshot to " + snapshotFile);
+				} catch (IOException e) {
+					// Not fatal: the next start will read the inner database again
+					log.err("Unable to write database snapshot to " + snapshotFile + ": " + e.getMessage());
+				}
+			}
+		}
+
+		loadTimeInMsecs = System.currentTimeMillis() - startTime;
+
+		log.out("Loaded " + loaded + " database keys in " + loadTimeInMsecs + " msecs.");
+	}
+
+	private void putLoadedValue(String key, String value) {
+
+		if (value == null || value.trim().isEmpty()) {
+			log.err("Database key '" + key + "' had empty value:" + value);
+		}
+
+		if (value != null) {
+			map.put(key, value);
+		}
+	}
 
+	/** Time taken to load the initial contents, in msecs. */
+	public long getLoadTimeInMsecs() {
+		return loadTimeInMsecs;
 	}
 
 	@Override
@@ -71,48 +142,106 @@ public void persistString(String key, String value) {
 		if (DEBUG) {
 			log.out("* Write " + key + " -> " + value);
 		}
+
+		Lock readLock = batchLock.readLock();
 		try {
-			writeLock.lock();
+			readLock.lock();
 			map.put(key, value);
 		} finally {
-			writeLock.unlock();
+			readLock.unlock();
 		}
-
 	}
 
 	@Override
 	public Optional<String> getString(String key) {
 
-		try {
+		String resultStr;
 
+		Lock readLock = batchLock.readLock();
+		try {
 			readLock.lock();
+			resultStr = map.get(key);
+		} finally {
+			readLock.unlock();
+		}
 
-			String resultStr = map.get(key);
+		if (DEBUG) {
+			log.out("* Read " + key + " -> " + resultStr);
+		}
 
-			if (DEBUG) {
-				log.out("* Read " + key + " -> " + resultStr);
-			}
+		return Optional.ofNullable(resultStr);
+	}
+
+	@Override
+	public boolean removeByKey(String key) {
 
-			return Optional.ofNullable(resultStr);
+		boolean result;
 
+		Lock readLock = batchLock.readLock();
+		try {
+			readLock.lock();
+			result = map.remove(key) != null;
 		} finally {
 			readLock.unlock();
+		}
 
+		if (DEBUG) {
+			log.out("* Removed" + key + ", with result " + result);
 		}
+
+		return result;
 	}
 
 	@Override
-	public boolean removeByKey(String key) {
-		try {
+	public List<String> getKeysByPrefix(String prefix) {
+		String fPrefix = prefix == null ? "" : prefix;
 
-			writeLock.lock();
+		List<String> result = new ArrayList<>(fPrefix.isEmpty() ? map.keySet()
+				: map.subMap(fPrefix, true, fPrefix + Character.MAX_VALUE, false).keySet());
+
+		if (DEBUG) {
+			log.out("* Returned keys by prefix: " + result);
+		}
+
+		return result;
+	}
 
-			boolean result = map.remove(key) != null;
-			if (DEBUG) {
-				log.out("* Removed" + key + ", with result " + result);
+	@Override
+	public Map<String, String> multiGet(Collection<String> keys) {
+		Map<String, String> result = new LinkedHashMap<>();
+
+		Lock readLock = batchLock.readLock();
+		try {
+			readLock.lock();
+
+			for (String key : keys) {
+				String value = map.get(key);
+				if (value != null) {
+					result.put(key, value);
+				}
 			}
 
-			return result;
+		} finally {
+			readLock.unlock();
+		}
+
+		return result;
+	}
+
+	@Override
+	public void commit(KVBatch batch) {
+
+		Lock writeLock = batchLock.writeLock();
+		try {
+			writeLock.lock();
+
+			batch.getOperations().forEach((key, value) -> {
+				if (value != null) {
+					map.put(key, value);
+				} else {
+					map.remove(key);
+				}
+			});
 
 		} finally {
 			writeLock.unlock();
@@ -120,22 +249,45 @@ public boolean removeByKey(String key) {
 	}
 
 	@Override
-	public List<String> getKeysByPrefix(String prefix) {
-		try {
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
 
+		Lock readLock = batchLock.readLock();
+		try {
 			readLock.lock();
 
-			List<String> result = map.keySet().stream().filter(e -> e.startsWith(prefix)).collect(Collectors.toList());
-
-			if (DEBUG) {
-				log.out("* Returned keys by prefix: " + result);
+			if (expectedValue == null) {
+				return newValue == null ? !map.containsKey(key) : map.putIfAbsent(key, newValue) == null;
+			} else if (newValue == null) {
+				return map.remove(key, expectedValue);
+			} else {
+				return map.replace(key, expectedValue, newValue);
 			}
 
-			return result;
-
 		} finally {
 			readLock.unlock();
 		}
 	}
 
+	@Override
+	public KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		KVPage.checkPageSize(pageSize);
+
+		List<Entry<String, String>> entries = new ArrayList<>();
+
+		String lastKey = null;
+
+		Iterator<String> it = KVPage.keysInRange(map.navigableKeySet(), prefix, startAfterKey).iterator();
+		while (entries.size() < pageSize && it.hasNext()) {
+			String key = it.next();
+			lastKey = key;
+
+			String value = map.get(key);
+			if (value != null) {
+				entries.add(new SimpleImmutableEntry<>(key, value));
+			}
+		}
+
+		return new KVPage(entries, it.hasNext() ? lastKey : null);
+	}
+
 }
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.eclipse.codewind.ghbot.utils.BotConstants;
+import org.eclipse.codewind.ghbot.utils.Logger;
+
+/**
+ * Adds support for keys that expire (persistString(key, value, expireAt)) to
+ * the inner database (constructor param).
+ *
+ * The expire time of a key is stored in the value of the key itself, between
+ * two (U+0001) marker characters; the marker cannot be the first character of a
+ * value written without an expiry (see BinaryValueCodec for a similar scheme).
+ * Values are returned by this class without the expire time. An expiry index is stored in the inner
+ * database as one record per time bucket, listing the keys that expire in that
+ * bucket:
+ *
+ * <pre>
+ * [key] -> [marker][expire time in msecs][marker][value]
+ * expiry-index-[start of the time bucket, in msecs, zero padded] -> [key]\n[key]\n...
+ * </pre>
+ *
+ * An expiring write is thus one write of the key, plus (only for the first key
+ * of the key's bucket to be written) one write of the bucket record. Writes
+ * without an expiry (and removes) are a single write of the inner database: a
+ * value written without an expiry has no expire time, so a key that is later
+ * written again without an expiry (or with a later one), or removed, is simply
+ * skipped when its bucket is reached.
+ *
+ * Since the bucket start time is zero padded, the bucket records are sorted by
+ * bucket, so the next keys to expire are always in the first records of a scan
+ * of the 'expiry-index-' prefix. A background thread expires keys in small
+ * slices (at most 'maxKeysPerSlice' keys every 'sliceIntervalInMsecs'), and
+ * only reads buckets that have ended; the cost of expiry is thus proportional
+ * to the number of keys that expire, rather than to the number of keys stored.
+ *
+ * Keys are removed shortly after their bucket ends (up to BUCKET_SIZE_IN_MSECS
+ * plus one slice interval after they expire); until then they remain readable.
+ *
+ * Thread safe, if the inner database is thread safe: writes to a key, and the
+ * expiry of that key, hold the lock of the key (see LockStripes), so that a key
+ * that is written again while it is being expired is not removed.
+ */
+public class ExpiringKVStore implements IKVStore {
+
+	static final String PREFIX_EXPIRY_INDEX = "expiry-index-";
+
+	static final long BUCKET_SIZE_IN_MSECS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+	private static final char MARKER = '\u0001';
+
+	private static final int LOCK_STRIPES = 64;
+
+	/** Number of bucket records read at a time by expireSlice(...). */
+	private static final int BUCKET_PAGE_SIZE = 16;
+
+	private final Logger log = Logger.getInstance();
+
+	private final LockStripes locks = new LockStripes(LOCK_STRIPES);
+
+	/**
+	 * Synchronize on this when reading and writing bucket records; always acquired
+	 * after the locks of the keys (if any).
+	 */
+	private final Object indexLock = new Object();
+
+	private final IKVStore innerDb;
+
+	private final int maxKeysPerSlice;
+
+	private final AtomicLong keysExpired = new AtomicLong();
+
+	private final ExpiryThread expiryThread;
+
+	/**
+	 * @param sliceIntervalInMsecs how often the background thread expires keys, or
+	 *                             0 to not start the thread (expireSlice(...) must
+	 *                             then be called by the caller).
+	 */
+	public ExpiringKVStore(IKVStore innerDb, long sliceIntervalInMsecs, int maxKeysPerSlice) {
+		if (maxKeysPerSlice <= 0) {
+			throw new IllegalArgumentException("Invalid max keys per slice: " + maxKeysPerSlice);
+		}
+
+		this.innerDb = innerDb;
+		this.maxKeysPerSlice = maxKeysPerSlice;
+
+		if (sliceIntervalInMsecs > 0) {
+			expiryThread = new ExpiryThread(sliceIntervalInMsecs);
+			expiryThread.start();
+		} else {
+			expiryThread = null;
+		}
+	}
+
+	@Override
+	public void persistString(String key, String value) {
+
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
+			writeLock.lock();
+
+			innerDb.persistString(key, value);
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Store the value, and remove the key at some point after 'expireAtInMsecs'
+	 * (epoch msecs).
+	 */
+	public void persistString(String key, String value, long expireAtInMsecs) {
+		if (key == null || value == null) {
+			throw new RuntimeException("Invalid key or value " + key + " " + value);
+		}
+
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
+			writeLock.lock();
+
+			// The key is added to the index first, so that an expiring key is never left
+			// without an index entry.
+			String bucketKey = bucketKey(expireAtInMsecs);
+			synchronized (indexLock) {
+				Set<String> bucketKeys = readBucket(bucketKey);
+				if (bucketKeys.add(key)) {
+					writeBucket(bucketKey, bucketKeys);
+				}
+			}
+
+			innerDb.persistString(key, MARKER + Long.toString(expireAtInMsecs) + MARKER + value);
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public Optional<String> getString(String key) {
+		return innerDb.getString(key).map(ExpiringKVStore::stripExpiry);
+	}
+
+	@Override
+	public boolean removeByKey(String key) {
+
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
+			writeLock.lock();
+
+			return innerDb.removeByKey(key);
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public List<String> getKeysByPrefix(String prefix) {
+		return innerDb.getKeysByPrefix(prefix);
+	}
+
+	@Override
+	public Map<String, String> multiGet(Collection<String> keys) {
+		Map<String, String> result = new LinkedHashMap<>();
+		innerDb.multiGet(keys).forEach((key, value) -> result.put(key, stripExpiry(value)));
+		return result;
+	}
+
+	@Override
+	public KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		KVPage page = innerDb.scanPrefix(prefix, startAfterKey, pageSize);
+
+		List<Entry<String, String>> entries = new ArrayList<>();
+		page.getEntries()
+				.forEach(e -> entries.add(new SimpleImmutableEntry<>(e.getKey(), stripExpiry(e.getValue()))));
+
+		return new KVPage(entries, page.getNextStartAfterKey());
+	}
+
+	/** Writes in the batch clear any expiry of their keys, as in persistString(...). */
+	@Override
+	public void commit(KVBatch batch) {
+		locks.runWithLocks(batch.getOperations().keySet(), true, () -> innerDb.commit(batch));
+	}
+
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
+			writeLock.lock();
+
+			// The stored value may include an expire time, which the caller does not see
+			String storedValue = innerDb.getString(key).orElse(null);
+			if (!Objects.equals(expectedValue, storedValue != null ? stripExpiry(storedValue) : null)) {
+				return false;
+			}
+
+			return innerDb.compareAndSet(key, storedValue, newValue);
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public long compact() {
+		return innerDb.compact();
+	}
+
+	@Override
+	public void flush() {
+		innerDb.flush();
+	}
+
+	/** Total number of keys removed by expiry since this instance was created. */
+	public long getKeysExpired() {
+		return keysExpired.get();
+	}
+
+	/**
+	 * Remove (at most 'maxKeysPerSlice') expired keys, from the index buckets that
+	 * ended before 'nowInMsecs'. Returns the number of keys removed.
+	 */
+	public int expireSlice(long nowInMsecs) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return 0;
+		}
+
+		KVPage page = innerDb.scanPrefix(PREFIX_EXPIRY_INDEX, null, BUCKET_PAGE_SIZE);
+
+		Map<String /* key */, Long /* end of its bucket */> candidates = new LinkedHashMap<>();
+		Map<String /* bucket key */, List<String> /* keys */> bucketsRead = new LinkedHashMap<>();
+
+		for (Entry<String, String> e : page.getEntries()) {
+
+			long bucket = Long.parseLong(e.getKey().substring(PREFIX_EXPIRY_INDEX.length()));
+
+			if (bucket + BUCKET_SIZE_IN_MSECS > nowInMsecs) {
+				// This bucket (and every bucket after it) has not yet ended
+				break;
+			}
+
+			List<String> keys = new ArrayList<>();
+			for (String key : parseBucket(e.getValue())) {
+				if (candidates.size() == maxKeysPerSlice) {
+					break;
+				}
+				if (candidates.putIfAbsent(key, bucket + BUCKET_SIZE_IN_MSECS) == null) {
+					keys.add(key);
+				}
+			}
+			bucketsRead.put(e.getKey(), keys);
+
+			if (candidates.size() == maxKeysPerSlice) {
+				break;
+			}
+		}
+
+		if (bucketsRead.isEmpty()) {
+			return 0;
+		}
+
+		int removed = locks.callWithLocks(candidates.keySet(), true, () -> {
+
+			// Only expire keys whose current expiry is in a bucket that has ended (this
+			// one, or an earlier one)
+			List<String> toRemove = new ArrayList<>();
+			innerDb.multiGet(candidates.keySet()).forEach((key, value) -> {
+				long expireAt = getExpireAt(value);
+				if (expireAt >= 0 && expireAt < candidates.get(key)) {
+					toRemove.add(key);
+				}
+			});
+
+			innerDb.multiRemove(toRemove);
+
+			// Remove the keys read from their buckets, while still holding the locks of
+			// the keys, so that a key that is written again is added back afterwards.
+			synchronized (indexLock) {
+				bucketsRead.forEach((bucketKey, keys) -> {
+					Set<String> bucketKeys = readBucket(bucketKey);
+					bucketKeys.removeAll(keys);
+					writeBucket(bucketKey, bucketKeys);
+				});
+			}
+
+			return toRemove.size();
+		});
+
+		keysExpired.addAndGet(removed);
+
+		return removed;
+	}
+
+	/** Returns the value without its expire time, if it has one. */
+	private static String stripExpiry(String storedValue) {
+		if (storedValue.isEmpty() || storedValue.charAt(0) != MARKER) {
+			return storedValue;
+		}
+		return storedValue.substring(storedValue.indexOf(MARKER, 1) + 1);
+	}
+
+	/** Returns the expire time of the value, or -1 if it has none. */
+	private static long getExpireAt(String storedValue) {
+		if (storedValue.isEmpty() || storedValue.charAt(0) != MARKER) {
+			return -1;
+		}
+		return Long.parseLong(storedValue.substring(1, storedValue.indexOf(MARKER, 1)));
+	}
+
+	/** Synchronize on indexLock before calling. */
+	private Set<String> readBucket(String bucketKey) {
+		return innerDb.getString(bucketKey).map(ExpiringKVStore::parseBucket).orElseGet(LinkedHashSet::new);
+	}
+
+	/** Synchronize on indexLock before calling; an empty bucket is removed. */
+	private void writeBucket(String bucketKey, Set<String> keys) {
+		if (keys.isEmpty()) {
+			innerDb.removeByKey(bucketKey);
+		} else {
+			innerDb.persistString(bucketKey, String.join("\n", keys));
+		}
+	}
+
+	private static Set<String> parseBucket(String value) {
+		Set<String> result = new LinkedHashSet<>();
+		for (String key : value.split("\n")) {
+			if (!key.isEmpty()) {
+				result.add(key);
+			}
+		}
+		return result;
+	}
+
+	private static String bucketKey(long expireAtInMsecs) {
+		long bucket = expireAtInMsecs - Math.floorMod(expireAtInMsecs, BUCKET_SIZE_IN_MSECS);
+		return PREFIX_EXPIRY_INDEX + String.format("%013d", bucket);
+	}
+
+	/** Expires a slice of keys every X milliseconds. */
+	private class ExpiryThread extends Thread {
+
+		private final long sliceIntervalInMsecs;
+
+		public ExpiryThread(long sliceIntervalInMsecs) {
+			this.sliceIntervalInMsecs = sliceIntervalInMsecs;
+			setDaemon(true);
+			setName(ExpiryThread.class.getName());
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(sliceIntervalInMsecs);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					int removed = expireSlice(System.currentTimeMillis());
+					if (removed > 0) {
+						log.out("Expired " + removed + " database keys.");
+					}
+				} catch (Exception e) {
+					// Prevent exceptions from ending the thread.
+					log.err("Unable to expire database keys: " + e.getMessage());
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
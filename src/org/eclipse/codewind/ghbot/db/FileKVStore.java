@@ -15,68 +15,173 @@
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
 
 import org.eclipse.codewind.ghbot.utils.BotConstants;
+import org.eclipse.codewind.ghbot.utils.Logger;
 import org.eclipse.codewind.ghbot.utils.Utils;
 
 /**
- * Simple key/value store that writes to the local file system. Thread safe: a
- * RWlock ensures that only one write operation occurs at a time, and ensures
- * there are no reads during a write.
+ * Simple key/value store that writes to the local file system. Thread safe: each
+ * key maps to one of a set of RWlocks (see LockStripes), which ensures that only
+ * one write operation occurs at a time for a given key, and ensures there are no
+ * reads of that key during a write. Operations on unrelated keys proceed in
+ * parallel.
+ * 
+ * Each key is stored in its own file, under one of 256 subdirectories of the
+ * 'keys' directory (based on the hash of the key), to avoid a single directory
+ * containing tens of thousands of files. A sorted index of all keys is read
+ * from disk once (at construction), and maintained in memory thereafter, so
+ * that getKeysByPrefix is a range query rather than a directory listing.
+ * 
+ * If 'mappedReads' is enabled, values are read through a FileChannel rather
+ * than a FileInputStream: small values (the common case, eg a timestamp) are
+ * read into a per-thread buffer that is reused across reads, and larger values
+ * are memory-mapped; either way, the bytes are decoded directly into the
+ * resulting String, without intermediate copies.
  */
 @SuppressWarnings("unused")
 public class FileKVStore implements IKVStore {
 
-	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private static final int NUMBER_OF_SHARDS = 256;
 
-	private final Lock readLock = rwLock.readLock();
-	private final Lock writeLock = rwLock.writeLock();
+	private static final int LOCK_STRIPES = 64;
 
-	private final File outputDirectory;
+	/** 'mappedReads' only: values larger than this are memory-mapped. */
+	private static final int MAX_BUFFERED_READ_SIZE = 16 * 1024;
+
+	/** 'mappedReads' only: the read buffer of each thread. */
+	private static final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocate(MAX_BUFFERED_READ_SIZE));
+
+	private final LockStripes locks = new LockStripes(LOCK_STRIPES);
+
+	private final Logger log = Logger.getInstance();
+
+	private final File keysDirectory;
+
+	private final boolean mappedReads;
+
+	/**
+	 * Sorted set of all keys on disk; updated while holding the lock for the key
+	 * being changed.
+	 */
+	private final ConcurrentSkipListSet<String /* key */> keyIndex = new ConcurrentSkipListSet<>();
+
+	/**
+	 * READONLY_DATABASE only: keys whose files are still in the flat layout (see
+	 * migrateFlatLayout()), which cannot be moved as the database is read only.
+	 * Not modified after construction.
+	 */
+	private final Set<String /* key */> flatKeys = new HashSet<>();
 
 	public FileKVStore(File outputDirectory) {
-		this.outputDirectory = outputDirectory;
+		this(outputDirectory, false);
+	}
+
+	public FileKVStore(File outputDirectory, boolean mappedReads) {
+		this.keysDirectory = new File(outputDirectory, "keys");
+		this.mappedReads = mappedReads;
+
+		if (!BotConstants.READONLY_DATABASE) {
+			migrateFlatLayout();
+		} else {
+			loadFlatKeys();
+		}
+
+		loadKeyIndex();
 	}
 
+	/** Acquire the read or write lock of the key before calling. */
 	private Optional<String> readFromFile(File f) {
+		if (mappedReads) {
+			return readFromFileChannel(f);
+		}
+
+		if (!f.exists()) {
+			return Optional.empty();
+		}
+
+		StringBuilder sb = new StringBuilder();
+
 		try {
-			readLock.lock();
 
-			if (!f.exists()) {
-				return Optional.empty();
+			byte[] barr = new byte[1024 * 64];
+			int c;
+
+			FileInputStream fis = new FileInputStream(f);
+			while (-1 != (c = fis.read(barr))) {
+
+				sb.append(new String(barr, 0, c));
 			}
+			fis.close();
+
+		} catch (IOException e) {
+			System.err.println("Error from file: " + f.getPath());
+			Utils.throwAsUnchecked(e);
+		}
 
-			StringBuilder sb = new StringBuilder();
+		return Optional.of(sb.toString());
+	}
 
-			try {
+	/**
+	 * Read the file through a FileChannel ('mappedReads' mode). Acquire the read or
+	 * write lock of the key before calling.
+	 */
+	private Optional<String> readFromFileChannel(File f) {
+
+		try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
 
-				byte[] barr = new byte[1024 * 64];
-				int c;
+			long size = fc.size();
 
-				FileInputStream fis = new FileInputStream(f);
-				while (-1 != (c = fis.read(barr))) {
+			if (size <= MAX_BUFFERED_READ_SIZE) {
+				ByteBuffer bb = readBuffers.get();
+				bb.clear();
+				bb.limit((int) size);
 
-					sb.append(new String(barr, 0, c));
+				while (bb.hasRemaining()) {
+					if (fc.read(bb) == -1) {
+						break;
+					}
 				}
-				fis.close();
 
-			} catch (IOException e) {
-				System.err.println("Error from file: " + f.getPath());
-				Utils.throwAsUnchecked(e);
+				return Optional.of(new String(bb.array(), 0, bb.position(), Charset.defaultCharset()));
 			}
 
-			return Optional.of(sb.toString());
+			MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
 
-		} finally {
-			readLock.unlock();
+			return Optional.of(Charset.defaultCharset().decode(mbb).toString());
+
+		} catch (NoSuchFileException e) {
+			return Optional.empty();
+
+		} catch (IOException e) {
+			System.err.println("Error from file: " + f.getPath());
+			Utils.throwAsUnchecked(e);
 		}
+
+		return Optional.empty();
 	}
 
 	private void writeToFile(List<String> contents, File f) {
@@ -90,6 +195,7 @@ private void writeToFile(List<String> contents, File f) {
 
 	}
 
+	/** Acquire the write lock of the key before calling. */
 	private void writeToFile(String contents, File f) {
 
 		if (BotConstants.READONLY_DATABASE) {
@@ -102,29 +208,22 @@ private void writeToFile(String contents, File f) {
 			return;
 		}
 
-		try {
-			writeLock.lock();
-
-			f.getParentFile().mkdirs();
-
-			FileWriter fw = null;
-			try {
-				fw = new FileWriter(f);
-				fw.write(contents);
-				fw.close();
-			} catch (IOException e) {
-				Utils.throwAsUnchecked(e);
-			} finally {
-				if (fw != null) {
-					try {
-						fw.close();
-					} catch (IOException e) {
-						/* ignore */ }
-				}
-			}
+		f.getParentFile().mkdirs();
 
+		FileWriter fw = null;
+		try {
+			fw = new FileWriter(f);
+			fw.write(contents);
+			fw.close();
+		} catch (IOException e) {
+			Utils.throwAsUnchecked(e);
 		} finally {
-			writeLock.unlock();
+			if (fw != null) {
+				try {
+					fw.close();
+				} catch (IOException e) {
+					/* ignore */ }
+			}
 		}
 
 	}
@@ -137,11 +236,24 @@ private void writeToFile(String contents, File f) {
 	 */
 	@Override
 	public void persistString(String key, String value) {
-		File outputFile = new File(outputDirectory, "keys/" + key + ".txt");
+		File outputFile = keyFile(key);
 
 //		System.out.println("* Writing to database - " + key + " -> " + value);
 
-		writeToFile(value, outputFile);
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
+			writeLock.lock();
+
+			writeToFile(value, outputFile);
+			keyIndex.add(key);
+
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	/*
@@ -151,14 +263,13 @@ public void persistString(String key, String value) {
 	 */
 	@Override
 	public Optional<String> getString(String key) {
-		File inputFile = new File(outputDirectory, "keys/" + key + ".txt");
-		if (!inputFile.exists()) {
+
+		// Keys that are not in the index do not exist on disk.
+		if (!keyIndex.contains(key)) {
 			return Optional.empty();
 		}
 
-		String contents = readFromFile(inputFile).orElse(null);
-
-		return Optional.ofNullable(contents);
+		return readWithLock(key);
 	}
 
 	/*
@@ -169,15 +280,15 @@ public Optional<String> getString(String key) {
 	@Override
 	public boolean removeByKey(String key) {
 
+		Lock writeLock = locks.forKey(key).writeLock();
 		try {
 			writeLock.lock();
 
-			File inputFile = new File(outputDirectory, "keys/" + key + ".txt");
-			if (!inputFile.exists()) {
+			if (!keyIndex.remove(key)) {
 				return false;
 			}
 
-			return inputFile.delete();
+			return keyFile(key).delete();
 
 		} finally {
 			writeLock.unlock();
@@ -195,17 +306,203 @@ public List<String> getKeysByPrefix(String prefix) {
 
 		String fPrefix = prefix == null ? "" : prefix;
 
-		File keysDir = new File(outputDirectory, "keys");
-		if (!keysDir.exists()) {
-			return Collections.emptyList();
+		if (fPrefix.isEmpty()) {
+			return new ArrayList<>(keyIndex);
+		}
+
+		return new ArrayList<>(keyIndex.subSet(fPrefix, true, fPrefix + Character.MAX_VALUE, false));
+
+	}
+
+	/** Keys that are not in the index are skipped without touching the disk. */
+	@Override
+	public Map<String, String> multiGet(Collection<String> keys) {
+
+		Map<String, String> result = new LinkedHashMap<>();
+
+		for (String key : keys) {
+			if (!keyIndex.contains(key)) {
+				continue;
+			}
+
+			readWithLock(key).ifPresent(value -> result.put(key, value));
+		}
+
+		return result;
+	}
+
+	/** Pages are read directly from the in-memory key index. */
+	@Override
+	public KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		KVPage.checkPageSize(pageSize);
+
+		List<Entry<String, String>> entries = new ArrayList<>();
+
+		String lastKey = null;
+		int keysRead = 0;
+
+		Iterator<String> it = KVPage.keysInRange(keyIndex, prefix, startAfterKey).iterator();
+		while (keysRead < pageSize && it.hasNext()) {
+			String key = it.next();
+			lastKey = key;
+			keysRead++;
+
+			// The key may have been removed since we read the index
+			readWithLock(key).ifPresent(value -> entries.add(new SimpleImmutableEntry<>(key, value)));
+		}
+
+		return new KVPage(entries, it.hasNext() ? lastKey : null);
+	}
+
+	/**
+	 * The writes of the batch are applied while holding the locks of all of its
+	 * keys, so no reader of this store sees a partially applied batch. Each key is
+	 * still its own file, so the batch is not atomic with respect to a crash.
+	 */
+	@Override
+	public void commit(KVBatch batch) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		locks.runWithLocks(batch.getOperations().keySet(), true, () -> {
+			batch.getOperations().forEach((key, value) -> {
+				if (value != null) {
+					writeToFile(value, keyFile(key));
+					keyIndex.add(key);
+				} else if (keyIndex.remove(key)) {
+					keyFile(key).delete();
+				}
+			});
+		});
+	}
+
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
+			writeLock.lock();
+
+			String currentValue = keyIndex.contains(key) ? readFromFile(keyFile(key)).orElse(null) : null;
+			if (!Objects.equals(currentValue, expectedValue)) {
+				return false;
+			}
+
+			if (newValue != null) {
+				writeToFile(newValue, keyFile(key));
+				keyIndex.add(key);
+			} else if (keyIndex.remove(key)) {
+				keyFile(key).delete();
+			}
+
+			return true;
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private Optional<String> readWithLock(String key) {
+		Lock readLock = locks.forKey(key).readLock();
+		try {
+			readLock.lock();
+
+			return readFromFile(keyFile(key));
+
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	private File keyFile(String key) {
+		if (flatKeys.contains(key)) {
+			return new File(keysDirectory, key + ".txt");
+		}
+		return new File(shardDirectory(key), key + ".txt");
+	}
+
+	private File shardDirectory(String key) {
+		int shard = (key.hashCode() & 0x7fffffff) % NUMBER_OF_SHARDS;
+		return new File(keysDirectory, String.format("%02x", shard));
+	}
+
+	/** Read the key names of every file in every shard. */
+	private void loadKeyIndex() {
+
+		File[] shards = keysDirectory.listFiles(File::isDirectory);
+		if (shards == null) {
+			return;
+		}
+
+		for (File shard : shards) {
+			String[] files = shard.list();
+			if (files == null) {
+				continue;
+			}
+
+			for (String fileName : files) {
+				if (fileName.endsWith(".txt")) {
+					keyIndex.add(fileName.substring(0, fileName.lastIndexOf(".")));
+				}
+			}
+		}
+	}
+
+	/**
+	 * READONLY_DATABASE only: the flat layout cannot be migrated, so index and read
+	 * any flat files where they are.
+	 */
+	private void loadFlatKeys() {
+
+		File[] flatFiles = keysDirectory.listFiles(e -> e.isFile() && e.getName().endsWith(".txt"));
+		if (flatFiles == null || flatFiles.length == 0) {
+			return;
+		}
+
+		log.out("Database is read only; reading " + flatFiles.length
+				+ " database keys from the flat directory layout, without migrating them.");
+
+		for (File flatFile : flatFiles) {
+			String key = flatFile.getName().substring(0, flatFile.getName().lastIndexOf("."));
+			flatKeys.add(key);
+			keyIndex.add(key);
+		}
+	}
+
+	/**
+	 * Previous versions of this class stored every key directly under 'keys/'; move
+	 * any such files into their shard subdirectory.
+	 */
+	private void migrateFlatLayout() {
+
+		File[] flatFiles = keysDirectory.listFiles(e -> e.isFile() && e.getName().endsWith(".txt"));
+		if (flatFiles == null || flatFiles.length == 0) {
+			return;
 		}
 
-		return Arrays.asList(keysDir.listFiles()).stream().map(e -> e.getName()).filter(e -> e.startsWith(fPrefix))
-				.filter(e -> e.endsWith(".txt")).map(e -> {
-					int index = e.lastIndexOf(".");
-					return e.substring(0, index);
-				}).collect(Collectors.toList());
+		log.out("Migrating " + flatFiles.length + " database keys to sharded directory layout.");
+
+		for (File flatFile : flatFiles) {
+			String key = flatFile.getName().substring(0, flatFile.getName().lastIndexOf("."));
+
+			File dest = keyFile(key);
+			dest.getParentFile().mkdirs();
+
+			try {
+				Files.move(flatFile.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Utils.throwAsUnchecked(e);
+			}
+		}
 
+		log.out("Database key migration complete.");
 	}
 
 }
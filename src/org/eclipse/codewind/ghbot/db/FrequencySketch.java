@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+/**
+ * A count-min sketch that estimates how often each key has been accessed
+ * recently, in a fixed amount of memory. Counters saturate at 15, and all
+ * counters are halved after every 'sampleSize' increments, so that keys which
+ * were popular in the past (but no longer are) gradually lose their frequency.
+ *
+ * Used by BoundedKVCache to decide whether a new key is worth admitting to the
+ * cache, in place of an existing key.
+ *
+ * NOT thread safe.
+ */
+class FrequencySketch {
+
+	private static final int[] SEEDS = new int[] { 0x97cb3127, 0xc4ceb9fe, 0xa0761d64, 0x85ebca6b };
+
+	private static final int MAX_COUNT = 15;
+
+	private final byte[] table;
+
+	private final int rowMask;
+
+	private final int rowWidth;
+
+	private final int sampleSize;
+
+	private int additions = 0;
+
+	public FrequencySketch(int expectedEntries) {
+
+		// Each row has (at least) 4 counters per expected entry, to limit collisions
+		int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1)) << 3;
+
+		this.rowWidth = width;
+		this.rowMask = width - 1;
+		this.table = new byte[width * SEEDS.length];
+		this.sampleSize = 10 * Math.max(16, expectedEntries);
+	}
+
+	public void increment(String key) {
+
+		int hash = key.hashCode();
+
+		boolean added = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			int index = indexOf(hash, row);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+
+		if (added && ++additions >= sampleSize) {
+			age();
+		}
+	}
+
+	public int frequency(String key) {
+
+		int hash = key.hashCode();
+
+		int result = MAX_COUNT;
+		for (int row = 0; row < SEEDS.length; row++) {
+			result = Math.min(result, table[indexOf(hash, row)]);
+		}
+
+		return result;
+	}
+
+	private int indexOf(int hash, int row) {
+		int h = hash * SEEDS[row];
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return row * rowWidth + (h & rowMask);
+	}
+
+	/** Halve every counter, so that old accesses count for less over time. */
+	private void age() {
+		for (int x = 0; x < table.length; x++) {
+			table[x] = (byte) (table[x] >>> 1);
+		}
+		additions = additions >>> 1;
+	}
+
+}
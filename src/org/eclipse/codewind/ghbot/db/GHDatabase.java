@@ -11,24 +11,38 @@
 
 package org.eclipse.codewind.ghbot.db;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import org.eclipse.codewind.ghbot.utils.BotConstants;
 import org.eclipse.codewind.ghbot.utils.Logger;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.githubapimirror.client.api.GHRepository;
 
 /**
  * This class uses a given key-value store database (see constructor parameter
  * and IKVStore javadoc) to implement the queries described by each of the
  * methods of this class.
+ * 
+ * Resource events and last command timestamps are written with an expiry time,
+ * so the database must support expiring keys (see ExpiringKVStore).
+ * 
+ * The wait list, the verify pipeline issues, and the highest issue severities
+ * are read every iteration of the bot, so they are also held in in-memory
+ * indexes (by repository, then issue number), which are loaded from the
+ * database once, at construction, and then updated on every write. Reads of
+ * these do not go to the database.
  */
 public class GHDatabase {
 
@@ -36,21 +50,100 @@ public class GHDatabase {
 
 	private final String KEY_DATE_DATABASE_INITIALIZED = "dateDatabaseInitialized";
 	private final String KEY_LAST_CLEANUP_IN_MSECS = "lastCleanupInMsecs";
+	private final String KEY_EXPIRY_INITIALIZED = "expiryInitialized";
 
 	private static final String KEY_TIME_WHEN_STATS_REPORT_JOB_LAST_RUN = "statisticsReportJobLastRun";
 
 	private static final String KEY_LAST_ZHAM_EVENT_ID_SEEN = "lastZhamEventIdSeen";
 
-	private final static long ONE_DAY = TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS);
+	/** Followed by '-[cursor name]', if the name is not empty (see ResourceEventPoller) */
+	private static final String KEY_RESOURCE_EVENT_CURSOR = "resourceEventCursor";
 
-	private final IKVStore db;
+	private final static long RESOURCE_EVENT_RETENTION_IN_MSECS = TimeUnit.MILLISECONDS.convert(14, TimeUnit.DAYS);
 
-	public GHDatabase(IKVStore db) {
+	private final static long LAST_COMMAND_RETENTION_IN_MSECS = TimeUnit.MILLISECONDS
+			.convert(BotConstants.PROCESS_COMMANDS_LESS_THAN_X_DAYS_OLD, TimeUnit.DAYS);
+
+	private static final String PREFIX_RESOURCE_EVENT = "resource-event-";
+
+	private static final String PREFIX_WAIT_LIST = "wait-list-";
+
+	private static final String PREFIX_VERIFY_PIPELINE = "verify-pipeline-";
+
+	private static final String PREFIX_HIGHEST_ISSUE_SEVERITY = "highest-issue-severity-";
+
+	public static final long DEFAULT_EXPECTED_RESOURCE_EVENTS = 2_000_000;
+
+	public static final double DEFAULT_RESOURCE_EVENT_FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * Resource events and command timestamps are written with an expiry, and the
+	 * statistics report job run is claimed with compareAndSet.
+	 */
+	private final ExpiringKVStore db;
+
+	/** Converts timestamps and wait list entries to and from database values */
+	private final ValueCodec codec;
+
+	private final double resourceEventFalsePositiveRate;
+
+	/**
+	 * Every processed resource event UUID is added to this filter, so that most
+	 * calls to isResourceEventProcessed(...) for new events can be answered
+	 * without reading from the database.
+	 */
+	private volatile BloomFilter processedResourceEvents;
+
+	/**
+	 * Synchronize on this when adding to, or replacing, processedResourceEvents,
+	 * so that no entry is added to a filter that is being replaced.
+	 */
+	private final Object claimLock = new Object();
+
+	/**
+	 * Held while processedResourceEvents is rebuilt (from a scan of the database,
+	 * without holding claimLock), so that only one rebuild runs at a time.
+	 */
+	private final ReentrantLock rebuildLock = new ReentrantLock();
+
+	/**
+	 * Non-null while processedResourceEvents is rebuilt: the events processed
+	 * since the rebuild's scan started, which it may not have seen, and which are
+	 * added to the new filter before it replaces the old one. Synchronize on
+	 * claimLock when accessing.
+	 */
+	private List<String /* uuid */> processedDuringRebuild_synch_claimLock = null;
+
+	private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	/** Acquire read or write lock of indexLock when accessing. */
+	private final Map<String /* repo name */, IntHashMap<WaitListEntryJson>> waitListIndex = new HashMap<>();
+
+	/** Acquire read or write lock of indexLock when accessing. */
+	private final Map<String /* repo name */, BitSet /* issue numbers */> verifyPipelineIndex = new HashMap<>();
+
+	/** Acquire read or write lock of indexLock when accessing. */
+	private final Map<String /* owner_repo */, IntHashMap<String /* severity */>> severityIndex = new HashMap<>();
+
+	public GHDatabase(ExpiringKVStore db) {
+		this(db, new TextValueCodec(), DEFAULT_EXPECTED_RESOURCE_EVENTS, DEFAULT_RESOURCE_EVENT_FALSE_POSITIVE_RATE);
+	}
+
+	public GHDatabase(ExpiringKVStore db, ValueCodec codec, long expectedResourceEvents,
+			double resourceEventFalsePositiveRate) {
 		this.db = db;
+		this.codec = codec;
+		this.resourceEventFalsePositiveRate = resourceEventFalsePositiveRate;
 
 		if (!getDateDatabaseInitialized().isPresent()) {
 			setDateDatabaseInitialized(System.currentTimeMillis());
 		}
+
+		initializeExpiryIfNeeded();
+
+		this.processedResourceEvents = buildResourceEventFilter(expectedResourceEvents);
+
+		loadIndexes();
 	}
 
 	public Optional<Long> getDateOfLastProcessedCommand(GHRepository repo, int issueNum) {
@@ -60,7 +153,7 @@ public Optional<Long> getDateOfLastProcessedCommand(GHRepository repo, int issue
 			return Optional.empty();
 		}
 
-		return Optional.of(Long.parseLong(result.get()));
+		return Optional.of(codec.decodeLong(result.get()));
 	}
 
 	public void setDateOfLastProcessedCommand(GHRepository repo, int issueNum, long timestamp) {
@@ -69,69 +162,196 @@ public void setDateOfLastProcessedCommand(GHRepository repo, int issueNum, long
 		// Sanity test that the LCT never goes backwards.
 		db.getString(key).filter(e -> e != null).ifPresent(e -> {
 			try {
-				Long val = Long.parseLong(e);
+				Long val = codec.decodeLong(e);
 				if (val > timestamp) {
 					System.err.println("Error: Attempt to set a database value that was OLDER than the current value.");
 					Thread.dumpStack();
 				}
 
-			} catch (NumberFormatException ex) {
+			} catch (IllegalArgumentException ex) {
 				ex.printStackTrace();
 			}
 		});
 
-		db.persistString(key, Long.toString(timestamp));
+		db.persistString(key, codec.encodeLong(timestamp), timestamp + LAST_COMMAND_RETENTION_IN_MSECS);
 	}
 
 	public Optional<Long> getDateDatabaseInitialized() {
 		Optional<String> result = db.getString(KEY_DATE_DATABASE_INITIALIZED);
 
 		if (result.isPresent()) {
-			return Optional.of(Long.parseLong(result.get()));
+			return Optional.of(codec.decodeLong(result.get()));
 		}
 
 		return Optional.empty();
 	}
 
 	public void setDateDatabaseInitialized(long date) {
-		db.persistString(KEY_DATE_DATABASE_INITIALIZED, Long.toString(date));
+		db.persistString(KEY_DATE_DATABASE_INITIALIZED, codec.encodeLong(date));
 	}
 
 	public boolean isIssueProcessed(GHRepository repo, int issueNumber) {
-		String key = "processed-" + repo.getOwnerName() + "_" + repo.getName() + "-" + issueNumber;
-		Optional<String> result = db.getString(key);
+		Optional<String> result = db.getString(processedKey(repo, issueNumber));
 		return result.isPresent();
 
 	}
 
 	public Optional<String> getHighestIssueSeveritySeen(GHRepository repo, int issueNumber) {
-		String key = "highest-issue-severity-" + repo.getOwnerName() + "_" + repo.getName() + "-" + issueNumber;
-		Optional<String> result = db.getString(key);
-		return result;
+		Lock readLock = indexLock.readLock();
+		try {
+			readLock.lock();
+
+			IntHashMap<String> severities = severityIndex.get(repo.getOwnerName() + "_" + repo.getName());
+
+			return Optional.ofNullable(severities != null ? severities.get(issueNumber) : null);
+
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 	public void setHighestIssueSeveritySeen(GHRepository repo, int issueNumber, String severity) {
-		String key = "highest-issue-severity-" + repo.getOwnerName() + "_" + repo.getName() + "-" + issueNumber;
-		db.persistString(key, severity);
+		String ownerRepo = repo.getOwnerName() + "_" + repo.getName();
+		String key = PREFIX_HIGHEST_ISSUE_SEVERITY + ownerRepo + "-" + issueNumber;
+
+		Lock writeLock = indexLock.writeLock();
+		try {
+			writeLock.lock();
+
+			db.persistString(key, severity);
+
+			severityIndex.computeIfAbsent(ownerRepo, e -> new IntHashMap<>()).put(issueNumber, severity);
+
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	public void addIssueToProcessed(GHRepository repo, int issueNumber) {
-		String key = "processed-" + repo.getOwnerName() + "_" + repo.getName() + "-" + issueNumber;
-		db.persistString(key, Long.toString(System.currentTimeMillis()));
+		db.persistString(processedKey(repo, issueNumber), codec.encodeLong(System.currentTimeMillis()));
+	}
+
+	private static String processedKey(GHRepository repo, int issueNumber) {
+		return "processed-" + repo.getOwnerName() + "_" + repo.getName() + "-" + issueNumber;
 	}
 
 	public void setResourceEventAsProcessed(String uuid) {
-		String key = "resource-event-" + uuid;
+		String key = PREFIX_RESOURCE_EVENT + uuid;
+
+		long now = System.currentTimeMillis();
+
+		boolean overCapacity;
+		synchronized (claimLock) {
+			db.persistString(key, codec.encodeLong(now), now + RESOURCE_EVENT_RETENTION_IN_MSECS);
+
+			processedResourceEvents.put(uuid);
 
-		db.persistString(key, Long.toString(System.currentTimeMillis()));
+			if (processedDuringRebuild_synch_claimLock != null) {
+				processedDuringRebuild_synch_claimLock.add(uuid);
+			}
+
+			overCapacity = processedResourceEvents.isOverCapacity();
+		}
+
+		// Rebuild at a larger size, to keep the false positive rate as configured. If
+		// another thread is already rebuilding, the event is added to its filter.
+		if (overCapacity && rebuildLock.tryLock()) {
+			try {
+				if (processedResourceEvents.isOverCapacity()) {
+					rebuildResourceEventFilter(processedResourceEvents.getExpectedEntries() * 2);
+				}
+			} finally {
+				rebuildLock.unlock();
+			}
+		}
 	}
 
 	public boolean isResourceEventProcessed(String uuid) {
-		String key = "resource-event-" + uuid;
+
+		// Events that were never added to the filter were definitely not processed.
+		if (!processedResourceEvents.mightContain(uuid)) {
+			return false;
+		}
+
+		String key = PREFIX_RESOURCE_EVENT + uuid;
 		Optional<String> result = db.getString(key);
 		return result.isPresent();
 	}
 
+	/**
+	 * Mark the resource event as processed, returning false if it already was.
+	 * Used where the same event may be received by more than one thread (for
+	 * example, by both the webhook receiver and the poll).
+	 */
+	public boolean claimResourceEvent(String uuid) {
+		synchronized (claimLock) {
+			if (isResourceEventProcessed(uuid)) {
+				return false;
+			}
+			setResourceEventAsProcessed(uuid);
+			return true;
+		}
+	}
+
+	/**
+	 * Re-read the processed resource event filter and the in-memory indexes from
+	 * the database, which may have been written by another process (see
+	 * LeaseManager). Any cache in front of the database should be invalidated
+	 * first.
+	 */
+	public void reload() {
+		rebuildLock.lock();
+		try {
+			rebuildResourceEventFilter(processedResourceEvents.getExpectedEntries());
+		} finally {
+			rebuildLock.unlock();
+		}
+
+		loadIndexes();
+	}
+
+	/**
+	 * Replace processedResourceEvents with a filter built from the database. The
+	 * database is scanned without holding claimLock, so that events can still be
+	 * claimed during the scan. Hold rebuildLock before calling.
+	 */
+	private void rebuildResourceEventFilter(long expectedEntries) {
+
+		synchronized (claimLock) {
+			processedDuringRebuild_synch_claimLock = new ArrayList<>();
+		}
+
+		BloomFilter result = null;
+		try {
+			result = buildResourceEventFilter(expectedEntries);
+
+		} finally {
+			synchronized (claimLock) {
+				if (result != null) {
+					processedDuringRebuild_synch_claimLock.forEach(result::put);
+					processedResourceEvents = result;
+				}
+				processedDuringRebuild_synch_claimLock = null;
+			}
+		}
+	}
+
+	private BloomFilter buildResourceEventFilter(long expectedEntries) {
+
+		List<String> keys = db.getKeysByPrefix(PREFIX_RESOURCE_EVENT);
+
+		BloomFilter result = new BloomFilter(Math.max(expectedEntries, keys.size() * 2l),
+				resourceEventFalsePositiveRate);
+
+		keys.forEach(e -> {
+			result.put(e.substring(PREFIX_RESOURCE_EVENT.length()));
+		});
+
+		log.out("Built processed resource event filter from " + keys.size() + " entries.");
+
+		return result;
+	}
+
 	public void addToWaitList(GHRepository repo, int issueNumber) {
 		WaitListEntryJson wlej = new WaitListEntryJson();
 		wlej.setIssueNumber(issueNumber);
@@ -139,40 +359,80 @@ public void addToWaitList(GHRepository repo, int issueNumber) {
 		wlej.setStartedWaitingTimeInMsecs(System.currentTimeMillis());
 		wlej.setOwner(repo.getOwnerName());
 
-		ObjectMapper om = new ObjectMapper();
+		Lock writeLock = indexLock.writeLock();
+		try {
+			writeLock.lock();
 
-		String key = "wait-list-" + repo.getName() + "_" + issueNumber;
+			db.persistString(PREFIX_WAIT_LIST + repo.getName() + "_" + issueNumber, codec.encodeWaitListEntry(wlej));
 
-		try {
-			db.persistString(key, om.writeValueAsString(wlej));
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e); // Convert to unchecked
+			waitListIndex.computeIfAbsent(repo.getName(), e -> new IntHashMap<>()).put(issueNumber, wlej);
+
+		} finally {
+			writeLock.unlock();
 		}
 	}
 
 	public void removeFromWaitList(GHRepository repo, int issueNumber) {
-		String key = "wait-list-" + repo.getName() + "_" + issueNumber;
-		db.removeByKey(key);
+		removeFromWaitList(repo, issueNumber, null);
 	}
 
+	/**
+	 * Remove the issue from the wait list and, if 'highestSeveritySeen' is
+	 * non-null, record it as the highest severity seen for the issue, as a single
+	 * (atomic) write.
+	 */
+	public void removeFromWaitList(GHRepository repo, int issueNumber, String highestSeveritySeen) {
+		String ownerRepo = repo.getOwnerName() + "_" + repo.getName();
+
+		KVBatch batch = new KVBatch();
+		batch.remove(PREFIX_WAIT_LIST + repo.getName() + "_" + issueNumber);
+		if (highestSeveritySeen != null) {
+			batch.put(PREFIX_HIGHEST_ISSUE_SEVERITY + ownerRepo + "-" + issueNumber, highestSeveritySeen);
+		}
+
+		Lock writeLock = indexLock.writeLock();
+		try {
+			writeLock.lock();
+
+			db.commit(batch);
+
+			IntHashMap<WaitListEntryJson> entries = waitListIndex.get(repo.getName());
+			if (entries != null) {
+				entries.remove(issueNumber);
+				if (entries.isEmpty()) {
+					waitListIndex.remove(repo.getName());
+				}
+			}
+
+			if (highestSeveritySeen != null) {
+				severityIndex.computeIfAbsent(ownerRepo, e -> new IntHashMap<>()).put(issueNumber,
+						highestSeveritySeen);
+			}
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/** The returned entries are shared with the index, and must not be modified. */
 	public List<WaitListEntryJson> getAllWaitList() {
-		ObjectMapper om = new ObjectMapper();
+		Lock readLock = indexLock.readLock();
+		try {
+			readLock.lock();
 
-		return db.getKeysByPrefix("wait-list-").stream().map(e -> db.getString(e).orElse(null)).filter(e -> e != null)
-				.map(e -> {
-					try {
-						return om.readValue(e, WaitListEntryJson.class);
-					} catch (IOException e1) {
-						throw new UncheckedIOException(e1);
-					}
-				}).collect(Collectors.toList());
+			List<WaitListEntryJson> result = new ArrayList<>();
+			waitListIndex.values().forEach(entries -> entries.forEachValue(result::add));
+			return result;
 
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 	public Optional<Long> getLastStatisticsReportJobRun() {
 		Optional<String> o = db.getString(KEY_TIME_WHEN_STATS_REPORT_JOB_LAST_RUN);
 		if (o.isPresent()) {
-			return Optional.of(Long.parseLong(o.get()));
+			return Optional.of(codec.decodeLong(o.get()));
 		} else {
 			return Optional.empty();
 		}
@@ -180,29 +440,72 @@ public Optional<Long> getLastStatisticsReportJobRun() {
 	}
 
 	public void setLastStatisticsReportJobRun(long timeInMsecs) {
-		db.persistString(KEY_TIME_WHEN_STATS_REPORT_JOB_LAST_RUN, Long.toString(timeInMsecs));
+		db.persistString(KEY_TIME_WHEN_STATS_REPORT_JOB_LAST_RUN, codec.encodeLong(timeInMsecs));
+	}
+
+	/**
+	 * Set the time of the last statistics report job run, only if it is still
+	 * 'expectedTimeInMsecs' (or is not set, if null). Returns true if it was set:
+	 * when the database is shared, only one caller succeeds, and so only that
+	 * caller should run the job.
+	 */
+	public boolean compareAndSetLastStatisticsReportJobRun(Long expectedTimeInMsecs, long timeInMsecs) {
+
+		// Compare the stored string, rather than re-encoding the expected value, as it
+		// may have been written with a different codec.
+		Optional<String> current = db.getString(KEY_TIME_WHEN_STATS_REPORT_JOB_LAST_RUN);
+		if (!Objects.equals(current.map(codec::decodeLong).orElse(null), expectedTimeInMsecs)) {
+			return false;
+		}
+
+		return db.compareAndSet(KEY_TIME_WHEN_STATS_REPORT_JOB_LAST_RUN, current.orElse(null),
+				codec.encodeLong(timeInMsecs));
 	}
 
 	public void setLastZhamEventIdSeen(long eventId) {
-		db.persistString(KEY_LAST_ZHAM_EVENT_ID_SEEN, Long.toString(eventId));
+		db.persistString(KEY_LAST_ZHAM_EVENT_ID_SEEN, codec.encodeLong(eventId));
 	}
 
 	public Optional<Long> getLastZhamEventIdSeen() {
 		Optional<String> o = db.getString(KEY_LAST_ZHAM_EVENT_ID_SEEN);
 		if (o.isPresent()) {
-			return Optional.of(Long.parseLong(o.get()));
+			return Optional.of(codec.decodeLong(o.get()));
 		} else {
 			return Optional.empty();
 		}
 	}
 
+	/** The time of the newest resource event seen by the named poller. */
+	public Optional<Long> getResourceEventCursor(String cursorName) {
+		return db.getString(resourceEventCursorKey(cursorName)).map(codec::decodeLong);
+	}
+
+	public void setResourceEventCursor(String cursorName, long timeInMsecs) {
+		db.persistString(resourceEventCursorKey(cursorName), codec.encodeLong(timeInMsecs));
+	}
+
+	private static String resourceEventCursorKey(String cursorName) {
+		return cursorName.isEmpty() ? KEY_RESOURCE_EVENT_CURSOR : KEY_RESOURCE_EVENT_CURSOR + "-" + cursorName;
+	}
+
 	public void addIssueLastSeenInVerifyPipeline(GHRepository repo, int issueNumber) {
 
 		// TODO: Remove this once verify is ready
 		System.out.println("addIssueLastSeenInVerifyPipeline " + repo.getFullName() + " " + issueNumber);
 
-		String key = "verify-pipeline-" + repo.getName() + "_" + issueNumber;
-		db.persistString(key, "");
+		String key = PREFIX_VERIFY_PIPELINE + repo.getName() + "_" + issueNumber;
+
+		Lock writeLock = indexLock.writeLock();
+		try {
+			writeLock.lock();
+
+			db.persistString(key, "");
+
+			verifyPipelineIndex.computeIfAbsent(repo.getName(), e -> new BitSet()).set(issueNumber);
+
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	public void removeIssueLastSeenInVerifyPipeline(GHRepository repo, int issueNumber) {
@@ -210,56 +513,135 @@ public void removeIssueLastSeenInVerifyPipeline(GHRepository repo, int issueNumb
 		// TODO: Remove this one verify is ready
 		System.out.println("removeIssueLastSeenInVerifyPipeline " + repo.getFullName() + " " + issueNumber);
 
-		String key = "verify-pipeline-" + repo.getName() + "_" + issueNumber;
-		db.removeByKey(key);
+		String key = PREFIX_VERIFY_PIPELINE + repo.getName() + "_" + issueNumber;
+
+		Lock writeLock = indexLock.writeLock();
+		try {
+			writeLock.lock();
+
+			db.removeByKey(key);
+
+			BitSet issues = verifyPipelineIndex.get(repo.getName());
+			if (issues != null) {
+				issues.clear(issueNumber);
+			}
+
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
+	/** Returns the issue numbers in ascending order. */
 	public List<Integer> getIssuesInVerifyPipeline(GHRepository repo) {
+		Lock readLock = indexLock.readLock();
+		try {
+			readLock.lock();
 
-		return db.getKeysByPrefix("verify-pipeline-" + repo.getName() + "_").stream().map(e -> {
-
-			int index = e.lastIndexOf("_");
-			int issueNumber = Integer.parseInt(e.substring(index + 1));
-			return issueNumber;
+			BitSet issues = verifyPipelineIndex.get(repo.getName());
+			if (issues == null) {
+				return new ArrayList<>();
+			}
 
-		}).collect(Collectors.toList());
+			return issues.stream().boxed().collect(Collectors.toList());
 
+		} finally {
+			readLock.unlock();
+		}
 	}
 
-	public void cleanOldEntriesIfApplicable() {
+	/** Read the wait list, verify pipeline, and severity keys into their indexes. */
+	private void loadIndexes() {
+
+		Lock writeLock = indexLock.writeLock();
+		try {
+			writeLock.lock();
+
+			waitListIndex.clear();
+			verifyPipelineIndex.clear();
+			severityIndex.clear();
 
-		// Run at most once per day
+			db.scanPrefix(PREFIX_WAIT_LIST).forEach(e -> {
+				WaitListEntryJson wlej = codec.decodeWaitListEntry(e.getValue());
 
-		String lastCleanup = db.getString(KEY_LAST_CLEANUP_IN_MSECS).orElse(null);
+				waitListIndex.computeIfAbsent(wlej.getRepo(), f -> new IntHashMap<>()).put(wlej.getIssueNumber(), wlej);
+			});
 
-		if (lastCleanup != null && System.currentTimeMillis() - Long.parseLong(lastCleanup) <= ONE_DAY) {
+			db.getKeysByPrefix(PREFIX_VERIFY_PIPELINE).forEach(key -> {
+				int index = key.lastIndexOf("_");
+				String repoName = key.substring(PREFIX_VERIFY_PIPELINE.length(), index);
+				int issueNumber = Integer.parseInt(key.substring(index + 1));
+
+				verifyPipelineIndex.computeIfAbsent(repoName, f -> new BitSet()).set(issueNumber);
+			});
+
+			db.scanPrefix(PREFIX_HIGHEST_ISSUE_SEVERITY).forEach(e -> {
+				String key = e.getKey();
+				int index = key.lastIndexOf("-");
+				String ownerRepo = key.substring(PREFIX_HIGHEST_ISSUE_SEVERITY.length(), index);
+				int issueNumber = Integer.parseInt(key.substring(index + 1));
+
+				severityIndex.computeIfAbsent(ownerRepo, f -> new IntHashMap<>()).put(issueNumber, e.getValue());
+			});
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/** Write any buffered database writes to persistent storage. */
+	public void flush() {
+		db.flush();
+	}
+
+	/**
+	 * Databases created before keys were written with an expiry time were cleaned
+	 * by a daily scan of every resource event and last command timestamp: add an
+	 * expiry time to each of those keys (or remove them, if already expired), once.
+	 */
+	private void initializeExpiryIfNeeded() {
+
+		if (db.getString(KEY_EXPIRY_INITIALIZED).isPresent()) {
 			return;
 		}
 
-		log.out("Running database cleanup.");
+		log.out("Adding expiry times to existing database entries.");
+
+		int updated = addExpiryToEntries(PREFIX_RESOURCE_EVENT, RESOURCE_EVENT_RETENTION_IN_MSECS);
+		updated += addExpiryToEntries("last-command-timestamp-", LAST_COMMAND_RETENTION_IN_MSECS);
+
+		db.removeByKey(KEY_LAST_CLEANUP_IN_MSECS);
+		db.persistString(KEY_EXPIRY_INITIALIZED, codec.encodeLong(System.currentTimeMillis()));
+
+		log.out("Added expiry times to " + updated + " database entries.");
+	}
 
-		db.persistString(KEY_LAST_CLEANUP_IN_MSECS, Long.toString(System.currentTimeMillis()));
+	/**
+	 * The value of each key with the given prefix is a timestamp: the key expires
+	 * 'retentionInMsecs' after it. Returns the number of keys that were not already
+	 * expired.
+	 */
+	private int addExpiryToEntries(String prefix, long retentionInMsecs) {
 
-		long expireTimeInMsecs = System.currentTimeMillis() - TimeUnit.MILLISECONDS.convert(14, TimeUnit.DAYS);
+		long now = System.currentTimeMillis();
 
-		// Remove old resource-events based on their long body
-		db.getKeysByPrefix("resource-event-").stream().map(e -> new String[] { e, db.getString(e).orElse(null) })
-				.filter(e -> e[1] != null).filter(e -> Long.parseLong(e[1]) < expireTimeInMsecs).forEach(e -> {
-					System.out.println("- Deleting " + e[0]);
-					db.removeByKey(e[0]);
-				});
+		List<Entry<String, String>> entries = db.scanPrefix(prefix).collect(Collectors.toList());
 
-		long lastCommandExpirationInMsecs = System.currentTimeMillis()
-				- TimeUnit.MILLISECONDS.convert(BotConstants.PROCESS_COMMANDS_LESS_THAN_X_DAYS_OLD, TimeUnit.DAYS);
+		List<String> expiredKeys = new ArrayList<>();
+		int updated = 0;
+
+		for (Entry<String, String> e : entries) {
+			long expireAtInMsecs = codec.decodeLong(e.getValue()) + retentionInMsecs;
+
+			if (expireAtInMsecs < now) {
+				expiredKeys.add(e.getKey());
+			} else {
+				db.persistString(e.getKey(), e.getValue(), expireAtInMsecs);
+				updated++;
+			}
+		}
 
-		// Remove old last command timestamp based on their long body
-		db.getKeysByPrefix("last-command-timestamp-").stream()
-				.map(e -> new String[] { e, db.getString(e).orElse(null) }).filter(e -> e[1] != null)
-				.filter(e -> Long.parseLong(e[1]) < lastCommandExpirationInMsecs).forEach(e -> {
-					System.out.println("- Deleting " + e[0]);
-					db.removeByKey(e[0]);
-				});
+		db.multiRemove(expiredKeys);
 
-		log.out("Database cleanup complete.");
+		return updated;
 	}
 }
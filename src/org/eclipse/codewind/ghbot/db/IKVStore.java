@@ -11,8 +11,20 @@
 
 package org.eclipse.codewind.ghbot.db;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A generic key/value store API, that is designed to be generic enough to be
@@ -21,12 +33,25 @@
  * getKeysByPrefix -- ensure it is efficient to write to a key-sorted
  * B-tree-based DB like this)
  * 
- * As of this writing, there are two implementation of this interface:
- * FileKVStore, which writes to the local filesystem, and InMemoryKVCache which
- * caches access to another IKVStore implementation.
+ * As of this writing, the persistent implementations of this interface are
+ * FileKVStore, which writes one file per key to the local filesystem,
+ * LogKVStore, which appends to segment files, LsmKVStore, which writes sorted
+ * table files, and SharedFileKVStore, which writes one file per key to a
+ * directory shared by multiple processes. InMemoryKVCache caches access to
+ * another IKVStore implementation, WriteBehindKVStore buffers writes to another
+ * IKVStore implementation, EphemeralWritesKVStore holds the writes to another
+ * IKVStore implementation in memory only, and ExpiringKVStore adds expiring
+ * keys to another IKVStore implementation.
+ * 
+ * The batch (multi*) and scan methods have default implementations in terms of
+ * the single key methods; implementations override them where they can do
+ * better.
  */
 public interface IKVStore {
 
+	/** Number of key/value pairs read at a time by scanPrefix(prefix). */
+	int DEFAULT_SCAN_PAGE_SIZE = 500;
+
 	void persistString(String key, String value);
 
 	Optional<String> getString(String key);
@@ -35,4 +60,118 @@ public interface IKVStore {
 
 	List<String> getKeysByPrefix(String prefix);
 
+	/**
+	 * Returns the values of the given keys, in the iteration order of 'keys'; keys
+	 * that do not exist are not included in the result.
+	 */
+	default Map<String /* key */, String /* value */> multiGet(Collection<String> keys) {
+		Map<String, String> result = new LinkedHashMap<>();
+		for (String key : keys) {
+			getString(key).ifPresent(value -> result.put(key, value));
+		}
+		return result;
+	}
+
+	default void multiPersist(Map<String /* key */, String /* value */> entries) {
+		entries.forEach(this::persistString);
+	}
+
+	/** Returns the number of keys that existed (and were removed). */
+	default int multiRemove(Collection<String> keys) {
+		int removed = 0;
+		for (String key : keys) {
+			if (removeByKey(key)) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Apply all of the writes of the batch. Implementations apply the batch
+	 * atomically with respect to other operations on the same store (no reader
+	 * sees only part of the batch); LogKVStore also applies it atomically with
+	 * respect to a crash. The default implementation applies the writes one at a
+	 * time, and is not atomic.
+	 */
+	default void commit(KVBatch batch) {
+		batch.getOperations().forEach((key, value) -> {
+			if (value != null) {
+				persistString(key, value);
+			} else {
+				removeByKey(key);
+			}
+		});
+	}
+
+	/**
+	 * Atomically set the key to 'newValue' (or remove it, if null), only if its
+	 * current value is 'expectedValue' (or it does not exist, if null). Returns
+	 * true if the key was updated.
+	 */
+	boolean compareAndSet(String key, String expectedValue, String newValue);
+
+	/**
+	 * Reclaim the disk space used by values that have since been overwritten or
+	 * removed, while the store remains in use; returns the number of bytes
+	 * reclaimed. Stores that never hold such values (the default) do nothing.
+	 */
+	default long compact() {
+		return 0;
+	}
+
+	/**
+	 * Returns (in key order) up to 'pageSize' key/value pairs whose key starts
+	 * with 'prefix', beginning after 'startAfterKey' (or from the first key, if
+	 * null). See KVPage.
+	 */
+	default KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		KVPage.checkPageSize(pageSize);
+
+		TreeSet<String> keys = new TreeSet<>(getKeysByPrefix(prefix));
+
+		List<String> pageKeys = new ArrayList<>();
+		String nextStartAfterKey = null;
+		for (String key : KVPage.keysInRange(keys, prefix, startAfterKey)) {
+			if (pageKeys.size() == pageSize) {
+				nextStartAfterKey = pageKeys.get(pageKeys.size() - 1);
+				break;
+			}
+			pageKeys.add(key);
+		}
+
+		List<Entry<String, String>> entries = new ArrayList<>();
+		multiGet(pageKeys).forEach((key, value) -> entries.add(new SimpleImmutableEntry<>(key, value)));
+
+		return new KVPage(entries, nextStartAfterKey);
+	}
+
+	/**
+	 * Lazily streams (in key order) the key/value pairs whose key starts with
+	 * 'prefix', reading DEFAULT_SCAN_PAGE_SIZE values at a time. Keys that are
+	 * removed during the scan may or may not be included.
+	 */
+	default Stream<Entry<String, String>> scanPrefix(String prefix) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				new PagedScanIterator(this, prefix, DEFAULT_SCAN_PAGE_SIZE), Spliterator.ORDERED | Spliterator.NONNULL),
+				false);
+	}
+
+	/**
+	 * Pass every key/value pair of the store to 'consumer', reading up to
+	 * 'parallelism' chunks of keys at once; 'consumer' may be called from multiple
+	 * threads at the same time. Progress is logged periodically. Returns the number
+	 * of key/value pairs passed to 'consumer'.
+	 */
+	default long bulkLoad(int parallelism, BiConsumer<String, String> consumer) {
+		return new BulkLoader(this, parallelism, BulkLoader.DEFAULT_CHUNK_SIZE).load(consumer);
+	}
+
+	/**
+	 * Write any buffered writes to the underlying storage; implementations that
+	 * wrap another IKVStore should flush it as well.
+	 */
+	default void flush() {
+	}
+
 }
\ No newline at end of file
@@ -11,49 +11,90 @@
 
 package org.eclipse.codewind.ghbot.db;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.codewind.ghbot.utils.Logger;
+import org.eclipse.codewind.ghbot.utils.Utils;
 
 /**
  * This class caches reads to a given key-value db (see IKVStore java doc).
- * 
+ *
+ * The cache is bounded by a number of entries (and optionally by an estimated
+ * size in bytes); see BoundedKVCache for the eviction policy.
+ *
+ * Lookups of keys that do not exist in the inner database are cached as well
+ * (as NOT_PRESENT), so that repeated checks for a missing key do not go to
+ * disk.
+ *
  * The contents of this class are not persisted across process restarts. This
- * class is thread safe.
+ * class is thread safe: cache hits do not acquire any lock. Writes, and reads
+ * that miss the cache, acquire a lock for that key only (see LockStripes), so
+ * that a slow write to the inner db only blocks operations on keys that share
+ * its stripe. Concurrent cache misses on the same key share a single read of
+ * the inner db.
+ * 
+ * The batch (multi*, commit) operations acquire the locks of all of their keys
+ * (in stripe order), and pass the keys to the inner db as a single batch.
+ * scanPrefix is passed directly to the inner db, and its results are not
+ * cached, so that a scan does not push frequently read keys out of the cache.
  */
 public class InMemoryKVCache implements IKVStore {
 
+	public static final int DEFAULT_MAX_ENTRIES = 20000;
+
+	private static final int LOCK_STRIPES = 64;
+
 	private final boolean DEBUG_PRINT_CACHE_RATE = false;
 
-	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private final Logger log = Logger.getInstance();
 
-	private final Lock readLock = rwLock.readLock();
-	private final Lock writeLock = rwLock.writeLock();
+	/**
+	 * Cached value for keys that are known not to exist in the inner db; compared
+	 * by identity, so it cannot be confused with a real value.
+	 */
+	private static final String NOT_PRESENT = new String("");
 
-	/** Acquire read or write lock when accessing. */
-	private final Map<String /* key */, String /* value */> map = new HashMap<>();
+	private final BoundedKVCache cache;
 
-	private final IKVStore innerDb;
+	private final LockStripes locks = new LockStripes(LOCK_STRIPES);
 
-	private long cacheHitRate_synch_readLock = 0;
-	private long cacheTotalRate_synch_readLock = 0;
+	/** Reads of the inner db that are currently in progress, by key */
+	private final ConcurrentHashMap<String /* key */, CompletableFuture<String>> inFlightLoads = new ConcurrentHashMap<>();
+
+	private final IKVStore innerDb;
 
 	public InMemoryKVCache(IKVStore innerDb) {
+		this(innerDb, DEFAULT_MAX_ENTRIES, 0);
+	}
+
+	/**
+	 * @param maxWeightInBytes the maximum estimated size of the cached keys and
+	 *                         values, or 0 to bound only by number of entries.
+	 */
+	public InMemoryKVCache(IKVStore innerDb, int maxEntries, long maxWeightInBytes) {
 		this.innerDb = innerDb;
+		this.cache = new BoundedKVCache(maxEntries, maxWeightInBytes);
 	}
 
 	@Override
 	public void persistString(String key, String value) {
 
+		Lock writeLock = locks.forKey(key).writeLock();
 		try {
 			writeLock.lock();
 
 			innerDb.persistString(key, value);
-			map.put(key, value);
-			ensureCapacity();
+			cache.put(key, value);
 
 		} finally {
 			writeLock.unlock();
@@ -64,50 +105,93 @@ public void persistString(String key, String value) {
 	@Override
 	public Optional<String> getString(String key) {
 
-		boolean valueWritten = false;
 		try {
-			readLock.lock();
-			cacheTotalRate_synch_readLock++;
+			String resultStr = cache.get(key);
+			if (resultStr == null) {
+				resultStr = load(key);
+			}
+
+			return resultStr == NOT_PRESENT ? Optional.empty() : Optional.of(resultStr);
+
+		} finally {
+
+			if (DEBUG_PRINT_CACHE_RATE) {
+				CacheStatistics stats = cache.getStatistics();
+				if ((stats.getHits() + stats.getMisses()) % 100 == 0) {
+					log.out(this.getClass().getName() + " - " + stats);
+				}
+			}
+		}
+	}
 
-			String resultStr = map.get(key);
-			if (resultStr != null) {
-				cacheHitRate_synch_readLock++;
-				return Optional.of(resultStr);
+	/**
+	 * Read the value from the inner db, and add it to the cache. If another thread
+	 * is already reading the same key, wait for (and return) its result rather
+	 * than reading it again. Returns NOT_PRESENT if the key does not exist.
+	 */
+	private String load(String key) {
+
+		CompletableFuture<String> future = new CompletableFuture<>();
+
+		CompletableFuture<String> existing = inFlightLoads.putIfAbsent(key, future);
+		if (existing != null) {
+			try {
+				return existing.join();
+			} catch (CompletionException e) {
+				Utils.throwAsUnchecked(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
 			}
+		}
+
+		Lock readLock = locks.forKey(key).readLock();
+		try {
+			readLock.lock();
 
-			resultStr = innerDb.getString(key).orElse(null);
+			// Another thread may have loaded (or written) the key before we acquired the lock
+			String result = cache.peek(key);
 
-			if (resultStr != null) {
-				map.put(key, resultStr);
-				valueWritten = true;
+			if (result == null) {
+				result = innerDb.getString(key).orElse(NOT_PRESENT);
+				cache.put(key, result);
 			}
 
-			return Optional.ofNullable(resultStr);
+			future.complete(result);
+
+			return result;
+
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
 
 		} finally {
-			if (DEBUG_PRINT_CACHE_RATE && cacheTotalRate_synch_readLock > 0
-					&& cacheTotalRate_synch_readLock % 100 == 0) {
-				System.out.println(this.getClass().getName() + " - cache rate: "
-						+ (int) (100 * cacheHitRate_synch_readLock / cacheTotalRate_synch_readLock));
-			}
 			readLock.unlock();
+			inFlightLoads.remove(key, future);
+		}
+	}
 
-			if (valueWritten) {
-				ensureCapacity(); // Do not acquire this in a read lock
-			}
+	/** Current hit, miss and eviction counts of the cache. */
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics();
+	}
 
-		}
+	/**
+	 * Discard every cached value (for example, when another process may have
+	 * written to the inner db); reads in progress complete before the cache is
+	 * cleared.
+	 */
+	public void invalidateAll() {
+		locks.runWithAllLocks(true, cache::clear);
 	}
 
 	@Override
 	public boolean removeByKey(String key) {
-		try {
 
+		Lock writeLock = locks.forKey(key).writeLock();
+		try {
 			writeLock.lock();
 
 			boolean result = innerDb.removeByKey(key);
 
-			map.remove(key);
+			cache.put(key, NOT_PRESENT);
 
 			return result;
 
@@ -118,27 +202,119 @@ public boolean removeByKey(String key) {
 
 	@Override
 	public List<String> getKeysByPrefix(String prefix) {
-		try {
-			readLock.lock();
+		return innerDb.getKeysByPrefix(prefix);
+	}
 
-			return innerDb.getKeysByPrefix(prefix);
+	@Override
+	public Map<String, String> multiGet(Collection<String> keys) {
 
-		} finally {
-			readLock.unlock();
+		Map<String, String> found = new HashMap<>();
+
+		List<String> misses = new ArrayList<>();
+		for (String key : keys) {
+			String value = cache.get(key);
+			if (value == null) {
+				misses.add(key);
+			} else {
+				found.put(key, value);
+			}
 		}
+
+		if (!misses.isEmpty()) {
+			locks.runWithLocks(misses, false, () -> {
+
+				// Another thread may have loaded (or written) some of the keys before we
+				// acquired the locks
+				List<String> toRead = new ArrayList<>();
+				for (String key : misses) {
+					String value = cache.peek(key);
+					if (value == null) {
+						toRead.add(key);
+					} else {
+						found.put(key, value);
+					}
+				}
+
+				Map<String, String> read = toRead.isEmpty() ? new HashMap<>() : innerDb.multiGet(toRead);
+				for (String key : toRead) {
+					String value = read.getOrDefault(key, NOT_PRESENT);
+					cache.put(key, value);
+					found.put(key, value);
+				}
+			});
+		}
+
+		Map<String, String> result = new LinkedHashMap<>();
+		for (String key : keys) {
+			String value = found.get(key);
+			if (value != null && value != NOT_PRESENT) {
+				result.put(key, value);
+			}
+		}
+		return result;
 	}
 
-	private void ensureCapacity() {
+	@Override
+	public void multiPersist(Map<String, String> entries) {
+
+		locks.runWithLocks(entries.keySet(), true, () -> {
+			innerDb.multiPersist(entries);
+			entries.forEach(cache::put);
+		});
+	}
+
+	@Override
+	public int multiRemove(Collection<String> keys) {
+
+		return locks.callWithLocks(keys, true, () -> {
+			int result = innerDb.multiRemove(keys);
+			keys.forEach(key -> cache.put(key, NOT_PRESENT));
+			return result;
+		});
+	}
+
+	@Override
+	public void commit(KVBatch batch) {
+
+		locks.runWithLocks(batch.getOperations().keySet(), true, () -> {
+			innerDb.commit(batch);
+			batch.getOperations().forEach((key, value) -> cache.put(key, value != null ? value : NOT_PRESENT));
+		});
+	}
+
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+
+		Lock writeLock = locks.forKey(key).writeLock();
 		try {
 			writeLock.lock();
 
-			// Lazy solution to cache clearing, should use LRU, but this works for now
-			if (map.size() > 4000) {
-				map.clear();
+			if (innerDb.compareAndSet(key, expectedValue, newValue)) {
+				cache.put(key, newValue != null ? newValue : NOT_PRESENT);
+				return true;
 			}
 
+			// The cached value may be stale (eg the key was updated by another process)
+			cache.remove(key);
+			return false;
+
 		} finally {
 			writeLock.unlock();
 		}
 	}
+
+	@Override
+	public KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		return innerDb.scanPrefix(prefix, startAfterKey, pageSize);
+	}
+
+	@Override
+	public long compact() {
+		return innerDb.compact();
+	}
+
+	@Override
+	public void flush() {
+		innerDb.flush();
+	}
 }
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.function.Consumer;
+
+/**
+ * A map from (primitive) int keys to values, using open addressing with linear
+ * probing, so that keys are not boxed and each entry does not require a
+ * separate object.
+ *
+ * Not thread safe.
+ */
+class IntHashMap<V> {
+
+	private static final byte EMPTY = 0;
+	private static final byte FULL = 1;
+	private static final byte REMOVED = 2;
+
+	private int[] keys;
+
+	private Object[] values;
+
+	private byte[] states;
+
+	private int size = 0;
+
+	/** Number of slots that are FULL or REMOVED */
+	private int used = 0;
+
+	public IntHashMap() {
+		allocate(16);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int slot = find(key);
+		return slot >= 0 ? (V) values[slot] : null;
+	}
+
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+
+	/** Returns the previous value, or null if none. */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+
+		int slot = find(key);
+		if (slot >= 0) {
+			V old = (V) values[slot];
+			values[slot] = value;
+			return old;
+		}
+
+		if ((used + 1) * 4 > keys.length * 3) {
+			// Grow (or, if there are many REMOVED slots, just rebuild at the same size)
+			allocateAndCopy(size * 2 >= keys.length / 2 ? keys.length * 2 : keys.length);
+		}
+
+		int mask = keys.length - 1;
+		for (int x = hash(key) & mask;; x = (x + 1) & mask) {
+			if (states[x] != FULL) {
+				if (states[x] == EMPTY) {
+					used++;
+				}
+				keys[x] = key;
+				values[x] = value;
+				states[x] = FULL;
+				size++;
+				return null;
+			}
+		}
+	}
+
+	/** Returns the removed value, or null if none. */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+
+		V old = (V) values[slot];
+		values[slot] = null;
+		states[slot] = REMOVED;
+		size--;
+		return old;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<V> consumer) {
+		for (int x = 0; x < keys.length; x++) {
+			if (states[x] == FULL) {
+				consumer.accept((V) values[x]);
+			}
+		}
+	}
+
+	private int find(int key) {
+		int mask = keys.length - 1;
+		for (int x = hash(key) & mask;; x = (x + 1) & mask) {
+			if (states[x] == EMPTY) {
+				return -1;
+			}
+			if (states[x] == FULL && keys[x] == key) {
+				return x;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		states = new byte[capacity];
+		size = 0;
+		used = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocateAndCopy(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		byte[] oldStates = states;
+
+		allocate(capacity);
+
+		for (int x = 0; x < oldKeys.length; x++) {
+			if (oldStates[x] == FULL) {
+				put(oldKeys[x], (V) oldValues[x]);
+			}
+		}
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of writes (persists and removes) that are applied together by
+ * IKVStore.commit(...). If a key is written more than once in the same batch,
+ * only the last write is applied.
+ * 
+ * Not thread safe.
+ */
+public class KVBatch {
+
+	/** A null value means the key is removed. */
+	private final LinkedHashMap<String /* key */, String /* value or null */> operations = new LinkedHashMap<>();
+
+	public KVBatch put(String key, String value) {
+		if (key == null || value == null) {
+			throw new RuntimeException("Invalid key or value " + key + " " + value);
+		}
+
+		operations.remove(key);
+		operations.put(key, value);
+		return this;
+	}
+
+	public KVBatch remove(String key) {
+		if (key == null) {
+			throw new RuntimeException("Invalid key");
+		}
+
+		operations.remove(key);
+		operations.put(key, null);
+		return this;
+	}
+
+	/** The writes of the batch, in order; a null value means the key is removed. */
+	public Map<String, String> getOperations() {
+		return Collections.unmodifiableMap(operations);
+	}
+
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+
+	public int size() {
+		return operations.size();
+	}
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+
+/**
+ * One page of the key/value pairs returned by IKVStore.scanPrefix(...), in key
+ * order. If there are more pages, pass getNextStartAfterKey() as the
+ * 'startAfterKey' of the next call.
+ * 
+ * A page may contain fewer entries than requested (even none) while there are
+ * still more pages, for example if keys were removed during the scan; callers
+ * should use hasMore() rather than the size of the page to decide whether to
+ * continue.
+ */
+public class KVPage {
+
+	private final List<Entry<String, String>> entries;
+
+	private final String nextStartAfterKey;
+
+	public KVPage(List<Entry<String, String>> entries, String nextStartAfterKey) {
+		this.entries = Collections.unmodifiableList(entries);
+		this.nextStartAfterKey = nextStartAfterKey;
+	}
+
+	public List<Entry<String, String>> getEntries() {
+		return entries;
+	}
+
+	/** The key to pass to the next call to scanPrefix, or null if this is the last page. */
+	public String getNextStartAfterKey() {
+		return nextStartAfterKey;
+	}
+
+	public boolean hasMore() {
+		return nextStartAfterKey != null;
+	}
+
+	static void checkPageSize(int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+		}
+	}
+
+	/**
+	 * The keys of a sorted key set that start with 'prefix' and are greater than
+	 * 'startAfterKey' (if non-null).
+	 */
+	static NavigableSet<String> keysInRange(NavigableSet<String> sortedKeys, String prefix, String startAfterKey) {
+
+		String fPrefix = prefix == null ? "" : prefix;
+
+		String from = fPrefix;
+		boolean fromInclusive = true;
+		if (startAfterKey != null && startAfterKey.compareTo(fPrefix) >= 0) {
+			from = startAfterKey;
+			fromInclusive = false;
+		}
+
+		if (fPrefix.isEmpty()) {
+			return sortedKeys.tailSet(from, fromInclusive);
+		}
+
+		String to = fPrefix + Character.MAX_VALUE;
+		if (from.compareTo(to) >= 0) {
+			return Collections.emptyNavigableSet();
+		}
+
+		return sortedKeys.subSet(from, fromInclusive, to, false);
+	}
+}
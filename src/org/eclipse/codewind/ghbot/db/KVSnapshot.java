@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the entire contents of a key/value store as a single,
+ * compact file, which is much faster to read than (for example) one file per
+ * key.
+ *
+ * File format:
+ *
+ * <pre>
+ * [magic: int] [version: int] [time created in msecs: long]
+ * ([key length: int] [key: UTF-8] [value length: int] [value: UTF-8])*
+ * [-1: int] [number of entries: long] [crc32 of all of the preceding bytes: long]
+ * </pre>
+ *
+ * The trailer allows a truncated or corrupt file (for example, if the process
+ * died while writing it, or the file was damaged while being copied to another
+ * node) to be detected. Version 1 files, which have no crc, can still be read.
+ * Files are written to a temporary file, then renamed over the existing
+ * snapshot.
+ *
+ * Snapshots may be written while the store is in use: each value is read
+ * consistently, but writes that occur during the snapshot may or may not be
+ * included.
+ */
+public class KVSnapshot {
+
+	private static final int MAGIC = 0x47484b56; // 'GHKV'
+
+	private static final int VERSION = 2;
+
+	/** The first version, which has no crc */
+	private static final int VERSION_NO_CRC = 1;
+
+	private static final int END_OF_ENTRIES = -1;
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final int RESTORE_BATCH_SIZE = 1000;
+
+	/** Write every key/value pair of the store to the file; returns the number written. */
+	public static long write(IKVStore store, File snapshotFile) throws IOException {
+
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+		long entries = 0;
+
+		CheckedOutputStream cos = new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE), new CRC32());
+
+		try (DataOutputStream dos = new DataOutputStream(cos)) {
+
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeLong(System.currentTimeMillis());
+
+			for (Entry<String, String> e : (Iterable<Entry<String, String>>) store.scanPrefix("")::iterator) {
+				writeString(dos, e.getKey());
+				writeString(dos, e.getValue());
+				entries++;
+			}
+
+			dos.writeInt(END_OF_ENTRIES);
+			dos.writeLong(entries);
+
+			dos.writeLong(cos.getChecksum().getValue());
+		}
+
+		Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		return entries;
+	}
+
+	/**
+	 * Pass every key/value pair of the snapshot file to 'consumer'; returns the
+	 * number read. Throws IOException if the file is not a complete snapshot.
+	 */
+	public static long read(File snapshotFile, BiConsumer<String, String> consumer) throws IOException {
+
+		CheckedInputStream cis = new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(snapshotFile), BUFFER_SIZE), new CRC32());
+
+		try (DataInputStream dis = new DataInputStream(cis)) {
+
+			if (dis.readInt() != MAGIC) {
+				throw new IOException("Not a database snapshot: " + snapshotFile);
+			}
+
+			int version = dis.readInt();
+			if (version != VERSION && version != VERSION_NO_CRC) {
+				throw new IOException("Unsupported database snapshot version " + version + ": " + snapshotFile);
+			}
+
+			dis.readLong(); // time created
+
+			long entries = 0;
+
+			while (true) {
+				int keyLength = dis.readInt();
+				if (keyLength == END_OF_ENTRIES) {
+					break;
+				}
+
+				String key = readString(dis, keyLength);
+				String value = readString(dis, dis.readInt());
+
+				consumer.accept(key, value);
+				entries++;
+			}
+
+			long expectedEntries = dis.readLong();
+			if (expectedEntries != entries) {
+				throw new IOException("Database snapshot contains " + entries + " entries, but expected "
+						+ expectedEntries + ": " + snapshotFile);
+			}
+
+			if (version != VERSION_NO_CRC) {
+				long crc = cis.getChecksum().getValue();
+				if (dis.readLong() != crc) {
+					throw new IOException("Database snapshot checksum does not match: " + snapshotFile);
+				}
+			}
+
+			return entries;
+		}
+	}
+
+	/**
+	 * Write every key/value pair of the snapshot file to 'store', in batches (see
+	 * IKVStore.commit); returns the number written. The file is verified before
+	 * anything is written, so a corrupt snapshot leaves the store unchanged.
+	 */
+	public static long restore(File snapshotFile, IKVStore store) throws IOException {
+
+		read(snapshotFile, (key, value) -> {
+			/* verify only */
+		});
+
+		KVBatch[] batch = new KVBatch[] { new KVBatch() };
+
+		long entries = read(snapshotFile, (key, value) -> {
+			batch[0].put(key, value);
+			if (batch[0].size() >= RESTORE_BATCH_SIZE) {
+				store.commit(batch[0]);
+				batch[0] = new KVBatch();
+			}
+		});
+
+		if (!batch[0].isEmpty()) {
+			store.commit(batch[0]);
+		}
+
+		return entries;
+	}
+
+	/** The time the snapshot file was created, in msecs. */
+	public static long readTimeCreated(File snapshotFile) throws IOException {
+		try (DataInputStream dis = new DataInputStream(new FileInputStream(snapshotFile))) {
+			if (dis.readInt() != MAGIC) {
+				throw new IOException("Not a database snapshot: " + snapshotFile);
+			}
+			dis.readInt(); // version
+			return dis.readLong();
+		}
+	}
+
+	private static void writeString(DataOutputStream dos, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	private static String readString(DataInputStream dis, int length) throws IOException {
+		if (length < 0) {
+			throw new IOException("Invalid length in database snapshot: " + length);
+		}
+		byte[] bytes = new byte[length];
+		dis.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
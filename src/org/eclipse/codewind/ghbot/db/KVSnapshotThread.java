@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.codewind.ghbot.utils.Logger;
+
+/**
+ * Every X milliseconds, compacts the database (see IKVStore.compact), then
+ * writes a snapshot of its contents to a single file (see KVSnapshot), while
+ * the bot continues to run. The snapshot can then be copied to another node
+ * (or kept as a backup), and restored with KVSnapshot.restore(...).
+ */
+public class KVSnapshotThread extends Thread {
+
+	private final Logger log = Logger.getInstance();
+
+	private final IKVStore db;
+
+	private final File snapshotFile;
+
+	private final long intervalInMsecs;
+
+	public KVSnapshotThread(IKVStore db, File snapshotFile, long intervalInMsecs) {
+		this.db = db;
+		this.snapshotFile = snapshotFile;
+		this.intervalInMsecs = intervalInMsecs;
+
+		setDaemon(true);
+		setName(KVSnapshotThread.class.getName());
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(intervalInMsecs);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				compactAndSnapshot();
+			} catch (Exception e) {
+				// Prevent exceptions from ending the thread.
+				log.err("Unable to write database snapshot: " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Returns the number of entries written to the snapshot. */
+	public long compactAndSnapshot() throws IOException {
+
+		long startTimeInMsecs = System.currentTimeMillis();
+
+		// Ensure buffered writes are included
+		db.flush();
+
+		long reclaimed = db.compact();
+
+		long entries = KVSnapshot.write(db, snapshotFile);
+
+		log.out("Wrote database snapshot of " + entries + " entries to " + snapshotFile + " in "
+				+ (System.currentTimeMillis() - startTimeInMsecs) + " msecs (" + reclaimed
+				+ " bytes reclaimed by compaction).");
+
+		return entries;
+	}
+
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.eclipse.codewind.ghbot.utils.BotConstants;
+import org.eclipse.codewind.ghbot.utils.Logger;
+
+/**
+ * Opens the persistent store of the configured type (for example, 'file' or
+ * 'log'; see YamlDatabaseSettings) under the database directory, importing the
+ * contents of the store of the previous type if the type has changed.
+ *
+ * The type that wrote the directory is recorded in its 'database-type' file.
+ * Directories written before this file existed are identified by which store's
+ * files they contain.
+ *
+ * On the first start with a new type, every key of the previous store
+ * (including the expiry index records, see ExpiringKVStore) is copied into
+ * the new store, and only then is the new type recorded; so if the import is
+ * interrupted, it is repeated on the next start. Any keys already in the new
+ * store (from an interrupted import, or from an earlier use of that type) are
+ * removed first. The previous store's files are left in place.
+ *
+ * The 'file' and 'shared' types both use the 'keys' directory, with different
+ * file names, so a change between them cannot be imported in place: this, and
+ * any change of type while the database is read-only, fails rather than start
+ * with an empty database.
+ */
+public class KVStoreMigration {
+
+	private static final Logger log = Logger.getInstance();
+
+	public static final String TYPE_FILE = "file";
+	public static final String TYPE_LOG = "log";
+	public static final String TYPE_LSM = "lsm";
+	public static final String TYPE_SHARED = "shared";
+
+	private static final String TYPE_FILE_NAME = "database-type";
+
+	/** Number of keys written to the new store at a time. */
+	private static final int IMPORT_BATCH_SIZE = 1000;
+
+	/**
+	 * Open the store of 'type' (using 'openStore'), importing the contents of the
+	 * previous type's store first, if the type has changed.
+	 */
+	public static IKVStore open(File databaseDirectory, String type, Function<String /* type */, IKVStore> openStore) {
+
+		String previousType = getPreviousType(databaseDirectory, type);
+
+		if (previousType != null && !previousType.equalsIgnoreCase(type)) {
+
+			if (BotConstants.READONLY_DATABASE) {
+				throw new IllegalStateException("Database " + databaseDirectory + " was written by the '"
+						+ previousType + "' type, and cannot be imported into the '" + type
+						+ "' type while the database is read-only.");
+			}
+
+			if (usesKeysDirectory(previousType) && usesKeysDirectory(type)) {
+				throw new IllegalStateException("Database " + databaseDirectory + " was written by the '"
+						+ previousType + "' type, which cannot be imported in place into the '" + type
+						+ "' type. Set the database type back to '" + previousType
+						+ "', or restore a snapshot (see 'snapshotFile') into a new database directory.");
+			}
+		}
+
+		IKVStore store = openStore.apply(type);
+
+		if (previousType != null && !previousType.equalsIgnoreCase(type)) {
+			importFrom(previousType, openStore, store);
+		}
+
+		if (!BotConstants.READONLY_DATABASE && !type.equalsIgnoreCase(previousType)) {
+			writeType(databaseDirectory, type);
+		}
+
+		return store;
+	}
+
+	/**
+	 * The type recorded in the directory, or, if none is recorded, the type of the
+	 * store whose files are present (preferring 'type'); null for a new database.
+	 */
+	static String getPreviousType(File databaseDirectory, String type) {
+
+		File typeFile = new File(databaseDirectory, TYPE_FILE_NAME);
+		if (typeFile.exists()) {
+			try {
+				return new String(Files.readAllBytes(typeFile.toPath()), StandardCharsets.UTF_8).trim();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		List<String> presentTypes = Arrays.asList(TYPE_FILE, TYPE_SHARED, TYPE_LOG, TYPE_LSM).stream()
+				.filter(e -> containsData(databaseDirectory, e)).collect(Collectors.toList());
+
+		if (presentTypes.stream().anyMatch(e -> e.equalsIgnoreCase(type))) {
+			return type;
+		}
+
+		return presentTypes.isEmpty() ? null : presentTypes.get(0);
+	}
+
+	private static boolean containsData(File databaseDirectory, String type) {
+
+		if (usesKeysDirectory(type)) {
+			// Only the shared store has a 'locks' file
+			boolean shared = new File(databaseDirectory, "locks").exists();
+			return shared == type.equalsIgnoreCase(TYPE_SHARED)
+					&& containsFile(new File(databaseDirectory, "keys"), ".txt", 1);
+		}
+
+		return containsFile(new File(databaseDirectory, type.equalsIgnoreCase(TYPE_LOG) ? "log" : "lsm"), "", 0);
+	}
+
+	/** Whether the directory, or its subdirectories to 'depth', contain a file. */
+	private static boolean containsFile(File directory, String suffix, int depth) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return false;
+		}
+
+		for (File file : files) {
+			if (file.isFile() ? file.getName().endsWith(suffix)
+					: depth > 0 && containsFile(file, suffix, depth - 1)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean usesKeysDirectory(String type) {
+		return type.equalsIgnoreCase(TYPE_FILE) || type.equalsIgnoreCase(TYPE_SHARED);
+	}
+
+	private static void importFrom(String previousType, Function<String, IKVStore> openStore, IKVStore store) {
+
+		log.out("Database type changed from '" + previousType + "'; importing its contents.");
+
+		long startTimeInMsecs = System.currentTimeMillis();
+
+		List<String> staleKeys = store.getKeysByPrefix("");
+		if (!staleKeys.isEmpty()) {
+			log.out("Removing " + staleKeys.size() + " database keys that were not written by the '" + previousType
+					+ "' database.");
+			store.multiRemove(staleKeys);
+		}
+
+		IKVStore previousStore = openStore.apply(previousType);
+
+		long entries = 0;
+		try {
+			KVBatch batch = new KVBatch();
+
+			for (Entry<String, String> e : (Iterable<Entry<String, String>>) previousStore.scanPrefix("")::iterator) {
+				batch.put(e.getKey(), e.getValue());
+				entries++;
+
+				if (batch.size() >= IMPORT_BATCH_SIZE) {
+					store.commit(batch);
+					batch = new KVBatch();
+				}
+			}
+
+			if (!batch.isEmpty()) {
+				store.commit(batch);
+			}
+
+			store.flush();
+
+		} finally {
+			if (previousStore instanceof LogKVStore) {
+				((LogKVStore) previousStore).close();
+			} else if (previousStore instanceof LsmKVStore) {
+				((LsmKVStore) previousStore).close();
+			}
+		}
+
+		log.out("Imported " + entries + " database keys from the '" + previousType + "' database in "
+				+ (System.currentTimeMillis() - startTimeInMsecs) + " msecs.");
+	}
+
+	private static void writeType(File databaseDirectory, String type) {
+		try {
+			databaseDirectory.mkdirs();
+
+			File tempFile = new File(databaseDirectory, TYPE_FILE_NAME + ".tmp");
+			Files.write(tempFile.toPath(), type.toLowerCase().getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile.toPath(), new File(databaseDirectory, TYPE_FILE_NAME).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
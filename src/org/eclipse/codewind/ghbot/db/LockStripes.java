@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of read/write locks, where each key maps to one of the locks
+ * (based on the hash of the key). Operations on the same key always use the
+ * same lock, while operations on different keys will usually use different
+ * locks, and so can proceed in parallel.
+ *
+ * Thread safe.
+ */
+public class LockStripes {
+
+	private final ReentrantReadWriteLock[] locks;
+
+	private final int mask;
+
+	/** The number of stripes is rounded up to the next power of two. */
+	public LockStripes(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+
+		this.locks = new ReentrantReadWriteLock[size];
+		for (int x = 0; x < size; x++) {
+			locks[x] = new ReentrantReadWriteLock();
+		}
+
+		this.mask = size - 1;
+	}
+
+	public ReentrantReadWriteLock forKey(String key) {
+		return locks[stripe(key)];
+	}
+
+	/**
+	 * The distinct locks of the given keys, in a fixed (stripe) order: threads that
+	 * need more than one lock must acquire them in this order, to avoid deadlock.
+	 */
+	public List<ReentrantReadWriteLock> forKeys(Collection<String> keys) {
+		TreeSet<Integer> stripes = new TreeSet<>();
+		for (String key : keys) {
+			stripes.add(stripe(key));
+		}
+
+		List<ReentrantReadWriteLock> result = new ArrayList<>();
+		for (int stripe : stripes) {
+			result.add(locks[stripe]);
+		}
+		return result;
+	}
+
+	/**
+	 * Call 'supplier' while holding the read (or write) locks of all of the keys,
+	 * which are acquired in stripe order.
+	 */
+	public <T> T callWithLocks(Collection<String> keys, boolean writeLocks, Supplier<T> supplier) {
+
+		List<Lock> acquired = new ArrayList<>();
+		try {
+			for (ReentrantReadWriteLock rwLock : forKeys(keys)) {
+				Lock lock = writeLocks ? rwLock.writeLock() : rwLock.readLock();
+				lock.lock();
+				acquired.add(lock);
+			}
+
+			return supplier.get();
+
+		} finally {
+			for (int x = acquired.size() - 1; x >= 0; x--) {
+				acquired.get(x).unlock();
+			}
+		}
+	}
+
+	public void runWithLocks(Collection<String> keys, boolean writeLocks, Runnable r) {
+		callWithLocks(keys, writeLocks, () -> {
+			r.run();
+			return null;
+		});
+	}
+
+	/** Run 'r' while holding the read (or write) locks of every stripe. */
+	public void runWithAllLocks(boolean writeLocks, Runnable r) {
+
+		List<Lock> acquired = new ArrayList<>();
+		try {
+			for (ReentrantReadWriteLock rwLock : locks) {
+				Lock lock = writeLocks ? rwLock.writeLock() : rwLock.readLock();
+				lock.lock();
+				acquired.add(lock);
+			}
+
+			r.run();
+
+		} finally {
+			for (int x = acquired.size() - 1; x >= 0; x--) {
+				acquired.get(x).unlock();
+			}
+		}
+	}
+
+	private int stripe(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return h & mask;
+	}
+
+}
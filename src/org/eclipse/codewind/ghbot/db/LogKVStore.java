@@ -0,0 +1,1003 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.eclipse.codewind.ghbot.utils.BotConstants;
+import org.eclipse.codewind.ghbot.utils.Logger;
+
+/**
+ * Key/value store that appends every write to the end of a segment file, rather
+ * than creating one file per key (as FileKVStore does). An in-memory index maps
+ * each key to the location of its most recent value in the segment files; that
+ * index is rebuilt at startup by reading the segments from beginning to end.
+ *
+ * Writes are fsync-ed as a group: a background thread forces the active segment
+ * to disk every 'syncIntervalInMsecs' milliseconds (or, if the interval is 0,
+ * after every write).
+ *
+ * Each record on disk has the following format:
+ *
+ * <pre>
+ * [crc32 of the rest of the record: int] [op: byte] [key length: int] [value length: int] [key] [value]
+ * </pre>
+ *
+ * A batch (see commit(...)) is written as a single record, whose key is empty
+ * and whose value is the concatenation of its operations, each in the above
+ * format minus the crc. Since the crc covers the whole batch, a batch that was
+ * only partially written before a crash is discarded on replay, in its
+ * entirety.
+ *
+ * compact() rewrites the live values of every segment but the active one into
+ * a single segment, while the store remains in use. A compacted segment begins
+ * with a BASE record, which indicates that every earlier segment is superseded
+ * by it: the earlier segments are deleted once the compacted segment is in
+ * place, and (should the process die before they are deleted) ignored at
+ * startup.
+ *
+ * Thread safe: a RWlock ensures that only one write operation occurs at a time,
+ * and ensures there are no reads during a write.
+ */
+public class LogKVStore implements IKVStore {
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+	private static final byte OP_BATCH = 3;
+	private static final byte OP_BASE = 4;
+
+	private static final String COMPACT_SUFFIX = ".compact";
+
+	/** crc (4) + op (1) + key length (4) + value length (4) */
+	private static final int HEADER_SIZE = 13;
+
+	/** The header of an operation within a batch: op (1) + key length (4) + value length (4) */
+	private static final int BATCH_OP_HEADER_SIZE = HEADER_SIZE - 4;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Logger log = Logger.getInstance();
+
+	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+	private final Lock readLock = rwLock.readLock();
+	private final Lock writeLock = rwLock.writeLock();
+
+	private final File segmentDirectory;
+
+	private final long maxSegmentSizeInBytes;
+
+	private final long syncIntervalInMsecs;
+
+	/** Acquire read or write lock when accessing. */
+	private final TreeMap<String /* key */, RecordLocation> index = new TreeMap<>();
+
+	/** Acquire read or write lock when accessing. */
+	private final TreeMap<Long /* segment id */, FileChannel> segments = new TreeMap<>();
+
+	/** Acquire write lock when accessing. */
+	private long activeSegmentId;
+
+	/** Acquire write lock when accessing. */
+	private long activeSegmentPosition;
+
+	/** Only one compaction runs at a time */
+	private final ReentrantLock compactLock = new ReentrantLock();
+
+	/** The last segment (during startup) that begins with a BASE record; acquire write lock when accessing. */
+	private long baseSegmentId = 0;
+
+	/** Whether close() has been called; acquire read or write lock when accessing. */
+	private boolean closed = false;
+
+	/** Whether there are writes to the active segment that have not been fsync-ed */
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+	private final SyncThread syncThread;
+
+	public LogKVStore(File outputDirectory, long syncIntervalInMsecs, long maxSegmentSizeInBytes) {
+		this.segmentDirectory = new File(outputDirectory, "log");
+		this.syncIntervalInMsecs = syncIntervalInMsecs;
+		this.maxSegmentSizeInBytes = maxSegmentSizeInBytes;
+
+		if (!BotConstants.READONLY_DATABASE && !segmentDirectory.exists() && !segmentDirectory.mkdirs()) {
+			throw new UncheckedIOException(new IOException("Unable to create " + segmentDirectory));
+		}
+
+		try {
+			writeLock.lock();
+			loadSegments();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (syncIntervalInMsecs > 0) {
+			syncThread = new SyncThread();
+			syncThread.start();
+		} else {
+			syncThread = null;
+		}
+	}
+
+	@Override
+	public void persistString(String key, String value) {
+		if (key == null || value == null) {
+			throw new RuntimeException("Invalid key or value " + key + " " + value);
+		}
+
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		append(OP_PUT, key, value);
+	}
+
+	@Override
+	public Optional<String> getString(String key) {
+		try {
+			readLock.lock();
+			checkOpen();
+
+			RecordLocation location = index.get(key);
+			if (location == null) {
+				return Optional.empty();
+			}
+
+			return Optional.of(readValue(location));
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean removeByKey(String key) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		try {
+			writeLock.lock();
+			checkOpen();
+
+			if (!index.containsKey(key)) {
+				return false;
+			}
+
+			append(OP_REMOVE, key, null);
+
+			return true;
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public List<String> getKeysByPrefix(String prefix) {
+
+		String fPrefix = prefix == null ? "" : prefix;
+
+		try {
+			readLock.lock();
+			checkOpen();
+
+			if (fPrefix.isEmpty()) {
+				return new ArrayList<>(index.keySet());
+			}
+
+			return new ArrayList<>(index.subMap(fPrefix, true, fPrefix + Character.MAX_VALUE, false).keySet());
+
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/** All values are read while holding the read lock once. */
+	@Override
+	public Map<String, String> multiGet(Collection<String> keys) {
+		try {
+			readLock.lock();
+			checkOpen();
+
+			Map<String, String> result = new LinkedHashMap<>();
+			for (String key : keys) {
+				RecordLocation location = index.get(key);
+				if (location != null) {
+					result.put(key, readValue(location));
+				}
+			}
+			return result;
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		KVPage.checkPageSize(pageSize);
+
+		try {
+			readLock.lock();
+			checkOpen();
+
+			List<Entry<String, String>> entries = new ArrayList<>();
+
+			Iterator<String> it = KVPage.keysInRange(index.navigableKeySet(), prefix, startAfterKey).iterator();
+			while (entries.size() < pageSize && it.hasNext()) {
+				String key = it.next();
+				entries.add(new SimpleImmutableEntry<>(key, readValue(index.get(key))));
+			}
+
+			String nextStartAfterKey = it.hasNext() ? entries.get(entries.size() - 1).getKey() : null;
+
+			return new KVPage(entries, nextStartAfterKey);
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/** Force any unsynced writes in the active segment to disk. */
+	public void sync() {
+
+		if (!dirty.getAndSet(false)) {
+			return;
+		}
+
+		FileChannel active;
+		try {
+			readLock.lock();
+			active = segments.get(activeSegmentId);
+		} finally {
+			readLock.unlock();
+		}
+
+		if (active == null) { // Closed
+			return;
+		}
+
+		try {
+			// Does not require the lock: FileChannel is thread safe, and we don't want to
+			// block readers on the disk flush.
+			active.force(false);
+		} catch (IOException e) {
+			dirty.set(true);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		sync();
+	}
+
+	/**
+	 * Sync any outstanding writes, then close all segment files; any later
+	 * operation (other than sync/flush/close) throws IllegalStateException.
+	 */
+	public void close() {
+
+		if (syncThread != null) {
+			syncThread.interrupt();
+		}
+
+		sync();
+
+		try {
+			writeLock.lock();
+
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			for (FileChannel fc : segments.values()) {
+				try {
+					fc.close();
+				} catch (IOException e) {
+					/* ignore */
+				}
+			}
+			segments.clear();
+			index.clear();
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void append(byte op, String key, String value) {
+
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		byte[] valueBytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : EMPTY;
+
+		ByteBuffer record = newRecord(op, keyBytes, valueBytes);
+
+		try {
+			writeLock.lock();
+			checkOpen();
+
+			long recordStart = writeRecord(record);
+
+			if (op == OP_PUT) {
+				index.put(key, new RecordLocation(activeSegmentId,
+						recordStart + HEADER_SIZE + keyBytes.length, valueBytes.length));
+			} else {
+				index.remove(key);
+			}
+
+			syncIfNeeded();
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * The batch is written as a single record (see class javadoc), and fsync-ed
+	 * (or marked dirty) once.
+	 */
+	@Override
+	public void commit(KVBatch batch) {
+
+		if (BotConstants.READONLY_DATABASE || batch.isEmpty()) {
+			return;
+		}
+
+		List<String> keys = new ArrayList<>();
+		List<byte[]> keyBytesList = new ArrayList<>();
+		List<byte[]> valueBytesList = new ArrayList<>();
+
+		int payloadLength = 0;
+		for (Entry<String, String> e : batch.getOperations().entrySet()) {
+			byte[] keyBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] valueBytes = e.getValue() != null ? e.getValue().getBytes(StandardCharsets.UTF_8) : EMPTY;
+
+			keys.add(e.getKey());
+			keyBytesList.add(keyBytes);
+			valueBytesList.add(e.getValue() != null ? valueBytes : null);
+
+			payloadLength += BATCH_OP_HEADER_SIZE + keyBytes.length + valueBytes.length;
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+		record.putInt(0); // crc placeholder
+		record.put(OP_BATCH);
+		record.putInt(0);
+		record.putInt(payloadLength);
+
+		for (int x = 0; x < keys.size(); x++) {
+			byte[] keyBytes = keyBytesList.get(x);
+			byte[] valueBytes = valueBytesList.get(x);
+
+			record.put(valueBytes != null ? OP_PUT : OP_REMOVE);
+			record.putInt(keyBytes.length);
+			record.putInt(valueBytes != null ? valueBytes.length : 0);
+			record.put(keyBytes);
+			if (valueBytes != null) {
+				record.put(valueBytes);
+			}
+		}
+
+		try {
+			writeLock.lock();
+			checkOpen();
+
+			long offset = writeRecord(record) + HEADER_SIZE;
+
+			for (int x = 0; x < keys.size(); x++) {
+				byte[] keyBytes = keyBytesList.get(x);
+				byte[] valueBytes = valueBytesList.get(x);
+
+				offset += BATCH_OP_HEADER_SIZE + keyBytes.length;
+
+				if (valueBytes != null) {
+					index.put(keys.get(x), new RecordLocation(activeSegmentId, offset, valueBytes.length));
+					offset += valueBytes.length;
+				} else {
+					index.remove(keys.get(x));
+				}
+			}
+
+			syncIfNeeded();
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void multiPersist(Map<String, String> entries) {
+		KVBatch batch = new KVBatch();
+		entries.forEach(batch::put);
+		commit(batch);
+	}
+
+	@Override
+	public int multiRemove(Collection<String> keys) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return 0;
+		}
+
+		try {
+			writeLock.lock();
+			checkOpen();
+
+			KVBatch batch = new KVBatch();
+			keys.stream().filter(index::containsKey).forEach(batch::remove);
+			commit(batch);
+
+			return batch.size();
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		try {
+			writeLock.lock();
+			checkOpen();
+
+			RecordLocation location = index.get(key);
+			String currentValue = location != null ? readValue(location) : null;
+
+			if (!Objects.equals(currentValue, expectedValue)) {
+				return false;
+			}
+
+			if (newValue != null) {
+				append(OP_PUT, key, newValue);
+			} else if (location != null) {
+				append(OP_REMOVE, key, null);
+			}
+
+			return true;
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Rewrite the live values of every segment but the active one into a single
+	 * segment (see class javadoc). The values are copied without holding the write
+	 * lock, so reads and writes proceed during the copy; values that are written
+	 * again (or removed) during the copy keep their newer location.
+	 */
+	@Override
+	public long compact() {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return 0;
+		}
+
+		try {
+			compactLock.lock();
+
+			long compactedSegmentId;
+			long sizeBefore = 0;
+			Map<String, RecordLocation> live;
+
+			try {
+				writeLock.lock();
+				checkOpen();
+
+				if (activeSegmentPosition == 0 && segments.size() == 1) {
+					return 0; // Empty
+				}
+
+				// Start a new active segment, so that every segment being compacted is immutable
+				rollSegment();
+				compactedSegmentId = activeSegmentId - 1;
+
+				for (FileChannel fc : segments.headMap(compactedSegmentId, true).values()) {
+					sizeBefore += fc.size();
+				}
+
+				live = new TreeMap<>(index);
+
+			} finally {
+				writeLock.unlock();
+			}
+
+			File compactFile = new File(segmentFile(compactedSegmentId).getPath() + COMPACT_SUFFIX);
+
+			Map<String, RecordLocation> newLocations = new HashMap<>();
+
+			long sizeAfter;
+
+			try (FileChannel out = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+				long position = writeRecordTo(out, 0, newRecord(OP_BASE, EMPTY, EMPTY));
+
+				for (Entry<String, RecordLocation> e : live.entrySet()) {
+					String value;
+					try {
+						readLock.lock();
+						value = readValue(e.getValue());
+					} finally {
+						readLock.unlock();
+					}
+
+					byte[] keyBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+					byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+
+					newLocations.put(e.getKey(), new RecordLocation(compactedSegmentId,
+							position + HEADER_SIZE + keyBytes.length, valueBytes.length));
+
+					position = writeRecordTo(out, position, newRecord(OP_PUT, keyBytes, valueBytes));
+				}
+
+				out.force(true);
+				sizeAfter = position;
+			}
+
+			try {
+				writeLock.lock();
+				checkOpen();
+
+				for (Entry<String, RecordLocation> e : live.entrySet()) {
+					// Identity comparison: the key has not been written (or removed) since the copy
+					if (index.get(e.getKey()) == e.getValue()) {
+						index.put(e.getKey(), newLocations.get(e.getKey()));
+					}
+				}
+
+				Map<Long, FileChannel> compacted = segments.headMap(compactedSegmentId, true);
+				for (FileChannel fc : compacted.values()) {
+					fc.close();
+				}
+				List<Long> compactedIds = new ArrayList<>(compacted.keySet());
+				compacted.clear();
+
+				Files.move(compactFile.toPath(), segmentFile(compactedSegmentId).toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				segments.put(compactedSegmentId, FileChannel.open(segmentFile(compactedSegmentId).toPath(),
+						StandardOpenOption.READ, StandardOpenOption.WRITE));
+
+				for (Long segmentId : compactedIds) {
+					if (segmentId != compactedSegmentId) {
+						Files.delete(segmentFile(segmentId).toPath());
+					}
+				}
+
+			} finally {
+				writeLock.unlock();
+			}
+
+			log.out("Compacted segments up to " + compactedSegmentId + " of " + segmentDirectory + " from "
+					+ sizeBefore + " to " + sizeAfter + " bytes (" + live.size() + " keys)");
+
+			return Math.max(0, sizeBefore - sizeAfter);
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			compactLock.unlock();
+		}
+	}
+
+	/** A record with a placeholder crc (see writeRecord). */
+	private static ByteBuffer newRecord(byte op, byte[] keyBytes, byte[] valueBytes) {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueBytes.length);
+		record.putInt(0); // crc placeholder
+		record.put(op);
+		record.putInt(keyBytes.length);
+		record.putInt(valueBytes.length);
+		record.put(keyBytes);
+		record.put(valueBytes);
+		return record;
+	}
+
+	/**
+	 * Compute the crc of the record, and write it to the end of the active segment
+	 * (rolling to a new segment first if needed). Returns the offset of the start
+	 * of the record. Acquire write lock before calling.
+	 */
+	private long writeRecord(ByteBuffer record) throws IOException {
+
+		if (activeSegmentPosition > 0 && activeSegmentPosition + record.capacity() > maxSegmentSizeInBytes) {
+			rollSegment();
+		}
+
+		long recordStart = activeSegmentPosition;
+
+		activeSegmentPosition = writeRecordTo(segments.get(activeSegmentId), recordStart, record);
+
+		return recordStart;
+	}
+
+	/**
+	 * Compute the crc of the record, and write it to the channel at 'position';
+	 * returns the position after the record.
+	 */
+	private static long writeRecordTo(FileChannel fc, long position, ByteBuffer record) throws IOException {
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, record.capacity() - 4);
+		record.putInt(0, (int) crc.getValue());
+		record.flip();
+
+		while (record.hasRemaining()) {
+			position += fc.write(record, position);
+		}
+
+		return position;
+	}
+
+	/** Acquire read or write lock before calling. */
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("store is closed");
+		}
+	}
+
+	/** Acquire write lock before calling. */
+	private void syncIfNeeded() throws IOException {
+		if (syncIntervalInMsecs == 0) {
+			segments.get(activeSegmentId).force(false);
+		} else {
+			dirty.set(true);
+		}
+	}
+
+	private String readValue(RecordLocation location) throws IOException {
+
+		FileChannel fc = segments.get(location.segmentId);
+
+		ByteBuffer bb = ByteBuffer.allocate(location.valueLength);
+
+		long position = location.valueOffset;
+		while (bb.hasRemaining()) {
+			int c = fc.read(bb, position);
+			if (c == -1) {
+				throw new EOFException("Unexpected end of segment " + location.segmentId + " at " + position);
+			}
+			position += c;
+		}
+
+		return new String(bb.array(), StandardCharsets.UTF_8);
+	}
+
+	/** Acquire write lock before calling. */
+	private void rollSegment() throws IOException {
+
+		FileChannel previous = segments.get(activeSegmentId);
+		if (previous != null) {
+			previous.force(false);
+		}
+
+		openSegment(activeSegmentId + 1);
+	}
+
+	/** Acquire write lock before calling. */
+	private void openSegment(long segmentId) throws IOException {
+		File f = segmentFile(segmentId);
+
+		FileChannel fc = BotConstants.READONLY_DATABASE ? FileChannel.open(f.toPath(), StandardOpenOption.READ)
+				: FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+
+		segments.put(segmentId, fc);
+		activeSegmentId = segmentId;
+		activeSegmentPosition = fc.size();
+	}
+
+	/**
+	 * Replay every segment (in order) to rebuild the index. Acquire write lock
+	 * before calling.
+	 */
+	private void loadSegments() throws IOException {
+
+		File[] files = segmentDirectory.listFiles();
+		if (files == null) { // Read-only, and no database yet
+			files = new File[0];
+		}
+
+		long[] segmentIds = Arrays.stream(files).map(e -> e.getName())
+				.filter(e -> e.startsWith(SEGMENT_PREFIX) && e.endsWith(SEGMENT_SUFFIX))
+				.mapToLong(e -> Long.parseLong(e.substring(SEGMENT_PREFIX.length(), e.length() - SEGMENT_SUFFIX.length())))
+				.sorted().toArray();
+
+		for (int x = 0; x < segmentIds.length; x++) {
+			long segmentId = segmentIds[x];
+			boolean lastSegment = x == segmentIds.length - 1;
+
+			openSegment(segmentId);
+
+			long validLength = replaySegment(segmentId);
+
+			if (validLength < activeSegmentPosition) {
+				log.err("Segment " + segmentFile(segmentId) + " contains an incomplete or corrupt record at offset "
+						+ validLength + " (of " + activeSegmentPosition + ")");
+
+				if (lastSegment && !BotConstants.READONLY_DATABASE) {
+					// A torn write at the tail of the log (ie the process died mid-write): discard
+					// it, so that new records are appended after the last valid record.
+					segments.get(segmentId).truncate(validLength);
+					activeSegmentPosition = validLength;
+				}
+			}
+		}
+
+		// When read-only, the superseded segments are left in place (they are ignored
+		// by replaySegment), and no active segment is created.
+		if (!BotConstants.READONLY_DATABASE) {
+			deleteSupersededSegments();
+
+			if (segments.isEmpty()) {
+				openSegment(1);
+			}
+		}
+
+		log.out("Loaded " + index.size() + " keys from " + segments.size() + " segment(s) in " + segmentDirectory);
+	}
+
+	/**
+	 * Delete the segments before the last compacted segment (left behind if the
+	 * process died during a compaction), and any incomplete compacted segment.
+	 * Acquire write lock before calling.
+	 */
+	private void deleteSupersededSegments() throws IOException {
+
+		for (File f : segmentDirectory.listFiles((dir, name) -> name.endsWith(COMPACT_SUFFIX))) {
+			Files.delete(f.toPath());
+		}
+
+		Map<Long, FileChannel> superseded = segments.headMap(baseSegmentId, false);
+		if (superseded.isEmpty()) {
+			return;
+		}
+
+		log.out("Deleting " + superseded.size() + " segment(s) superseded by compacted segment " + baseSegmentId);
+
+		for (Entry<Long, FileChannel> e : superseded.entrySet()) {
+			e.getValue().close();
+			Files.delete(segmentFile(e.getKey()).toPath());
+		}
+		superseded.clear();
+	}
+
+	/**
+	 * Apply every valid record of the segment to the index; returns the offset of
+	 * the end of the last valid record.
+	 */
+	private long replaySegment(long segmentId) throws IOException {
+
+		File f = segmentFile(segmentId);
+		long fileLength = f.length();
+
+		long position = 0;
+
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024))) {
+
+			byte[] header = new byte[HEADER_SIZE];
+
+			while (position + HEADER_SIZE <= fileLength) {
+
+				dis.readFully(header);
+				ByteBuffer hb = ByteBuffer.wrap(header);
+
+				int expectedCrc = hb.getInt();
+				byte op = hb.get();
+				int keyLength = hb.getInt();
+				int valueLength = hb.getInt();
+
+				if ((op != OP_PUT && op != OP_REMOVE && op != OP_BATCH && op != OP_BASE) || keyLength < 0 || valueLength < 0
+						|| position + HEADER_SIZE + keyLength + valueLength > fileLength) {
+					break;
+				}
+
+				byte[] keyBytes = new byte[keyLength];
+				byte[] valueBytes = new byte[valueLength];
+				dis.readFully(keyBytes);
+				dis.readFully(valueBytes);
+
+				CRC32 crc = new CRC32();
+				crc.update(header, 4, HEADER_SIZE - 4);
+				crc.update(keyBytes);
+				crc.update(valueBytes);
+
+				if ((int) crc.getValue() != expectedCrc) {
+					break;
+				}
+
+				String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+				if (op == OP_BASE) {
+					// Every earlier segment is superseded by this one
+					index.clear();
+					baseSegmentId = segmentId;
+
+				} else if (op == OP_BATCH) {
+					if (!replayBatch(segmentId, position + HEADER_SIZE + keyLength, valueBytes)) {
+						break;
+					}
+				} else if (op == OP_PUT) {
+					index.put(key, new RecordLocation(segmentId, position + HEADER_SIZE + keyLength, valueLength));
+				} else {
+					index.remove(key);
+				}
+
+				position += HEADER_SIZE + keyLength + valueLength;
+			}
+
+		} catch (EOFException e) {
+			/* ignore: an incomplete record at the end of the file */
+		}
+
+		return position;
+	}
+
+	/**
+	 * Apply the operations of a batch record to the index; 'payloadOffset' is the
+	 * offset of the payload in the segment. Returns false (and applies nothing) if
+	 * the payload is malformed.
+	 */
+	private boolean replayBatch(long segmentId, long payloadOffset, byte[] payload) {
+
+		Map<String, RecordLocation> operations = new LinkedHashMap<>();
+
+		ByteBuffer bb = ByteBuffer.wrap(payload);
+		while (bb.hasRemaining()) {
+			if (bb.remaining() < BATCH_OP_HEADER_SIZE) {
+				return false;
+			}
+
+			byte op = bb.get();
+			int keyLength = bb.getInt();
+			int valueLength = bb.getInt();
+
+			if ((op != OP_PUT && op != OP_REMOVE) || keyLength < 0 || valueLength < 0
+					|| keyLength + valueLength > bb.remaining()) {
+				return false;
+			}
+
+			String key = new String(payload, bb.position(), keyLength, StandardCharsets.UTF_8);
+			bb.position(bb.position() + keyLength);
+
+			// Removes are recorded as a null location; remove and re-add, to keep the batch order
+			operations.remove(key);
+			operations.put(key, op == OP_PUT ? new RecordLocation(segmentId, payloadOffset + bb.position(), valueLength)
+					: null);
+
+			bb.position(bb.position() + valueLength);
+		}
+
+		operations.forEach((key, location) -> {
+			if (location != null) {
+				index.put(key, location);
+			} else {
+				index.remove(key);
+			}
+		});
+
+		return true;
+	}
+
+	private File segmentFile(long segmentId) {
+		return new File(segmentDirectory, SEGMENT_PREFIX + String.format("%010d", segmentId) + SEGMENT_SUFFIX);
+	}
+
+	/** Number of keys in the index; for debugging and tests. */
+	int size() {
+		try {
+			readLock.lock();
+			return index.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/** Position of the most recent value of a key, within the segment files. */
+	private static class RecordLocation {
+		final long segmentId;
+		final long valueOffset;
+		final int valueLength;
+
+		RecordLocation(long segmentId, long valueOffset, int valueLength) {
+			this.segmentId = segmentId;
+			this.valueOffset = valueOffset;
+			this.valueLength = valueLength;
+		}
+	}
+
+	/**
+	 * Periodically fsync the active segment, so that writes are flushed to disk as
+	 * a group rather than individually.
+	 */
+	private class SyncThread extends Thread {
+
+		public SyncThread() {
+			setDaemon(true);
+			setName(SyncThread.class.getName());
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(syncIntervalInMsecs);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					sync();
+				} catch (Exception e) {
+					// Prevent exceptions from ending the thread.
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,961 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.eclipse.codewind.ghbot.utils.BotConstants;
+import org.eclipse.codewind.ghbot.utils.Logger;
+
+/**
+ * Key/value store based on a log-structured merge tree: writes are appended to
+ * a write-ahead log (WAL) and applied to a sorted in-memory table (the
+ * memtable). Once the memtable reaches 'memtableSizeInBytes', it is written to
+ * an immutable, sorted table file (see SortedTable), and a new WAL is started.
+ *
+ * A read checks the memtable, then each table from newest to oldest; a prefix
+ * scan merges the (sorted) memtable and tables, so scans are range reads
+ * rather than lookups of individual keys. Once there are more than MAX_TABLES
+ * tables (or when compact() is called), every table is merged into a single
+ * BASE table, which discards overwritten values and removed keys.
+ *
+ * Crash safety:
+ * - Each write (or batch, see commit(...)) is a single WAL record with a crc;
+ * WAL records are fsync-ed as a group, every 'syncIntervalInMsecs' (or, if the
+ * interval is 0, after every write). At startup, the WALs that are not yet in
+ * a table are replayed, up to the first incomplete record.
+ * - Table files are written to a temporary file, fsync-ed, then renamed. A
+ * table created from a WAL always has a higher id than that WAL, so at startup
+ * a WAL with a lower id than the newest table is known to be in a table.
+ * - A BASE table supersedes every table with a lower id, which are deleted if
+ * the process died before they could be.
+ *
+ * Directory layout: 'lsm/table-[id].sst' and 'lsm/wal-[id].log', where ids are
+ * increasing.
+ *
+ * Thread safe: a RWlock ensures that only one write operation occurs at a time,
+ * and ensures there are no reads during a write. Memtable flushes and
+ * compactions (which hold flushLock) write their table without holding the
+ * RWlock, which is then only held to swap in the new table.
+ */
+public class LsmKVStore implements IKVStore {
+
+	private static final String TABLE_PREFIX = "table-";
+	private static final String TABLE_SUFFIX = ".sst";
+
+	private static final String WAL_PREFIX = "wal-";
+	private static final String WAL_SUFFIX = ".log";
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+
+	/** crc (4) + payload length (4) */
+	private static final int WAL_RECORD_HEADER_SIZE = 8;
+
+	/** op (1) + key length (4) + value length (4) */
+	private static final int WAL_OP_HEADER_SIZE = 9;
+
+	private static final int MAX_TABLES = 8;
+
+	/** Estimated memory used by a memtable entry, in addition to its key and value */
+	private static final int MEMTABLE_ENTRY_OVERHEAD_IN_BYTES = 64;
+
+	private final Logger log = Logger.getInstance();
+
+	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+	private final Lock readLock = rwLock.readLock();
+	private final Lock writeLock = rwLock.writeLock();
+
+	/** Only one memtable flush (or compaction) runs at a time; acquire before the RWlock. */
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private final File directory;
+
+	private final long syncIntervalInMsecs;
+
+	private final long memtableSizeInBytes;
+
+	private final AtomicLong nextFileId = new AtomicLong(1);
+
+	/** Values of removed keys are SortedTable.TOMBSTONE. Acquire read or write lock when accessing. */
+	private TreeMap<String /* key */, String /* value */> memtable = new TreeMap<>();
+
+	/** Estimated size of the memtable; acquire write lock when accessing. */
+	private long memtableEstimatedBytes = 0;
+
+	/**
+	 * The previous memtable, while it is being written to a table, otherwise null.
+	 * Acquire read or write lock when accessing.
+	 */
+	private TreeMap<String /* key */, String /* value */> flushingMemtable = null;
+
+	/**
+	 * Newest first. The list is replaced (never modified) while holding the write
+	 * lock; acquire read or write lock when accessing.
+	 */
+	private List<SortedTable> tables = Collections.emptyList();
+
+	/** Acquire write lock when accessing. */
+	private FileChannel wal;
+
+	/** Acquire write lock when accessing. */
+	private long walPosition;
+
+	/** Whether there are writes to the WAL that have not been fsync-ed */
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+	private final SyncThread syncThread;
+
+	public LsmKVStore(File outputDirectory, long syncIntervalInMsecs, long memtableSizeInBytes) {
+		this.directory = new File(outputDirectory, "lsm");
+		this.syncIntervalInMsecs = syncIntervalInMsecs;
+		this.memtableSizeInBytes = memtableSizeInBytes;
+
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new UncheckedIOException(new IOException("Unable to create " + directory));
+		}
+
+		try {
+			writeLock.lock();
+			load();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeLock.unlock();
+		}
+
+		// Write the replayed WALs (if any) to a table, so they can be deleted
+		flushMemtable();
+
+		if (syncIntervalInMsecs > 0) {
+			syncThread = new SyncThread();
+			syncThread.start();
+		} else {
+			syncThread = null;
+		}
+	}
+
+	@Override
+	public void persistString(String key, String value) {
+		if (key == null || value == null) {
+			throw new RuntimeException("Invalid key or value " + key + " " + value);
+		}
+
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		if (write(Collections.singletonMap(key, value))) {
+			flushMemtable();
+		}
+	}
+
+	@Override
+	public Optional<String> getString(String key) {
+		try {
+			readLock.lock();
+
+			String value = lookup(key);
+
+			return value == null || value == SortedTable.TOMBSTONE ? Optional.empty() : Optional.of(value);
+
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean removeByKey(String key) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		boolean flush;
+		try {
+			writeLock.lock();
+
+			String value = lookup(key);
+			if (value == null || value == SortedTable.TOMBSTONE) {
+				return false;
+			}
+
+			flush = write(Collections.singletonMap(key, null));
+
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (flush) {
+			flushMemtable();
+		}
+
+		return true;
+	}
+
+	@Override
+	public List<String> getKeysByPrefix(String prefix) {
+		List<String> result = new ArrayList<>();
+		scan(prefix, null, Integer.MAX_VALUE, result::add, null);
+		return result;
+	}
+
+	@Override
+	public Map<String, String> multiGet(Collection<String> keys) {
+
+		Map<String, String> result = new LinkedHashMap<>();
+
+		try {
+			readLock.lock();
+
+			for (String key : keys) {
+				String value = lookup(key);
+				if (value != null && value != SortedTable.TOMBSTONE) {
+					result.put(key, value);
+				}
+			}
+
+		} finally {
+			readLock.unlock();
+		}
+
+		return result;
+	}
+
+	/** The page is read by merging the memtable and tables, from 'startAfterKey'. */
+	@Override
+	public KVPage scanPrefix(String prefix, String startAfterKey, int pageSize) {
+		KVPage.checkPageSize(pageSize);
+
+		List<Entry<String, String>> entries = new ArrayList<>();
+
+		String nextStartAfterKey = scan(prefix, startAfterKey, pageSize, null, entries);
+
+		return new KVPage(entries, nextStartAfterKey);
+	}
+
+	/** The batch is written as a single WAL record. */
+	@Override
+	public void commit(KVBatch batch) {
+
+		if (BotConstants.READONLY_DATABASE || batch.isEmpty()) {
+			return;
+		}
+
+		if (write(batch.getOperations())) {
+			flushMemtable();
+		}
+	}
+
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		boolean flush;
+		try {
+			writeLock.lock();
+
+			String currentValue = lookup(key);
+			if (currentValue == SortedTable.TOMBSTONE) {
+				currentValue = null;
+			}
+
+			if (!Objects.equals(currentValue, expectedValue)) {
+				return false;
+			}
+
+			if (newValue == null && currentValue == null) {
+				return true;
+			}
+
+			flush = write(Collections.singletonMap(key, newValue));
+
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (flush) {
+			flushMemtable();
+		}
+
+		return true;
+	}
+
+	/** Write the memtable to a table, then merge every table into one. */
+	@Override
+	public long compact() {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return 0;
+		}
+
+		flushMemtable();
+
+		try {
+			flushLock.lock();
+			return compactTables();
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/** fsync any WAL records that have not yet been fsync-ed. */
+	public void sync() {
+
+		if (!dirty.getAndSet(false)) {
+			return;
+		}
+
+		FileChannel active;
+		try {
+			readLock.lock();
+			active = wal;
+		} finally {
+			readLock.unlock();
+		}
+
+		if (active == null) { // Closed
+			return;
+		}
+
+		try {
+			// Does not require the lock: FileChannel is thread safe, and we don't want to
+			// block readers on the disk flush.
+			active.force(false);
+		} catch (ClosedChannelException e) {
+			/* ignore: the WAL was replaced (and fsync-ed) by a memtable flush */
+		} catch (IOException e) {
+			dirty.set(true);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		sync();
+	}
+
+	/** Stop the background sync thread, fsync, and close all files. */
+	public void close() {
+
+		if (syncThread != null) {
+			syncThread.interrupt();
+		}
+
+		sync();
+
+		try {
+			writeLock.lock();
+
+			closeQuietly(wal);
+			wal = null;
+
+			for (SortedTable table : tables) {
+				closeQuietly(table);
+			}
+			tables = Collections.emptyList();
+			memtable.clear();
+
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/** Number of table files; for debugging and tests. */
+	int getTableCount() {
+		try {
+			readLock.lock();
+			return tables.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the value of the key, SortedTable.TOMBSTONE if it was removed, or
+	 * null if it was never written. Acquire read or write lock before calling.
+	 */
+	private String lookup(String key) {
+
+		String value = memtable.get(key);
+
+		if (value == null && flushingMemtable != null) {
+			value = flushingMemtable.get(key);
+		}
+
+		for (int x = 0; value == null && x < tables.size(); x++) {
+			value = tables.get(x).get(key);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Append the writes (a null value removes the key) to the WAL as one record,
+	 * then apply them to the memtable. Returns true if the memtable should now be
+	 * flushed: the caller must then call flushMemtable() once it no longer holds
+	 * the RWlock.
+	 */
+	private boolean write(Map<String, String> writes) {
+
+		List<byte[]> keyBytesList = new ArrayList<>();
+		List<byte[]> valueBytesList = new ArrayList<>();
+
+		int payloadLength = 0;
+		for (Entry<String, String> e : writes.entrySet()) {
+			byte[] keyBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] valueBytes = e.getValue() != null ? e.getValue().getBytes(StandardCharsets.UTF_8) : null;
+
+			keyBytesList.add(keyBytes);
+			valueBytesList.add(valueBytes);
+
+			payloadLength += WAL_OP_HEADER_SIZE + keyBytes.length + (valueBytes != null ? valueBytes.length : 0);
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(WAL_RECORD_HEADER_SIZE + payloadLength);
+		record.putInt(0); // crc placeholder
+		record.putInt(payloadLength);
+
+		for (int x = 0; x < keyBytesList.size(); x++) {
+			byte[] keyBytes = keyBytesList.get(x);
+			byte[] valueBytes = valueBytesList.get(x);
+
+			record.put(valueBytes != null ? OP_PUT : OP_REMOVE);
+			record.putInt(keyBytes.length);
+			record.putInt(valueBytes != null ? valueBytes.length : 0);
+			record.put(keyBytes);
+			if (valueBytes != null) {
+				record.put(valueBytes);
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, record.capacity() - 4);
+		record.putInt(0, (int) crc.getValue());
+		record.flip();
+
+		try {
+			writeLock.lock();
+
+			long position = walPosition;
+			while (record.hasRemaining()) {
+				position += wal.write(record, position);
+			}
+			walPosition = position;
+
+			if (syncIntervalInMsecs == 0) {
+				wal.force(false);
+			} else {
+				dirty.set(true);
+			}
+
+			writes.forEach((key, value) -> {
+				String previous = memtable.put(key, value != null ? value : SortedTable.TOMBSTONE);
+				if (previous == null) {
+					memtableEstimatedBytes += MEMTABLE_ENTRY_OVERHEAD_IN_BYTES + 2 * key.length();
+				} else {
+					memtableEstimatedBytes -= 2 * previous.length();
+				}
+				memtableEstimatedBytes += value != null ? 2 * value.length() : 0;
+			});
+
+			return memtableEstimatedBytes >= memtableSizeInBytes;
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Write the memtable to a new table, and start a new WAL. The memtable remains
+	 * readable (as 'flushingMemtable') while the table is written. Do not hold the
+	 * RWlock when calling.
+	 */
+	private void flushMemtable() {
+
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		try {
+			flushLock.lock();
+
+			TreeMap<String, String> toFlush;
+			FileChannel previousWal;
+			long tableId;
+
+			try {
+				writeLock.lock();
+
+				if (memtable.isEmpty()) {
+					return;
+				}
+
+				toFlush = memtable;
+				flushingMemtable = toFlush;
+				memtable = new TreeMap<>();
+				memtableEstimatedBytes = 0;
+
+				// The table id must be greater than the id of every WAL it contains (see class
+				// javadoc), and less than the id of the new WAL.
+				tableId = nextFileId.getAndIncrement();
+
+				previousWal = wal;
+				openWal(nextFileId.getAndIncrement());
+
+			} finally {
+				writeLock.unlock();
+			}
+
+			if (previousWal != null) {
+				previousWal.force(false);
+				previousWal.close();
+			}
+
+			SortedTable table = SortedTable.write(tableFile(tableId), tableId, toFlush.entrySet().iterator(),
+					false);
+
+			try {
+				writeLock.lock();
+
+				List<SortedTable> newTables = new ArrayList<>();
+				newTables.add(table);
+				newTables.addAll(tables);
+				tables = newTables;
+
+				flushingMemtable = null;
+
+			} finally {
+				writeLock.unlock();
+			}
+
+			deleteFiles(WAL_PREFIX, WAL_SUFFIX, tableId);
+
+			if (tables.size() > MAX_TABLES) {
+				compactTables();
+			}
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Merge every table into a single BASE table, which replaces the newest of
+	 * them (and so has its id). Returns the number of bytes reclaimed. Acquire
+	 * flushLock (but not the RWlock) before calling.
+	 */
+	private long compactTables() throws IOException {
+
+		List<SortedTable> toCompact;
+		try {
+			readLock.lock();
+			toCompact = tables;
+		} finally {
+			readLock.unlock();
+		}
+
+		if (toCompact.isEmpty() || (toCompact.size() == 1 && toCompact.get(0).getTombstones() == 0)) {
+			return 0;
+		}
+
+		long sizeBefore = toCompact.stream().mapToLong(SortedTable::getSizeInBytes).sum();
+
+		SortedTable newest = toCompact.get(0);
+
+		List<SortedTable.TableIterator> iterators = new ArrayList<>();
+		SortedTable compacted;
+		try {
+			for (SortedTable table : toCompact) {
+				iterators.add(table.iterator(null));
+			}
+
+			compacted = SortedTable.write(tableFile(newest.getId()), newest.getId(), new MergingIterator(iterators),
+					true);
+
+		} finally {
+			iterators.forEach(LsmKVStore::closeQuietly);
+		}
+
+		try {
+			writeLock.lock();
+
+			// No tables are added while flushLock is held, so every table is replaced
+			tables = Collections.singletonList(compacted);
+
+			for (SortedTable table : toCompact) {
+				closeQuietly(table);
+			}
+
+		} finally {
+			writeLock.unlock();
+		}
+
+		deleteFiles(TABLE_PREFIX, TABLE_SUFFIX, newest.getId());
+
+		log.out("Compacted " + toCompact.size() + " table(s) of " + directory + " from " + sizeBefore + " to "
+				+ compacted.getSizeInBytes() + " bytes (" + compacted.getEntries() + " keys)");
+
+		return Math.max(0, sizeBefore - compacted.getSizeInBytes());
+	}
+
+	/**
+	 * Merge the memtables and tables, from (after) 'startAfterKey', and pass each
+	 * key (to 'keys') or entry (to 'entries') of the prefix to the caller, up to
+	 * 'limit' of them. Returns the last key, if there are more keys after it,
+	 * otherwise null.
+	 */
+	private String scan(String prefix, String startAfterKey, int limit, java.util.function.Consumer<String> keys,
+			List<Entry<String, String>> entries) {
+
+		String fPrefix = prefix == null ? "" : prefix;
+
+		String fromKey = startAfterKey != null && startAfterKey.compareTo(fPrefix) >= 0 ? startAfterKey : fPrefix;
+
+		List<SortedTable.TableIterator> tableIterators = new ArrayList<>();
+
+		try {
+			readLock.lock();
+
+			List<Iterator<Entry<String, String>>> sources = new ArrayList<>();
+			sources.add(memtable.tailMap(fromKey, true).entrySet().iterator());
+			if (flushingMemtable != null) {
+				sources.add(flushingMemtable.tailMap(fromKey, true).entrySet().iterator());
+			}
+			for (SortedTable table : tables) {
+				SortedTable.TableIterator it = table.iterator(fromKey);
+				tableIterators.add(it);
+				sources.add(it);
+			}
+
+			MergingIterator merged = new MergingIterator(sources);
+
+			int count = 0;
+			String lastKey = null;
+
+			while (merged.hasNext()) {
+				Entry<String, String> e = merged.next();
+
+				if (!e.getKey().startsWith(fPrefix)) {
+					break;
+				}
+
+				if (e.getKey().equals(startAfterKey) || e.getValue() == SortedTable.TOMBSTONE) {
+					continue;
+				}
+
+				if (count == limit) {
+					return lastKey;
+				}
+
+				if (keys != null) {
+					keys.accept(e.getKey());
+				} else {
+					entries.add(e);
+				}
+
+				lastKey = e.getKey();
+				count++;
+			}
+
+			return null;
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			readLock.unlock();
+			tableIterators.forEach(LsmKVStore::closeQuietly);
+		}
+	}
+
+	/**
+	 * Open the tables, and replay the WALs that are not yet in a table into the
+	 * memtable. Acquire write lock before calling.
+	 */
+	private void load() throws IOException {
+
+		for (File f : directory.listFiles((dir, name) -> name.endsWith(".tmp"))) {
+			Files.delete(f.toPath());
+		}
+
+		long[] tableIds = fileIds(TABLE_PREFIX, TABLE_SUFFIX);
+		long[] walIds = fileIds(WAL_PREFIX, WAL_SUFFIX);
+
+		List<SortedTable> loaded = new ArrayList<>();
+		for (long tableId : tableIds) {
+			SortedTable table = SortedTable.open(tableFile(tableId), tableId);
+			if (table.isBase()) {
+				// Every older table is superseded by this one
+				loaded.forEach(LsmKVStore::closeQuietly);
+				loaded.clear();
+			}
+			loaded.add(0, table);
+		}
+
+		long oldestTableId = loaded.isEmpty() ? 0 : loaded.get(loaded.size() - 1).getId();
+		deleteFiles(TABLE_PREFIX, TABLE_SUFFIX, oldestTableId);
+
+		tables = loaded;
+
+		long newestTableId = loaded.isEmpty() ? 0 : loaded.get(0).getId();
+
+		int replayed = 0;
+		for (long walId : walIds) {
+			if (walId > newestTableId) {
+				replayed += replayWal(walFile(walId));
+			}
+		}
+
+		long maxId = Math.max(tableIds.length > 0 ? tableIds[tableIds.length - 1] : 0,
+				walIds.length > 0 ? walIds[walIds.length - 1] : 0);
+		nextFileId.set(maxId + 1);
+
+		openWal(nextFileId.getAndIncrement());
+
+		log.out("Loaded " + tables.size() + " table(s), and " + replayed + " WAL record(s), from " + directory);
+	}
+
+	/**
+	 * Apply every valid record of the WAL to the memtable; returns the number of
+	 * records. Acquire write lock before calling.
+	 */
+	private int replayWal(File f) throws IOException {
+
+		int records = 0;
+
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024))) {
+
+			while (true) {
+				int expectedCrc = dis.readInt();
+				int payloadLength = dis.readInt();
+
+				if (payloadLength < 0 || payloadLength > f.length()) {
+					break;
+				}
+
+				byte[] payload = new byte[payloadLength];
+				dis.readFully(payload);
+
+				CRC32 crc = new CRC32();
+				crc.update(ByteBuffer.allocate(4).putInt(payloadLength).array());
+				crc.update(payload);
+				if ((int) crc.getValue() != expectedCrc) {
+					break;
+				}
+
+				ByteBuffer bb = ByteBuffer.wrap(payload);
+				while (bb.hasRemaining()) {
+					byte op = bb.get();
+					int keyLength = bb.getInt();
+					int valueLength = bb.getInt();
+
+					String key = new String(payload, bb.position(), keyLength, StandardCharsets.UTF_8);
+					bb.position(bb.position() + keyLength);
+
+					String value = op == OP_PUT ? new String(payload, bb.position(), valueLength, StandardCharsets.UTF_8)
+							: SortedTable.TOMBSTONE;
+					bb.position(bb.position() + valueLength);
+
+					memtable.put(key, value);
+				}
+
+				records++;
+			}
+
+		} catch (EOFException e) {
+			/* ignore: an incomplete record at the end of the file */
+		}
+
+		if (records > 0) {
+			log.out("Replayed " + records + " record(s) from " + f);
+		}
+
+		return records;
+	}
+
+	/** Acquire write lock before calling. */
+	private void openWal(long walId) throws IOException {
+		wal = FileChannel.open(walFile(walId).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		walPosition = 0;
+	}
+
+	/** Delete the files of the given type, with an id less than 'beforeId'. */
+	private void deleteFiles(String filePrefix, String fileSuffix, long beforeId) throws IOException {
+		for (long id : fileIds(filePrefix, fileSuffix)) {
+			if (id < beforeId) {
+				Files.delete(new File(directory, filePrefix + String.format("%010d", id) + fileSuffix).toPath());
+			}
+		}
+	}
+
+	private long[] fileIds(String filePrefix, String fileSuffix) {
+		return Arrays.stream(directory.list()).filter(e -> e.startsWith(filePrefix) && e.endsWith(fileSuffix))
+				.mapToLong(e -> Long.parseLong(e.substring(filePrefix.length(), e.length() - fileSuffix.length())))
+				.sorted().toArray();
+	}
+
+	private File tableFile(long tableId) {
+		return new File(directory, TABLE_PREFIX + String.format("%010d", tableId) + TABLE_SUFFIX);
+	}
+
+	private File walFile(long walId) {
+		return new File(directory, WAL_PREFIX + String.format("%010d", walId) + WAL_SUFFIX);
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		if (c == null) {
+			return;
+		}
+		try {
+			c.close();
+		} catch (IOException e) {
+			/* ignore */
+		}
+	}
+
+	/**
+	 * Merges sorted iterators (newest first) into a single sorted iterator; where
+	 * more than one iterator has the same key, only the entry of the newest is
+	 * returned.
+	 */
+	private static class MergingIterator implements Iterator<Entry<String, String>> {
+
+		private final PriorityQueue<Source> heads = new PriorityQueue<>(
+				Comparator.<Source, String>comparing(e -> e.current.getKey()).thenComparingInt(e -> e.rank));
+
+		MergingIterator(List<? extends Iterator<Entry<String, String>>> sources) {
+			for (int x = 0; x < sources.size(); x++) {
+				Source source = new Source(sources.get(x), x);
+				if (source.advance()) {
+					heads.add(source);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			if (heads.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+
+			Source newest = heads.poll();
+			Entry<String, String> result = newest.current;
+
+			if (newest.advance()) {
+				heads.add(newest);
+			}
+
+			// Skip the same key in older sources
+			while (!heads.isEmpty() && heads.peek().current.getKey().equals(result.getKey())) {
+				Source older = heads.poll();
+				if (older.advance()) {
+					heads.add(older);
+				}
+			}
+
+			return new SimpleImmutableEntry<>(result);
+		}
+
+		private static class Source {
+			final Iterator<Entry<String, String>> it;
+			final int rank;
+			Entry<String, String> current;
+
+			Source(Iterator<Entry<String, String>> it, int rank) {
+				this.it = it;
+				this.rank = rank;
+			}
+
+			boolean advance() {
+				current = it.hasNext() ? it.next() : null;
+				return current != null;
+			}
+		}
+	}
+
+	/** Calls sync() every X milliseconds. */
+	private class SyncThread extends Thread {
+
+		public SyncThread() {
+			setDaemon(true);
+			setName(SyncThread.class.getName());
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(syncIntervalInMsecs);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					sync();
+				} catch (Exception e) {
+					// Prevent exceptions from ending the thread.
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
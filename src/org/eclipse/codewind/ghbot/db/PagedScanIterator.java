@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates through the key/value pairs with a given prefix, requesting the next
+ * page from the store only when the previous page has been consumed. Used to
+ * implement IKVStore.scanPrefix(prefix).
+ */
+class PagedScanIterator implements Iterator<Entry<String, String>> {
+
+	private final IKVStore store;
+
+	private final String prefix;
+
+	private final int pageSize;
+
+	private Iterator<Entry<String, String>> currentPage = null;
+
+	private String nextStartAfterKey = null;
+
+	private boolean lastPage = false;
+
+	PagedScanIterator(IKVStore store, String prefix, int pageSize) {
+		this.store = store;
+		this.prefix = prefix;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		while (currentPage == null || !currentPage.hasNext()) {
+			if (lastPage) {
+				return false;
+			}
+
+			KVPage page = store.scanPrefix(prefix, nextStartAfterKey, pageSize);
+			currentPage = page.getEntries().iterator();
+			nextStartAfterKey = page.getNextStartAfterKey();
+			lastPage = !page.hasMore();
+		}
+
+		return true;
+	}
+
+	@Override
+	public Entry<String, String> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return currentPage.next();
+	}
+
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.eclipse.codewind.ghbot.utils.BotConstants;
+
+/**
+ * A key/value store that writes one file per key to a directory that may be
+ * shared by multiple bot processes (for example, on a network file system that
+ * supports file locks), and so can be used to coordinate them: see
+ * LeaseManager.
+ *
+ * Unlike FileKVStore, nothing is held in memory, as any process may change the
+ * directory at any time: getKeysByPrefix lists the directory, and every read
+ * goes to disk. This makes it slower than the other stores when used as the
+ * bot's database.
+ *
+ * - Values are written to a temporary file, which is then atomically moved over
+ * the key's file, so readers (which do not lock) always see either the old or
+ * the new value.
+ *
+ * - Writes (including compareAndSet) hold the lock of the key's stripe: a
+ * byte-range lock of the 'locks' file, which excludes other processes, plus an
+ * in-process lock (shared by every instance of this class on the same
+ * directory), as the JVM does not allow overlapping file locks within one
+ * process.
+ *
+ * Keys are URL-encoded to form file names, so they may contain any character.
+ *
+ * Thread safe, and safe for use by multiple processes.
+ */
+public class SharedFileKVStore implements IKVStore {
+
+	private static final int NUMBER_OF_SHARDS = 256;
+
+	private static final int LOCK_STRIPES = 64;
+
+	/** The locks of each directory in use by this process, by canonical path. */
+	private static final Map<String, DirectoryLocks> directoryLocks = new ConcurrentHashMap<>();
+
+	private final File keysDirectory;
+
+	private final DirectoryLocks locks;
+
+	public SharedFileKVStore(File directory) {
+		this.keysDirectory = new File(directory, "keys");
+		keysDirectory.mkdirs();
+
+		try {
+			File lockFile = new File(directory, "locks").getCanonicalFile();
+			this.locks = directoryLocks.computeIfAbsent(lockFile.getPath(), e -> new DirectoryLocks(lockFile));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void persistString(String key, String value) {
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		locks.callWithLocks(Collections.singletonList(stripe(key)), () -> {
+			writeToFile(key, value);
+			return null;
+		});
+	}
+
+	@Override
+	public Optional<String> getString(String key) {
+		try {
+			return Optional.of(new String(Files.readAllBytes(keyFile(key).toPath()), StandardCharsets.UTF_8));
+		} catch (NoSuchFileException e) {
+			return Optional.empty();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public boolean removeByKey(String key) {
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		return locks.callWithLocks(Collections.singletonList(stripe(key)), () -> keyFile(key).delete());
+	}
+
+	/** Lists every shard directory; the result is sorted. */
+	@Override
+	public List<String> getKeysByPrefix(String prefix) {
+
+		String fPrefix = prefix == null ? "" : prefix;
+
+		TreeSet<String> result = new TreeSet<>();
+
+		File[] shards = keysDirectory.listFiles(File::isDirectory);
+		if (shards == null) {
+			return new ArrayList<>();
+		}
+
+		for (File shard : shards) {
+			String[] files = shard.list();
+			if (files == null) {
+				continue;
+			}
+
+			for (String fileName : files) {
+				// Temporary files start with '.', which is always encoded in keys
+				if (!fileName.endsWith(".txt") || fileName.startsWith(".")) {
+					continue;
+				}
+
+				String key = decode(fileName.substring(0, fileName.length() - ".txt".length()));
+				if (key.startsWith(fPrefix)) {
+					result.add(key);
+				}
+			}
+		}
+
+		return new ArrayList<>(result);
+	}
+
+	/**
+	 * The writes of the batch are applied while holding the locks of all of its
+	 * keys, so no other writer (in any process) interleaves with it; readers may
+	 * still see a partially applied batch.
+	 */
+	@Override
+	public void commit(KVBatch batch) {
+		if (BotConstants.READONLY_DATABASE) {
+			return;
+		}
+
+		List<Integer> stripes = new ArrayList<>();
+		batch.getOperations().keySet().forEach(key -> stripes.add(stripe(key)));
+
+		locks.callWithLocks(stripes, () -> {
+			batch.getOperations().forEach((key, value) -> {
+				if (value != null) {
+					writeToFile(key, value);
+				} else {
+					keyFile(key).delete();
+				}
+			});
+			return null;
+		});
+	}
+
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+		if (BotConstants.READONLY_DATABASE) {
+			return false;
+		}
+
+		return locks.callWithLocks(Collections.singletonList(stripe(key)), () -> {
+
+			String currentValue = getString(key).orElse(null);
+			if (!Objects.equals(currentValue, expectedValue)) {
+				return false;
+			}
+
+			if (newValue != null) {
+				writeToFile(key, newValue);
+			} else {
+				keyFile(key).delete();
+			}
+
+			return true;
+		});
+	}
+
+	/** Acquire the lock of the key's stripe before calling. */
+	private void writeToFile(String key, String value) {
+		File keyFile = keyFile(key);
+		Path shardDirectory = keyFile.getParentFile().toPath();
+
+		try {
+			Files.createDirectories(shardDirectory);
+
+			Path tempFile = Files.createTempFile(shardDirectory, ".", ".tmp");
+			try {
+				Files.write(tempFile, value.getBytes(StandardCharsets.UTF_8));
+				Files.move(tempFile, keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private File keyFile(String key) {
+		int shard = (key.hashCode() & 0x7fffffff) % NUMBER_OF_SHARDS;
+		return new File(new File(keysDirectory, String.format("%02x", shard)), encode(key) + ".txt");
+	}
+
+	private static int stripe(String key) {
+		return (key.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+	}
+
+	/** URL encoding, with '.' also encoded, so that no file name starts with '.' */
+	private static String encode(String key) {
+		try {
+			return URLEncoder.encode(key, "UTF-8").replace(".", "%2E");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String decode(String fileName) {
+		try {
+			return URLDecoder.decode(fileName, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The lock stripes of a directory: one in-process lock, and one byte of the
+	 * 'locks' file, per stripe. The file stays open for the life of the process,
+	 * as closing it would release every lock this process holds on it.
+	 */
+	private static class DirectoryLocks {
+
+		private final FileChannel channel;
+
+		private final ReentrantLock[] stripeLocks = new ReentrantLock[LOCK_STRIPES];
+
+		DirectoryLocks(File lockFile) {
+			try {
+				channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			for (int x = 0; x < stripeLocks.length; x++) {
+				stripeLocks[x] = new ReentrantLock();
+			}
+		}
+
+		/**
+		 * Call 'supplier' while holding the locks of the given stripes, which are
+		 * acquired in stripe order, to avoid deadlock.
+		 */
+		<T> T callWithLocks(List<Integer> stripes, Supplier<T> supplier) {
+
+			List<Integer> sortedStripes = new ArrayList<>(new TreeSet<>(stripes));
+
+			List<ReentrantLock> acquiredLocks = new ArrayList<>();
+			List<FileLock> acquiredFileLocks = new ArrayList<>();
+			try {
+				for (int stripe : sortedStripes) {
+					ReentrantLock lock = stripeLocks[stripe];
+					lock.lock();
+					acquiredLocks.add(lock);
+
+					acquiredFileLocks.add(channel.lock(stripe, 1, false));
+				}
+
+				return supplier.get();
+
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+
+			} finally {
+				for (int x = acquiredFileLocks.size() - 1; x >= 0; x--) {
+					try {
+						acquiredFileLocks.get(x).release();
+					} catch (IOException e) {
+						/* ignore: the lock is released when the process exits */
+					}
+				}
+				for (int x = acquiredLocks.size() - 1; x >= 0; x--) {
+					acquiredLocks.get(x).unlock();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An immutable file of key/value entries, sorted by key: the on-disk part of
+ * LsmKVStore.
+ *
+ * File format:
+ *
+ * <pre>
+ * [magic: int] [flags: int]
+ * ([op: byte] [key length: int] [value length: int] [key: UTF-8] [value: UTF-8])*
+ * [number of entries: long] [crc32 of all of the preceding bytes: long]
+ * </pre>
+ *
+ * Removed keys are recorded (as a REMOVE entry), so that they hide the value of
+ * the key in older tables. A BASE table (the output of a full compaction)
+ * contains no removed keys, and supersedes every older table.
+ *
+ * When a table is opened, the file is read once to verify its crc, and to build
+ * a sparse index (the key and offset of every INDEX_INTERVAL-th entry) and a
+ * Bloom filter of its keys: a lookup then reads at most one interval of
+ * entries, and only for keys that are likely to be in the table.
+ *
+ * Thread safe: lookups use positional reads of a shared FileChannel, and each
+ * iterator reads through its own stream.
+ */
+class SortedTable implements Closeable {
+
+	/** Value of a removed key; compared by identity. */
+	static final String TOMBSTONE = new String("");
+
+	static final int FLAG_BASE = 1;
+
+	private static final int MAGIC = 0x47485354; // 'GHST'
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+
+	/** magic (4) + flags (4) */
+	private static final int HEADER_SIZE = 8;
+
+	/** number of entries (8) + crc (8) */
+	private static final int FOOTER_SIZE = 16;
+
+	/** op (1) + key length (4) + value length (4) */
+	private static final int ENTRY_HEADER_SIZE = 9;
+
+	private static final int INDEX_INTERVAL = 32;
+
+	private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final long id;
+
+	private final File file;
+
+	private final boolean base;
+
+	private final long entries;
+
+	private final long tombstones;
+
+	private final String[] indexKeys;
+
+	private final long[] indexOffsets;
+
+	/** Offset of the end of the last entry */
+	private final long dataEnd;
+
+	private final BloomFilter bloom;
+
+	private final FileChannel channel;
+
+	private SortedTable(long id, File file, boolean base, long entries, long tombstones, String[] indexKeys,
+			long[] indexOffsets, long dataEnd, BloomFilter bloom) throws IOException {
+		this.id = id;
+		this.file = file;
+		this.base = base;
+		this.entries = entries;
+		this.tombstones = tombstones;
+		this.indexKeys = indexKeys;
+		this.indexOffsets = indexOffsets;
+		this.dataEnd = dataEnd;
+		this.bloom = bloom;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Write the entries (which must be sorted by key, with TOMBSTONE values for
+	 * removed keys) to a new table file, and open it. If 'base' is true, removed
+	 * keys are omitted.
+	 */
+	static SortedTable write(File file, long id, Iterator<Entry<String, String>> sortedEntries, boolean base)
+			throws IOException {
+
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE), new CRC32());
+
+		try (DataOutputStream dos = new DataOutputStream(cos)) {
+
+			dos.writeInt(MAGIC);
+			dos.writeInt(base ? FLAG_BASE : 0);
+
+			long count = 0;
+			String previousKey = null;
+
+			while (sortedEntries.hasNext()) {
+				Entry<String, String> e = sortedEntries.next();
+
+				if (previousKey != null && previousKey.compareTo(e.getKey()) >= 0) {
+					throw new IllegalArgumentException("Entries are not sorted: " + previousKey + " " + e.getKey());
+				}
+				previousKey = e.getKey();
+
+				boolean removed = e.getValue() == TOMBSTONE;
+				if (removed && base) {
+					continue;
+				}
+
+				byte[] keyBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+				byte[] valueBytes = removed ? new byte[0] : e.getValue().getBytes(StandardCharsets.UTF_8);
+
+				dos.writeByte(removed ? OP_REMOVE : OP_PUT);
+				dos.writeInt(keyBytes.length);
+				dos.writeInt(valueBytes.length);
+				dos.write(keyBytes);
+				dos.write(valueBytes);
+				count++;
+			}
+
+			dos.writeLong(count);
+			dos.writeLong(cos.getChecksum().getValue());
+
+			dos.flush();
+			fos.getFD().sync();
+		}
+
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		return open(file, id);
+	}
+
+	/** Read the table file (see class javadoc); throws IOException if it is not valid. */
+	static SortedTable open(File file, long id) throws IOException {
+
+		long fileLength = file.length();
+		long dataEnd = fileLength - FOOTER_SIZE;
+
+		if (dataEnd < HEADER_SIZE) {
+			throw new IOException("Table file is too short: " + file);
+		}
+
+		long expectedEntries;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(dataEnd);
+			expectedEntries = raf.readLong();
+		}
+
+		BloomFilter bloom = new BloomFilter(Math.max(expectedEntries, 1), BLOOM_FALSE_POSITIVE_RATE);
+
+		List<String> indexKeys = new ArrayList<>();
+		List<Long> indexOffsets = new ArrayList<>();
+
+		CheckedInputStream cis = new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), new CRC32());
+
+		try (DataInputStream dis = new DataInputStream(cis)) {
+
+			if (dis.readInt() != MAGIC) {
+				throw new IOException("Not a table file: " + file);
+			}
+			boolean base = (dis.readInt() & FLAG_BASE) != 0;
+
+			long position = HEADER_SIZE;
+			long count = 0;
+			long tombstones = 0;
+
+			while (position < dataEnd) {
+				byte op = dis.readByte();
+				int keyLength = dis.readInt();
+				int valueLength = dis.readInt();
+
+				if ((op != OP_PUT && op != OP_REMOVE) || keyLength < 0 || valueLength < 0) {
+					throw new IOException("Invalid entry at offset " + position + " of table file: " + file);
+				}
+
+				byte[] keyBytes = new byte[keyLength];
+				dis.readFully(keyBytes);
+				String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+				skipFully(dis, valueLength);
+
+				if (count % INDEX_INTERVAL == 0) {
+					indexKeys.add(key);
+					indexOffsets.add(position);
+				}
+
+				bloom.put(key);
+
+				if (op == OP_REMOVE) {
+					tombstones++;
+				}
+
+				position += ENTRY_HEADER_SIZE + keyLength + valueLength;
+				count++;
+			}
+
+			long storedCount = dis.readLong();
+
+			// The crc covers every preceding byte, including the number of entries
+			long crc = cis.getChecksum().getValue();
+
+			if (position != dataEnd || storedCount != count || count != expectedEntries || dis.readLong() != crc) {
+				throw new IOException("Table file is incomplete or corrupt: " + file);
+			}
+
+			return new SortedTable(id, file, base, count, tombstones, indexKeys.toArray(new String[0]),
+					indexOffsets.stream().mapToLong(e -> e).toArray(), dataEnd, bloom);
+
+		} catch (EOFException e) {
+			throw new IOException("Table file is incomplete: " + file, e);
+		}
+	}
+
+	/**
+	 * Returns the value of the key, TOMBSTONE if the key was removed, or null if
+	 * the table does not contain the key.
+	 */
+	String get(String key) {
+
+		if (!bloom.mightContain(key)) {
+			return null;
+		}
+
+		int result = Arrays.binarySearch(indexKeys, key);
+		int interval = result >= 0 ? result : -(result + 1) - 1;
+		if (interval < 0) {
+			return null; // Before the first key
+		}
+
+		long start = indexOffsets[interval];
+		long end = interval + 1 < indexOffsets.length ? indexOffsets[interval + 1] : dataEnd;
+
+		ByteBuffer bb = ByteBuffer.allocate((int) (end - start));
+		try {
+			long position = start;
+			while (bb.hasRemaining()) {
+				int c = channel.read(bb, position);
+				if (c == -1) {
+					throw new EOFException("Unexpected end of table file " + file + " at " + position);
+				}
+				position += c;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		bb.flip();
+
+		while (bb.hasRemaining()) {
+			byte op = bb.get();
+			int keyLength = bb.getInt();
+			int valueLength = bb.getInt();
+
+			String entryKey = new String(bb.array(), bb.position(), keyLength, StandardCharsets.UTF_8);
+			bb.position(bb.position() + keyLength);
+
+			int c = entryKey.compareTo(key);
+			if (c == 0) {
+				return op == OP_REMOVE ? TOMBSTONE
+						: new String(bb.array(), bb.position(), valueLength, StandardCharsets.UTF_8);
+			} else if (c > 0) {
+				return null;
+			}
+
+			bb.position(bb.position() + valueLength);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Iterate (in key order) over the entries whose key is equal to or after
+	 * 'fromKey' (or all entries, if null); removed keys have a TOMBSTONE value.
+	 * The iterator must be closed.
+	 */
+	TableIterator iterator(String fromKey) throws IOException {
+
+		long start = HEADER_SIZE;
+		if (fromKey != null && indexKeys.length > 0) {
+			int result = Arrays.binarySearch(indexKeys, fromKey);
+			int interval = result >= 0 ? result : -(result + 1) - 1;
+			if (interval >= 0) {
+				start = indexOffsets[interval];
+			}
+		}
+
+		return new TableIterator(start, fromKey);
+	}
+
+	long getId() {
+		return id;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	boolean isBase() {
+		return base;
+	}
+
+	long getEntries() {
+		return entries;
+	}
+
+	long getTombstones() {
+		return tombstones;
+	}
+
+	long getSizeInBytes() {
+		return dataEnd + FOOTER_SIZE;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static void skipFully(DataInputStream dis, int length) throws IOException {
+		int remaining = length;
+		while (remaining > 0) {
+			int skipped = dis.skipBytes(remaining);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			remaining -= skipped;
+		}
+	}
+
+	/** Reads entries sequentially, through its own stream. */
+	class TableIterator implements Iterator<Entry<String, String>>, Closeable {
+
+		private final DataInputStream dis;
+
+		private long position;
+
+		private Entry<String, String> next;
+
+		private TableIterator(long start, String fromKey) throws IOException {
+			FileInputStream fis = new FileInputStream(file);
+			fis.getChannel().position(start);
+			this.dis = new DataInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+			this.position = start;
+
+			next = readEntry();
+			while (next != null && fromKey != null && next.getKey().compareTo(fromKey) < 0) {
+				next = readEntry();
+			}
+		}
+
+		private Entry<String, String> readEntry() throws IOException {
+			if (position >= dataEnd) {
+				return null;
+			}
+
+			byte op = dis.readByte();
+			int keyLength = dis.readInt();
+			int valueLength = dis.readInt();
+
+			byte[] keyBytes = new byte[keyLength];
+			dis.readFully(keyBytes);
+			byte[] valueBytes = new byte[valueLength];
+			dis.readFully(valueBytes);
+
+			position += ENTRY_HEADER_SIZE + keyLength + valueLength;
+
+			return new SimpleImmutableEntry<>(new String(keyBytes, StandardCharsets.UTF_8),
+					op == OP_REMOVE ? TOMBSTONE : new String(valueBytes, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+
+			Entry<String, String> result = next;
+			try {
+				next = readEntry();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			dis.close();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * The original (human readable) format of database values: longs are stored as
+ * decimal strings, and wait list entries as JSON.
+ * 
+ * Jackson ObjectReader/ObjectWriter instances are immutable and thread safe, so
+ * a single instance of each is shared by all threads.
+ */
+public class TextValueCodec implements ValueCodec {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final ObjectReader WAIT_LIST_READER = MAPPER.readerFor(WaitListEntryJson.class);
+
+	private static final ObjectWriter WAIT_LIST_WRITER = MAPPER.writerFor(WaitListEntryJson.class);
+
+	@Override
+	public String encodeLong(long value) {
+		return Long.toString(value);
+	}
+
+	@Override
+	public long decodeLong(String encoded) {
+		if (BinaryValueCodec.isBinary(encoded)) {
+			return BinaryValueCodec.decodeBinaryLong(encoded);
+		}
+
+		return Long.parseLong(encoded);
+	}
+
+	@Override
+	public String encodeWaitListEntry(WaitListEntryJson entry) {
+		try {
+			return WAIT_LIST_WRITER.writeValueAsString(entry);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e); // Convert to unchecked
+		}
+	}
+
+	@Override
+	public WaitListEntryJson decodeWaitListEntry(String encoded) {
+		if (BinaryValueCodec.isBinary(encoded)) {
+			return BinaryValueCodec.decodeBinaryWaitListEntry(encoded);
+		}
+
+		try {
+			return WAIT_LIST_READER.readValue(encoded);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+/**
+ * Converts the typed values used by GHDatabase to and from the strings stored
+ * in an IKVStore.
+ * 
+ * Every implementation can decode values written by any other implementation,
+ * so the codec of a database can be changed without migrating its contents:
+ * existing values are converted as they are rewritten.
+ */
+public interface ValueCodec {
+
+	String TEXT = "text";
+
+	String BINARY = "binary";
+
+	String encodeLong(long value);
+
+	long decodeLong(String encoded);
+
+	String encodeWaitListEntry(WaitListEntryJson entry);
+
+	WaitListEntryJson decodeWaitListEntry(String encoded);
+
+	/** Either 'text' (see TextValueCodec) or 'binary' (see BinaryValueCodec). */
+	static ValueCodec forName(String name) {
+		if (TEXT.equalsIgnoreCase(name)) {
+			return new TextValueCodec();
+		} else if (BINARY.equalsIgnoreCase(name)) {
+			return new BinaryValueCodec();
+		}
+
+		throw new IllegalArgumentException("Unrecognized value codec: " + name);
+	}
+}
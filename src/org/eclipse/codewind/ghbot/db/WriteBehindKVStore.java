@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.codewind.ghbot.utils.Logger;
+
+/**
+ * Buffers writes (persists and removes) in memory, and writes them to the inner
+ * database (constructor param) in batches. Repeated writes to the same key
+ * between flushes are coalesced into a single write of the most recent value.
+ *
+ * Buffered writes are flushed to the inner database:
+ * - every 'flushIntervalInMsecs', by a background thread
+ * - when more than 'batchSize' keys are buffered, by a background thread
+ * - when more than 'maxBufferedKeys' keys are buffered, by the writing thread
+ * (so that the buffer is bounded, even if the inner database is slow)
+ * - when flush() is called.
+ *
+ * Reads always reflect buffered writes.
+ *
+ * Each flush writes the whole buffer to the inner database as a single batch
+ * (see IKVStore.commit), and the writes of a commit(...) are buffered together,
+ * so they are always flushed in the same batch.
+ *
+ * Thread safe: the buffers are only accessed while synchronized on
+ * bufferLock, and only one flush runs at a time (flushLock).
+ */
+public class WriteBehindKVStore implements IKVStore {
+
+	/** Buffered value for a removed key; compared by identity. */
+	private static final String TOMBSTONE = new String("");
+
+	private final Logger log = Logger.getInstance();
+
+	private final IKVStore innerDb;
+
+	private final int batchSize;
+
+	private final int maxBufferedKeys;
+
+	private final Object bufferLock = new Object();
+
+	/** Writes that have not yet been flushed; synchronize on bufferLock when accessing. */
+	private LinkedHashMap<String /* key */, String /* value or TOMBSTONE */> dirty_synch_bufferLock = new LinkedHashMap<>();
+
+	/**
+	 * Writes that are in the process of being flushed; they remain visible to
+	 * readers until the flush completes. Synchronize on bufferLock when accessing.
+	 */
+	private LinkedHashMap<String /* key */, String /* value or TOMBSTONE */> flushing_synch_bufferLock = new LinkedHashMap<>();
+
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private final FlushThread flushThread;
+
+	public WriteBehindKVStore(IKVStore innerDb, long flushIntervalInMsecs, int batchSize, int maxBufferedKeys) {
+
+		if (batchSize <= 0 || maxBufferedKeys < batchSize) {
+			throw new IllegalArgumentException(
+					"Invalid batch size / max buffered keys: " + batchSize + " " + maxBufferedKeys);
+		}
+
+		this.innerDb = innerDb;
+		this.batchSize = batchSize;
+		this.maxBufferedKeys = maxBufferedKeys;
+
+		flushThread = new FlushThread(flushIntervalInMsecs);
+		flushThread.start();
+	}
+
+	@Override
+	public void persistString(String key, String value) {
+		if (key == null || value == null) {
+			throw new RuntimeException("Invalid key or value " + key + " " + value);
+		}
+
+		buffer(key, value);
+	}
+
+	@Override
+	public Optional<String> getString(String key) {
+
+		synchronized (bufferLock) {
+			String result = dirty_synch_bufferLock.get(key);
+			if (result == null) {
+				result = flushing_synch_bufferLock.get(key);
+			}
+
+			if (result == TOMBSTONE) {
+				return Optional.empty();
+			} else if (result != null) {
+				return Optional.of(result);
+			}
+		}
+
+		return innerDb.getString(key);
+	}
+
+	@Override
+	public boolean removeByKey(String key) {
+
+		boolean existed = getString(key).isPresent();
+
+		buffer(key, TOMBSTONE);
+
+		return existed;
+	}
+
+	@Override
+	public List<String> getKeysByPrefix(String prefix) {
+
+		String fPrefix = prefix == null ? "" : prefix;
+
+		// Snapshot the buffers before reading the inner db: any flush that completes in
+		// between is overridden by the (identical) buffered values.
+		List<Entry<String, String>> buffered = new ArrayList<>();
+		synchronized (bufferLock) {
+			for (Entry<String, String> e : flushing_synch_bufferLock.entrySet()) {
+				if (e.getKey().startsWith(fPrefix)) {
+					buffered.add(new SimpleEntry<>(e));
+				}
+			}
+			for (Entry<String, String> e : dirty_synch_bufferLock.entrySet()) {
+				if (e.getKey().startsWith(fPrefix)) {
+					buffered.add(new SimpleEntry<>(e));
+				}
+			}
+		}
+
+		TreeSet<String> result = new TreeSet<>(innerDb.getKeysByPrefix(fPrefix));
+
+		for (Entry<String, String> e : buffered) {
+			if (e.getValue() == TOMBSTONE) {
+				result.remove(e.getKey());
+			} else {
+				result.add(e.getKey());
+			}
+		}
+
+		return new ArrayList<>(result);
+	}
+
+	/** Write all buffered writes to the inner database, then flush it. */
+	@Override
+	public void flush() {
+		flushBuffer();
+		innerDb.flush();
+	}
+
+	@Override
+	public void commit(KVBatch batch) {
+
+		LinkedHashMap<String, String> writes = new LinkedHashMap<>();
+		batch.getOperations().forEach((key, value) -> writes.put(key, value != null ? value : TOMBSTONE));
+
+		buffer(writes);
+	}
+
+	/**
+	 * The comparison is made against the buffered value of the key, if any, or
+	 * else the value in the inner database; bufferLock is held throughout, so no
+	 * other write (or flush) of this store can interleave.
+	 */
+	@Override
+	public boolean compareAndSet(String key, String expectedValue, String newValue) {
+
+		int size;
+		synchronized (bufferLock) {
+			if (!Objects.equals(getString(key).orElse(null), expectedValue)) {
+				return false;
+			}
+
+			size = bufferWhileSynchronized(key, newValue != null ? newValue : TOMBSTONE);
+		}
+
+		flushIfFull(size);
+
+		return true;
+	}
+
+	@Override
+	public long compact() {
+		flushBuffer();
+		return innerDb.compact();
+	}
+
+	/** Number of writes waiting to be flushed. */
+	public int getBufferedKeys() {
+		synchronized (bufferLock) {
+			return dirty_synch_bufferLock.size() + flushing_synch_bufferLock.size();
+		}
+	}
+
+	private void buffer(String key, String value) {
+
+		int size;
+		synchronized (bufferLock) {
+			size = bufferWhileSynchronized(key, value);
+		}
+
+		flushIfFull(size);
+	}
+
+	private void buffer(Map<String, String> writes) {
+
+		int size = 0;
+		synchronized (bufferLock) {
+			for (Entry<String, String> e : writes.entrySet()) {
+				size = bufferWhileSynchronized(e.getKey(), e.getValue());
+			}
+		}
+
+		flushIfFull(size);
+	}
+
+	/**
+	 * Add the write to the dirty buffer, and return the new size of the buffer.
+	 * Synchronize on bufferLock before calling.
+	 */
+	private int bufferWhileSynchronized(String key, String value) {
+
+		// Remove first, so that the key moves to the end of the insertion order
+		dirty_synch_bufferLock.remove(key);
+		dirty_synch_bufferLock.put(key, value);
+		int size = dirty_synch_bufferLock.size();
+
+		if (size >= batchSize) {
+			bufferLock.notify();
+		}
+
+		return size;
+	}
+
+	private void flushIfFull(int size) {
+		if (size >= maxBufferedKeys) {
+			// The background thread is not keeping up: write on the caller's thread.
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() {
+
+		try {
+			flushLock.lock();
+
+			LinkedHashMap<String, String> toWrite;
+			synchronized (bufferLock) {
+				if (dirty_synch_bufferLock.isEmpty()) {
+					return;
+				}
+				toWrite = dirty_synch_bufferLock;
+				flushing_synch_bufferLock = toWrite;
+				dirty_synch_bufferLock = new LinkedHashMap<>();
+			}
+
+			KVBatch batch = new KVBatch();
+			toWrite.forEach((key, value) -> {
+				if (value == TOMBSTONE) {
+					batch.remove(key);
+				} else {
+					batch.put(key, value);
+				}
+			});
+
+			try {
+				innerDb.commit(batch);
+
+			} catch (RuntimeException ex) {
+				// Return the unwritten entries to the buffer (unless they have since been
+				// overwritten), so they are retried on the next flush.
+				synchronized (bufferLock) {
+					LinkedHashMap<String, String> merged = new LinkedHashMap<>(toWrite);
+					merged.putAll(dirty_synch_bufferLock);
+					dirty_synch_bufferLock = merged;
+				}
+				throw ex;
+
+			} finally {
+				synchronized (bufferLock) {
+					flushing_synch_bufferLock = new LinkedHashMap<>();
+				}
+			}
+
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes the buffer every X milliseconds, or when more than 'batchSize' keys
+	 * are buffered.
+	 */
+	private class FlushThread extends Thread {
+
+		private final long flushIntervalInMsecs;
+
+		public FlushThread(long flushIntervalInMsecs) {
+			this.flushIntervalInMsecs = flushIntervalInMsecs;
+			setDaemon(true);
+			setName(FlushThread.class.getName());
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (bufferLock) {
+					try {
+						if (dirty_synch_bufferLock.size() < batchSize) {
+							bufferLock.wait(flushIntervalInMsecs);
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+
+				try {
+					flushBuffer();
+				} catch (Exception e) {
+					// Prevent exceptions from ending the thread.
+					log.err("Unable to flush buffered database writes: " + e.getMessage());
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
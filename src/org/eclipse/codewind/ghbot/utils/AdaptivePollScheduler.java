@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+/**
+ * Decides how long the main job loop should sleep between polls of GHAM for
+ * new resource events, between 'minIntervalInMsecs' and 'maxIntervalInMsecs':
+ *
+ * - When a poll returns events, the interval drops to the minimum, as events
+ * tend to arrive in bursts; it stays there while the (moving) average of events
+ * per poll is at least ACTIVE_EVENTS_PER_POLL.
+ *
+ * - When polls return no events, the interval grows by 'idleBackoffMultiplier'
+ * after each poll, up to the maximum.
+ *
+ * - When an iteration fails (for example, because GHAM or the GitHub API
+ * returned an error), the interval doubles, and the full interval is slept, so
+ * that a struggling backend is not polled more often.
+ *
+ * Otherwise, the interval is measured from the start of one iteration to the
+ * start of the next: the time taken by the iteration is subtracted from the
+ * time slept (but at least MIN_SLEEP_IN_MSECS is slept).
+ *
+ * Each decision is available from getStatistics().
+ *
+ * Thread safe.
+ */
+public class AdaptivePollScheduler {
+
+	private static final long MIN_SLEEP_IN_MSECS = 1000;
+
+	/** Weight of the most recent poll in the moving averages. */
+	private static final double SMOOTHING = 0.3;
+
+	/** Average events per poll at or above which the loop is considered active. */
+	private static final double ACTIVE_EVENTS_PER_POLL = 0.5;
+
+	private final long minIntervalInMsecs;
+
+	private final long maxIntervalInMsecs;
+
+	private final double idleBackoffMultiplier;
+
+	private final Object lock = new Object();
+
+	/** Synchronize on 'lock' when accessing. */
+	private long intervalInMsecs;
+
+	/** Synchronize on 'lock' when accessing. */
+	private long polls = 0, pollsWithEvents = 0, events = 0, errors = 0, consecutiveErrors = 0;
+
+	/** Synchronize on 'lock' when accessing. */
+	private long lastSleepInMsecs = 0;
+
+	/** Synchronize on 'lock' when accessing. */
+	private String lastDecision = null;
+
+	/** Synchronize on 'lock' when accessing. */
+	private double averageEventsPerPoll = 0, averageIterationTimeInMsecs = 0;
+
+	public AdaptivePollScheduler(long minIntervalInMsecs, long maxIntervalInMsecs, double idleBackoffMultiplier) {
+		if (minIntervalInMsecs <= 0 || maxIntervalInMsecs < minIntervalInMsecs || idleBackoffMultiplier < 1) {
+			throw new IllegalArgumentException("Invalid poll interval bounds: " + minIntervalInMsecs + " "
+					+ maxIntervalInMsecs + " " + idleBackoffMultiplier);
+		}
+
+		this.minIntervalInMsecs = minIntervalInMsecs;
+		this.maxIntervalInMsecs = maxIntervalInMsecs;
+		this.idleBackoffMultiplier = idleBackoffMultiplier;
+		this.intervalInMsecs = minIntervalInMsecs;
+	}
+
+	/**
+	 * Record the result of an iteration of the job loop, and return the time to
+	 * sleep before the next iteration.
+	 *
+	 * @param eventsSeen           number of new events returned by the poll
+	 * @param iterationTimeInMsecs time taken by the iteration, including the
+	 *                             processing of the events
+	 * @param failed               whether the iteration failed with an exception
+	 */
+	public long onIterationComplete(int eventsSeen, long iterationTimeInMsecs, boolean failed) {
+
+		synchronized (lock) {
+
+			polls++;
+			events += eventsSeen;
+			if (eventsSeen > 0) {
+				pollsWithEvents++;
+			}
+
+			averageEventsPerPoll = SMOOTHING * eventsSeen + (1 - SMOOTHING) * averageEventsPerPoll;
+			averageIterationTimeInMsecs = polls == 1 ? iterationTimeInMsecs
+					: SMOOTHING * iterationTimeInMsecs + (1 - SMOOTHING) * averageIterationTimeInMsecs;
+
+			long sleepInMsecs;
+
+			if (failed) {
+				errors++;
+				consecutiveErrors++;
+
+				intervalInMsecs = Math.min(maxIntervalInMsecs, intervalInMsecs * 2);
+				sleepInMsecs = intervalInMsecs;
+				lastDecision = "backoff after " + consecutiveErrors + " consecutive error(s)";
+
+			} else {
+				consecutiveErrors = 0;
+
+				if (eventsSeen > 0) {
+					intervalInMsecs = minIntervalInMsecs;
+					lastDecision = "minimum after " + eventsSeen + " event(s)";
+
+				} else if (averageEventsPerPoll >= ACTIVE_EVENTS_PER_POLL) {
+					lastDecision = "unchanged, recent events";
+
+				} else {
+					intervalInMsecs = Math.min(maxIntervalInMsecs,
+							(long) Math.ceil(intervalInMsecs * idleBackoffMultiplier));
+					lastDecision = "idle";
+				}
+
+				sleepInMsecs = Math.max(MIN_SLEEP_IN_MSECS, intervalInMsecs - iterationTimeInMsecs);
+			}
+
+			lastSleepInMsecs = sleepInMsecs;
+
+			return sleepInMsecs;
+		}
+	}
+
+	public PollStatistics getStatistics() {
+		synchronized (lock) {
+			return new PollStatistics(polls, pollsWithEvents, events, errors, intervalInMsecs, lastSleepInMsecs,
+					lastDecision, averageEventsPerPoll, averageIterationTimeInMsecs);
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.ghbot.credentials.ConcurrencyLimiter;
+
+import com.githubapimirror.client.api.GHIssue;
+import com.githubapimirror.client.api.GHRepository;
+
+/**
+ * A process-wide cache of the issues retrieved from GHAM, by repository full
+ * name ('owner/repo') and issue number, so that the jobs do not retrieve the
+ * same issue again and again within (and between) iterations of the bot.
+ *
+ * The cache is filled by the bulk issue requests of the resource event
+ * processing (see ChannelJobs.getRepoEvents), and by the misses of getIssue(...).
+ * An issue is invalidated when a resource event is received for it; since the
+ * events are received after the change, an issue snapshot may be stale for up
+ * to one poll interval, as it would be without the cache.
+ *
+ * Invalidation is version-aware: every invalidation increments a version
+ * counter, and a snapshot retrieved by a request that started (see
+ * getVersion()) before the most recent invalidation of its issue is discarded,
+ * so that a slow request cannot replace an invalidation with the data it
+ * replaced.
+ *
+ * Snapshots also expire 'maxAgeInMsecs' after they were stored, to bound the
+ * staleness of issues whose events are not received by this process (for
+ * example, those of repositories owned by another instance, see LeaseManager).
+ * At most 'maxEntries' issues are held; the least recently used are evicted.
+ *
+ * Thread safe.
+ */
+public class IssueSnapshotCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	public static final long DEFAULT_MAX_AGE_IN_MSECS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+	private final ConcurrencyLimiter limiter;
+
+	private final int maxEntries;
+
+	private final long maxAgeInMsecs;
+
+	/**
+	 * Snapshots and invalidations, in access order (least recently used first);
+	 * synchronize on this when accessing.
+	 */
+	private final LinkedHashMap<String /* owner/repo#number */, Snapshot> entries_synch;
+
+	/** Synchronize on entries_synch when accessing. */
+	private long version_synch_entries = 0;
+
+	/**
+	 * The newest version of any evicted invalidation: snapshots requested before
+	 * it are discarded, as their issue may have been invalidated since. Synchronize
+	 * on entries_synch when accessing.
+	 */
+	private long evictedVersion_synch_entries = 0;
+
+	/** Synchronize on entries_synch when accessing. */
+	private long hits = 0, misses = 0, expired = 0, invalidations = 0, discarded = 0;
+
+	public IssueSnapshotCache(ConcurrencyLimiter limiter) {
+		this(limiter, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_IN_MSECS);
+	}
+
+	public IssueSnapshotCache(ConcurrencyLimiter limiter, int maxEntries, long maxAgeInMsecs) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Invalid maximum number of entries: " + maxEntries);
+		}
+
+		this.limiter = limiter;
+		this.maxEntries = maxEntries;
+		this.maxAgeInMsecs = maxAgeInMsecs;
+
+		this.entries_synch = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+				if (size() <= IssueSnapshotCache.this.maxEntries) {
+					return false;
+				}
+
+				if (eldest.getValue().issue == null) {
+					evictedVersion_synch_entries = Math.max(evictedVersion_synch_entries, eldest.getValue().version);
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the issue from the cache, or else retrieves it from GHAM (through
+	 * the limiter) and stores it; returns null if GHAM does not have the issue
+	 * (for example, because it has moved), which is not cached.
+	 */
+	public GHIssue getIssue(GHRepository repo, int issueNumber) {
+		return getIssue(repo, issueNumber, System.currentTimeMillis());
+	}
+
+	GHIssue getIssue(GHRepository repo, int issueNumber, long now) {
+
+		String key = key(repo.getFullName(), issueNumber);
+
+		long fetchVersion;
+
+		synchronized (entries_synch) {
+			Snapshot entry = entries_synch.get(key);
+			if (entry != null && entry.issue != null) {
+				if (now - entry.storedAtInMsecs < maxAgeInMsecs) {
+					hits++;
+					return entry.issue;
+				}
+				expired++;
+			}
+			misses++;
+			fetchVersion = version_synch_entries;
+		}
+
+		GHIssue issue = limiter.call(() -> repo.getIssue(issueNumber));
+		if (issue != null) {
+			put(repo.getFullName(), issue, fetchVersion, now);
+		}
+
+		return issue;
+	}
+
+	/**
+	 * The version to pass to put(...) for an issue request that is about to start.
+	 */
+	public long getVersion() {
+		synchronized (entries_synch) {
+			return version_synch_entries;
+		}
+	}
+
+	/**
+	 * Store an issue that was retrieved by a request that started at
+	 * 'fetchVersion' (see getVersion()); returns false if the issue was
+	 * invalidated (or a newer snapshot stored) since, in which case the issue is
+	 * discarded.
+	 */
+	public boolean put(String repoFullName, GHIssue issue, long fetchVersion) {
+		return put(repoFullName, issue, fetchVersion, System.currentTimeMillis());
+	}
+
+	boolean put(String repoFullName, GHIssue issue, long fetchVersion, long now) {
+
+		String key = key(repoFullName, issue.getNumber());
+
+		synchronized (entries_synch) {
+			Snapshot entry = entries_synch.get(key);
+
+			if (fetchVersion < evictedVersion_synch_entries || (entry != null && entry.version > fetchVersion)) {
+				discarded++;
+				return false;
+			}
+
+			entries_synch.put(key, new Snapshot(issue, fetchVersion, now));
+			return true;
+		}
+	}
+
+	/**
+	 * Discard the snapshot of the issue, and any snapshot of it from a request
+	 * that is already in progress.
+	 */
+	public void invalidate(String repoFullName, int issueNumber) {
+		synchronized (entries_synch) {
+			version_synch_entries++;
+			invalidations++;
+			entries_synch.put(key(repoFullName, issueNumber), new Snapshot(null, version_synch_entries, 0));
+		}
+	}
+
+	public SnapshotStatistics getStatistics() {
+		synchronized (entries_synch) {
+			return new SnapshotStatistics(entries_synch.size(), hits, misses, expired, invalidations, discarded);
+		}
+	}
+
+	private static String key(String repoFullName, int issueNumber) {
+		return repoFullName + "#" + issueNumber;
+	}
+
+	/** An issue snapshot, or (if 'issue' is null) an invalidation. Immutable. */
+	private static class Snapshot {
+
+		private final GHIssue issue;
+
+		/** The version the snapshot was requested at, or of the invalidation */
+		private final long version;
+
+		private final long storedAtInMsecs;
+
+		Snapshot(GHIssue issue, long version, long storedAtInMsecs) {
+			this.issue = issue;
+			this.version = version;
+			this.storedAtInMsecs = storedAtInMsecs;
+		}
+	}
+
+	/** Hit and invalidation counts of an IssueSnapshotCache. Immutable. */
+	public static class SnapshotStatistics {
+
+		private final long entries;
+		private final long hits;
+		private final long misses;
+		private final long expired;
+		private final long invalidations;
+		private final long discarded;
+
+		private SnapshotStatistics(long entries, long hits, long misses, long expired, long invalidations,
+				long discarded) {
+			this.entries = entries;
+			this.hits = hits;
+			this.misses = misses;
+			this.expired = expired;
+			this.invalidations = invalidations;
+			this.discarded = discarded;
+		}
+
+		/** Snapshots and invalidations currently held. */
+		public long getEntries() {
+			return entries;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		/** Includes the expired snapshots. */
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getExpired() {
+			return expired;
+		}
+
+		public long getInvalidations() {
+			return invalidations;
+		}
+
+		/** Snapshots that were not stored, as their issue was invalidated during the request. */
+		public long getDiscarded() {
+			return discarded;
+		}
+
+		@Override
+		public String toString() {
+			long requests = hits + misses;
+			return "entries: " + entries + ", hits: " + hits + ", misses: " + misses + ", hit rate: "
+					+ (requests == 0 ? 0 : (100 * hits) / requests) + "%, expired: " + expired + ", invalidations: "
+					+ invalidations + ", discarded: " + discarded;
+		}
+	}
+}
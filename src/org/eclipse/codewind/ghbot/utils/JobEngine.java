@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the jobs of an iteration of the main loop concurrently, on a bounded
+ * pool of threads, in the order required by their dependencies.
+ *
+ * Each iteration (see newIteration()) submits its jobs, declaring the jobs
+ * whose results it requires: a job is started once all of its dependencies
+ * have succeeded, and reads their results with Job.getResult(). If a
+ * dependency fails, times out or is skipped, the job is skipped. Independent
+ * jobs run concurrently.
+ *
+ * Each job has a timeout, which starts when the job is ready to run (and thus
+ * includes any time spent waiting for a thread): once it expires, the job is
+ * interrupted and marked as TIMED_OUT. A job that ignores the interrupt keeps
+ * its thread; until it ends, later iterations skip the job of the same name,
+ * rather than running two copies of it.
+ *
+ * The duration and status of each job, and the total time of the iteration,
+ * are returned by Iteration.await(); totals per job name are available from
+ * getStatistics().
+ *
+ * Thread safe.
+ */
+public class JobEngine {
+
+	public enum JobStatus {
+		SUCCEEDED, FAILED, TIMED_OUT, SKIPPED
+	}
+
+	private static final Logger log = Logger.getInstance();
+
+	private final ExecutorService executor;
+
+	private final ScheduledThreadPoolExecutor timer;
+
+	/** Names of the jobs that are currently running, in any iteration */
+	private final Set<String> runningJobs_synch = new HashSet<>();
+
+	private final Map<String /* job name */, JobStatistics> statistics_synch = new TreeMap<>();
+
+	public JobEngine(int threads) {
+		this(ThreadMode.PLATFORM, threads);
+	}
+
+	public JobEngine(ThreadMode threadMode, int threads) {
+		executor = threadMode.newExecutor(JobEngine.class.getName() + "-job", threads);
+
+		timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("job-timeout"));
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	public Iteration newIteration() {
+		return new Iteration();
+	}
+
+	/** Totals for each job name, since the engine was created. */
+	public List<JobStatistics> getStatistics() {
+		synchronized (statistics_synch) {
+			return new ArrayList<>(statistics_synch.values());
+		}
+	}
+
+	private void recordStatistics(Job<?> job) {
+		synchronized (statistics_synch) {
+			JobStatistics previous = statistics_synch.getOrDefault(job.name, new JobStatistics(job.name));
+			statistics_synch.put(job.name, previous.add(job.status, job.durationInMsecs));
+		}
+	}
+
+	/** The jobs of one iteration of the main loop. */
+	public class Iteration {
+
+		private final long startTimeInNanos = System.nanoTime();
+
+		private final List<Job<?>> jobs_synch = new ArrayList<>();
+
+		private Iteration() {
+		}
+
+		/**
+		 * Run 'body' once each of the 'dependencies' has succeeded; 'body' may then
+		 * call getResult() on them.
+		 */
+		public <T> Job<T> submit(String name, long timeoutInMsecs, Callable<T> body, Job<?>... dependencies) {
+
+			Job<T> job = new Job<>(name, timeoutInMsecs);
+
+			synchronized (jobs_synch) {
+				jobs_synch.add(job);
+			}
+
+			CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.length];
+			for (int x = 0; x < dependencies.length; x++) {
+				dependencyFutures[x] = dependencies[x].future;
+			}
+
+			CompletableFuture.allOf(dependencyFutures).whenComplete((unused, t) -> {
+				if (t != null) {
+					job.finish(JobStatus.SKIPPED, null, null);
+				} else {
+					start(job, body);
+				}
+			});
+
+			return job;
+		}
+
+		public Job<Void> submit(String name, long timeoutInMsecs, Runnable body, Job<?>... dependencies) {
+			return submit(name, timeoutInMsecs, () -> {
+				body.run();
+				return null;
+			}, dependencies);
+		}
+
+		/** Wait for every job of the iteration to succeed, fail, time out or be skipped. */
+		public IterationReport await() {
+
+			List<Job<?>> jobs;
+			synchronized (jobs_synch) {
+				jobs = new ArrayList<>(jobs_synch);
+			}
+
+			for (Job<?> job : jobs) {
+				job.future.handle((result, t) -> null).join();
+			}
+
+			long iterationTimeInMsecs = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTimeInNanos,
+					TimeUnit.NANOSECONDS);
+
+			return new IterationReport(jobs, iterationTimeInMsecs);
+		}
+	}
+
+	private <T> void start(Job<T> job, Callable<T> body) {
+
+		synchronized (runningJobs_synch) {
+			if (!runningJobs_synch.add(job.name)) {
+				log.err("Skipping job '" + job.name + "', as a previous run is still in progress.");
+				job.finish(JobStatus.SKIPPED, null, null);
+				return;
+			}
+		}
+
+		job.startTimeInNanos = System.nanoTime();
+
+		Future<?> task = executor.submit(() -> {
+			if (!job.started.compareAndSet(false, true)) {
+				return; // Timed out while waiting for a thread
+			}
+
+			try {
+				job.finish(JobStatus.SUCCEEDED, body.call(), null);
+
+			} catch (Throwable t) {
+				if (job.finish(JobStatus.FAILED, null, t)) {
+					// Prevent exceptions from ending the iteration; report them as before.
+					log.err("Job '" + job.name + "' failed: " + t);
+					t.printStackTrace();
+				}
+
+			} finally {
+				synchronized (runningJobs_synch) {
+					runningJobs_synch.remove(job.name);
+				}
+			}
+		});
+
+		ScheduledFuture<?> timeout = timer.schedule(() -> {
+			if (job.finish(JobStatus.TIMED_OUT, null, null)) {
+				log.err("Job '" + job.name + "' timed out after " + job.timeoutInMsecs + " msecs.");
+
+				if (job.started.compareAndSet(false, true)) {
+					// The job never started, so it will not remove itself from the running jobs
+					synchronized (runningJobs_synch) {
+						runningJobs_synch.remove(job.name);
+					}
+				} else {
+					task.cancel(true);
+				}
+			}
+		}, job.timeoutInMsecs, TimeUnit.MILLISECONDS);
+
+		job.future.whenComplete((result, t) -> timeout.cancel(false));
+	}
+
+	/** A job of an iteration; its result is available to the jobs that depend on it. */
+	public class Job<T> {
+
+		private final String name;
+
+		private final long timeoutInMsecs;
+
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		/** Set before the job is submitted to the executor */
+		private volatile long startTimeInNanos = 0;
+
+		/** Set by whichever comes first: the job starting on a thread, or its timeout. */
+		private final AtomicBoolean started = new AtomicBoolean(false);
+
+		/** Synchronize on 'this' when accessing. */
+		private JobStatus status = null;
+
+		/** Synchronize on 'this' when accessing. */
+		private long durationInMsecs = 0;
+
+		private Job(String name, long timeoutInMsecs) {
+			this.name = name;
+			this.timeoutInMsecs = timeoutInMsecs;
+		}
+
+		/**
+		 * Returns the result of a job that has succeeded; for use by the jobs that
+		 * depend on this one.
+		 */
+		public T getResult() {
+			if (!future.isDone() || future.isCompletedExceptionally()) {
+				throw new IllegalStateException("Job '" + name + "' has not succeeded.");
+			}
+			return future.join();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Null if the job has not finished. */
+		public synchronized JobStatus getStatus() {
+			return status;
+		}
+
+		public synchronized long getDurationInMsecs() {
+			return durationInMsecs;
+		}
+
+		/** Returns false if the job had already finished (for example, it timed out). */
+		private boolean finish(JobStatus newStatus, T result, Throwable t) {
+
+			synchronized (this) {
+				if (status != null) {
+					return false;
+				}
+				status = newStatus;
+				durationInMsecs = startTimeInNanos == 0 ? 0
+						: TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTimeInNanos, TimeUnit.NANOSECONDS);
+			}
+
+			recordStatistics(this);
+
+			if (newStatus == JobStatus.SUCCEEDED) {
+				future.complete(result);
+			} else {
+				future.completeExceptionally(t != null ? t : new RuntimeException("Job '" + name + "' " + newStatus));
+			}
+
+			return true;
+		}
+	}
+
+	/** The status and duration of each job of an iteration. Immutable. */
+	public static class IterationReport {
+
+		private final List<String> jobNames;
+		private final List<JobStatus> statuses;
+		private final List<Long> durationsInMsecs;
+		private final long iterationTimeInMsecs;
+
+		private IterationReport(List<Job<?>> jobs, long iterationTimeInMsecs) {
+			this.jobNames = Collections.unmodifiableList(jobs.stream().map(Job::getName).collect(Collectors.toList()));
+			this.statuses = Collections
+					.unmodifiableList(jobs.stream().map(Job::getStatus).collect(Collectors.toList()));
+			this.durationsInMsecs = Collections
+					.unmodifiableList(jobs.stream().map(Job::getDurationInMsecs).collect(Collectors.toList()));
+			this.iterationTimeInMsecs = iterationTimeInMsecs;
+		}
+
+		public long getIterationTimeInMsecs() {
+			return iterationTimeInMsecs;
+		}
+
+		public JobStatus getStatus(String jobName) {
+			int index = jobNames.indexOf(jobName);
+			return index != -1 ? statuses.get(index) : null;
+		}
+
+		public long getDurationInMsecs(String jobName) {
+			int index = jobNames.indexOf(jobName);
+			return index != -1 ? durationsInMsecs.get(index) : 0;
+		}
+
+		/** Whether any job failed or timed out. */
+		public boolean hasFailures() {
+			return statuses.contains(JobStatus.FAILED) || statuses.contains(JobStatus.TIMED_OUT);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("iteration: " + iterationTimeInMsecs + " msecs");
+			for (int x = 0; x < jobNames.size(); x++) {
+				sb.append(", " + jobNames.get(x) + ": ");
+				if (statuses.get(x) == JobStatus.SUCCEEDED) {
+					sb.append(durationsInMsecs.get(x) + " msecs");
+				} else {
+					sb.append(statuses.get(x) + " (" + durationsInMsecs.get(x) + " msecs)");
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/** Totals of the runs of a job. Immutable. */
+	public static class JobStatistics {
+
+		private final String name;
+		private final long runs;
+		private final long failures;
+		private final long timeouts;
+		private final long skips;
+		private final long totalDurationInMsecs;
+		private final long maxDurationInMsecs;
+
+		private JobStatistics(String name) {
+			this(name, 0, 0, 0, 0, 0, 0);
+		}
+
+		private JobStatistics(String name, long runs, long failures, long timeouts, long skips,
+				long totalDurationInMsecs, long maxDurationInMsecs) {
+			this.name = name;
+			this.runs = runs;
+			this.failures = failures;
+			this.timeouts = timeouts;
+			this.skips = skips;
+			this.totalDurationInMsecs = totalDurationInMsecs;
+			this.maxDurationInMsecs = maxDurationInMsecs;
+		}
+
+		private JobStatistics add(JobStatus status, long durationInMsecs) {
+			if (status == JobStatus.SKIPPED) {
+				return new JobStatistics(name, runs, failures, timeouts, skips + 1, totalDurationInMsecs,
+						maxDurationInMsecs);
+			}
+
+			return new JobStatistics(name, runs + 1, failures + (status == JobStatus.FAILED ? 1 : 0),
+					timeouts + (status == JobStatus.TIMED_OUT ? 1 : 0), skips, totalDurationInMsecs + durationInMsecs,
+					Math.max(maxDurationInMsecs, durationInMsecs));
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Number of times the job was started (including failures and timeouts). */
+		public long getRuns() {
+			return runs;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public long getTimeouts() {
+			return timeouts;
+		}
+
+		public long getSkips() {
+			return skips;
+		}
+
+		public long getAverageDurationInMsecs() {
+			return runs == 0 ? 0 : totalDurationInMsecs / runs;
+		}
+
+		public long getMaxDurationInMsecs() {
+			return maxDurationInMsecs;
+		}
+
+		@Override
+		public String toString() {
+			return name + " [runs: " + runs + ", failures: " + failures + ", timeouts: " + timeouts + ", skips: "
+					+ skips + ", avg msecs: " + getAverageDurationInMsecs() + ", max msecs: " + maxDurationInMsecs
+					+ "]";
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName(JobEngine.class.getName() + "-" + prefix + "-" + count.incrementAndGet());
+			return t;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.eclipse.codewind.ghbot.db.IKVStore;
+
+/**
+ * Divides the work of the bot between multiple bot processes ('instances')
+ * that share a store (see SharedFileKVStore), using leases: an instance only
+ * processes the events of a repository while it holds that repository's lease,
+ * and only runs a singleton job (a job that must not run in more than one
+ * instance, such as the statistics report) while it holds that job's lease.
+ *
+ * Each instance renews its leases every leaseDuration / 3, using the
+ * compareAndSet of the store:
+ *
+ * - It writes a heartbeat ('cluster-member-[instance id]' -> expiry time), and
+ * counts the instances whose heartbeat has not expired.
+ *
+ * - It renews the repository leases it holds, releases any beyond its fair
+ * share (the number of repositories divided by the number of live instances,
+ * rounded up), and acquires free or expired leases up to its fair share. When
+ * an instance starts, the others thus release leases to it; when an instance
+ * dies, its leases expire, and the others acquire them.
+ *
+ * - It renews the singleton leases it holds, and acquires any that are free or
+ * expired.
+ *
+ * A lease value is '[instance id] [expiry time in epoch msecs]'. An instance
+ * considers a lease to be held only until one fifth of the lease duration
+ * before it expires, so that (if its renewal is delayed, or clocks differ by
+ * less than that) it has stopped using a lease before any other instance can
+ * acquire it. Work that is running when a lease is lost, or that an external
+ * service has already received, cannot be recalled.
+ *
+ * Repositories that are not in the list (events can be received for any
+ * repository mirrored by GHAM) belong to the holder of one of the listed
+ * repositories, chosen by the hash of the name.
+ *
+ * Thread safe.
+ */
+public class LeaseManager {
+
+	static final String PREFIX_MEMBER = "cluster-member-";
+
+	static final String PREFIX_REPOSITORY_LEASE = "cluster-lease-repo-";
+
+	static final String PREFIX_SINGLETON_LEASE = "cluster-lease-job-";
+
+	private static final Logger log = Logger.getInstance();
+
+	private final IKVStore store;
+
+	private final String instanceId;
+
+	/** Sorted */
+	private final List<String> repositories;
+
+	private final List<String> singletons;
+
+	private final long leaseDurationInMsecs;
+
+	/**
+	 * Called with the leases (repository names and singleton job names) acquired
+	 * from another instance, or after they expired, before they are used.
+	 */
+	private final List<Consumer<Set<String>>> acquisitionListeners = new CopyOnWriteArrayList<>();
+
+	/** Whether a repository lease may be released; for example, once its work is done. */
+	private volatile Predicate<String> releaseGuard = e -> true;
+
+	/** Expiry time of each lease held, by lease key; synchronize on this when accessing. */
+	private final Map<String /* lease key */, Long> leases_synch = new HashMap<>();
+
+	/** Synchronize on leases_synch when accessing. */
+	private boolean firstRenewal_synch_leases = true;
+
+	/** Synchronize on 'this' when accessing. */
+	private RenewalThread renewalThread;
+
+	public LeaseManager(IKVStore store, String instanceId, List<String> repositories, List<String> singletons,
+			long leaseDurationInMsecs) {
+
+		if (instanceId.isEmpty() || instanceId.chars().anyMatch(Character::isWhitespace)) {
+			throw new IllegalArgumentException("Instance ID must be non-empty, without whitespace: " + instanceId);
+		}
+
+		if (repositories.isEmpty()) {
+			throw new IllegalArgumentException("At least one repository is required.");
+		}
+
+		this.store = store;
+		this.instanceId = instanceId;
+		this.repositories = new ArrayList<>(new TreeSet<>(repositories));
+		this.singletons = new ArrayList<>(singletons);
+		this.leaseDurationInMsecs = leaseDurationInMsecs;
+	}
+
+	public void addAcquisitionListener(Consumer<Set<String>> acquisitionListener) {
+		acquisitionListeners.add(acquisitionListener);
+	}
+
+	public void setReleaseGuard(Predicate<String> releaseGuard) {
+		this.releaseGuard = releaseGuard;
+	}
+
+	/**
+	 * Acquire the initial leases (so that they are known before the first
+	 * iteration of the bot), then renew them on a daemon thread. The acquisition
+	 * listeners are not called for the initial leases.
+	 */
+	public synchronized void start() {
+		if (renewalThread != null) {
+			return;
+		}
+
+		renew(System.currentTimeMillis());
+
+		renewalThread = new RenewalThread();
+		renewalThread.start();
+	}
+
+	/**
+	 * Release all leases, so that the other instances can acquire them without
+	 * waiting for them to expire.
+	 */
+	public synchronized void stop() {
+		if (renewalThread != null) {
+			renewalThread.interrupt();
+			renewalThread = null;
+		}
+
+		synchronized (leases_synch) {
+			for (String key : leases_synch.keySet()) {
+				store.getString(key).filter(e -> instanceId.equals(parseOwner(e)))
+						.ifPresent(e -> store.compareAndSet(key, e, null));
+			}
+			leases_synch.clear();
+		}
+
+		store.removeByKey(PREFIX_MEMBER + instanceId);
+
+		log.out("Released all leases of instance " + instanceId);
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	/** The full name ('owner/repo') of a repository. */
+	public boolean ownsRepository(String repositoryFullName) {
+		return ownsRepository(repositoryFullName, System.currentTimeMillis());
+	}
+
+	public boolean ownsSingleton(String jobName) {
+		return ownsSingleton(jobName, System.currentTimeMillis());
+	}
+
+	/** The listed repositories whose lease is held, sorted. */
+	public List<String> getOwnedRepositories() {
+		long now = System.currentTimeMillis();
+
+		List<String> result = new ArrayList<>();
+		repositories.stream().filter(e -> ownsRepository(e, now)).forEach(result::add);
+		return result;
+	}
+
+	boolean ownsRepository(String repositoryFullName, long now) {
+		return isHeld(PREFIX_REPOSITORY_LEASE + leaseRepository(repositoryFullName), now);
+	}
+
+	boolean ownsSingleton(String jobName, long now) {
+		return isHeld(PREFIX_SINGLETON_LEASE + jobName, now);
+	}
+
+	private boolean isHeld(String leaseKey, long now) {
+		synchronized (leases_synch) {
+			Long expiresAt = leases_synch.get(leaseKey);
+			return expiresAt != null && now < expiresAt - leaseDurationInMsecs / 5;
+		}
+	}
+
+	/** The listed repository whose lease covers the given repository. */
+	private String leaseRepository(String repositoryFullName) {
+		if (Collections.binarySearch(repositories, repositoryFullName) >= 0) {
+			return repositoryFullName;
+		}
+		return repositories.get(Math.floorMod(repositoryFullName.hashCode(), repositories.size()));
+	}
+
+	/** Write the heartbeat, then renew, release and acquire leases (see class). */
+	void renew(long now) {
+
+		long expiresAt = now + leaseDurationInMsecs;
+		String newValue = instanceId + " " + expiresAt;
+
+		store.persistString(PREFIX_MEMBER + instanceId, Long.toString(expiresAt));
+
+		int liveInstances = 0;
+		for (String key : store.getKeysByPrefix(PREFIX_MEMBER)) {
+			Optional<String> value = store.getString(key);
+			if (value.isPresent() && Long.parseLong(value.get()) > now) {
+				liveInstances++;
+			} else if (value.isPresent() && Long.parseLong(value.get()) < now - 10 * leaseDurationInMsecs) {
+				// Remove the heartbeats of instances that are long gone
+				store.compareAndSet(key, value.get(), null);
+			}
+		}
+		liveInstances = Math.max(1, liveInstances);
+
+		int fairShare = (repositories.size() + liveInstances - 1) / liveInstances;
+
+		Map<String, Long> held = new HashMap<>();
+		Set<String> acquired = new TreeSet<>();
+
+		// Repository leases
+		{
+			List<String> renewed = new ArrayList<>();
+			Map<String /* lease key */, String /* current value, or null */> free = new HashMap<>();
+			List<String> freeKeys = new ArrayList<>();
+
+			for (String repository : repositories) {
+				String key = PREFIX_REPOSITORY_LEASE + repository;
+				String value = store.getString(key).orElse(null);
+
+				if (value != null && instanceId.equals(parseOwner(value))) {
+					if (store.compareAndSet(key, value, newValue)) {
+						renewed.add(repository);
+					}
+				} else if (value == null || parseExpiresAt(value) <= now) {
+					free.put(key, value);
+					freeKeys.add(repository);
+				}
+			}
+
+			// Release leases beyond the fair share, latest first
+			for (int x = renewed.size() - 1; x >= 0 && renewed.size() > fairShare; x--) {
+				String repository = renewed.get(x);
+				if (releaseGuard.test(repository)
+						&& store.compareAndSet(PREFIX_REPOSITORY_LEASE + repository, newValue, null)) {
+					renewed.remove(x);
+				}
+			}
+
+			// Start from a different free lease in each instance, so they do not all
+			// compete for the same ones.
+			if (!freeKeys.isEmpty()) {
+				Collections.rotate(freeKeys, Math.floorMod(instanceId.hashCode(), freeKeys.size()));
+			}
+
+			for (String repository : freeKeys) {
+				if (renewed.size() >= fairShare) {
+					break;
+				}
+				String key = PREFIX_REPOSITORY_LEASE + repository;
+				if (store.compareAndSet(key, free.get(key), newValue)) {
+					renewed.add(repository);
+					acquired.add(repository);
+				}
+			}
+
+			renewed.forEach(e -> held.put(PREFIX_REPOSITORY_LEASE + e, expiresAt));
+		}
+
+		// Singleton leases
+		for (String singleton : singletons) {
+			String key = PREFIX_SINGLETON_LEASE + singleton;
+			String value = store.getString(key).orElse(null);
+
+			if (value != null && instanceId.equals(parseOwner(value))) {
+				if (store.compareAndSet(key, value, newValue)) {
+					held.put(key, expiresAt);
+				}
+			} else if (value == null || parseExpiresAt(value) <= now) {
+				if (store.compareAndSet(key, value, newValue)) {
+					held.put(key, expiresAt);
+					acquired.add(singleton);
+				}
+			}
+		}
+
+		boolean notifyListener;
+		List<String> released = new ArrayList<>();
+
+		synchronized (leases_synch) {
+			for (String key : leases_synch.keySet()) {
+				if (!held.containsKey(key)) {
+					released.add(key);
+				}
+			}
+			notifyListener = !firstRenewal_synch_leases;
+			firstRenewal_synch_leases = false;
+		}
+
+		// Reload any state written by the previous holder before using the leases
+		if (notifyListener && !acquired.isEmpty()) {
+			acquisitionListeners.forEach(e -> e.accept(acquired));
+		}
+
+		synchronized (leases_synch) {
+			// Leases held before this renewal are replaced; the newly acquired ones are
+			// only now visible to ownsRepository(...)/ownsSingleton(...)
+			leases_synch.clear();
+			leases_synch.putAll(held);
+		}
+
+		if (!acquired.isEmpty() || !released.isEmpty()) {
+			log.out("Instance " + instanceId + " of " + liveInstances + " acquired leases " + acquired
+					+ ", released or lost leases " + released + "; now holds " + held.size() + " leases.");
+		}
+	}
+
+	private static String parseOwner(String leaseValue) {
+		return leaseValue.substring(0, leaseValue.lastIndexOf(' '));
+	}
+
+	private static long parseExpiresAt(String leaseValue) {
+		return Long.parseLong(leaseValue.substring(leaseValue.lastIndexOf(' ') + 1));
+	}
+
+	/** Renews the leases every leaseDuration / 3. */
+	private class RenewalThread extends Thread {
+
+		RenewalThread() {
+			setName(LeaseManager.class.getName());
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				try {
+					Thread.sleep(leaseDurationInMsecs / 3);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					renew(System.currentTimeMillis());
+				} catch (Throwable t) {
+					// Prevent exceptions from ending the thread; held leases expire if this persists.
+					log.err("Unable to renew leases: " + t);
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+/**
+ * Point-in-time snapshot of the counters and most recent decision of an
+ * AdaptivePollScheduler. Immutable, and thus thread safe.
+ */
+public class PollStatistics {
+
+	private final long polls;
+	private final long pollsWithEvents;
+	private final long events;
+	private final long errors;
+
+	private final long intervalInMsecs;
+	private final long lastSleepInMsecs;
+	private final String lastDecision;
+
+	private final double averageEventsPerPoll;
+	private final double averageIterationTimeInMsecs;
+
+	public PollStatistics(long polls, long pollsWithEvents, long events, long errors, long intervalInMsecs,
+			long lastSleepInMsecs, String lastDecision, double averageEventsPerPoll,
+			double averageIterationTimeInMsecs) {
+		this.polls = polls;
+		this.pollsWithEvents = pollsWithEvents;
+		this.events = events;
+		this.errors = errors;
+		this.intervalInMsecs = intervalInMsecs;
+		this.lastSleepInMsecs = lastSleepInMsecs;
+		this.lastDecision = lastDecision;
+		this.averageEventsPerPoll = averageEventsPerPoll;
+		this.averageIterationTimeInMsecs = averageIterationTimeInMsecs;
+	}
+
+	public long getPolls() {
+		return polls;
+	}
+
+	public long getPollsWithEvents() {
+		return pollsWithEvents;
+	}
+
+	public long getEvents() {
+		return events;
+	}
+
+	/** Number of iterations that failed with an exception (for example, a GHAM error). */
+	public long getErrors() {
+		return errors;
+	}
+
+	/** Current poll interval, measured from the start of one iteration to the start of the next. */
+	public long getIntervalInMsecs() {
+		return intervalInMsecs;
+	}
+
+	/** Time slept after the most recent iteration. */
+	public long getLastSleepInMsecs() {
+		return lastSleepInMsecs;
+	}
+
+	/** Reason for the most recent change (or not) of the interval; null before the first poll. */
+	public String getLastDecision() {
+		return lastDecision;
+	}
+
+	/** Exponentially weighted moving average of the events seen by each poll. */
+	public double getAverageEventsPerPoll() {
+		return averageEventsPerPoll;
+	}
+
+	/** Exponentially weighted moving average of the duration of each iteration. */
+	public double getAverageIterationTimeInMsecs() {
+		return averageIterationTimeInMsecs;
+	}
+
+	@Override
+	public String toString() {
+		return "polls: " + polls + ", polls with events: " + pollsWithEvents + ", events: " + events + ", errors: "
+				+ errors + ", interval: " + intervalInMsecs + ", last sleep: " + lastSleepInMsecs
+				+ ", avg events/poll: " + String.format("%.2f", averageEventsPerPoll) + ", avg iteration msecs: "
+				+ (long) averageIterationTimeInMsecs + ", last decision: " + lastDecision;
+	}
+}
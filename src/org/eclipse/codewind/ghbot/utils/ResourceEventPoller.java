@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.eclipse.codewind.ghbot.db.GHDatabase;
+
+import com.githubapimirror.shared.json.ResourceChangeEventJson;
+
+/**
+ * Polls GHAM for new resource events, starting from a cursor (the time of the
+ * newest event seen, persisted in the database), so that each poll only
+ * retrieves the events since the previous one, rather than every event of the
+ * last RECONCILIATION_WINDOW_IN_MSECS.
+ *
+ * - Each poll requests the events since the cursor minus 'overlapInMsecs', so
+ * that events which are recorded by GHAM slightly out of order, or with a
+ * skewed clock, are not missed. Events that were already seen are filtered out
+ * by the processed resource event records (see GHDatabase.claimResourceEvent).
+ *
+ * - Every 'reconciliationIntervalInMsecs', on the first poll after startup, and
+ * when requested (for example, when this instance acquires a repository from
+ * another, see LeaseManager), the poll instead requests the full
+ * RECONCILIATION_WINDOW_IN_MSECS, to pick up anything the cursor may have
+ * skipped.
+ *
+ * The cursor only moves forward. Each instance of the bot has its own cursor
+ * ('cursorName'), as it only processes the events of the repositories it owns.
+ *
+ * Thread safe.
+ */
+public class ResourceEventPoller {
+
+	public static final long RECONCILIATION_WINDOW_IN_MSECS = TimeUnit.MILLISECONDS.convert(4, TimeUnit.DAYS);
+
+	private final GHDatabase db;
+
+	private final String cursorName;
+
+	private final long overlapInMsecs;
+
+	private final long reconciliationIntervalInMsecs;
+
+	private final Object lock = new Object();
+
+	/** Synchronize on 'lock' when accessing; 0 until the first reconciliation. */
+	private long lastReconciliationInMsecs = 0;
+
+	/** Synchronize on 'lock' when accessing. */
+	private boolean reconciliationRequested = false;
+
+	/** Synchronize on 'lock' when accessing. */
+	private long polls = 0, reconciliations = 0, eventsFetched = 0, newEvents = 0, lastEventsFetched = 0;
+
+	public ResourceEventPoller(GHDatabase db, String cursorName, long overlapInMsecs,
+			long reconciliationIntervalInMsecs) {
+		this.db = db;
+		this.cursorName = cursorName;
+		this.overlapInMsecs = overlapInMsecs;
+		this.reconciliationIntervalInMsecs = reconciliationIntervalInMsecs;
+	}
+
+	/**
+	 * Returns the new events, and marks them as processed; events of repositories
+	 * (by 'owner/repo') not accepted by 'ownsRepository' are left for the instance
+	 * that owns them.
+	 *
+	 * @param fetchEventsSince returns the events at or after the given time (epoch
+	 *                         msecs)
+	 */
+	public List<ResourceChangeEventJson> poll(LongFunction<List<ResourceChangeEventJson>> fetchEventsSince,
+			Predicate<String> ownsRepository) {
+		return poll(fetchEventsSince, ownsRepository, System.currentTimeMillis());
+	}
+
+	List<ResourceChangeEventJson> poll(LongFunction<List<ResourceChangeEventJson>> fetchEventsSince,
+			Predicate<String> ownsRepository, long now) {
+
+		Long cursor = db.getResourceEventCursor(cursorName).orElse(null);
+
+		boolean reconcile;
+		synchronized (lock) {
+			reconcile = cursor == null || reconciliationRequested
+					|| now - lastReconciliationInMsecs >= reconciliationIntervalInMsecs;
+		}
+
+		long since = reconcile ? now - RECONCILIATION_WINDOW_IN_MSECS : cursor - overlapInMsecs;
+
+		List<ResourceChangeEventJson> events = fetchEventsSince.apply(since);
+
+		List<ResourceChangeEventJson> result = events.stream()
+				.filter(e -> ownsRepository.test(e.getOwner() + "/" + e.getRepo()))
+				.filter(e -> db.claimResourceEvent(e.getUuid())).collect(Collectors.toList());
+
+		// With no events yet, start from the current time (less the overlap, in case
+		// of clock skew between the bot and GHAM).
+		long newCursor = events.stream().mapToLong(ResourceChangeEventJson::getTime).max()
+				.orElse(cursor != null ? cursor : now - overlapInMsecs);
+
+		if (cursor == null || newCursor > cursor) {
+			db.setResourceEventCursor(cursorName, newCursor);
+		}
+
+		synchronized (lock) {
+			polls++;
+			eventsFetched += events.size();
+			lastEventsFetched = events.size();
+			newEvents += result.size();
+
+			if (reconcile) {
+				reconciliations++;
+				lastReconciliationInMsecs = now;
+				reconciliationRequested = false;
+			}
+		}
+
+		return result;
+	}
+
+	/** The next poll will request the full reconciliation window. */
+	public void requestReconciliation() {
+		synchronized (lock) {
+			reconciliationRequested = true;
+		}
+	}
+
+	public PollerStatistics getStatistics() {
+		Long cursor = db.getResourceEventCursor(cursorName).orElse(null);
+
+		synchronized (lock) {
+			return new PollerStatistics(polls, reconciliations, eventsFetched, lastEventsFetched, newEvents, cursor);
+		}
+	}
+
+	/** Totals of the polls of a ResourceEventPoller. Immutable. */
+	public static class PollerStatistics {
+
+		private final long polls;
+		private final long reconciliations;
+		private final long eventsFetched;
+		private final long lastEventsFetched;
+		private final long newEvents;
+		private final Long cursor;
+
+		private PollerStatistics(long polls, long reconciliations, long eventsFetched, long lastEventsFetched,
+				long newEvents, Long cursor) {
+			this.polls = polls;
+			this.reconciliations = reconciliations;
+			this.eventsFetched = eventsFetched;
+			this.lastEventsFetched = lastEventsFetched;
+			this.newEvents = newEvents;
+			this.cursor = cursor;
+		}
+
+		public long getPolls() {
+			return polls;
+		}
+
+		/** Polls that requested the full reconciliation window. */
+		public long getReconciliations() {
+			return reconciliations;
+		}
+
+		/** Events returned by GHAM, including those already seen. */
+		public long getEventsFetched() {
+			return eventsFetched;
+		}
+
+		public long getLastEventsFetched() {
+			return lastEventsFetched;
+		}
+
+		/** Events that had not been seen before. */
+		public long getNewEvents() {
+			return newEvents;
+		}
+
+		/** Time of the newest event seen (epoch msecs), or null if none. */
+		public Long getCursor() {
+			return cursor;
+		}
+
+		@Override
+		public String toString() {
+			return "polls: " + polls + ", reconciliations: " + reconciliations + ", events fetched: " + eventsFetched
+					+ ", last events fetched: " + lastEventsFetched + ", new events: " + newEvents + ", cursor: "
+					+ cursor;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes work in independent queues ('shards', for example one per
+ * repository), on a pool of at most 'maxParallelism' threads.
+ *
+ * Work within a shard is run one at a time, in the order it was submitted, so
+ * that (for example) the events of an issue are always processed in order.
+ * Different shards run in parallel: after each piece of work, a shard yields
+ * its thread to the other shards with queued work, so that a shard with a deep
+ * queue does not delay the others.
+ *
+ * The queue depth and lag (time between the submission of work and its start)
+ * of each shard are available from getStatistics().
+ *
+ * Thread safe.
+ */
+public class ShardedPipeline {
+
+	private static final Logger log = Logger.getInstance();
+
+	private final ExecutorService executor;
+
+	/** Synchronize on this when accessing, or when accessing any Shard. */
+	private final Map<String /* shard name */, Shard> shards_synch = new TreeMap<>();
+
+	public ShardedPipeline(int maxParallelism) {
+		this(ThreadMode.PLATFORM, maxParallelism);
+	}
+
+	public ShardedPipeline(ThreadMode threadMode, int maxParallelism) {
+		executor = threadMode.newExecutor(ShardedPipeline.class.getName(), maxParallelism);
+	}
+
+	/** Run 'work' after all the work previously submitted to the same shard. */
+	public void submit(String shardName, Runnable work) {
+
+		Shard shard;
+		boolean schedule;
+
+		synchronized (shards_synch) {
+			shard = shards_synch.computeIfAbsent(shardName, Shard::new);
+			shard.queue.add(new QueuedWork(work));
+
+			// If the shard is already running, it will run the new work once it reaches it
+			schedule = !shard.active;
+			shard.active = true;
+		}
+
+		if (schedule) {
+			executor.execute(() -> runNext(shard));
+		}
+	}
+
+	private void runNext(Shard shard) {
+
+		QueuedWork next;
+		synchronized (shards_synch) {
+			next = shard.queue.poll();
+		}
+
+		long startTimeInNanos = System.nanoTime();
+
+		boolean failed = false;
+		try {
+			next.work.run();
+		} catch (Throwable t) {
+			// Prevent exceptions from ending the shard.
+			failed = true;
+			log.err("Work of '" + shard.name + "' failed: " + t);
+			t.printStackTrace();
+		}
+
+		long endTimeInNanos = System.nanoTime();
+
+		synchronized (shards_synch) {
+			shard.processed++;
+			shard.failures += failed ? 1 : 0;
+
+			long lagInMsecs = TimeUnit.MILLISECONDS.convert(startTimeInNanos - next.submitTimeInNanos,
+					TimeUnit.NANOSECONDS);
+			shard.lastLagInMsecs = lagInMsecs;
+			shard.maxLagInMsecs = Math.max(shard.maxLagInMsecs, lagInMsecs);
+			shard.totalDurationInMsecs += TimeUnit.MILLISECONDS.convert(endTimeInNanos - startTimeInNanos,
+					TimeUnit.NANOSECONDS);
+
+			if (shard.queue.isEmpty()) {
+				shard.active = false;
+				shards_synch.notifyAll();
+				return;
+			}
+		}
+
+		// Go to the back of the executor's queue, behind the other shards
+		executor.execute(() -> runNext(shard));
+	}
+
+	/** Whether the shard has no work that is queued or running. */
+	public boolean isIdle(String shardName) {
+		synchronized (shards_synch) {
+			Shard shard = shards_synch.get(shardName);
+			return shard == null || !shard.active;
+		}
+	}
+
+	/**
+	 * Wait until all submitted work has completed, or the timeout expires; returns
+	 * false on timeout.
+	 */
+	public boolean awaitIdle(long timeoutInMsecs) throws InterruptedException {
+		long expireTimeInNanos = System.nanoTime() + TimeUnit.NANOSECONDS.convert(timeoutInMsecs, TimeUnit.MILLISECONDS);
+
+		synchronized (shards_synch) {
+			while (shards_synch.values().stream().anyMatch(e -> e.active)) {
+				long remainingInNanos = expireTimeInNanos - System.nanoTime();
+				if (remainingInNanos <= 0) {
+					return false;
+				}
+				shards_synch.wait((remainingInNanos + 999_999) / 1_000_000);
+			}
+		}
+
+		return true;
+	}
+
+	/** Current queue depth and lag, and totals, of each shard, by shard name. */
+	public List<ShardStatistics> getStatistics() {
+		long now = System.nanoTime();
+
+		List<ShardStatistics> result = new ArrayList<>();
+
+		synchronized (shards_synch) {
+			for (Shard shard : shards_synch.values()) {
+				QueuedWork oldest = shard.queue.peek();
+
+				long oldestQueuedInMsecs = oldest == null ? 0
+						: TimeUnit.MILLISECONDS.convert(now - oldest.submitTimeInNanos, TimeUnit.NANOSECONDS);
+
+				result.add(new ShardStatistics(shard.name, shard.queue.size(), oldestQueuedInMsecs, shard.processed,
+						shard.failures, shard.lastLagInMsecs, shard.maxLagInMsecs,
+						shard.processed == 0 ? 0 : shard.totalDurationInMsecs / shard.processed));
+			}
+		}
+
+		return result;
+	}
+
+	/** Synchronize on shards_synch when accessing. */
+	private static class Shard {
+
+		private final String name;
+
+		private final Deque<QueuedWork> queue = new ArrayDeque<>();
+
+		/** Whether work of this shard is running, or is in the executor's queue */
+		private boolean active = false;
+
+		private long processed = 0, failures = 0;
+
+		private long lastLagInMsecs = 0, maxLagInMsecs = 0, totalDurationInMsecs = 0;
+
+		Shard(String name) {
+			this.name = name;
+		}
+	}
+
+	private static class QueuedWork {
+
+		private final Runnable work;
+
+		private final long submitTimeInNanos = System.nanoTime();
+
+		QueuedWork(Runnable work) {
+			this.work = work;
+		}
+	}
+
+	/** Queue depth, lag and totals of a shard. Immutable. */
+	public static class ShardStatistics {
+
+		private final String name;
+		private final int queued;
+		private final long oldestQueuedInMsecs;
+		private final long processed;
+		private final long failures;
+		private final long lastLagInMsecs;
+		private final long maxLagInMsecs;
+		private final long averageDurationInMsecs;
+
+		private ShardStatistics(String name, int queued, long oldestQueuedInMsecs, long processed, long failures,
+				long lastLagInMsecs, long maxLagInMsecs, long averageDurationInMsecs) {
+			this.name = name;
+			this.queued = queued;
+			this.oldestQueuedInMsecs = oldestQueuedInMsecs;
+			this.processed = processed;
+			this.failures = failures;
+			this.lastLagInMsecs = lastLagInMsecs;
+			this.maxLagInMsecs = maxLagInMsecs;
+			this.averageDurationInMsecs = averageDurationInMsecs;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Work waiting to run (not including any work that is running). */
+		public int getQueued() {
+			return queued;
+		}
+
+		/** How long the oldest waiting work has been waiting; 0 if none is. */
+		public long getOldestQueuedInMsecs() {
+			return oldestQueuedInMsecs;
+		}
+
+		public long getProcessed() {
+			return processed;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		/** Time between the submission and the start of the most recent work. */
+		public long getLastLagInMsecs() {
+			return lastLagInMsecs;
+		}
+
+		public long getMaxLagInMsecs() {
+			return maxLagInMsecs;
+		}
+
+		public long getAverageDurationInMsecs() {
+			return averageDurationInMsecs;
+		}
+
+		@Override
+		public String toString() {
+			return name + " [queued: " + queued + ", oldest queued msecs: " + oldestQueuedInMsecs + ", processed: "
+					+ processed + ", failures: " + failures + ", last lag msecs: " + lastLagInMsecs
+					+ ", max lag msecs: " + maxLagInMsecs + ", avg msecs: " + averageDurationInMsecs + "]";
+		}
+	}
+}
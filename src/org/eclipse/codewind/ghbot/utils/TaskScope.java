@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a group of subtasks concurrently, on the given executor, and waits for
+ * all of them: the subtasks are forked within a try-with-resources block, and
+ * cannot outlive it. If any subtask fails, the others are cancelled, and
+ * join() throws the failure.
+ *
+ * This is a Java 8 stand-in for the JDK's StructuredTaskScope (a preview API
+ * in JDK 21), with its 'shutdown on failure' policy. As with that API, a scope
+ * is for use by the thread that created it. For example:
+ *
+ * <pre>
+ * try (TaskScope&lt;GHIssue&gt; scope = new TaskScope&lt;&gt;(executor)) {
+ * 	issueNumbers.forEach(number -&gt; scope.fork(() -&gt; repo.getIssue(number)));
+ * 	List&lt;GHIssue&gt; issues = scope.join();
+ * }
+ * </pre>
+ */
+public class TaskScope<T> implements AutoCloseable {
+
+	private final ExecutorService executor;
+
+	private final List<Future<T>> subtasks = new ArrayList<>();
+
+	public TaskScope(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public void fork(Callable<T> subtask) {
+		subtasks.add(executor.submit(subtask));
+	}
+
+	/**
+	 * Wait for all subtasks to complete, and return their results, in the order
+	 * they were forked. If a subtask fails, the remaining subtasks are cancelled,
+	 * and its exception is thrown (wrapped in a RuntimeException, if checked).
+	 */
+	public List<T> join() {
+
+		List<T> result = new ArrayList<>(subtasks.size());
+
+		try {
+			for (Future<T> subtask : subtasks) {
+				result.add(subtask.get());
+			}
+		} catch (ExecutionException e) {
+			close();
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+
+		} catch (CancellationException e) {
+			close();
+			throw new RuntimeException("A subtask was cancelled", e);
+
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for subtasks", e);
+		}
+
+		return result;
+	}
+
+	/** Cancel (and interrupt) any subtasks that have not completed. */
+	@Override
+	public void close() {
+		subtasks.forEach(e -> e.cancel(true));
+	}
+}
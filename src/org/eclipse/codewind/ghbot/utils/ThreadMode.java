@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The kind of thread on which the bot's concurrent work (jobs, repository
+ * pipeline, and per-issue backend calls) runs.
+ *
+ * - PLATFORM: a fixed pool of 'maxConcurrency' daemon threads.
+ *
+ * - VIRTUAL: a new virtual thread for each task, at most 'maxConcurrency' of
+ * which run at once. As a virtual thread that is blocked on backend I/O (or in
+ * Utils.sleep) does not hold an OS thread, 'maxConcurrency' can be in the
+ * thousands. Requires a JDK with virtual threads (21 or later); the bot is still
+ * built for Java 8, so they are created through reflection, and on an older JDK
+ * this mode falls back to PLATFORM.
+ */
+public enum ThreadMode {
+
+	PLATFORM, VIRTUAL;
+
+	private static final Logger log = Logger.getInstance();
+
+	/** Thread.ofVirtual(), or null if this JDK does not have virtual threads */
+	private static final Method OF_VIRTUAL = findOfVirtual();
+
+	public static ThreadMode fromString(String str) {
+		for (ThreadMode mode : values()) {
+			if (mode.name().equalsIgnoreCase(str)) {
+				return mode;
+			}
+		}
+		throw new IllegalArgumentException("Unrecognized thread mode: " + str);
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Returns an executor which runs at most 'maxConcurrency' tasks at once; tasks
+	 * beyond that wait for one of those to complete.
+	 */
+	public ExecutorService newExecutor(String name, int maxConcurrency) {
+
+		if (this == VIRTUAL) {
+			if (isVirtualThreadSupported()) {
+				return new ConcurrencyLimitedExecutor(newVirtualThreadFactory(name), maxConcurrency);
+			}
+			log.err("Virtual threads are not supported by this JDK (" + System.getProperty("java.version")
+					+ "); using platform threads for '" + name + "'.");
+		}
+
+		AtomicInteger count = new AtomicInteger(0);
+
+		return Executors.newFixedThreadPool(maxConcurrency, r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName(name + "-" + count.incrementAndGet());
+			return t;
+		});
+	}
+
+	private static ThreadFactory newVirtualThreadFactory(String name) {
+		try {
+			// Thread.ofVirtual().name(name + "-", 1).factory()
+			Object builder = OF_VIRTUAL.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1l);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Unable to create virtual thread factory", e);
+		}
+	}
+
+	private static Method findOfVirtual() {
+		try {
+			return Thread.class.getMethod("ofVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a new thread for each task, but only lets 'maxConcurrency' of them run
+	 * at once (the others wait on a fair semaphore). Suitable only for virtual
+	 * threads, for which a waiting thread costs little.
+	 */
+	static class ConcurrencyLimitedExecutor extends AbstractExecutorService {
+
+		private final ThreadFactory threadFactory;
+
+		private final Semaphore permits;
+
+		private final AtomicInteger running = new AtomicInteger(0);
+
+		private volatile boolean shutdown = false;
+
+		ConcurrencyLimitedExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+			this.threadFactory = threadFactory;
+			this.permits = new Semaphore(maxConcurrency, true);
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Executor has been shut down.");
+			}
+
+			running.incrementAndGet();
+
+			threadFactory.newThread(() -> {
+				try {
+					permits.acquire();
+					try {
+						command.run();
+					} finally {
+						permits.release();
+					}
+				} catch (InterruptedException e) {
+					/* ignore: the thread ends */
+				} finally {
+					if (running.decrementAndGet() == 0) {
+						synchronized (this) {
+							notifyAll();
+						}
+					}
+				}
+			}).start();
+		}
+
+		@Override
+		public void shutdown() {
+			shutdown = true;
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			shutdown = true;
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return shutdown && running.get() == 0;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long expireTimeInNanos = System.nanoTime() + unit.toNanos(timeout);
+
+			synchronized (this) {
+				while (!isTerminated()) {
+					long remainingInNanos = expireTimeInNanos - System.nanoTime();
+					if (remainingInNanos <= 0) {
+						return false;
+					}
+					wait((remainingInNanos + 999_999) / 1_000_000);
+				}
+			}
+			return true;
+		}
+	}
+}
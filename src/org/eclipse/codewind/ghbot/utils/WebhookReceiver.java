@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.codewind.ghbot.db.GHDatabase;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.githubapimirror.shared.json.ResourceChangeEventJson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server which receives webhook payloads, so that issue
+ * changes are processed as soon as they occur, rather than on the next poll of
+ * GHAM. Two kinds of payload are accepted on the configured path:
+ *
+ * - GitHub webhook deliveries of 'issues' and 'issue_comment' events
+ * (identified by the X-GitHub-Event header); other events are ignored.
+ *
+ * - GHAM resource change events: a ResourceChangeEventJson, or a JSON array of
+ * them.
+ *
+ * Payloads must be signed with the shared secret, in the same way as GitHub
+ * signs them: an X-Hub-Signature-256 header of 'sha256=(hex HMAC-SHA256 of the
+ * body)' (or, for older senders, X-Hub-Signature with HMAC-SHA1).
+ *
+ * Each event is de-duplicated against the processed resource event records of
+ * the database (GitHub deliveries by their X-GitHub-Delivery ID, GHAM events by
+ * their UUID, which the poll also checks), and then queued until the main loop
+ * calls drainEvents(). The same issue change may still be seen both as a GitHub
+ * delivery and as a polled GHAM event, as these have different IDs; the jobs
+ * of the main loop already tolerate an issue being processed more than once.
+ *
+ * When the queue is full, payloads are rejected with a 503, so that the sender
+ * records the failure; the poll will then pick up the events.
+ *
+ * When the bot runs as multiple instances (see LeaseManager), events of
+ * repositories that this instance does not own are acknowledged but not
+ * recorded, so that the owning instance picks them up on its next
+ * reconciliation poll.
+ *
+ * Thread safe.
+ */
+public class WebhookReceiver {
+
+	private static final int MAX_PAYLOAD_SIZE_IN_BYTES = 25 * 1024 * 1024;
+
+	/** Prefix of the resource event records of GitHub deliveries */
+	private static final String DELIVERY_PREFIX = "webhook-";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private static final Logger log = Logger.getInstance();
+
+	private final String host;
+
+	private final int port;
+
+	private final String path;
+
+	private final byte[] secret;
+
+	private final int maxPendingEvents;
+
+	private final GHDatabase db;
+
+	/** Accepts the repositories (by 'owner/repo') whose events are queued. */
+	private volatile Predicate<String> ownsRepository = e -> true;
+
+	/** Synchronize on 'this' when accessing. */
+	private HttpServer server;
+
+	/** Events received but not yet drained; synchronize on this when accessing. */
+	private final Deque<ResourceChangeEventJson> pendingEvents_synch = new ArrayDeque<>();
+
+	public WebhookReceiver(String host, int port, String path, String secret, int maxPendingEvents,
+			GHDatabase db) {
+		this.host = host;
+		this.port = port;
+		this.path = path;
+		this.secret = secret.getBytes(StandardCharsets.UTF_8);
+		this.maxPendingEvents = maxPendingEvents;
+		this.db = db;
+	}
+
+	public void setRepositoryFilter(Predicate<String> ownsRepository) {
+		this.ownsRepository = ownsRepository;
+	}
+
+	public synchronized void start() {
+		if (server != null) {
+			return;
+		}
+
+		try {
+			server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to listen for webhooks on " + host + ":" + port, e);
+		}
+
+		server.createContext(path, this::handle);
+		server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName(WebhookReceiver.class.getName());
+			return t;
+		}));
+		server.start();
+
+		log.out("Listening for webhooks on " + host + ":" + getPort() + path);
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	/** The port being listened on (which differs from the one requested, if that was 0). */
+	public synchronized int getPort() {
+		return server != null ? server.getAddress().getPort() : port;
+	}
+
+	/** Remove and return all the events received since the last call. */
+	public List<ResourceChangeEventJson> drainEvents() {
+		synchronized (pendingEvents_synch) {
+			List<ResourceChangeEventJson> result = new ArrayList<>(pendingEvents_synch);
+			pendingEvents_synch.clear();
+			return result;
+		}
+	}
+
+	/**
+	 * Wait until events are available to drain, or the timeout expires; used by the
+	 * main loop in place of sleeping between polls.
+	 */
+	public void awaitEvents(long timeoutInMsecs) {
+		long expireTimeInNanos = System.nanoTime() + TimeUnit.NANOSECONDS.convert(timeoutInMsecs, TimeUnit.MILLISECONDS);
+
+		synchronized (pendingEvents_synch) {
+			while (pendingEvents_synch.isEmpty()) {
+				long remainingInNanos = expireTimeInNanos - System.nanoTime();
+				if (remainingInNanos <= 0) {
+					return;
+				}
+				try {
+					// Round up, so as not to return before the timeout
+					pendingEvents_synch.wait((remainingInNanos + 999_999) / 1_000_000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+				respond(exchange, 405, "Only POST is supported.");
+				return;
+			}
+
+			byte[] body = readBody(exchange.getRequestBody());
+			if (body == null) {
+				respond(exchange, 413, "Payload is too large.");
+				return;
+			}
+
+			if (!isSignatureValid(exchange, body)) {
+				log.err("Rejected webhook payload with a missing or invalid signature, from "
+						+ exchange.getRemoteAddress());
+				respond(exchange, 401, "Missing or invalid signature.");
+				return;
+			}
+
+			List<ResourceChangeEventJson> events;
+			try {
+				events = parseEvents(exchange, body);
+			} catch (IOException | RuntimeException e) {
+				log.err("Rejected unparseable webhook payload: " + e);
+				respond(exchange, 400, "Unable to parse payload.");
+				return;
+			}
+
+			if (events.isEmpty()) {
+				respond(exchange, 200, "Ignored.");
+				return;
+			}
+
+			int queued = 0;
+			synchronized (pendingEvents_synch) {
+				if (pendingEvents_synch.size() + events.size() > maxPendingEvents) {
+					log.err("Rejected webhook payload, as " + pendingEvents_synch.size() + " events are pending.");
+					respond(exchange, 503, "Too many pending events.");
+					return;
+				}
+
+				for (ResourceChangeEventJson event : events) {
+					if (ownsRepository.test(event.getOwner() + "/" + event.getRepo())
+							&& db.claimResourceEvent(event.getUuid())) {
+						pendingEvents_synch.add(event);
+						queued++;
+					}
+				}
+
+				if (queued > 0) {
+					pendingEvents_synch.notifyAll();
+				}
+			}
+
+			respond(exchange, queued > 0 ? 202 : 200, queued > 0 ? "Accepted." : "Already processed.");
+
+		} catch (Exception e) {
+			// Prevent exceptions from ending the thread.
+			e.printStackTrace();
+			if (exchange.getResponseCode() == -1) {
+				respond(exchange, 500, "Internal error.");
+			}
+
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private List<ResourceChangeEventJson> parseEvents(HttpExchange exchange, byte[] body) throws IOException {
+
+		String githubEvent = exchange.getRequestHeaders().getFirst("X-GitHub-Event");
+
+		if (githubEvent == null) {
+			// GHAM resource change events
+			JsonNode root = MAPPER.readTree(body);
+			List<ResourceChangeEventJson> result = new ArrayList<>();
+			for (JsonNode node : root.isArray() ? root : Collections.singletonList(root)) {
+				ResourceChangeEventJson event = MAPPER.treeToValue(node, ResourceChangeEventJson.class);
+				if (event.getUuid() == null || event.getOwner() == null || event.getRepo() == null) {
+					throw new IllegalArgumentException("Event is missing its uuid, owner or repo.");
+				}
+				result.add(event);
+			}
+			return result;
+		}
+
+		if (!githubEvent.equals("issues") && !githubEvent.equals("issue_comment")) {
+			return Collections.emptyList(); // Including 'ping'
+		}
+
+		String deliveryId = exchange.getRequestHeaders().getFirst("X-GitHub-Delivery");
+		if (deliveryId == null || deliveryId.trim().isEmpty()) {
+			throw new IllegalArgumentException("Missing X-GitHub-Delivery header.");
+		}
+
+		JsonNode root = MAPPER.readTree(body);
+
+		ResourceChangeEventJson event = new ResourceChangeEventJson();
+		event.setUuid(DELIVERY_PREFIX + deliveryId);
+		event.setOwner(root.path("repository").path("owner").path("login").textValue());
+		event.setRepo(root.path("repository").path("name").textValue());
+		event.setIssueNumber(root.path("issue").path("number").asInt(-1));
+		event.setTime(System.currentTimeMillis());
+
+		if (event.getOwner() == null || event.getRepo() == null || event.getIssueNumber() <= 0) {
+			throw new IllegalArgumentException("Payload is missing its repository or issue.");
+		}
+
+		return Collections.singletonList(event);
+	}
+
+	private boolean isSignatureValid(HttpExchange exchange, byte[] body) throws GeneralSecurityException {
+
+		String signature = exchange.getRequestHeaders().getFirst("X-Hub-Signature-256");
+		String prefix = "sha256=";
+		String algorithm = "HmacSHA256";
+
+		if (signature == null) {
+			signature = exchange.getRequestHeaders().getFirst("X-Hub-Signature");
+			prefix = "sha1=";
+			algorithm = "HmacSHA1";
+		}
+
+		if (signature == null || !signature.startsWith(prefix)) {
+			return false;
+		}
+
+		byte[] expected = sign(algorithm, body).getBytes(StandardCharsets.US_ASCII);
+		byte[] actual = signature.substring(prefix.length()).toLowerCase().getBytes(StandardCharsets.US_ASCII);
+
+		// Constant time comparison
+		return MessageDigest.isEqual(expected, actual);
+	}
+
+	/** Returns the lower case hex HMAC of the body, using the shared secret. */
+	String sign(String algorithm, byte[] body) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(algorithm);
+		mac.init(new SecretKeySpec(secret, algorithm));
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : mac.doFinal(body)) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/** Returns null if the body is larger than MAX_PAYLOAD_SIZE_IN_BYTES. */
+	private static byte[] readBody(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		int c;
+		while ((c = is.read(buffer)) != -1) {
+			baos.write(buffer, 0, c);
+			if (baos.size() > MAX_PAYLOAD_SIZE_IN_BYTES) {
+				return null;
+			}
+		}
+		return baos.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] response = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, response.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(response);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.yaml;
+
+import static org.eclipse.codewind.ghbot.yaml.YamlUtils.assertNonEmptyInYaml;
+
+/**
+ * Optional settings for running multiple instances of the bot, which divide
+ * the repositories and the singleton jobs between them (see LeaseManager). If
+ * this section is omitted from the configuration YAML, this instance processes
+ * every repository and runs every job.
+ *
+ * So that an instance that takes over a repository knows what was already
+ * processed, the database should be shared as well (database type 'shared').
+ */
+public class YamlClusterSettings {
+
+	/** Directory shared by all instances, in which the leases are stored. */
+	String sharedStorePath;
+
+	/** Unique name of this instance; by default, the process ID and host name. */
+	String instanceId;
+
+	/**
+	 * How long a lease remains valid without being renewed: the time after which
+	 * the repositories of an instance that has died are taken over.
+	 */
+	long leaseDurationInMsecs = 30 * 1000;
+
+	public void validate() {
+		assertNonEmptyInYaml("sharedStorePath", sharedStorePath);
+
+		if (instanceId != null && (instanceId.isEmpty() || instanceId.chars().anyMatch(Character::isWhitespace))) {
+			throw new RuntimeException("Value for instanceId must be non-empty, without whitespace: " + instanceId);
+		}
+
+		if (leaseDurationInMsecs < 3000) {
+			throw new RuntimeException("Value for leaseDurationInMsecs must be at least 3000: " + leaseDurationInMsecs);
+		}
+	}
+
+	public String getSharedStorePath() {
+		return sharedStorePath;
+	}
+
+	public void setSharedStorePath(String sharedStorePath) {
+		this.sharedStorePath = sharedStorePath;
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	public void setInstanceId(String instanceId) {
+		this.instanceId = instanceId;
+	}
+
+	public long getLeaseDurationInMsecs() {
+		return leaseDurationInMsecs;
+	}
+
+	public void setLeaseDurationInMsecs(long leaseDurationInMsecs) {
+		this.leaseDurationInMsecs = leaseDurationInMsecs;
+	}
+
+}
@@ -30,6 +30,16 @@ public class YamlCredentialsRoot {
 
 	String databasePath;
 
+	YamlDatabaseSettings database;
+
+	YamlPollingSettings polling;
+
+	YamlJobSettings jobs;
+
+	YamlWebhookSettings webhook;
+
+	YamlClusterSettings cluster;
+
 	String slackWebhook;
 
 	String authFile;
@@ -56,6 +66,26 @@ public void validate() {
 
 		assertNonEmptyInYaml("databasePath", databasePath);
 
+		if (database != null) {
+			database.validate();
+		}
+
+		if (polling != null) {
+			polling.validate();
+		}
+
+		if (jobs != null) {
+			jobs.validate();
+		}
+
+		if (webhook != null) {
+			webhook.validate();
+		}
+
+		if (cluster != null) {
+			cluster.validate();
+		}
+
 		if (gham == null) {
 			throw new RuntimeException("Required GHAM values were not specified.");
 		} else {
@@ -98,6 +128,46 @@ public void setDatabasePath(String databasePath) {
 		this.databasePath = databasePath;
 	}
 
+	public YamlDatabaseSettings getDatabase() {
+		return database;
+	}
+
+	public void setDatabase(YamlDatabaseSettings database) {
+		this.database = database;
+	}
+
+	public YamlPollingSettings getPolling() {
+		return polling;
+	}
+
+	public void setPolling(YamlPollingSettings polling) {
+		this.polling = polling;
+	}
+
+	public YamlJobSettings getJobs() {
+		return jobs;
+	}
+
+	public void setJobs(YamlJobSettings jobs) {
+		this.jobs = jobs;
+	}
+
+	public YamlWebhookSettings getWebhook() {
+		return webhook;
+	}
+
+	public void setWebhook(YamlWebhookSettings webhook) {
+		this.webhook = webhook;
+	}
+
+	public YamlClusterSettings getCluster() {
+		return cluster;
+	}
+
+	public void setCluster(YamlClusterSettings cluster) {
+		this.cluster = cluster;
+	}
+
 	public String getSlackWebhook() {
 		return slackWebhook;
 	}
@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.yaml;
+
+import org.eclipse.codewind.ghbot.db.KVStoreMigration;
+import org.eclipse.codewind.ghbot.db.ValueCodec;
+
+/**
+ * Optional tuning values for the database stored under 'databasePath'. If this
+ * section is omitted from the configuration YAML, the original one-file-per-key
+ * store is used.
+ */
+public class YamlDatabaseSettings {
+
+	public static final String TYPE_FILE = KVStoreMigration.TYPE_FILE;
+	public static final String TYPE_LOG = KVStoreMigration.TYPE_LOG;
+	public static final String TYPE_LSM = KVStoreMigration.TYPE_LSM;
+	public static final String TYPE_SHARED = KVStoreMigration.TYPE_SHARED;
+
+	/**
+	 * Either 'file' (one file per key), 'log' (append-only segment files), 'lsm'
+	 * (sorted table files, see LsmKVStore) or 'shared' (one file per key, in a
+	 * directory that multiple bot instances may share, see SharedFileKVStore). If
+	 * this is changed on an existing database, the previous store's contents are
+	 * imported on the next start (see KVStoreMigration).
+	 */
+	String type = TYPE_FILE;
+
+	/**
+	 * 'log' and 'lsm' types only: how often to fsync the active segment (or WAL); a
+	 * value of 0 will fsync after every write.
+	 */
+	long syncIntervalInMsecs = 1000;
+
+	/** 'log' type only: size at which a new segment file is started. */
+	long maxSegmentSizeInBytes = 64 * 1024 * 1024;
+
+	/** 'lsm' type only: size at which the in-memory table is written to a file. */
+	long memtableSizeInBytes = 4 * 1024 * 1024;
+
+	/**
+	 * 'file' type only: read values through a FileChannel (memory-mapping large
+	 * values), rather than a FileInputStream.
+	 */
+	boolean mappedReads = false;
+
+	/**
+	 * 'ephemeralDBWrites' feature flag only: if set, the initial contents of the
+	 * database are loaded from this snapshot file, if it exists; if it does not
+	 * exist, it is created from the database (delete it to reload the database).
+	 */
+	String ephemeralSnapshotFile = null;
+
+	/**
+	 * If set, the database is compacted and a snapshot of it is written to this
+	 * file (see KVSnapshotThread) every 'snapshotIntervalInMsecs'.
+	 */
+	String snapshotFile = null;
+
+	/** 'snapshotFile' only: how often to write the snapshot. */
+	long snapshotIntervalInMsecs = 6 * 60 * 60 * 1000;
+
+	/**
+	 * 'snapshotFile' only: if the database is empty at startup (for example, on a
+	 * new node), restore its contents from the snapshot file, if it exists.
+	 */
+	boolean restoreFromSnapshot = false;
+
+	/** Maximum number of concurrent reads when loading the entire database. */
+	int bulkLoadParallelism = 8;
+
+	/**
+	 * Format of the values written to the database: 'text' (decimal numbers and
+	 * JSON) or 'binary' (compact varint encoding). Values in either format can
+	 * always be read, so this can be changed on an existing database.
+	 */
+	String valueCodec = "text";
+
+	/** Maximum number of keys held by the in-memory read cache. */
+	int cacheMaxEntries = 20000;
+
+	/**
+	 * Maximum estimated size of the keys and values held by the in-memory read
+	 * cache; 0 to bound the cache only by number of entries.
+	 */
+	long cacheMaxSizeInBytes = 0;
+
+	/** Number of processed resource events the Bloom filter is sized for. */
+	long resourceEventFilterExpectedEntries = 2_000_000;
+
+	/** Acceptable false positive rate of the processed resource event filter. */
+	double resourceEventFilterFalsePositiveRate = 0.01;
+
+	/**
+	 * If true, database writes are buffered in memory and written in batches (see
+	 * WriteBehindKVStore).
+	 */
+	boolean writeBehind = false;
+
+	/** 'writeBehind' only: maximum time a write is buffered before it is flushed. */
+	long writeBehindFlushIntervalInMsecs = 5000;
+
+	/** 'writeBehind' only: number of buffered keys that triggers a flush. */
+	int writeBehindBatchSize = 500;
+
+	/**
+	 * 'writeBehind' only: maximum number of buffered keys; once reached, writers
+	 * flush the buffer themselves.
+	 */
+	int writeBehindMaxBufferedKeys = 10000;
+
+	/** How often expired keys are removed from the database. */
+	long expirySliceIntervalInMsecs = 5000;
+
+	/** Maximum number of expired keys removed each 'expirySliceIntervalInMsecs'. */
+	int expiryMaxKeysPerSlice = 200;
+
+	public void validate() {
+		if (type == null || !(type.equalsIgnoreCase(TYPE_FILE) || type.equalsIgnoreCase(TYPE_LOG)
+				|| type.equalsIgnoreCase(TYPE_LSM) || type.equalsIgnoreCase(TYPE_SHARED))) {
+			throw new RuntimeException("Unrecognized database type: " + type);
+		}
+
+		if (syncIntervalInMsecs < 0) {
+			throw new RuntimeException("Value for syncIntervalInMsecs must not be negative: " + syncIntervalInMsecs);
+		}
+
+		if (maxSegmentSizeInBytes <= 0) {
+			throw new RuntimeException("Value for maxSegmentSizeInBytes must be positive: " + maxSegmentSizeInBytes);
+		}
+
+		if (memtableSizeInBytes <= 0) {
+			throw new RuntimeException("Value for memtableSizeInBytes must be positive: " + memtableSizeInBytes);
+		}
+
+		if (valueCodec == null
+				|| !(valueCodec.equalsIgnoreCase(ValueCodec.TEXT) || valueCodec.equalsIgnoreCase(ValueCodec.BINARY))) {
+			throw new RuntimeException("Unrecognized value codec: " + valueCodec);
+		}
+
+		if (snapshotIntervalInMsecs <= 0) {
+			throw new RuntimeException("Value for snapshotIntervalInMsecs must be positive: " + snapshotIntervalInMsecs);
+		}
+
+		if (restoreFromSnapshot && snapshotFile == null) {
+			throw new RuntimeException("Value for snapshotFile must be set when restoreFromSnapshot is true.");
+		}
+
+		if (bulkLoadParallelism <= 0) {
+			throw new RuntimeException("Value for bulkLoadParallelism must be positive: " + bulkLoadParallelism);
+		}
+
+		if (cacheMaxEntries < 2) {
+			throw new RuntimeException("Value for cacheMaxEntries must be at least 2: " + cacheMaxEntries);
+		}
+
+		if (cacheMaxSizeInBytes < 0) {
+			throw new RuntimeException("Value for cacheMaxSizeInBytes must not be negative: " + cacheMaxSizeInBytes);
+		}
+
+		if (resourceEventFilterExpectedEntries <= 0) {
+			throw new RuntimeException("Value for resourceEventFilterExpectedEntries must be positive: "
+					+ resourceEventFilterExpectedEntries);
+		}
+
+		if (resourceEventFilterFalsePositiveRate <= 0 || resourceEventFilterFalsePositiveRate >= 1) {
+			throw new RuntimeException("Value for resourceEventFilterFalsePositiveRate must be between 0 and 1: "
+					+ resourceEventFilterFalsePositiveRate);
+		}
+
+		if (writeBehindFlushIntervalInMsecs <= 0) {
+			throw new RuntimeException("Value for writeBehindFlushIntervalInMsecs must be positive: "
+					+ writeBehindFlushIntervalInMsecs);
+		}
+
+		if (writeBehindBatchSize <= 0) {
+			throw new RuntimeException("Value for writeBehindBatchSize must be positive: " + writeBehindBatchSize);
+		}
+
+		if (writeBehindMaxBufferedKeys < writeBehindBatchSize) {
+			throw new RuntimeException("Value for writeBehindMaxBufferedKeys must be at least writeBehindBatchSize: "
+					+ writeBehindMaxBufferedKeys);
+		}
+
+		if (expirySliceIntervalInMsecs <= 0) {
+			throw new RuntimeException(
+					"Value for expirySliceIntervalInMsecs must be positive: " + expirySliceIntervalInMsecs);
+		}
+
+		if (expiryMaxKeysPerSlice <= 0) {
+			throw new RuntimeException("Value for expiryMaxKeysPerSlice must be positive: " + expiryMaxKeysPerSlice);
+		}
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public long getSyncIntervalInMsecs() {
+		return syncIntervalInMsecs;
+	}
+
+	public void setSyncIntervalInMsecs(long syncIntervalInMsecs) {
+		this.syncIntervalInMsecs = syncIntervalInMsecs;
+	}
+
+	public long getMaxSegmentSizeInBytes() {
+		return maxSegmentSizeInBytes;
+	}
+
+	public void setMaxSegmentSizeInBytes(long maxSegmentSizeInBytes) {
+		this.maxSegmentSizeInBytes = maxSegmentSizeInBytes;
+	}
+
+	public long getMemtableSizeInBytes() {
+		return memtableSizeInBytes;
+	}
+
+	public void setMemtableSizeInBytes(long memtableSizeInBytes) {
+		this.memtableSizeInBytes = memtableSizeInBytes;
+	}
+
+	public boolean isMappedReads() {
+		return mappedReads;
+	}
+
+	public void setMappedReads(boolean mappedReads) {
+		this.mappedReads = mappedReads;
+	}
+
+	public String getEphemeralSnapshotFile() {
+		return ephemeralSnapshotFile;
+	}
+
+	public void setEphemeralSnapshotFile(String ephemeralSnapshotFile) {
+		this.ephemeralSnapshotFile = ephemeralSnapshotFile;
+	}
+
+	public String getValueCodec() {
+		return valueCodec;
+	}
+
+	public void setValueCodec(String valueCodec) {
+		this.valueCodec = valueCodec;
+	}
+
+	public String getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(String snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	public long getSnapshotIntervalInMsecs() {
+		return snapshotIntervalInMsecs;
+	}
+
+	public void setSnapshotIntervalInMsecs(long snapshotIntervalInMsecs) {
+		this.snapshotIntervalInMsecs = snapshotIntervalInMsecs;
+	}
+
+	public boolean isRestoreFromSnapshot() {
+		return restoreFromSnapshot;
+	}
+
+	public void setRestoreFromSnapshot(boolean restoreFromSnapshot) {
+		this.restoreFromSnapshot = restoreFromSnapshot;
+	}
+
+	public int getBulkLoadParallelism() {
+		return bulkLoadParallelism;
+	}
+
+	public void setBulkLoadParallelism(int bulkLoadParallelism) {
+		this.bulkLoadParallelism = bulkLoadParallelism;
+	}
+
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	public void setCacheMaxEntries(int cacheMaxEntries) {
+		this.cacheMaxEntries = cacheMaxEntries;
+	}
+
+	public long getCacheMaxSizeInBytes() {
+		return cacheMaxSizeInBytes;
+	}
+
+	public void setCacheMaxSizeInBytes(long cacheMaxSizeInBytes) {
+		this.cacheMaxSizeInBytes = cacheMaxSizeInBytes;
+	}
+
+	public long getResourceEventFilterExpectedEntries() {
+		return resourceEventFilterExpectedEntries;
+	}
+
+	public void setResourceEventFilterExpectedEntries(long resourceEventFilterExpectedEntries) {
+		this.resourceEventFilterExpectedEntries = resourceEventFilterExpectedEntries;
+	}
+
+	public double getResourceEventFilterFalsePositiveRate() {
+		return resourceEventFilterFalsePositiveRate;
+	}
+
+	public void setResourceEventFilterFalsePositiveRate(double resourceEventFilterFalsePositiveRate) {
+		this.resourceEventFilterFalsePositiveRate = resourceEventFilterFalsePositiveRate;
+	}
+
+	public boolean isWriteBehind() {
+		return writeBehind;
+	}
+
+	public void setWriteBehind(boolean writeBehind) {
+		this.writeBehind = writeBehind;
+	}
+
+	public long getWriteBehindFlushIntervalInMsecs() {
+		return writeBehindFlushIntervalInMsecs;
+	}
+
+	public void setWriteBehindFlushIntervalInMsecs(long writeBehindFlushIntervalInMsecs) {
+		this.writeBehindFlushIntervalInMsecs = writeBehindFlushIntervalInMsecs;
+	}
+
+	public int getWriteBehindBatchSize() {
+		return writeBehindBatchSize;
+	}
+
+	public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+		this.writeBehindBatchSize = writeBehindBatchSize;
+	}
+
+	public int getWriteBehindMaxBufferedKeys() {
+		return writeBehindMaxBufferedKeys;
+	}
+
+	public void setWriteBehindMaxBufferedKeys(int writeBehindMaxBufferedKeys) {
+		this.writeBehindMaxBufferedKeys = writeBehindMaxBufferedKeys;
+	}
+
+	public long getExpirySliceIntervalInMsecs() {
+		return expirySliceIntervalInMsecs;
+	}
+
+	public void setExpirySliceIntervalInMsecs(long expirySliceIntervalInMsecs) {
+		this.expirySliceIntervalInMsecs = expirySliceIntervalInMsecs;
+	}
+
+	public int getExpiryMaxKeysPerSlice() {
+		return expiryMaxKeysPerSlice;
+	}
+
+	public void setExpiryMaxKeysPerSlice(int expiryMaxKeysPerSlice) {
+		this.expiryMaxKeysPerSlice = expiryMaxKeysPerSlice;
+	}
+
+}
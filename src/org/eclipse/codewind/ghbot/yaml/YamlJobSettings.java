@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.yaml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.codewind.ghbot.credentials.GitHubCredentials;
+import org.eclipse.codewind.ghbot.utils.ThreadMode;
+
+/**
+ * Optional settings of the jobs of the main loop (see JobEngine). If this
+ * section is omitted from the configuration YAML, the defaults below are used.
+ */
+public class YamlJobSettings {
+
+	/** Maximum number of jobs that run at the same time. */
+	int threads = 4;
+
+	/** Maximum number of repositories whose events are processed at the same time. */
+	int repoParallelism = 4;
+
+	/**
+	 * Kind of thread used by the jobs, the repository pipeline and per-issue
+	 * backend calls: 'platform', or 'virtual' (requires JDK 21 or later).
+	 */
+	String threadMode = "platform";
+
+	/** Maximum number of per-issue backend calls of a job that run at the same time. */
+	int ioConcurrency = 16;
+
+	/**
+	 * Maximum number of GHAM calls of the jobs (for example, the bulk issue fetch
+	 * of each repository with new events) that run at the same time.
+	 */
+	int ghamConcurrency = GitHubCredentials.DEFAULT_GHAM_CONCURRENCY;
+
+	/** Timeout of any job that is not listed in 'timeoutsInMsecs'. */
+	long defaultTimeoutInMsecs = 10 * 60 * 1000;
+
+	/** Timeout of individual jobs, by job name (for example, 'zenhub-job'). */
+	Map<String, Long> timeoutsInMsecs = new HashMap<>();
+
+	/** How often the per-job and per-repository statistics are logged. */
+	long statisticsIntervalInMsecs = 60 * 60 * 1000;
+
+	public void validate() {
+		if (threads <= 0) {
+			throw new RuntimeException("Value for threads must be positive: " + threads);
+		}
+
+		if (repoParallelism <= 0) {
+			throw new RuntimeException("Value for repoParallelism must be positive: " + repoParallelism);
+		}
+
+		if (threadMode == null || !(threadMode.equalsIgnoreCase(ThreadMode.PLATFORM.name())
+				|| threadMode.equalsIgnoreCase(ThreadMode.VIRTUAL.name()))) {
+			throw new RuntimeException("Unrecognized thread mode: " + threadMode);
+		}
+
+		if (ioConcurrency <= 0) {
+			throw new RuntimeException("Value for ioConcurrency must be positive: " + ioConcurrency);
+		}
+
+		if (ghamConcurrency <= 0) {
+			throw new RuntimeException("Value for ghamConcurrency must be positive: " + ghamConcurrency);
+		}
+
+		if (defaultTimeoutInMsecs <= 0) {
+			throw new RuntimeException("Value for defaultTimeoutInMsecs must be positive: " + defaultTimeoutInMsecs);
+		}
+
+		if (timeoutsInMsecs != null) {
+			timeoutsInMsecs.forEach((job, timeout) -> {
+				if (timeout == null || timeout <= 0) {
+					throw new RuntimeException("Timeout for job " + job + " must be positive: " + timeout);
+				}
+			});
+		}
+
+		if (statisticsIntervalInMsecs <= 0) {
+			throw new RuntimeException(
+					"Value for statisticsIntervalInMsecs must be positive: " + statisticsIntervalInMsecs);
+		}
+	}
+
+	/** Timeout of the given job: its entry in 'timeoutsInMsecs', if any, otherwise the default. */
+	public long getTimeoutInMsecs(String jobName) {
+		Long timeout = timeoutsInMsecs != null ? timeoutsInMsecs.get(jobName) : null;
+		return timeout != null ? timeout : defaultTimeoutInMsecs;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getRepoParallelism() {
+		return repoParallelism;
+	}
+
+	public void setRepoParallelism(int repoParallelism) {
+		this.repoParallelism = repoParallelism;
+	}
+
+	public String getThreadMode() {
+		return threadMode;
+	}
+
+	public void setThreadMode(String threadMode) {
+		this.threadMode = threadMode;
+	}
+
+	public int getIoConcurrency() {
+		return ioConcurrency;
+	}
+
+	public void setIoConcurrency(int ioConcurrency) {
+		this.ioConcurrency = ioConcurrency;
+	}
+
+	public int getGhamConcurrency() {
+		return ghamConcurrency;
+	}
+
+	public void setGhamConcurrency(int ghamConcurrency) {
+		this.ghamConcurrency = ghamConcurrency;
+	}
+
+	public long getDefaultTimeoutInMsecs() {
+		return defaultTimeoutInMsecs;
+	}
+
+	public void setDefaultTimeoutInMsecs(long defaultTimeoutInMsecs) {
+		this.defaultTimeoutInMsecs = defaultTimeoutInMsecs;
+	}
+
+	public Map<String, Long> getTimeoutsInMsecs() {
+		return timeoutsInMsecs;
+	}
+
+	public void setTimeoutsInMsecs(Map<String, Long> timeoutsInMsecs) {
+		this.timeoutsInMsecs = timeoutsInMsecs;
+	}
+
+	public long getStatisticsIntervalInMsecs() {
+		return statisticsIntervalInMsecs;
+	}
+
+	public void setStatisticsIntervalInMsecs(long statisticsIntervalInMsecs) {
+		this.statisticsIntervalInMsecs = statisticsIntervalInMsecs;
+	}
+
+}
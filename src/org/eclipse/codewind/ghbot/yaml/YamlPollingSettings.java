@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.yaml;
+
+/**
+ * Optional bounds of the interval between polls for new resource events (see
+ * AdaptivePollScheduler), and settings of the poll cursor (see
+ * ResourceEventPoller). If this section is omitted from the configuration
+ * YAML, the defaults below are used.
+ */
+public class YamlPollingSettings {
+
+	/** Interval used while events are arriving. */
+	long minIntervalInMsecs = 5 * 1000;
+
+	/** Interval reached after a period with no events (or with backend errors). */
+	long maxIntervalInMsecs = 60 * 1000;
+
+	/** Factor by which the interval grows after each poll that returns no events. */
+	double idleBackoffMultiplier = 1.5;
+
+	/** How often the scheduler statistics are logged. */
+	long statisticsIntervalInMsecs = 60 * 60 * 1000;
+
+	/**
+	 * How far before the newest event seen each poll starts, to allow for events
+	 * recorded out of order, or clock skew.
+	 */
+	long cursorOverlapInMsecs = 2 * 60 * 1000;
+
+	/** How often a poll requests the events of the last 4 days, rather than those since the cursor. */
+	long reconciliationIntervalInMsecs = 60 * 60 * 1000;
+
+	public void validate() {
+		if (minIntervalInMsecs <= 0) {
+			throw new RuntimeException("Value for minIntervalInMsecs must be positive: " + minIntervalInMsecs);
+		}
+
+		if (maxIntervalInMsecs < minIntervalInMsecs) {
+			throw new RuntimeException(
+					"Value for maxIntervalInMsecs must be at least minIntervalInMsecs: " + maxIntervalInMsecs);
+		}
+
+		if (idleBackoffMultiplier < 1) {
+			throw new RuntimeException("Value for idleBackoffMultiplier must be at least 1: " + idleBackoffMultiplier);
+		}
+
+		if (statisticsIntervalInMsecs <= 0) {
+			throw new RuntimeException(
+					"Value for statisticsIntervalInMsecs must be positive: " + statisticsIntervalInMsecs);
+		}
+
+		if (cursorOverlapInMsecs < 0) {
+			throw new RuntimeException("Value for cursorOverlapInMsecs must not be negative: " + cursorOverlapInMsecs);
+		}
+
+		if (reconciliationIntervalInMsecs <= 0) {
+			throw new RuntimeException(
+					"Value for reconciliationIntervalInMsecs must be positive: " + reconciliationIntervalInMsecs);
+		}
+	}
+
+	public long getMinIntervalInMsecs() {
+		return minIntervalInMsecs;
+	}
+
+	public void setMinIntervalInMsecs(long minIntervalInMsecs) {
+		this.minIntervalInMsecs = minIntervalInMsecs;
+	}
+
+	public long getMaxIntervalInMsecs() {
+		return maxIntervalInMsecs;
+	}
+
+	public void setMaxIntervalInMsecs(long maxIntervalInMsecs) {
+		this.maxIntervalInMsecs = maxIntervalInMsecs;
+	}
+
+	public double getIdleBackoffMultiplier() {
+		return idleBackoffMultiplier;
+	}
+
+	public void setIdleBackoffMultiplier(double idleBackoffMultiplier) {
+		this.idleBackoffMultiplier = idleBackoffMultiplier;
+	}
+
+	public long getStatisticsIntervalInMsecs() {
+		return statisticsIntervalInMsecs;
+	}
+
+	public void setStatisticsIntervalInMsecs(long statisticsIntervalInMsecs) {
+		this.statisticsIntervalInMsecs = statisticsIntervalInMsecs;
+	}
+
+	public long getCursorOverlapInMsecs() {
+		return cursorOverlapInMsecs;
+	}
+
+	public void setCursorOverlapInMsecs(long cursorOverlapInMsecs) {
+		this.cursorOverlapInMsecs = cursorOverlapInMsecs;
+	}
+
+	public long getReconciliationIntervalInMsecs() {
+		return reconciliationIntervalInMsecs;
+	}
+
+	public void setReconciliationIntervalInMsecs(long reconciliationIntervalInMsecs) {
+		this.reconciliationIntervalInMsecs = reconciliationIntervalInMsecs;
+	}
+
+}
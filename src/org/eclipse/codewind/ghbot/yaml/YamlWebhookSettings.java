@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.yaml;
+
+import static org.eclipse.codewind.ghbot.yaml.YamlUtils.assertNonEmptyInYaml;
+
+/**
+ * Optional settings of the webhook receiver (see WebhookReceiver). If this
+ * section is omitted from the configuration YAML, the receiver is not started,
+ * and resource events are only polled for.
+ */
+public class YamlWebhookSettings {
+
+	/** Address to listen on; by default only local connections are accepted. */
+	String host = "127.0.0.1";
+
+	int port = 9090;
+
+	String path = "/webhook";
+
+	/** The secret used to sign payloads, as configured on the webhook. */
+	String secret;
+
+	/**
+	 * How often GHAM is also polled (from the poll cursor, see
+	 * ResourceEventPoller), to catch any events whose delivery failed.
+	 */
+	long reconciliationIntervalInMsecs = 5 * 60 * 1000;
+
+	/** Events received beyond this many, before the main loop consumes them, are rejected. */
+	int maxPendingEvents = 10000;
+
+	public void validate() {
+		assertNonEmptyInYaml("secret", secret);
+		assertNonEmptyInYaml("host", host);
+		assertNonEmptyInYaml("path", path);
+
+		if (port < 0 || port > 65535) {
+			throw new RuntimeException("Value for port is not a valid port: " + port);
+		}
+
+		if (!path.startsWith("/")) {
+			throw new RuntimeException("Value for path must start with '/': " + path);
+		}
+
+		if (reconciliationIntervalInMsecs <= 0) {
+			throw new RuntimeException(
+					"Value for reconciliationIntervalInMsecs must be positive: " + reconciliationIntervalInMsecs);
+		}
+
+		if (maxPendingEvents <= 0) {
+			throw new RuntimeException("Value for maxPendingEvents must be positive: " + maxPendingEvents);
+		}
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public String getSecret() {
+		return secret;
+	}
+
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	public long getReconciliationIntervalInMsecs() {
+		return reconciliationIntervalInMsecs;
+	}
+
+	public void setReconciliationIntervalInMsecs(long reconciliationIntervalInMsecs) {
+		this.reconciliationIntervalInMsecs = reconciliationIntervalInMsecs;
+	}
+
+	public int getMaxPendingEvents() {
+		return maxPendingEvents;
+	}
+
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		this.maxPendingEvents = maxPendingEvents;
+	}
+
+}
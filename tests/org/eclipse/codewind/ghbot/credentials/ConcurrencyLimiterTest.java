@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.credentials;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Verify that ConcurrencyLimiter limits the calls that run at once, and
+ * records their latency and failures.
+ */
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void testLimit() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2);
+
+		AtomicInteger running = new AtomicInteger(0);
+		AtomicInteger maxRunning = new AtomicInteger(0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int x = 0; x < 20; x++) {
+			executor.execute(() -> limiter.call(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				Thread.sleep(10);
+				running.decrementAndGet();
+				return null;
+			}));
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertTrue("" + maxRunning.get(), maxRunning.get() <= 2);
+
+		ConcurrencyLimiter.CallStatistics stats = limiter.getStatistics();
+		assertEquals(20, stats.getCalls());
+		assertEquals(0, stats.getFailures());
+		assertTrue(stats.toString(), stats.getAverageLatencyInMsecs() >= 9);
+		assertTrue(stats.toString(), stats.getMaxWaitInMsecs() > 0);
+	}
+
+	@Test
+	public void testFailures() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1);
+
+		assertEquals("result", limiter.call(() -> "result"));
+
+		try {
+			limiter.call(() -> {
+				throw new IOException("Expected failure");
+			});
+			throw new AssertionError("call() should throw");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		try {
+			limiter.call(() -> {
+				throw new IllegalStateException("Expected failure");
+			});
+			throw new AssertionError("call() should throw");
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+
+		assertEquals(3, limiter.getStatistics().getCalls());
+		assertEquals(2, limiter.getStatistics().getFailures());
+
+		// The permit of a failed call is released
+		assertEquals("result", limiter.call(() -> "result"));
+	}
+}
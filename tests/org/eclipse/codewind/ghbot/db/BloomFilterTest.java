@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Verify the Bloom filter never returns a false negative, and that the false
+ * positive rate is close to the requested rate.
+ */
+public class BloomFilterTest {
+
+	@Test
+	public void testFalsePositiveRate() {
+
+		int entries = 100000;
+
+		BloomFilter filter = new BloomFilter(entries, 0.01);
+
+		String[] added = new String[entries];
+		for (int x = 0; x < entries; x++) {
+			added[x] = UUID.randomUUID().toString();
+			filter.put(added[x]);
+		}
+
+		for (String str : added) {
+			assertTrue(filter.mightContain(str));
+		}
+
+		int falsePositives = 0;
+		for (int x = 0; x < entries; x++) {
+			if (filter.mightContain(UUID.randomUUID().toString())) {
+				falsePositives++;
+			}
+		}
+
+		// Allow some variance above the requested 1%
+		assertTrue("False positives: " + falsePositives, falsePositives < entries * 0.02);
+
+		assertFalse(filter.isOverCapacity());
+		filter.put("one more");
+		assertTrue(filter.isOverCapacity());
+	}
+
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Verify that the cache stays within its budget, and that frequently read keys
+ * are not flushed out by a large number of keys that are read only once.
+ */
+public class BoundedKVCacheTest {
+
+	@Test
+	public void testEntryBudget() {
+		BoundedKVCache cache = new BoundedKVCache(100, 0);
+
+		for (int x = 0; x < 1000; x++) {
+			cache.put("key-" + x, "value");
+		}
+
+		CacheStatistics stats = cache.getStatistics();
+		assertTrue("Too many entries: " + stats, stats.getEntries() <= 100);
+		assertEquals(900, stats.getEvictions() + stats.getRejections());
+	}
+
+	@Test
+	public void testFrequentKeysSurviveScan() {
+		BoundedKVCache cache = new BoundedKVCache(100, 0);
+
+		for (int x = 0; x < 50; x++) {
+			cache.put("hot-" + x, "value");
+		}
+
+		// The hot keys are read on every iteration of the bot, while each iteration
+		// also reads a large number of cold keys exactly once.
+		for (int iteration = 0; iteration < 20; iteration++) {
+			for (int x = 0; x < 50; x++) {
+				if (cache.get("hot-" + x) == null) {
+					cache.put("hot-" + x, "value");
+				}
+			}
+
+			for (int x = 0; x < 250; x++) {
+				String key = "cold-" + iteration + "-" + x;
+				if (cache.get(key) == null) {
+					cache.put(key, "value");
+				}
+			}
+		}
+
+		for (int x = 0; x < 50; x++) {
+			assertNotNull("Hot key was evicted: " + x, cache.get("hot-" + x));
+		}
+	}
+
+	@Test
+	public void testWeightBudget() {
+		BoundedKVCache cache = new BoundedKVCache(1000, 10 * 1024);
+
+		for (int x = 0; x < 1000; x++) {
+			cache.put("key-" + x, "0123456789012345678901234567890123456789");
+		}
+
+		CacheStatistics stats = cache.getStatistics();
+		assertTrue("Over budget: " + stats, stats.getWeightInBytes() <= 10 * 1024);
+	}
+
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Verify that EphemeralWritesKVStore loads the entire inner database (in
+ * parallel chunks), and that the snapshot file is created and then used in
+ * place of the inner database.
+ */
+public class EphemeralWritesKVStoreTest {
+
+	@Test
+	public void testBulkLoadAndSnapshot() throws IOException {
+		File dir = Files.createTempDirectory("ephemeral-kv-store").toFile();
+
+		FileKVStore inner = new FileKVStore(dir);
+		for (int x = 0; x < 2500; x++) {
+			inner.persistString("resource-event-" + x, "" + x);
+		}
+
+		File snapshotFile = new File(dir, "snapshot.bin");
+
+		EphemeralWritesKVStore store = new EphemeralWritesKVStore(inner, snapshotFile, 4);
+		assertEquals(2500, store.getKeysByPrefix("").size());
+		assertEquals("1234", store.getString("resource-event-1234").get());
+		assertTrue(snapshotFile.exists());
+
+		// Changes to the inner database are not seen when loading from the snapshot
+		inner.persistString("resource-event-new", "1");
+		store = new EphemeralWritesKVStore(inner, snapshotFile, 4);
+		assertEquals(2500, store.getKeysByPrefix("").size());
+		assertFalse(store.getString("resource-event-new").isPresent());
+		assertEquals("2499", store.getString("resource-event-2499").get());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testTruncatedSnapshotIsRejected() throws IOException {
+		File dir = Files.createTempDirectory("ephemeral-kv-store").toFile();
+
+		FileKVStore inner = new FileKVStore(dir);
+		inner.persistString("resource-event-1", "1");
+		inner.persistString("resource-event-2", "2");
+
+		File snapshotFile = new File(dir, "snapshot.bin");
+		KVSnapshot.write(inner, snapshotFile);
+
+		try (RandomAccessFile raf = new RandomAccessFile(snapshotFile, "rw")) {
+			raf.setLength(raf.length() - 4);
+		}
+
+		new EphemeralWritesKVStore(inner, snapshotFile, 4);
+	}
+}
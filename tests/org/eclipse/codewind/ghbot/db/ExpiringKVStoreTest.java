@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Verify that ExpiringKVStore removes keys once their bucket has ended, in
+ * slices, and keeps keys that were written again without (or with a later)
+ * expiry.
+ */
+public class ExpiringKVStoreTest {
+
+	private static final long BUCKET = ExpiringKVStore.BUCKET_SIZE_IN_MSECS;
+
+	@Test
+	public void testExpiry() throws IOException {
+		FileKVStore inner = new FileKVStore(Files.createTempDirectory("expiring-kv-store").toFile());
+		ExpiringKVStore store = new ExpiringKVStore(inner, 0, 100);
+
+		long now = 1000 * BUCKET;
+
+		store.persistString("resource-event-a", "1", now + 1);
+		store.persistString("resource-event-b", "1", now + 5 * BUCKET);
+
+		// Written again without an expiry
+		store.persistString("resource-event-c", "1", now + 1);
+		store.persistString("resource-event-c", "2");
+
+		// Written again with a later expiry
+		store.persistString("last-command-timestamp-d", "1", now + 1);
+		store.persistString("last-command-timestamp-d", "2", now + 5 * BUCKET);
+
+		// The bucket has not ended
+		assertEquals(0, store.expireSlice(now + 2));
+		assertTrue(store.getString("resource-event-a").isPresent());
+
+		assertEquals(1, store.expireSlice(now + 2 * BUCKET));
+		assertFalse(store.getString("resource-event-a").isPresent());
+		assertTrue(store.getString("resource-event-b").isPresent());
+		assertEquals("2", store.getString("resource-event-c").get());
+		assertEquals("2", store.getString("last-command-timestamp-d").get());
+
+		assertEquals(2, store.expireSlice(now + 10 * BUCKET));
+		assertFalse(store.getString("resource-event-b").isPresent());
+		assertFalse(store.getString("last-command-timestamp-d").isPresent());
+
+		// Only the key without an expiry remains; the expiry index is empty
+		assertEquals(1, inner.getKeysByPrefix("").size());
+		assertEquals(3, store.getKeysExpired());
+	}
+
+	@Test
+	public void testOneRecordPerKey() throws IOException {
+		FileKVStore inner = new FileKVStore(Files.createTempDirectory("expiring-kv-store").toFile());
+		ExpiringKVStore store = new ExpiringKVStore(inner, 0, 100);
+
+		for (int x = 0; x < 10; x++) {
+			store.persistString("resource-event-" + x, "1", BUCKET + x);
+		}
+
+		// One record per key, plus the record of their (shared) bucket
+		assertEquals(11, inner.getKeysByPrefix("").size());
+		assertEquals(1, inner.getKeysByPrefix(ExpiringKVStore.PREFIX_EXPIRY_INDEX).size());
+
+		// The expire time is not visible to readers
+		assertEquals("1", store.getString("resource-event-0").get());
+		assertEquals("1", store.multiGet(Arrays.asList("resource-event-1")).get("resource-event-1"));
+		assertEquals("1", store.scanPrefix("resource-event-2", null, 1).getEntries().get(0).getValue());
+		assertTrue(store.compareAndSet("resource-event-3", "1", "2"));
+		assertEquals("2", store.getString("resource-event-3").get());
+
+		assertEquals(9, store.expireSlice(2 * BUCKET));
+		assertEquals(Arrays.asList("resource-event-3"), inner.getKeysByPrefix(""));
+	}
+
+	@Test
+	public void testSlicesAreBounded() throws IOException {
+		FileKVStore inner = new FileKVStore(Files.createTempDirectory("expiring-kv-store").toFile());
+		ExpiringKVStore store = new ExpiringKVStore(inner, 0, 10);
+
+		for (int x = 0; x < 25; x++) {
+			store.persistString("resource-event-" + x, "1", x);
+		}
+
+		assertEquals(10, store.expireSlice(10 * BUCKET));
+		assertEquals(10, store.expireSlice(10 * BUCKET));
+		assertEquals(5, store.expireSlice(10 * BUCKET));
+		assertEquals(0, store.expireSlice(10 * BUCKET));
+		assertEquals(0, inner.getKeysByPrefix("").size());
+	}
+}
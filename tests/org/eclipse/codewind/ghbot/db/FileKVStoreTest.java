@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verify the key index of FileKVStore, the 'mappedReads' read path, and the
+ * migration from the flat 'keys/' directory to the sharded layout.
+ */
+public class FileKVStoreTest {
+
+	@Test
+	public void testGetKeysByPrefix() throws IOException {
+		File dir = Files.createTempDirectory("file-kv-store").toFile();
+
+		FileKVStore store = new FileKVStore(dir);
+		store.persistString("verify-pipeline-codewind_2", "");
+		store.persistString("verify-pipeline-codewind_1", "");
+		store.persistString("verify-pipeline-codewind-docs_1", "");
+		store.persistString("wait-list-codewind_1", "{}");
+
+		assertEquals(Arrays.asList("verify-pipeline-codewind_1", "verify-pipeline-codewind_2"),
+				store.getKeysByPrefix("verify-pipeline-codewind_"));
+
+		assertTrue(store.removeByKey("verify-pipeline-codewind_1"));
+		assertFalse(store.removeByKey("verify-pipeline-codewind_1"));
+		assertEquals(Arrays.asList("verify-pipeline-codewind_2"), store.getKeysByPrefix("verify-pipeline-codewind_"));
+
+		// A new instance must rebuild the same index from disk
+		store = new FileKVStore(dir);
+		assertEquals(3, store.getKeysByPrefix("").size());
+		assertEquals("{}", store.getString("wait-list-codewind_1").get());
+		assertFalse(store.getString("verify-pipeline-codewind_1").isPresent());
+	}
+
+	@Test
+	public void testMappedReads() throws IOException {
+		File dir = Files.createTempDirectory("file-kv-store").toFile();
+
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 100 * 1024) {
+			large.append("{\"issueNumber\":1,\"repo\":\"codewind\"}");
+		}
+
+		FileKVStore store = new FileKVStore(dir, true);
+		store.persistString("last-command-timestamp-eclipse_codewind-1", "1586000000000");
+		store.persistString("wait-list-codewind_1", large.toString());
+
+		assertEquals("1586000000000", store.getString("last-command-timestamp-eclipse_codewind-1").get());
+		assertEquals(large.toString(), store.getString("wait-list-codewind_1").get());
+		assertFalse(store.getString("wait-list-codewind_2").isPresent());
+	}
+
+	@Test
+	public void testMigrateFlatLayout() throws IOException {
+		File dir = Files.createTempDirectory("file-kv-store").toFile();
+
+		File keysDir = new File(dir, "keys");
+		keysDir.mkdirs();
+		Files.write(new File(keysDir, "resource-event-abc.txt").toPath(), "1234".getBytes());
+		Files.write(new File(keysDir, "dateDatabaseInitialized.txt").toPath(), "5678".getBytes());
+
+		FileKVStore store = new FileKVStore(dir);
+
+		List<String> remaining = Arrays.asList(keysDir.list((d, name) -> name.endsWith(".txt")));
+		assertTrue("Flat files should have been moved: " + remaining, remaining.isEmpty());
+
+		assertEquals("1234", store.getString("resource-event-abc").get());
+		assertEquals("5678", store.getString("dateDatabaseInitialized").get());
+		assertEquals(Arrays.asList("resource-event-abc"), store.getKeysByPrefix("resource-event-"));
+	}
+
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.githubapimirror.client.api.GHConnectInfo;
+import com.githubapimirror.client.api.GHRepository;
+import com.githubapimirror.shared.json.RepositoryJson;
+
+/**
+ * Verify that the in-memory indexes of GHDatabase (wait list, verify pipeline,
+ * severity) reflect writes, and are rebuilt from the database on restart, and
+ * verify the combined (single write) operations.
+ */
+public class GHDatabaseTest {
+
+	@Test
+	public void testIndexes() throws IOException {
+		File dir = Files.createTempDirectory("gh-database").toFile();
+
+		GHRepository codewind = repo("codewind");
+		GHRepository docs = repo("codewind-docs");
+
+		GHDatabase db = new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100));
+
+		db.addToWaitList(codewind, 1);
+		db.addToWaitList(codewind, 2);
+		db.addToWaitList(docs, 1);
+		db.removeFromWaitList(codewind, 1);
+
+		db.addIssueLastSeenInVerifyPipeline(codewind, 20);
+		db.addIssueLastSeenInVerifyPipeline(codewind, 3);
+		db.addIssueLastSeenInVerifyPipeline(docs, 5);
+		db.removeIssueLastSeenInVerifyPipeline(docs, 5);
+
+		db.setHighestIssueSeveritySeen(codewind, 2, "hot");
+		db.setHighestIssueSeveritySeen(codewind, 2, "stopship");
+
+		verify(db, codewind, docs);
+
+		// A new instance must load the same indexes from the database
+		verify(new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100)), codewind, docs);
+
+		// Text values written above must be readable when the binary codec is selected
+		GHDatabase binaryDb = new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100),
+				new BinaryValueCodec(), GHDatabase.DEFAULT_EXPECTED_RESOURCE_EVENTS,
+				GHDatabase.DEFAULT_RESOURCE_EVENT_FALSE_POSITIVE_RATE);
+		verify(binaryDb, codewind, docs);
+	}
+
+	@Test
+	public void testCombinedOperations() throws IOException {
+		File dir = Files.createTempDirectory("gh-database").toFile();
+
+		GHRepository codewind = repo("codewind");
+
+		GHDatabase db = new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100));
+
+		db.addIssueToProcessed(codewind, 7);
+		db.addToWaitList(codewind, 7);
+		assertTrue(db.isIssueProcessed(codewind, 7));
+		assertEquals(1, db.getAllWaitList().size());
+
+		db.removeFromWaitList(codewind, 7, "hot");
+		assertTrue(db.getAllWaitList().isEmpty());
+		assertEquals("hot", db.getHighestIssueSeveritySeen(codewind, 7).get());
+
+		db = new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100));
+		assertTrue(db.getAllWaitList().isEmpty());
+		assertEquals("hot", db.getHighestIssueSeveritySeen(codewind, 7).get());
+
+		// Only one caller may claim each statistics report job run
+		assertTrue(db.compareAndSetLastStatisticsReportJobRun(null, 100));
+		assertFalse(db.compareAndSetLastStatisticsReportJobRun(null, 200));
+		assertTrue(db.compareAndSetLastStatisticsReportJobRun(100l, 200));
+		assertFalse(db.compareAndSetLastStatisticsReportJobRun(100l, 300));
+		assertEquals(200, (long) db.getLastStatisticsReportJobRun().get());
+	}
+
+	@Test
+	public void testConcurrentResourceEventsDuringFilterRebuild() throws Exception {
+		File dir = Files.createTempDirectory("gh-database").toFile();
+
+		// A small filter, so that it is rebuilt many times while events are added
+		GHDatabase db = new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100), new TextValueCodec(), 16,
+				GHDatabase.DEFAULT_RESOURCE_EVENT_FALSE_POSITIVE_RATE);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int thread = 0; thread < 4; thread++) {
+			int threadNumber = thread;
+			futures.add(executor.submit(() -> {
+				for (int x = 0; x < 250; x++) {
+					db.setResourceEventAsProcessed("event-" + threadNumber + "-" + x);
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		for (int thread = 0; thread < 4; thread++) {
+			for (int x = 0; x < 250; x++) {
+				assertTrue(db.isResourceEventProcessed("event-" + thread + "-" + x));
+			}
+		}
+	}
+
+	private static void verify(GHDatabase db, GHRepository codewind, GHRepository docs) {
+
+		List<String> waitList = db.getAllWaitList().stream().map(e -> e.getRepo() + "/" + e.getIssueNumber()).sorted()
+				.collect(Collectors.toList());
+		assertEquals(Arrays.asList("codewind-docs/1", "codewind/2"), waitList);
+
+		assertEquals(Arrays.asList(3, 20), db.getIssuesInVerifyPipeline(codewind));
+		assertEquals(Arrays.asList(), db.getIssuesInVerifyPipeline(docs));
+
+		assertEquals("stopship", db.getHighestIssueSeveritySeen(codewind, 2).get());
+		assertFalse(db.getHighestIssueSeveritySeen(codewind, 1).isPresent());
+		assertFalse(db.getHighestIssueSeveritySeen(docs, 2).isPresent());
+	}
+
+	static GHRepository repo(String name) {
+		RepositoryJson json = new RepositoryJson();
+		json.setName(name);
+		json.setOrgName("eclipse");
+		return new GHRepository(json, new GHConnectInfo("http://localhost:1", "unused"));
+	}
+}
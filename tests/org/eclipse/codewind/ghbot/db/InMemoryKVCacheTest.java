@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Verify that InMemoryKVCache caches both hits and misses, and that concurrent
+ * misses on the same key only read the inner database once.
+ */
+public class InMemoryKVCacheTest {
+
+	@Test
+	public void testNegativeLookupsAreCached() {
+		CountingKVStore inner = new CountingKVStore(0);
+		InMemoryKVCache cache = new InMemoryKVCache(inner);
+
+		for (int x = 0; x < 10; x++) {
+			assertFalse(cache.getString("resource-event-missing").isPresent());
+		}
+		assertEquals(1, inner.reads.get());
+
+		cache.persistString("resource-event-missing", "1");
+		assertEquals("1", cache.getString("resource-event-missing").get());
+
+		cache.removeByKey("resource-event-missing");
+		assertFalse(cache.getString("resource-event-missing").isPresent());
+		assertEquals(1, inner.reads.get());
+	}
+
+	@Test
+	public void testConcurrentMissesShareOneRead() throws Exception {
+		CountingKVStore inner = new CountingKVStore(200);
+		inner.persistString("processed-eclipse_codewind-1", "1");
+
+		InMemoryKVCache cache = new InMemoryKVCache(inner);
+
+		int threads = 8;
+		ExecutorService es = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+
+		List<Future<Optional<String>>> results = new ArrayList<>();
+		for (int x = 0; x < threads; x++) {
+			results.add(es.submit(() -> {
+				start.await();
+				return cache.getString("processed-eclipse_codewind-1");
+			}));
+		}
+		start.countDown();
+
+		for (Future<Optional<String>> f : results) {
+			assertEquals("1", f.get().get());
+		}
+
+		es.shutdown();
+		es.awaitTermination(10, TimeUnit.SECONDS);
+
+		assertEquals(1, inner.reads.get());
+	}
+
+	/** In-memory store that counts reads, and optionally delays them. */
+	private static class CountingKVStore implements IKVStore {
+
+		final AtomicInteger reads = new AtomicInteger();
+
+		final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+
+		final long readDelayInMsecs;
+
+		CountingKVStore(long readDelayInMsecs) {
+			this.readDelayInMsecs = readDelayInMsecs;
+		}
+
+		@Override
+		public void persistString(String key, String value) {
+			map.put(key, value);
+		}
+
+		@Override
+		public Optional<String> getString(String key) {
+			reads.incrementAndGet();
+			if (readDelayInMsecs > 0) {
+				try {
+					Thread.sleep(readDelayInMsecs);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return Optional.ofNullable(map.get(key));
+		}
+
+		@Override
+		public boolean removeByKey(String key) {
+			return map.remove(key) != null;
+		}
+
+		@Override
+		public List<String> getKeysByPrefix(String prefix) {
+			List<String> result = new ArrayList<>();
+			map.keySet().stream().filter(e -> e.startsWith(prefix)).forEach(result::add);
+			return result;
+		}
+
+		@Override
+		public boolean compareAndSet(String key, String expectedValue, String newValue) {
+			if (expectedValue == null) {
+				return newValue == null ? !map.containsKey(key) : map.putIfAbsent(key, newValue) == null;
+			}
+			return newValue == null ? map.remove(key, expectedValue) : map.replace(key, expectedValue, newValue);
+		}
+	}
+}
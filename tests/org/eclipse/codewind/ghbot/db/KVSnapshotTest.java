@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Verify that a database snapshot can be restored into a new store, and that a
+ * corrupt snapshot is detected before anything is restored.
+ */
+public class KVSnapshotTest {
+
+	@Test
+	public void testSnapshotAndRestore() throws IOException {
+		File dir = Files.createTempDirectory("kv-snapshot").toFile();
+
+		FileKVStore source = new FileKVStore(new File(dir, "source"));
+		for (int x = 0; x < 2500; x++) {
+			source.persistString("resource-event-" + x, "" + x);
+		}
+		source.persistString("wait-list-codewind_1", "{}");
+
+		File snapshotFile = new File(dir, "snapshot.bin");
+		assertEquals(2501, new KVSnapshotThread(source, snapshotFile, 1000).compactAndSnapshot());
+
+		LogKVStore target = new LogKVStore(new File(dir, "target"), 0, 1024 * 1024);
+		assertEquals(2501, KVSnapshot.restore(snapshotFile, target));
+
+		assertEquals(2501, target.getKeysByPrefix("").size());
+		assertEquals("1234", target.getString("resource-event-1234").get());
+		assertEquals("{}", target.getString("wait-list-codewind_1").get());
+		target.close();
+	}
+
+	@Test
+	public void testCorruptSnapshotIsNotRestored() throws IOException {
+		File dir = Files.createTempDirectory("kv-snapshot").toFile();
+
+		FileKVStore source = new FileKVStore(new File(dir, "source"));
+		source.persistString("resource-event-1", "1");
+		source.persistString("resource-event-2", "2");
+
+		File snapshotFile = new File(dir, "snapshot.bin");
+		KVSnapshot.write(source, snapshotFile);
+
+		// Change one byte of a value: the length and entry count are still valid
+		try (RandomAccessFile raf = new RandomAccessFile(snapshotFile, "rw")) {
+			long valueOffset = 16 + 4 + "resource-event-1".length() + 4;
+			raf.seek(valueOffset);
+			raf.write('9');
+		}
+
+		EphemeralWritesKVStore target = new EphemeralWritesKVStore(new FileKVStore(new File(dir, "target")));
+
+		boolean rejected = false;
+		try {
+			KVSnapshot.restore(snapshotFile, target);
+		} catch (IOException e) {
+			rejected = true;
+		}
+
+		assertTrue(rejected);
+		assertFalse(target.getString("resource-event-2").isPresent());
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * Verify the batch (multi*, commit), compareAndSet and scanPrefix operations of
+ * each IKVStore implementation.
+ */
+public class KVStoreBatchTest {
+
+	@Test
+	public void testFileKVStore() throws IOException {
+		verifyBatchOperations(new FileKVStore(tempDir()));
+		verifyCommitAndCompareAndSet(new FileKVStore(tempDir()));
+	}
+
+	@Test
+	public void testLogKVStore() throws IOException {
+		LogKVStore store = new LogKVStore(tempDir(), 0, 64 * 1024);
+		verifyBatchOperations(store);
+		verifyCommitAndCompareAndSet(store);
+		store.close();
+	}
+
+	@Test
+	public void testLsmKVStore() throws IOException {
+		LsmKVStore store = new LsmKVStore(tempDir(), 0, 4 * 1024);
+		verifyBatchOperations(store);
+		verifyCommitAndCompareAndSet(store);
+		store.close();
+	}
+
+	@Test
+	public void testEphemeralWritesKVStore() throws IOException {
+		verifyBatchOperations(new EphemeralWritesKVStore(new FileKVStore(tempDir())));
+		verifyCommitAndCompareAndSet(new EphemeralWritesKVStore(new FileKVStore(tempDir())));
+	}
+
+	@Test
+	public void testInMemoryKVCache() throws IOException {
+		verifyBatchOperations(new InMemoryKVCache(new FileKVStore(tempDir())));
+		verifyCommitAndCompareAndSet(new InMemoryKVCache(new FileKVStore(tempDir())));
+	}
+
+	@Test
+	public void testWriteBehindKVStore() throws IOException {
+		verifyBatchOperations(new WriteBehindKVStore(new FileKVStore(tempDir()), 60 * 1000, 10, 100));
+		verifyCommitAndCompareAndSet(new WriteBehindKVStore(new FileKVStore(tempDir()), 60 * 1000, 10, 100));
+	}
+
+	private static void verifyBatchOperations(IKVStore store) {
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		for (int x = 0; x < 25; x++) {
+			entries.put(String.format("resource-event-%03d", x), "" + x);
+		}
+		entries.put("wait-list-codewind_1", "{}");
+		store.multiPersist(entries);
+
+		// multiGet: missing keys are omitted, and the order of the request is kept
+		Map<String, String> result = store
+				.multiGet(Arrays.asList("resource-event-010", "missing", "resource-event-002"));
+		assertEquals(Arrays.asList("resource-event-010", "resource-event-002"), new ArrayList<>(result.keySet()));
+		assertEquals("10", result.get("resource-event-010"));
+
+		// Paged scan, in key order
+		List<String> pagedKeys = new ArrayList<>();
+		String startAfterKey = null;
+		int pages = 0;
+		do {
+			KVPage page = store.scanPrefix("resource-event-", startAfterKey, 10);
+			page.getEntries().forEach(e -> pagedKeys.add(e.getKey()));
+			startAfterKey = page.getNextStartAfterKey();
+			pages++;
+		} while (startAfterKey != null);
+
+		assertEquals(3, pages);
+		assertEquals(25, pagedKeys.size());
+		assertEquals("resource-event-000", pagedKeys.get(0));
+		assertEquals("resource-event-024", pagedKeys.get(24));
+
+		// Lazy scan
+		assertEquals(pagedKeys, store.scanPrefix("resource-event-").map(e -> e.getKey()).collect(Collectors.toList()));
+		assertEquals(26, store.scanPrefix("").count());
+
+		assertEquals(2, store.multiRemove(Arrays.asList("resource-event-000", "resource-event-001", "missing")));
+		assertFalse(store.getString("resource-event-000").isPresent());
+		assertTrue(store.getString("resource-event-002").isPresent());
+		assertEquals(23, store.scanPrefix("resource-event-").count());
+	}
+
+	@Test
+	public void testExpiringKVStore() throws IOException {
+		ExpiringKVStore store = new ExpiringKVStore(new FileKVStore(tempDir()), 0, 10);
+		verifyCommitAndCompareAndSet(store);
+
+		// A write in a batch clears the expiry of the key
+		store.persistString("resource-event-1", "1", 1000);
+		store.commit(new KVBatch().put("resource-event-1", "2"));
+		assertEquals(0, store.expireSlice(Long.MAX_VALUE));
+		assertEquals("2", store.getString("resource-event-1").get());
+	}
+
+	private static void verifyCommitAndCompareAndSet(IKVStore store) {
+
+		store.persistString("wait-list-codewind_1", "{}");
+
+		store.commit(new KVBatch().put("processed-eclipse_codewind-2", "1").put("wait-list-codewind_2", "{}")
+				.remove("wait-list-codewind_1").put("highest-issue-severity-eclipse_codewind-1", "hot"));
+
+		assertFalse(store.getString("wait-list-codewind_1").isPresent());
+		assertEquals("{}", store.getString("wait-list-codewind_2").get());
+		assertEquals("1", store.getString("processed-eclipse_codewind-2").get());
+		assertEquals("hot", store.getString("highest-issue-severity-eclipse_codewind-1").get());
+
+		// The last write of a key in a batch wins
+		store.commit(new KVBatch().put("last-zham-event-id-seen", "1").remove("last-zham-event-id-seen"));
+		assertFalse(store.getString("last-zham-event-id-seen").isPresent());
+
+		// Set if absent
+		assertTrue(store.compareAndSet("time-when-stats-report-job-last-run", null, "100"));
+		assertFalse(store.compareAndSet("time-when-stats-report-job-last-run", null, "200"));
+		assertEquals("100", store.getString("time-when-stats-report-job-last-run").get());
+
+		// Replace
+		assertFalse(store.compareAndSet("time-when-stats-report-job-last-run", "99", "200"));
+		assertTrue(store.compareAndSet("time-when-stats-report-job-last-run", "100", "200"));
+		assertEquals("200", store.getString("time-when-stats-report-job-last-run").get());
+
+		// Remove
+		assertFalse(store.compareAndSet("time-when-stats-report-job-last-run", "100", null));
+		assertTrue(store.compareAndSet("time-when-stats-report-job-last-run", "200", null));
+		assertFalse(store.getString("time-when-stats-report-job-last-run").isPresent());
+	}
+
+	private static File tempDir() throws IOException {
+		return Files.createTempDirectory("kv-store-batch").toFile();
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+/**
+ * Verify that changing the type of an existing database imports the previous
+ * store's contents, and that changes which cannot be imported fail.
+ */
+public class KVStoreMigrationTest {
+
+	@Test
+	public void testImportFromFileStore() throws IOException {
+		File dir = Files.createTempDirectory("kv-store-migration").toFile();
+
+		// A database written before the type was recorded
+		FileKVStore fileStore = new FileKVStore(dir);
+		fileStore.persistString("processed-eclipse_codewind-1", "1");
+		fileStore.persistString("wait-list-codewind_1", "{}");
+
+		LogKVStore logStore = (LogKVStore) KVStoreMigration.open(dir, KVStoreMigration.TYPE_LOG, opener(dir));
+		assertEquals("1", logStore.getString("processed-eclipse_codewind-1").get());
+		assertEquals("{}", logStore.getString("wait-list-codewind_1").get());
+		assertEquals(KVStoreMigration.TYPE_LOG, KVStoreMigration.getPreviousType(dir, KVStoreMigration.TYPE_FILE));
+
+		logStore.removeByKey("wait-list-codewind_1");
+		logStore.close();
+
+		// Opening the same type again does not import
+		logStore = (LogKVStore) KVStoreMigration.open(dir, KVStoreMigration.TYPE_LOG, opener(dir));
+		assertFalse(logStore.getString("wait-list-codewind_1").isPresent());
+		logStore.persistString("processed-eclipse_codewind-2", "2");
+		logStore.close();
+
+		// Changing back replaces the file store's (now stale) contents
+		IKVStore store = KVStoreMigration.open(dir, KVStoreMigration.TYPE_FILE, opener(dir));
+		assertEquals(Arrays.asList("processed-eclipse_codewind-1", "processed-eclipse_codewind-2"),
+				store.getKeysByPrefix(""));
+	}
+
+	@Test
+	public void testNewDatabase() throws IOException {
+		File dir = Files.createTempDirectory("kv-store-migration").toFile();
+
+		IKVStore store = KVStoreMigration.open(dir, KVStoreMigration.TYPE_SHARED, opener(dir));
+		store.persistString("a", "1");
+
+		assertEquals(KVStoreMigration.TYPE_SHARED, KVStoreMigration.getPreviousType(dir, KVStoreMigration.TYPE_FILE));
+	}
+
+	@Test
+	public void testFileToSharedFails() throws IOException {
+		File dir = Files.createTempDirectory("kv-store-migration").toFile();
+
+		new FileKVStore(dir).persistString("processed-eclipse_codewind-1", "1");
+
+		try {
+			KVStoreMigration.open(dir, KVStoreMigration.TYPE_SHARED, opener(dir));
+			fail("Expected the type change to fail");
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+
+		// Nothing was written, so the file store can still be used
+		assertTrue(new FileKVStore(dir).getString("processed-eclipse_codewind-1").isPresent());
+		assertEquals(KVStoreMigration.TYPE_FILE, KVStoreMigration.getPreviousType(dir, KVStoreMigration.TYPE_SHARED));
+	}
+
+	private static Function<String, IKVStore> opener(File dir) {
+		return type -> {
+			if (type.equals(KVStoreMigration.TYPE_LOG)) {
+				return new LogKVStore(dir, 0, 1024 * 1024);
+			} else if (type.equals(KVStoreMigration.TYPE_SHARED)) {
+				return new SharedFileKVStore(dir);
+			}
+			return new FileKVStore(dir);
+		};
+	}
+}
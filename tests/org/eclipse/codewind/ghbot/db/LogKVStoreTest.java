@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verify that the append-only log store returns the most recent value for each
+ * key, that the index is correctly rebuilt from the segments on restart, and
+ * that compaction preserves the contents of the store.
+ */
+public class LogKVStoreTest {
+
+	@Test
+	public void testReadWriteRemove() throws IOException {
+		File dir = Files.createTempDirectory("log-kv-store").toFile();
+
+		LogKVStore store = new LogKVStore(dir, 0, 1024 * 1024);
+
+		store.persistString("processed-eclipse_codewind-1", "1");
+		store.persistString("processed-eclipse_codewind-2", "2");
+		store.persistString("processed-eclipse_codewind-1", "3");
+		store.persistString("wait-list-codewind_1", "{}");
+
+		assertEquals("3", store.getString("processed-eclipse_codewind-1").get());
+		assertEquals("2", store.getString("processed-eclipse_codewind-2").get());
+
+		assertTrue(store.removeByKey("processed-eclipse_codewind-2"));
+		assertFalse(store.removeByKey("processed-eclipse_codewind-2"));
+		assertFalse(store.getString("processed-eclipse_codewind-2").isPresent());
+
+		assertKeys(Arrays.asList("processed-eclipse_codewind-1"), store.getKeysByPrefix("processed-"));
+		assertEquals(2, store.getKeysByPrefix("").size());
+
+		store.close();
+	}
+
+	@Test
+	public void testWritesAfterCloseFail() throws IOException {
+		File dir = Files.createTempDirectory("log-kv-store").toFile();
+
+		LogKVStore store = new LogKVStore(dir, 0, 1024 * 1024);
+		store.persistString("processed-eclipse_codewind-1", "1");
+		store.close();
+
+		try {
+			store.persistString("processed-eclipse_codewind-2", "2");
+			fail("Expected the write to fail");
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+
+		try {
+			store.commit(new KVBatch().put("processed-eclipse_codewind-2", "2"));
+			fail("Expected the write to fail");
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+
+		// Closing again is allowed
+		store.close();
+
+		store = new LogKVStore(dir, 0, 1024 * 1024);
+		assertKeys(Arrays.asList("processed-eclipse_codewind-1"), store.getKeysByPrefix(""));
+		store.close();
+	}
+
+	@Test
+	public void testIndexRebuiltOnRestart() throws IOException {
+		File dir = Files.createTempDirectory("log-kv-store").toFile();
+
+		// Small segments, to ensure we roll over multiple files
+		LogKVStore store = new LogKVStore(dir, 1000, 256);
+		for (int x = 0; x < 100; x++) {
+			store.persistString("resource-event-" + x, Integer.toString(x));
+		}
+		for (int x = 0; x < 100; x += 2) {
+			store.removeByKey("resource-event-" + x);
+		}
+		store.persistString("resource-event-1", "updated");
+		store.close();
+
+		assertTrue(new File(dir, "log").listFiles().length > 1);
+
+		store = new LogKVStore(dir, 1000, 256);
+		assertEquals(50, store.size());
+		assertEquals("updated", store.getString("resource-event-1").get());
+		assertEquals("99", store.getString("resource-event-99").get());
+		assertFalse(store.getString("resource-event-98").isPresent());
+		store.close();
+	}
+
+	@Test
+	public void testTornWriteIsDiscarded() throws IOException {
+		File dir = Files.createTempDirectory("log-kv-store").toFile();
+
+		LogKVStore store = new LogKVStore(dir, 0, 1024 * 1024);
+		store.persistString("one", "1");
+		store.persistString("two", "2");
+		store.close();
+
+		// Simulate a process crash in the middle of writing the last record
+		File segment = new File(dir, "log").listFiles()[0];
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+
+		store = new LogKVStore(dir, 0, 1024 * 1024);
+		assertEquals("1", store.getString("one").get());
+		assertFalse(store.getString("two").isPresent());
+
+		// New writes must be readable after the truncated record
+		store.persistString("three", "3");
+		store.close();
+
+		store = new LogKVStore(dir, 0, 1024 * 1024);
+		assertEquals("3", store.getString("three").get());
+		store.close();
+	}
+
+	@Test
+	public void testBatchIsReplayedAtomically() throws IOException {
+		File dir = Files.createTempDirectory("log-kv-store").toFile();
+
+		LogKVStore store = new LogKVStore(dir, 0, 1024 * 1024);
+		store.persistString("wait-list-codewind_1", "{}");
+		store.commit(new KVBatch().remove("wait-list-codewind_1").put("highest-issue-severity-eclipse_codewind-1", "hot")
+				.put("processed-eclipse_codewind-2", "2"));
+		store.close();
+
+		store = new LogKVStore(dir, 0, 1024 * 1024);
+		assertFalse(store.getString("wait-list-codewind_1").isPresent());
+		assertEquals("hot", store.getString("highest-issue-severity-eclipse_codewind-1").get());
+		assertEquals("2", store.getString("processed-eclipse_codewind-2").get());
+		store.close();
+
+		// Simulate a process crash in the middle of writing the batch: none of it applies
+		File segment = new File(dir, "log").listFiles()[0];
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+
+		store = new LogKVStore(dir, 0, 1024 * 1024);
+		assertEquals("{}", store.getString("wait-list-codewind_1").get());
+		assertFalse(store.getString("highest-issue-severity-eclipse_codewind-1").isPresent());
+		assertFalse(store.getString("processed-eclipse_codewind-2").isPresent());
+		store.close();
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		File dir = Files.createTempDirectory("log-kv-store").toFile();
+
+		LogKVStore store = new LogKVStore(dir, 0, 4 * 1024);
+		for (int x = 0; x < 2000; x++) {
+			store.persistString("last-command-timestamp-eclipse_codewind-" + (x % 50), "" + x);
+		}
+		store.persistString("wait-list-codewind_1", "{}");
+		store.removeByKey("wait-list-codewind_1");
+
+		File logDir = new File(dir, "log");
+		File firstSegment = logDir.listFiles()[0];
+		byte[] firstSegmentContents = Files.readAllBytes(firstSegment.toPath());
+
+		assertTrue(store.compact() > 0);
+		assertEquals(2, logDir.listFiles().length);
+
+		// Writes after compaction go to the new active segment
+		store.persistString("last-command-timestamp-eclipse_codewind-0", "new");
+
+		assertEquals(50, store.getKeysByPrefix("").size());
+		assertEquals("1999", store.getString("last-command-timestamp-eclipse_codewind-49").get());
+		assertEquals("new", store.getString("last-command-timestamp-eclipse_codewind-0").get());
+		store.close();
+
+		// Simulate a process crash after the compacted segment was renamed into place,
+		// but before an earlier segment was deleted: that segment must be ignored.
+		if (!firstSegment.exists()) {
+			Files.write(firstSegment.toPath(), firstSegmentContents);
+		}
+
+		store = new LogKVStore(dir, 0, 4 * 1024);
+		assertEquals(50, store.getKeysByPrefix("").size());
+		assertEquals("1999", store.getString("last-command-timestamp-eclipse_codewind-49").get());
+		assertEquals("new", store.getString("last-command-timestamp-eclipse_codewind-0").get());
+		assertFalse(store.getString("wait-list-codewind_1").isPresent());
+		assertEquals(2, logDir.listFiles().length);
+		store.close();
+	}
+
+	private static void assertKeys(List<String> expected, List<String> actual) {
+		List<String> sortedExpected = new ArrayList<>(expected);
+		List<String> sortedActual = new ArrayList<>(actual);
+		Collections.sort(sortedExpected);
+		Collections.sort(sortedActual);
+		assertEquals(sortedExpected, sortedActual);
+	}
+}
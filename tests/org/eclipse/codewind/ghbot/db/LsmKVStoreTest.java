@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+/**
+ * Verify that the LSM store returns the most recent value for each key across
+ * the memtable and tables, that prefix scans are sorted and skip removed keys,
+ * and that the contents survive restarts, compaction and a torn WAL write.
+ */
+public class LsmKVStoreTest {
+
+	@Test
+	public void testReadWriteRemove() throws IOException {
+		File dir = Files.createTempDirectory("lsm-kv-store").toFile();
+
+		// Small memtable, so that most reads are from tables
+		LsmKVStore store = new LsmKVStore(dir, 0, 2 * 1024);
+
+		for (int x = 0; x < 200; x++) {
+			store.persistString("processed-eclipse_codewind-" + x, Integer.toString(x));
+		}
+		store.persistString("processed-eclipse_codewind-1", "updated");
+		store.persistString("wait-list-codewind_1", "{}");
+
+		assertTrue(store.getTableCount() > 1);
+
+		assertEquals("updated", store.getString("processed-eclipse_codewind-1").get());
+		assertEquals("2", store.getString("processed-eclipse_codewind-2").get());
+		assertFalse(store.getString("processed-eclipse_codewind-200").isPresent());
+
+		assertTrue(store.removeByKey("processed-eclipse_codewind-2"));
+		assertFalse(store.removeByKey("processed-eclipse_codewind-2"));
+		assertFalse(store.getString("processed-eclipse_codewind-2").isPresent());
+
+		assertEquals(199, store.getKeysByPrefix("processed-").size());
+		assertEquals(Arrays.asList("wait-list-codewind_1"), store.getKeysByPrefix("wait-list-"));
+		assertEquals(200, store.getKeysByPrefix("").size());
+
+		store.close();
+
+		store = new LsmKVStore(dir, 0, 2 * 1024);
+		assertEquals("updated", store.getString("processed-eclipse_codewind-1").get());
+		assertFalse(store.getString("processed-eclipse_codewind-2").isPresent());
+		assertEquals(200, store.getKeysByPrefix("").size());
+		store.close();
+	}
+
+	@Test
+	public void testScanPrefix() throws IOException {
+		File dir = Files.createTempDirectory("lsm-kv-store").toFile();
+
+		LsmKVStore store = new LsmKVStore(dir, 1000, 1024);
+		for (int x = 0; x < 100; x++) {
+			store.persistString("resource-event-" + String.format("%03d", x), Integer.toString(x));
+		}
+		for (int x = 0; x < 100; x += 3) {
+			store.removeByKey("resource-event-" + String.format("%03d", x));
+		}
+		store.persistString("resource-f", "not in prefix");
+		store.persistString("resource-eveny", "not in prefix");
+
+		List<String> keys = new ArrayList<>();
+		String startAfterKey = null;
+		do {
+			KVPage page = store.scanPrefix("resource-event-", startAfterKey, 10);
+			assertTrue(page.getEntries().size() <= 10);
+			for (Entry<String, String> e : page.getEntries()) {
+				assertEquals(Integer.toString(Integer.parseInt(e.getKey().substring("resource-event-".length()))),
+						e.getValue());
+				keys.add(e.getKey());
+			}
+			startAfterKey = page.getNextStartAfterKey();
+		} while (startAfterKey != null);
+
+		List<String> expected = new ArrayList<>();
+		for (int x = 0; x < 100; x++) {
+			if (x % 3 != 0) {
+				expected.add("resource-event-" + String.format("%03d", x));
+			}
+		}
+		assertEquals(expected, keys);
+
+		store.close();
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		File dir = Files.createTempDirectory("lsm-kv-store").toFile();
+
+		LsmKVStore store = new LsmKVStore(dir, 0, 4 * 1024);
+		for (int x = 0; x < 2000; x++) {
+			store.persistString("last-command-timestamp-eclipse_codewind-" + (x % 50), "" + x);
+		}
+		store.persistString("wait-list-codewind_1", "{}");
+		store.removeByKey("wait-list-codewind_1");
+
+		assertTrue(store.compact() > 0);
+		assertEquals(1, store.getTableCount());
+
+		store.persistString("last-command-timestamp-eclipse_codewind-0", "new");
+
+		assertEquals(50, store.getKeysByPrefix("").size());
+		assertEquals("1999", store.getString("last-command-timestamp-eclipse_codewind-49").get());
+		assertEquals("new", store.getString("last-command-timestamp-eclipse_codewind-0").get());
+		store.close();
+
+		store = new LsmKVStore(dir, 0, 4 * 1024);
+		assertEquals(50, store.getKeysByPrefix("").size());
+		assertEquals("new", store.getString("last-command-timestamp-eclipse_codewind-0").get());
+		assertFalse(store.getString("wait-list-codewind_1").isPresent());
+		store.close();
+	}
+
+	@Test
+	public void testTornWalWriteIsDiscarded() throws IOException {
+		File dir = Files.createTempDirectory("lsm-kv-store").toFile();
+
+		LsmKVStore store = new LsmKVStore(dir, 0, 1024 * 1024);
+		store.persistString("one", "1");
+		store.commit(new KVBatch().put("two", "2").put("three", "3"));
+		store.close();
+
+		File lsmDir = new File(dir, "lsm");
+		File wal = lsmDir.listFiles((d, name) -> name.startsWith("wal-"))[0];
+
+		// Simulate a process crash in the middle of writing the batch: none of it applies
+		try (RandomAccessFile raf = new RandomAccessFile(wal, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+
+		store = new LsmKVStore(dir, 0, 1024 * 1024);
+		assertEquals("1", store.getString("one").get());
+		assertFalse(store.getString("two").isPresent());
+		assertFalse(store.getString("three").isPresent());
+
+		// The replayed WAL was written to a table
+		assertEquals(1, store.getTableCount());
+		assertEquals(1, lsmDir.listFiles((d, name) -> name.startsWith("wal-")).length);
+		assertNull(store.scanPrefix("", null, 10).getNextStartAfterKey());
+
+		store.close();
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verify that SharedFileKVStore stores keys of any characters, and that its
+ * compareAndSet is atomic across instances that share a directory.
+ */
+public class SharedFileKVStoreTest {
+
+	@Test
+	public void testKeysAndValues() throws IOException {
+		File dir = Files.createTempDirectory("shared-kv-store").toFile();
+
+		SharedFileKVStore store = new SharedFileKVStore(dir);
+		store.persistString("cluster-lease-repo-eclipse/codewind", "a 1");
+		store.persistString("cluster-lease-repo-eclipse/codewind-docs", "b 2");
+		store.persistString(".hidden key %", "c");
+
+		// A second instance sees the writes of the first
+		SharedFileKVStore other = new SharedFileKVStore(dir);
+		assertEquals(Arrays.asList("cluster-lease-repo-eclipse/codewind", "cluster-lease-repo-eclipse/codewind-docs"),
+				other.getKeysByPrefix("cluster-lease-repo-"));
+		assertEquals("c", other.getString(".hidden key %").get());
+
+		assertTrue(other.removeByKey("cluster-lease-repo-eclipse/codewind"));
+		assertFalse(store.getString("cluster-lease-repo-eclipse/codewind").isPresent());
+		assertFalse(store.removeByKey("cluster-lease-repo-eclipse/codewind"));
+
+		assertFalse(store.compareAndSet("cluster-lease-repo-eclipse/codewind-docs", "a 1", "a 3"));
+		assertTrue(store.compareAndSet("cluster-lease-repo-eclipse/codewind-docs", "b 2", null));
+		assertTrue(store.compareAndSet("new-key", null, "1"));
+		assertEquals(Arrays.asList(".hidden key %", "new-key"), other.getKeysByPrefix(""));
+	}
+
+	@Test
+	public void testConcurrentCompareAndSet() throws Exception {
+		File dir = Files.createTempDirectory("shared-kv-store").toFile();
+
+		int threads = 4;
+		int incrementsPerThread = 100;
+
+		List<Thread> workers = new ArrayList<>();
+		for (int x = 0; x < threads; x++) {
+			// Each thread has its own instance, as each process would
+			SharedFileKVStore store = new SharedFileKVStore(dir);
+
+			workers.add(new Thread(() -> {
+				for (int y = 0; y < incrementsPerThread; y++) {
+					while (true) {
+						String value = store.getString("counter").orElse(null);
+						String newValue = Integer.toString(value == null ? 1 : Integer.parseInt(value) + 1);
+						if (store.compareAndSet("counter", value, newValue)) {
+							break;
+						}
+					}
+				}
+			}));
+		}
+
+		workers.forEach(Thread::start);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertEquals(Integer.toString(threads * incrementsPerThread),
+				new SharedFileKVStore(dir).getString("counter").get());
+	}
+
+}
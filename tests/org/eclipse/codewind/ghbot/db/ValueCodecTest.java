@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Verify that values written by either codec can be read by both, and that the
+ * binary format is smaller.
+ */
+public class ValueCodecTest {
+
+	private final ValueCodec text = ValueCodec.forName(ValueCodec.TEXT);
+
+	private final ValueCodec binary = ValueCodec.forName(ValueCodec.BINARY);
+
+	@Test
+	public void testLongs() {
+		for (long value : new long[] { 0, 1, -1, 1586000000000l, Long.MAX_VALUE, Long.MIN_VALUE }) {
+			for (ValueCodec writer : new ValueCodec[] { text, binary }) {
+				String encoded = writer.encodeLong(value);
+				assertEquals(value, text.decodeLong(encoded));
+				assertEquals(value, binary.decodeLong(encoded));
+			}
+		}
+
+		assertEquals("1586000000000", text.encodeLong(1586000000000l));
+		assertTrue(binary.encodeLong(1586000000000l).length() < text.encodeLong(1586000000000l).length());
+	}
+
+	@Test
+	public void testWaitListEntries() {
+		WaitListEntryJson entry = new WaitListEntryJson();
+		entry.setIssueNumber(2750);
+		entry.setRepo("codewind");
+		entry.setOwner("eclipse");
+		entry.setStartedWaitingTimeInMsecs(1586000000000l);
+
+		for (ValueCodec writer : new ValueCodec[] { text, binary }) {
+			String encoded = writer.encodeWaitListEntry(entry);
+
+			for (ValueCodec reader : new ValueCodec[] { text, binary }) {
+				WaitListEntryJson decoded = reader.decodeWaitListEntry(encoded);
+				assertEquals(2750, decoded.getIssueNumber());
+				assertEquals("codewind", decoded.getRepo());
+				assertEquals("eclipse", decoded.getOwner());
+				assertEquals(1586000000000l, decoded.getStartedWaitingTimeInMsecs());
+			}
+		}
+
+		assertTrue(binary.encodeWaitListEntry(entry).length() * 2 < text.encodeWaitListEntry(entry).length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownCodec() {
+		ValueCodec.forName("xml");
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Verify that WriteBehindKVStore coalesces buffered writes, that reads reflect
+ * buffered writes, and that the buffer is bounded.
+ */
+public class WriteBehindKVStoreTest {
+
+	@Test
+	public void testWritesAreCoalesced() {
+		CountingKVStore inner = new CountingKVStore();
+		inner.persistString("wait-list-a", "old");
+		inner.writes.set(0);
+
+		WriteBehindKVStore store = new WriteBehindKVStore(inner, 60 * 1000, 100, 1000);
+
+		for (int x = 0; x < 10; x++) {
+			store.persistString("processed-eclipse_codewind-1", "" + x);
+		}
+		store.persistString("wait-list-b", "1");
+		store.removeByKey("wait-list-a");
+
+		// Nothing written yet, but reads reflect the buffer
+		assertEquals(0, inner.writes.get());
+		assertEquals("9", store.getString("processed-eclipse_codewind-1").get());
+		assertFalse(store.getString("wait-list-a").isPresent());
+		assertEquals(Arrays.asList("wait-list-b"), store.getKeysByPrefix("wait-list-"));
+
+		store.flush();
+
+		assertEquals(3, inner.writes.get());
+		assertEquals("9", inner.map.get("processed-eclipse_codewind-1"));
+		assertFalse(inner.map.containsKey("wait-list-a"));
+		assertEquals(0, store.getBufferedKeys());
+	}
+
+	@Test
+	public void testBufferIsBounded() {
+		CountingKVStore inner = new CountingKVStore();
+
+		WriteBehindKVStore store = new WriteBehindKVStore(inner, 60 * 1000, 10, 20);
+
+		for (int x = 0; x < 1000; x++) {
+			store.persistString("key-" + x, "" + x);
+			assertTrue(store.getBufferedKeys() < 20);
+		}
+
+		store.flush();
+		assertEquals(1000, inner.map.size());
+	}
+
+	/** In-memory store that counts writes. */
+	private static class CountingKVStore implements IKVStore {
+
+		final AtomicInteger writes = new AtomicInteger();
+
+		final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+
+		@Override
+		public void persistString(String key, String value) {
+			writes.incrementAndGet();
+			map.put(key, value);
+		}
+
+		@Override
+		public Optional<String> getString(String key) {
+			return Optional.ofNullable(map.get(key));
+		}
+
+		@Override
+		public boolean removeByKey(String key) {
+			writes.incrementAndGet();
+			return map.remove(key) != null;
+		}
+
+		@Override
+		public List<String> getKeysByPrefix(String prefix) {
+			List<String> result = new ArrayList<>();
+			map.keySet().stream().filter(e -> e.startsWith(prefix)).forEach(result::add);
+			return result;
+		}
+
+		@Override
+		public boolean compareAndSet(String key, String expectedValue, String newValue) {
+			if (expectedValue == null) {
+				return newValue == null ? !map.containsKey(key) : map.putIfAbsent(key, newValue) == null;
+			}
+			return newValue == null ? map.remove(key, expectedValue) : map.replace(key, expectedValue, newValue);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Verify that the poll interval grows while idle, drops to the minimum when
+ * events arrive, backs off on errors, and that the time taken by an iteration
+ * is subtracted from the time slept.
+ */
+public class AdaptivePollSchedulerTest {
+
+	@Test
+	public void testIdleBackoffAndBurst() {
+		AdaptivePollScheduler scheduler = new AdaptivePollScheduler(5000, 60000, 2);
+
+		assertEquals(10000, scheduler.onIterationComplete(0, 0, false));
+		assertEquals(20000, scheduler.onIterationComplete(0, 0, false));
+		assertEquals(40000, scheduler.onIterationComplete(0, 0, false));
+		assertEquals(60000, scheduler.onIterationComplete(0, 0, false));
+		assertEquals(60000, scheduler.onIterationComplete(0, 0, false));
+
+		// A burst of events: poll again as soon as possible
+		assertEquals(5000, scheduler.onIterationComplete(10, 0, false));
+
+		// ... and keep polling at the minimum while events were recently seen
+		assertEquals(5000, scheduler.onIterationComplete(0, 0, false));
+		assertEquals("unchanged, recent events", scheduler.getStatistics().getLastDecision());
+
+		long sleep;
+		int polls = 0;
+		do {
+			sleep = scheduler.onIterationComplete(0, 0, false);
+			polls++;
+		} while (sleep == 5000);
+		assertTrue("" + polls, polls > 1 && polls < 10);
+		assertEquals("idle", scheduler.getStatistics().getLastDecision());
+
+		PollStatistics stats = scheduler.getStatistics();
+		assertEquals(1, stats.getPollsWithEvents());
+		assertEquals(10, stats.getEvents());
+		assertEquals(0, stats.getErrors());
+	}
+
+	@Test
+	public void testIterationTimeIsSubtracted() {
+		AdaptivePollScheduler scheduler = new AdaptivePollScheduler(15000, 60000, 1);
+
+		assertEquals(11000, scheduler.onIterationComplete(1, 4000, false));
+
+		// An iteration that took longer than the interval still sleeps briefly
+		assertEquals(1000, scheduler.onIterationComplete(1, 30000, false));
+	}
+
+	@Test
+	public void testErrorBackoff() {
+		AdaptivePollScheduler scheduler = new AdaptivePollScheduler(5000, 30000, 1.5);
+
+		assertEquals(10000, scheduler.onIterationComplete(0, 4000, true));
+		assertEquals(20000, scheduler.onIterationComplete(0, 4000, true));
+		assertEquals(30000, scheduler.onIterationComplete(0, 4000, true));
+		assertEquals("backoff after 3 consecutive error(s)", scheduler.getStatistics().getLastDecision());
+
+		// Recovery: events return the interval to the minimum
+		assertEquals(5000, scheduler.onIterationComplete(3, 0, false));
+		assertEquals(3, scheduler.getStatistics().getErrors());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBounds() {
+		new AdaptivePollScheduler(10000, 5000, 1.5);
+	}
+}
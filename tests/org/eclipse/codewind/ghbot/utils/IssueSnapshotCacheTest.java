@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.codewind.ghbot.credentials.ConcurrencyLimiter;
+import org.junit.Test;
+
+import com.githubapimirror.client.api.GHConnectInfo;
+import com.githubapimirror.client.api.GHIssue;
+import com.githubapimirror.client.api.GHRepository;
+import com.githubapimirror.shared.json.IssueJson;
+import com.githubapimirror.shared.json.RepositoryJson;
+
+/**
+ * Verify that IssueSnapshotCache returns cached issues until they are
+ * invalidated or expire, and discards the snapshots of requests that started
+ * before an invalidation of their issue.
+ */
+public class IssueSnapshotCacheTest {
+
+	private static final long MAX_AGE = 1000;
+
+	@Test
+	public void testHitsUntilInvalidatedOrExpired() {
+		IssueSnapshotCache cache = new IssueSnapshotCache(new ConcurrencyLimiter("test", 1), 100, MAX_AGE);
+		CountingRepository repo = new CountingRepository();
+
+		GHIssue first = cache.getIssue(repo, 1, 0);
+		assertSame(first, cache.getIssue(repo, 1, 10));
+		assertEquals(1, repo.requests.get());
+
+		cache.invalidate(repo.getFullName(), 1);
+		GHIssue second = cache.getIssue(repo, 1, 20);
+		assertEquals(2, repo.requests.get());
+		assertSame(second, cache.getIssue(repo, 1, 30));
+
+		// Expired
+		cache.getIssue(repo, 1, 20 + MAX_AGE);
+		assertEquals(3, repo.requests.get());
+
+		// Other issues and repositories are unaffected
+		cache.invalidate("other/repo", 1);
+		cache.invalidate(repo.getFullName(), 2);
+		cache.getIssue(repo, 1, 30 + MAX_AGE);
+		assertEquals(3, repo.requests.get());
+
+		assertEquals(3, cache.getStatistics().getHits());
+		assertEquals(3, cache.getStatistics().getMisses());
+		assertEquals(1, cache.getStatistics().getExpired());
+	}
+
+	@Test
+	public void testSnapshotRequestedBeforeInvalidationIsDiscarded() {
+		IssueSnapshotCache cache = new IssueSnapshotCache(new ConcurrencyLimiter("test", 1), 100, MAX_AGE);
+		CountingRepository repo = new CountingRepository();
+
+		// A bulk request starts, then an event for the issue is received
+		long fetchVersion = cache.getVersion();
+		cache.invalidate(repo.getFullName(), 1);
+
+		assertFalse(cache.put(repo.getFullName(), newIssue(1), fetchVersion, 0));
+		assertEquals(1, cache.getStatistics().getDiscarded());
+
+		// A request that started after the invalidation is stored
+		GHIssue issue = newIssue(1);
+		assertTrue(cache.put(repo.getFullName(), issue, cache.getVersion(), 0));
+		assertSame(issue, cache.getIssue(repo, 1, 10));
+		assertEquals(0, repo.requests.get());
+
+		// An older snapshot does not replace a newer one
+		long oldVersion = cache.getVersion();
+		cache.invalidate(repo.getFullName(), 1);
+		GHIssue newer = newIssue(1);
+		assertTrue(cache.put(repo.getFullName(), newer, cache.getVersion(), 20));
+		assertFalse(cache.put(repo.getFullName(), newIssue(1), oldVersion, 30));
+		assertSame(newer, cache.getIssue(repo, 1, 40));
+	}
+
+	@Test
+	public void testEvictedInvalidationStillDiscardsOlderSnapshots() {
+		IssueSnapshotCache cache = new IssueSnapshotCache(new ConcurrencyLimiter("test", 1), 2, MAX_AGE);
+		CountingRepository repo = new CountingRepository();
+
+		long fetchVersion = cache.getVersion();
+		cache.invalidate(repo.getFullName(), 1);
+
+		// Evict the invalidation of issue 1
+		cache.getIssue(repo, 2, 0);
+		cache.getIssue(repo, 3, 0);
+		assertEquals(2, cache.getStatistics().getEntries());
+
+		assertFalse(cache.put(repo.getFullName(), newIssue(1), fetchVersion, 0));
+		assertTrue(cache.put(repo.getFullName(), newIssue(1), cache.getVersion(), 0));
+	}
+
+	private static GHIssue newIssue(int number) {
+		IssueJson json = new IssueJson();
+		json.setNumber(number);
+		return new GHIssue(json, null);
+	}
+
+	/** Returns a new issue from each request, and counts them. */
+	private static class CountingRepository extends GHRepository {
+
+		private final AtomicInteger requests = new AtomicInteger(0);
+
+		CountingRepository() {
+			super(newRepositoryJson(), new GHConnectInfo("http://localhost", "psk"));
+		}
+
+		@Override
+		public GHIssue getIssue(int issueNumber) {
+			requests.incrementAndGet();
+			return newIssue(issueNumber);
+		}
+
+		private static RepositoryJson newRepositoryJson() {
+			RepositoryJson json = new RepositoryJson();
+			json.setOrgName("owner");
+			json.setName("repo");
+			return json;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.ghbot.utils.JobEngine.IterationReport;
+import org.eclipse.codewind.ghbot.utils.JobEngine.Job;
+import org.eclipse.codewind.ghbot.utils.JobEngine.JobStatus;
+import org.junit.Test;
+
+/**
+ * Verify that jobs run after their dependencies and receive their results, that
+ * independent jobs run concurrently, and that failures and timeouts cause
+ * dependent jobs to be skipped.
+ */
+public class JobEngineTest {
+
+	@Test
+	public void testDependencies() {
+		JobEngine engine = new JobEngine(2);
+
+		JobEngine.Iteration iteration = engine.newIteration();
+
+		Job<Integer> first = iteration.submit("first", 10000, () -> 2);
+		Job<Integer> second = iteration.submit("second", 10000, () -> first.getResult() * 3, first);
+		Job<Integer> third = iteration.submit("third", 10000, () -> first.getResult() + second.getResult(), first,
+				second);
+
+		IterationReport report = iteration.await();
+
+		assertEquals(8, (int) third.getResult());
+		assertEquals(JobStatus.SUCCEEDED, report.getStatus("third"));
+		assertFalse(report.hasFailures());
+		assertEquals(3, engine.getStatistics().size());
+	}
+
+	@Test
+	public void testIndependentJobsRunConcurrently() {
+		JobEngine engine = new JobEngine(2);
+
+		CountDownLatch latch = new CountDownLatch(2);
+
+		JobEngine.Iteration iteration = engine.newIteration();
+
+		// Each job waits for the other to start, so they only succeed if both run at once
+		for (String name : new String[] { "a", "b" }) {
+			iteration.submit(name, 10000, () -> {
+				latch.countDown();
+				return latch.await(5, TimeUnit.SECONDS);
+			});
+		}
+
+		IterationReport report = iteration.await();
+
+		assertEquals(JobStatus.SUCCEEDED, report.getStatus("a"));
+		assertEquals(JobStatus.SUCCEEDED, report.getStatus("b"));
+	}
+
+	@Test
+	public void testFailureSkipsDependents() {
+		JobEngine engine = new JobEngine(2);
+
+		JobEngine.Iteration iteration = engine.newIteration();
+
+		Job<Void> failing = iteration.submit("failing", 10000, () -> {
+			throw new RuntimeException("Expected failure");
+		});
+		iteration.submit("dependent", 10000, () -> {
+		}, failing);
+		iteration.submit("independent", 10000, () -> {
+		});
+
+		IterationReport report = iteration.await();
+
+		assertEquals(JobStatus.FAILED, report.getStatus("failing"));
+		assertEquals(JobStatus.SKIPPED, report.getStatus("dependent"));
+		assertEquals(JobStatus.SUCCEEDED, report.getStatus("independent"));
+		assertTrue(report.hasFailures());
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		JobEngine engine = new JobEngine(2);
+
+		CountDownLatch release = new CountDownLatch(1);
+
+		JobEngine.Iteration iteration = engine.newIteration();
+
+		// Ignores the interrupt, and so keeps running after it times out
+		Job<Void> slow = iteration.submit("slow", 100, () -> {
+			while (true) {
+				try {
+					release.await();
+					return;
+				} catch (InterruptedException e) {
+					/* ignore */
+				}
+			}
+		});
+		iteration.submit("dependent", 10000, () -> {
+		}, slow);
+
+		IterationReport report = iteration.await();
+
+		assertEquals(JobStatus.TIMED_OUT, report.getStatus("slow"));
+		assertEquals(JobStatus.SKIPPED, report.getStatus("dependent"));
+		assertTrue(report.getIterationTimeInMsecs() < 5000);
+
+		// The next iteration does not run a second copy of the job that is still running
+		iteration = engine.newIteration();
+		iteration.submit("slow", 10000, () -> {
+		});
+		assertEquals(JobStatus.SKIPPED, iteration.await().getStatus("slow"));
+
+		release.countDown();
+
+		// Once it has ended, the job runs again
+		long expireTime = System.currentTimeMillis() + 5000;
+		JobStatus status;
+		do {
+			Thread.sleep(10);
+			iteration = engine.newIteration();
+			iteration.submit("slow", 10000, () -> {
+			});
+			status = iteration.await().getStatus("slow");
+		} while (status == JobStatus.SKIPPED && System.currentTimeMillis() < expireTime);
+
+		assertEquals(JobStatus.SUCCEEDED, status);
+	}
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.codewind.ghbot.db.SharedFileKVStore;
+import org.junit.Test;
+
+/**
+ * Verify that two LeaseManager instances on the same store divide the
+ * repositories between them, that each singleton job is owned by only one of
+ * them, and that the survivor takes over when the other stops renewing.
+ */
+public class LeaseManagerTest {
+
+	private static final long LEASE_DURATION = 30 * 1000;
+
+	private static final List<String> REPOS = Arrays.asList("eclipse/codewind", "eclipse/codewind-docs",
+			"eclipse/codewind-eclipse", "eclipse/codewind-vscode", "eclipse/codewind-che-plugin",
+			"eclipse/codewind-installer");
+
+	private static final List<String> SINGLETONS = Arrays.asList("statistics-report", "zenhub-job");
+
+	@Test
+	public void testRepositoriesArePartitioned() throws IOException {
+		File dir = Files.createTempDirectory("lease-manager").toFile();
+
+		LeaseManager a = new LeaseManager(new SharedFileKVStore(dir), "a", REPOS, SINGLETONS, LEASE_DURATION);
+		LeaseManager b = new LeaseManager(new SharedFileKVStore(dir), "b", REPOS, SINGLETONS, LEASE_DURATION);
+
+		long now = 1_000_000;
+
+		// 'a' starts first, and so takes everything
+		a.renew(now);
+		assertEquals(REPOS.size(), countOwned(a, now));
+
+		// 'b' joins: 'a' releases half of the repositories, which 'b' acquires
+		b.renew(now);
+		assertEquals(0, countOwned(b, now));
+		a.renew(now + 1);
+		b.renew(now + 2);
+
+		assertPartitioned(a, b, now + 3);
+
+		// Repositories that are not listed belong to exactly one instance
+		assertTrue(a.ownsRepository("eclipse/other", now + 3) ^ b.ownsRepository("eclipse/other", now + 3));
+
+		// Singleton jobs are not moved while their owner is alive
+		for (String singleton : SINGLETONS) {
+			assertTrue(a.ownsSingleton(singleton, now + 3));
+			assertFalse(b.ownsSingleton(singleton, now + 3));
+		}
+	}
+
+	@Test
+	public void testFailover() throws IOException {
+		File dir = Files.createTempDirectory("lease-manager").toFile();
+
+		LeaseManager a = new LeaseManager(new SharedFileKVStore(dir), "a", REPOS, SINGLETONS, LEASE_DURATION);
+		LeaseManager b = new LeaseManager(new SharedFileKVStore(dir), "b", REPOS, SINGLETONS, LEASE_DURATION);
+
+		Set<String> acquiredByB = new HashSet<>();
+		b.addAcquisitionListener(acquiredByB::addAll);
+
+		long now = 1_000_000;
+		a.renew(now);
+		b.renew(now);
+		a.renew(now + 1);
+		b.renew(now + 2);
+		assertPartitioned(a, b, now + 3);
+
+		// 'a' dies: it stops using its leases before they expire
+		long later = now + 1 + LEASE_DURATION - LEASE_DURATION / 5;
+		assertEquals(0, countOwned(a, later));
+
+		// ... and once they have expired, 'b' takes over all repositories and jobs
+		b.renew(now + LEASE_DURATION + 2);
+		assertEquals(REPOS.size(), countOwned(b, now + LEASE_DURATION + 3));
+		for (String singleton : SINGLETONS) {
+			assertTrue(b.ownsSingleton(singleton, now + LEASE_DURATION + 3));
+			assertTrue(acquiredByB.contains(singleton));
+		}
+
+		// The listener is told of every lease acquired after the first renewal
+		assertEquals(REPOS.size() + SINGLETONS.size(), acquiredByB.size());
+	}
+
+	@Test
+	public void testReleaseGuardAndStop() throws IOException {
+		File dir = Files.createTempDirectory("lease-manager").toFile();
+
+		LeaseManager a = new LeaseManager(new SharedFileKVStore(dir), "a", REPOS, SINGLETONS, LEASE_DURATION);
+		LeaseManager b = new LeaseManager(new SharedFileKVStore(dir), "b", REPOS, SINGLETONS, LEASE_DURATION);
+
+		// 'a' still has work queued for every repository, so it does not release any
+		a.setReleaseGuard(e -> false);
+
+		long now = 1_000_000;
+		a.renew(now);
+		b.renew(now);
+		a.renew(now + 1);
+		b.renew(now + 2);
+		assertEquals(REPOS.size(), countOwned(a, now + 3));
+		assertEquals(0, countOwned(b, now + 3));
+
+		// Once 'a' stops, 'b' acquires everything without waiting for expiry
+		a.stop();
+		b.renew(now + 4);
+		assertEquals(REPOS.size(), countOwned(b, now + 5));
+		assertTrue(b.ownsSingleton("statistics-report", now + 5));
+	}
+
+	private static void assertPartitioned(LeaseManager a, LeaseManager b, long now) {
+		for (String repo : REPOS) {
+			assertTrue(repo, a.ownsRepository(repo, now) ^ b.ownsRepository(repo, now));
+		}
+		assertEquals(REPOS.size() / 2, countOwned(a, now));
+		assertEquals(REPOS.size() / 2, countOwned(b, now));
+	}
+
+	private static int countOwned(LeaseManager leases, long now) {
+		return (int) REPOS.stream().filter(e -> leases.ownsRepository(e, now)).count();
+	}
+}
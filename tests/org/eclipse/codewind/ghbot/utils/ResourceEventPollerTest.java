@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+
+import org.eclipse.codewind.ghbot.db.ExpiringKVStore;
+import org.eclipse.codewind.ghbot.db.FileKVStore;
+import org.eclipse.codewind.ghbot.db.GHDatabase;
+import org.junit.Test;
+
+import com.githubapimirror.shared.json.ResourceChangeEventJson;
+
+/**
+ * Verify that ResourceEventPoller requests only the events since its cursor
+ * (less the overlap), except when reconciling, and that events already seen
+ * in the overlap are not returned again.
+ */
+public class ResourceEventPollerTest {
+
+	private static final long OVERLAP = 60 * 1000;
+
+	private static final long RECONCILIATION_INTERVAL = 60 * 60 * 1000;
+
+	private static final long NOW = 30l * 24 * 60 * 60 * 1000;
+
+	@Test
+	public void testCursor() throws IOException {
+		ResourceEventPoller poller = new ResourceEventPoller(newDatabase(), "", OVERLAP, RECONCILIATION_INTERVAL);
+
+		FakeGham gham = new FakeGham();
+		gham.events.add(event("1", "codewind", NOW - 5000));
+		gham.events.add(event("2", "codewind", NOW - 2000));
+
+		// The first poll has no cursor, so reads the full window
+		assertEquals(Arrays.asList("1", "2"), uuids(poller.poll(gham, e -> true, NOW)));
+		assertEquals(NOW - ResourceEventPoller.RECONCILIATION_WINDOW_IN_MSECS, (long) gham.lastSince);
+
+		// Later polls start at the newest event, less the overlap; event 2 is in the
+		// overlap, but is not returned again
+		gham.events.add(event("3", "codewind", NOW + 1000));
+		assertEquals(Arrays.asList("3"), uuids(poller.poll(gham, e -> true, NOW + 2000)));
+		assertEquals(NOW - 2000 - OVERLAP, (long) gham.lastSince);
+
+		assertEquals(Arrays.asList(), uuids(poller.poll(gham, e -> true, NOW + 3000)));
+		assertEquals(NOW + 1000 - OVERLAP, (long) gham.lastSince);
+
+		assertEquals(3, poller.getStatistics().getPolls());
+		assertEquals(1, poller.getStatistics().getReconciliations());
+		assertEquals(NOW + 1000, (long) poller.getStatistics().getCursor());
+	}
+
+	@Test
+	public void testReconciliation() throws IOException {
+		ResourceEventPoller poller = new ResourceEventPoller(newDatabase(), "a", OVERLAP, RECONCILIATION_INTERVAL);
+
+		FakeGham gham = new FakeGham();
+		gham.events.add(event("1", "codewind", NOW - 5000));
+
+		poller.poll(gham, e -> true, NOW);
+		poller.poll(gham, e -> true, NOW + 1000);
+		assertEquals(NOW - 5000 - OVERLAP, (long) gham.lastSince);
+
+		// Periodically
+		poller.poll(gham, e -> true, NOW + RECONCILIATION_INTERVAL);
+		assertEquals(NOW + RECONCILIATION_INTERVAL - ResourceEventPoller.RECONCILIATION_WINDOW_IN_MSECS,
+				(long) gham.lastSince);
+
+		// On request
+		poller.requestReconciliation();
+		poller.poll(gham, e -> true, NOW + RECONCILIATION_INTERVAL + 1000);
+		assertEquals(NOW + RECONCILIATION_INTERVAL + 1000 - ResourceEventPoller.RECONCILIATION_WINDOW_IN_MSECS,
+				(long) gham.lastSince);
+
+		poller.poll(gham, e -> true, NOW + RECONCILIATION_INTERVAL + 2000);
+		assertEquals(NOW - 5000 - OVERLAP, (long) gham.lastSince);
+		assertEquals(3, poller.getStatistics().getReconciliations());
+	}
+
+	@Test
+	public void testEventsOfOtherRepositoriesAreNotClaimed() throws IOException {
+		GHDatabase db = newDatabase();
+
+		FakeGham gham = new FakeGham();
+		gham.events.add(event("1", "codewind", NOW - 5000));
+		gham.events.add(event("2", "codewind-docs", NOW - 4000));
+
+		ResourceEventPoller a = new ResourceEventPoller(db, "a", OVERLAP, RECONCILIATION_INTERVAL);
+		assertEquals(Arrays.asList("1"), uuids(a.poll(gham, e -> e.equals("eclipse/codewind"), NOW)));
+
+		// Another instance, which owns the other repository, still sees its event
+		ResourceEventPoller b = new ResourceEventPoller(db, "b", OVERLAP, RECONCILIATION_INTERVAL);
+		assertEquals(Arrays.asList("2"), uuids(b.poll(gham, e -> true, NOW)));
+	}
+
+	private static GHDatabase newDatabase() throws IOException {
+		File dir = Files.createTempDirectory("resource-event-poller").toFile();
+		return new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100));
+	}
+
+	private static ResourceChangeEventJson event(String uuid, String repo, long time) {
+		ResourceChangeEventJson result = new ResourceChangeEventJson();
+		result.setUuid(uuid);
+		result.setOwner("eclipse");
+		result.setRepo(repo);
+		result.setIssueNumber(1);
+		result.setTime(time);
+		return result;
+	}
+
+	private static List<String> uuids(List<ResourceChangeEventJson> events) {
+		return events.stream().map(ResourceChangeEventJson::getUuid).collect(Collectors.toList());
+	}
+
+	/** Returns the events at or after the requested time, and records the time. */
+	private static class FakeGham implements LongFunction<List<ResourceChangeEventJson>> {
+
+		private final List<ResourceChangeEventJson> events = new ArrayList<>();
+
+		private Long lastSince;
+
+		@Override
+		public List<ResourceChangeEventJson> apply(long since) {
+			lastSince = since;
+			return events.stream().filter(e -> e.getTime() >= since).collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.codewind.ghbot.utils.ShardedPipeline.ShardStatistics;
+import org.junit.Test;
+
+/**
+ * Verify that work within a shard runs in order and one at a time, that a
+ * blocked shard does not delay the others, and that queue depth is reported.
+ */
+public class ShardedPipelineTest {
+
+	@Test
+	public void testOrderWithinShard() throws InterruptedException {
+		ShardedPipeline pipeline = new ShardedPipeline(4);
+
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		AtomicInteger running = new AtomicInteger(0);
+		AtomicInteger maxRunning = new AtomicInteger(0);
+
+		for (int x = 0; x < 200; x++) {
+			int value = x;
+			pipeline.submit("codewind", () -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				order.add(value);
+				running.decrementAndGet();
+			});
+		}
+
+		assertTrue(pipeline.awaitIdle(10000));
+
+		assertEquals(200, order.size());
+		for (int x = 0; x < order.size(); x++) {
+			assertEquals(x, (int) order.get(x));
+		}
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void testBlockedShardDoesNotDelayOthers() throws InterruptedException {
+		ShardedPipeline pipeline = new ShardedPipeline(2);
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		// A busy repository, with a backlog behind work that does not complete
+		for (int x = 0; x < 5; x++) {
+			pipeline.submit("codewind", () -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		}
+
+		CountDownLatch othersDone = new CountDownLatch(40);
+		for (int x = 0; x < 20; x++) {
+			pipeline.submit("codewind-docs", othersDone::countDown);
+			pipeline.submit("codewind-vscode", othersDone::countDown);
+		}
+
+		assertTrue(othersDone.await(10, TimeUnit.SECONDS));
+
+		// The other thread may have processed the other shards before this one started
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		ShardStatistics codewind = pipeline.getStatistics().stream().filter(e -> e.getName().equals("codewind"))
+				.findFirst().get();
+		assertEquals(4, codewind.getQueued());
+		assertEquals(0, codewind.getProcessed());
+
+		assertTrue(!pipeline.awaitIdle(50));
+
+		release.countDown();
+		assertTrue(pipeline.awaitIdle(10000));
+
+		for (ShardStatistics stats : pipeline.getStatistics()) {
+			assertEquals(0, stats.getQueued());
+			assertEquals(0, stats.getFailures());
+		}
+	}
+
+	@Test
+	public void testFailureDoesNotStopShard() throws InterruptedException {
+		ShardedPipeline pipeline = new ShardedPipeline(1);
+
+		AtomicInteger completed = new AtomicInteger(0);
+
+		pipeline.submit("codewind", () -> {
+			throw new RuntimeException("Expected failure");
+		});
+		pipeline.submit("codewind", completed::incrementAndGet);
+
+		assertTrue(pipeline.awaitIdle(10000));
+
+		assertEquals(1, completed.get());
+		assertEquals(1, pipeline.getStatistics().get(0).getFailures());
+		assertEquals(2, pipeline.getStatistics().get(0).getProcessed());
+	}
+}
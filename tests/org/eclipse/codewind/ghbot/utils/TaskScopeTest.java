@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.codewind.ghbot.utils.ThreadMode.ConcurrencyLimitedExecutor;
+import org.junit.Test;
+
+/**
+ * Verify that TaskScope returns results in fork order and cancels the remaining
+ * subtasks on failure, and that the executors of each ThreadMode limit
+ * concurrency.
+ */
+public class TaskScopeTest {
+
+	@Test
+	public void testResultsInForkOrder() {
+		ExecutorService executor = ThreadMode.PLATFORM.newExecutor("test", 4);
+
+		try (TaskScope<Integer> scope = new TaskScope<>(executor)) {
+			for (int x = 0; x < 5; x++) {
+				int value = x;
+				scope.fork(() -> {
+					// Later subtasks complete first
+					Thread.sleep(50 - value * 10);
+					return value;
+				});
+			}
+			assertEquals(Arrays.asList(0, 1, 2, 3, 4), scope.join());
+		}
+	}
+
+	@Test
+	public void testFailureCancelsOtherSubtasks() throws InterruptedException {
+		ExecutorService executor = ThreadMode.PLATFORM.newExecutor("test", 4);
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+
+		try (TaskScope<Integer> scope = new TaskScope<>(executor)) {
+			scope.fork(() -> {
+				// Fail only once the other subtask is running, so that it is interrupted
+				// rather than cancelled before it starts
+				started.await();
+				throw new IllegalStateException("Expected failure");
+			});
+			scope.fork(() -> {
+				started.countDown();
+				try {
+					Thread.sleep(60 * 1000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return 1;
+			});
+
+			scope.join();
+			throw new AssertionError("join() should throw");
+
+		} catch (IllegalStateException e) {
+			assertEquals("Expected failure", e.getMessage());
+		}
+
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testConcurrencyLimit() throws InterruptedException {
+		// Virtual threads may not be available on this JDK, so test the limit with
+		// platform threads
+		ExecutorService[] executors = new ExecutorService[] { ThreadMode.PLATFORM.newExecutor("test", 3),
+				ThreadMode.VIRTUAL.newExecutor("test", 3),
+				new ConcurrencyLimitedExecutor(Executors.defaultThreadFactory(), 3) };
+
+		for (ExecutorService executor : executors) {
+			AtomicInteger running = new AtomicInteger(0);
+			AtomicInteger maxRunning = new AtomicInteger(0);
+
+			try (TaskScope<Void> scope = new TaskScope<>(executor)) {
+				for (int x = 0; x < 30; x++) {
+					scope.fork(() -> {
+						maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+						Thread.sleep(5);
+						running.decrementAndGet();
+						return null;
+					});
+				}
+				scope.join();
+			}
+
+			assertTrue("" + maxRunning.get(), maxRunning.get() <= 3);
+
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+}
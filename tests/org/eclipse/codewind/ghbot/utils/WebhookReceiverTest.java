@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.ghbot.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.eclipse.codewind.ghbot.db.ExpiringKVStore;
+import org.eclipse.codewind.ghbot.db.FileKVStore;
+import org.eclipse.codewind.ghbot.db.GHDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.githubapimirror.shared.json.ResourceChangeEventJson;
+
+/**
+ * Post payloads to a WebhookReceiver on localhost, and verify that signed
+ * payloads are queued exactly once, and that unsigned, duplicate and unrelated
+ * payloads are not.
+ */
+public class WebhookReceiverTest {
+
+	private static final String SECRET = "test-secret";
+
+	private GHDatabase db;
+
+	private WebhookReceiver receiver;
+
+	@Before
+	public void setUp() throws IOException {
+		File dir = Files.createTempDirectory("webhook-receiver").toFile();
+		db = new GHDatabase(new ExpiringKVStore(new FileKVStore(dir), 0, 100));
+
+		receiver = new WebhookReceiver("127.0.0.1", 0, "/webhook", SECRET, 10, db);
+		receiver.start();
+	}
+
+	@After
+	public void tearDown() {
+		receiver.stop();
+	}
+
+	@Test
+	public void testGitHubDelivery() throws Exception {
+		String payload = "{\"action\":\"opened\",\"issue\":{\"number\":42},"
+				+ "\"repository\":{\"name\":\"codewind\",\"owner\":{\"login\":\"eclipse\"}}}";
+
+		assertEquals(202, post(payload, "issues", "delivery-1", true));
+
+		// Redelivery of the same payload
+		assertEquals(200, post(payload, "issues", "delivery-1", true));
+
+		List<ResourceChangeEventJson> events = receiver.drainEvents();
+		assertEquals(1, events.size());
+		assertEquals("eclipse", events.get(0).getOwner());
+		assertEquals("codewind", events.get(0).getRepo());
+		assertEquals(42, events.get(0).getIssueNumber());
+
+		assertTrue(receiver.drainEvents().isEmpty());
+
+		// Events that do not affect issues are ignored
+		assertEquals(200, post("{\"zen\":\"Keep it simple\"}", "ping", "delivery-2", true));
+		assertTrue(receiver.drainEvents().isEmpty());
+	}
+
+	@Test
+	public void testGhamEventsAreDeduplicatedWithPoll() throws Exception {
+		// Already seen by a poll
+		assertTrue(db.claimResourceEvent("uuid-1"));
+
+		String payload = "[{\"uuid\":\"uuid-1\",\"owner\":\"eclipse\",\"repo\":\"codewind\",\"issueNumber\":1,\"time\":1},"
+				+ "{\"uuid\":\"uuid-2\",\"owner\":\"eclipse\",\"repo\":\"codewind\",\"issueNumber\":2,\"time\":2}]";
+
+		assertEquals(202, post(payload, null, null, true));
+
+		List<ResourceChangeEventJson> events = receiver.drainEvents();
+		assertEquals(1, events.size());
+		assertEquals("uuid-2", events.get(0).getUuid());
+
+		// ... and a later poll does not see it again
+		assertTrue(!db.claimResourceEvent("uuid-2"));
+	}
+
+	@Test
+	public void testRejectedPayloads() throws Exception {
+		String payload = "{\"action\":\"opened\",\"issue\":{\"number\":42},"
+				+ "\"repository\":{\"name\":\"codewind\",\"owner\":{\"login\":\"eclipse\"}}}";
+
+		assertEquals(401, post(payload, "issues", "delivery-1", false));
+
+		assertEquals(400, post("not json", "issues", "delivery-2", true));
+
+		assertTrue(receiver.drainEvents().isEmpty());
+
+		// A rejected delivery is not recorded as processed, so it may be retried
+		assertEquals(202, post(payload, "issues", "delivery-1", true));
+	}
+
+	@Test
+	public void testAwaitEvents() throws Exception {
+		long startTime = System.currentTimeMillis();
+		receiver.awaitEvents(100);
+		assertTrue(System.currentTimeMillis() - startTime >= 90);
+
+		new Thread(() -> {
+			try {
+				Thread.sleep(100);
+				post("{\"uuid\":\"uuid-3\",\"owner\":\"eclipse\",\"repo\":\"codewind\",\"issueNumber\":3}", null,
+						null, true);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}).start();
+
+		startTime = System.currentTimeMillis();
+		receiver.awaitEvents(10000);
+		assertTrue(System.currentTimeMillis() - startTime < 10000);
+		assertEquals(1, receiver.drainEvents().size());
+	}
+
+	private int post(String payload, String githubEvent, String deliveryId, boolean sign) throws Exception {
+		byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://127.0.0.1:" + receiver.getPort() + "/webhook").openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+
+		if (githubEvent != null) {
+			connection.setRequestProperty("X-GitHub-Event", githubEvent);
+			connection.setRequestProperty("X-GitHub-Delivery", deliveryId);
+		}
+
+		String signature = receiver.sign("HmacSHA256", body);
+		if (!sign) {
+			signature = signature.replace(signature.charAt(0), signature.charAt(0) == 'a' ? 'b' : 'a');
+		}
+		connection.setRequestProperty("X-Hub-Signature-256", "sha256=" + signature);
+
+		try (OutputStream os = connection.getOutputStream()) {
+			os.write(body);
+		}
+
+		int status = connection.getResponseCode();
+		connection.disconnect();
+		return status;
+	}
+}